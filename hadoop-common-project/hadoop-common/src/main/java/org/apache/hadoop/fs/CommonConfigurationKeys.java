@@ -39,6 +39,10 @@ public class CommonConfigurationKeys extends CommonConfigurationKeysPublic {
   public static final String  FS_HOME_DIR_KEY = "fs.homeDir";
   /** Default value for FS_HOME_DIR_KEY */
   public static final String  FS_HOME_DIR_DEFAULT = "/user";
+  /** Number of directories a glob lists at the same time */
+  public static final String  FS_GLOB_THREADS_KEY = "fs.glob.threads";
+  /** Default value for FS_GLOB_THREADS_KEY */
+  public static final int     FS_GLOB_THREADS_DEFAULT = 1;
   /** Default umask for files created in HDFS */
   public static final String  FS_PERMISSIONS_UMASK_KEY =
     "fs.permissions.umask-mode";
@@ -59,6 +59,10 @@ public class CommonConfigurationKeysPublic {
   /** Default value for FS_DU_INTERVAL_KEY */
   public static final long    FS_DU_INTERVAL_DEFAULT = 600000;
   /** See <a href="{@docRoot}/../core-default.html">core-default.xml</a> */
+  public static final String  FS_DU_WALK_THREADS_KEY = "fs.du.walk.threads";
+  /** Default value for FS_DU_WALK_THREADS_KEY */
+  public static final int     FS_DU_WALK_THREADS_DEFAULT = 0;
+  /** See <a href="{@docRoot}/../core-default.html">core-default.xml</a> */
   public static final String  FS_CLIENT_RESOLVE_REMOTE_SYMLINKS_KEY =
     "fs.client.resolve.remote.symlinks";
   /** Default value for FS_CLIENT_RESOLVE_REMOTE_SYMLINKS_KEY */
@@ -130,11 +134,31 @@ public class CommonConfigurationKeysPublic {
   /** Default value for IO_MAP_INDEX_SKIP_KEY */
   public static final int     IO_MAP_INDEX_SKIP_DEFAULT = 0;
   /** See <a href="{@docRoot}/../core-default.html">core-default.xml</a> */
+  public static final String  IO_MAP_INDEX_BINARY_KEY = "io.map.index.binary";
+  /** Default value for IO_MAP_INDEX_BINARY_KEY */
+  public static final boolean IO_MAP_INDEX_BINARY_DEFAULT = false;
+  /** See <a href="{@docRoot}/../core-default.html">core-default.xml</a> */
   public static final String  IO_SEQFILE_COMPRESS_BLOCKSIZE_KEY =
     "io.seqfile.compress.blocksize";
   /** Default value for IO_SEQFILE_COMPRESS_BLOCKSIZE_KEY */
   public static final int     IO_SEQFILE_COMPRESS_BLOCKSIZE_DEFAULT = 1000000;
   /** See <a href="{@docRoot}/../core-default.html">core-default.xml</a> */
+  public static final String  IO_SEQFILE_COMPRESS_THREADS_KEY =
+    "io.seqfile.compress.threads";
+  /** Default value for IO_SEQFILE_COMPRESS_THREADS_KEY */
+  public static final int     IO_SEQFILE_COMPRESS_THREADS_DEFAULT = 0;
+  /** See <a href="{@docRoot}/../core-default.html">core-default.xml</a> */
+  public static final String  IO_SEQFILE_PREFETCH_BLOCKS_KEY =
+    "io.seqfile.prefetch.blocks";
+  /** Default value for IO_SEQFILE_PREFETCH_BLOCKS_KEY */
+  public static final int     IO_SEQFILE_PREFETCH_BLOCKS_DEFAULT = 0;
+  /** See <a href="{@docRoot}/../core-default.html">core-default.xml</a> */
+  public static final String  IO_SEQFILE_PREFETCH_BYTES_KEY =
+    "io.seqfile.prefetch.bytes";
+  /** Default value for IO_SEQFILE_PREFETCH_BYTES_KEY */
+  public static final long    IO_SEQFILE_PREFETCH_BYTES_DEFAULT =
+    64 * 1024 * 1024;
+  /** See <a href="{@docRoot}/../core-default.html">core-default.xml</a> */
   public static final String  IO_FILE_BUFFER_SIZE_KEY =
     "io.file.buffer.size";
   /** Default value for IO_FILE_BUFFER_SIZE_KEY */
@@ -23,12 +23,27 @@
 import org.apache.hadoop.fs.CommonConfigurationKeys;
 import org.apache.hadoop.util.Shell;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
-/** Filesystem disk space usage statistics.  Uses the unix 'du' program*/
+/**
+ * Filesystem disk space usage statistics.  Uses the unix 'du' program, or
+ * walks the directory tree in process if
+ * {@link CommonConfigurationKeys#FS_DU_WALK_THREADS_KEY} is set.  The walk
+ * sums the lengths of the files, not the blocks allocated to them as du
+ * does, so it does not count the rounding up to whole file system blocks
+ * and counts the holes of sparse files.
+ */
 @InterfaceAudience.LimitedPrivate({"HDFS", "MapReduce"})
 @InterfaceStability.Evolving
 public class DU extends Shell {
@@ -39,6 +54,7 @@ public class DU extends Shell {
   private Thread refreshUsed;
   private IOException duException = null;
   private long refreshInterval;
+  private final int walkThreads;
   
   /**
    * Keeps track of disk usage.
@@ -58,11 +74,26 @@ public DU(File path, long interval) throws IOException {
    * @throws IOException if we fail to refresh the disk usage
    */
   public DU(File path, long interval, long initialUsed) throws IOException { 
+    this(path, interval, 0, initialUsed);
+  }
+
+  /**
+   * Keeps track of disk usage.
+   * @param path the path to check disk usage in
+   * @param interval refresh the disk usage at this interval
+   * @param walkThreads walk the directory tree with this many threads
+   *                    instead of running du, if positive
+   * @param initialUsed use this value until next refresh
+   * @throws IOException if we fail to refresh the disk usage
+   */
+  private DU(File path, long interval, int walkThreads, long initialUsed)
+      throws IOException {
     super(0);
 
     //we set the Shell interval to 0 so it will always run our command
     //and use this one to set the thread sleep interval
     this.refreshInterval = interval;
+    this.walkThreads = walkThreads;
     this.dirPath = path.getCanonicalPath();
 
     //populate the used variable if the initial value is not specified.
@@ -93,7 +124,10 @@ public DU(File path, Configuration conf) throws IOException {
   public DU(File path, Configuration conf, long initialUsed)
       throws IOException {
     this(path, conf.getLong(CommonConfigurationKeys.FS_DU_INTERVAL_KEY,
-                CommonConfigurationKeys.FS_DU_INTERVAL_DEFAULT), initialUsed);
+                CommonConfigurationKeys.FS_DU_INTERVAL_DEFAULT),
+        conf.getInt(CommonConfigurationKeys.FS_DU_WALK_THREADS_KEY,
+                CommonConfigurationKeys.FS_DU_WALK_THREADS_DEFAULT),
+        initialUsed);
   }
     
   
@@ -183,6 +217,10 @@ public String getDirPath() {
    */
   @Override
   protected void run() throws IOException {
+    if (walkThreads > 0) {
+      used.set(walk());
+      return;
+    }
     if (WINDOWS) {
       used.set(DUHelper.getFolderUsage(dirPath));
       return;
@@ -190,6 +228,103 @@ protected void run() throws IOException {
     super.run();
   }
   
+  /**
+   * Measure the disk usage by walking the directory tree.  Files and
+   * directories count with their length rather than their allocated
+   * blocks, and symbolic links are not followed, like du.
+   */
+  private long walk() throws IOException {
+    File root = new File(dirPath);
+    if (!root.isDirectory()) {
+      if (!root.exists()) {
+        throw new FileNotFoundException(dirPath);
+      }
+      return root.length();
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(walkThreads,
+        new ThreadFactoryBuilder().setDaemon(true)
+            .setNameFormat("DU walker for " + dirPath + " #%d").build());
+    try {
+      return new TreeWalk(executor).sum(root);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /** Sums up the length of a tree, listing its directories in parallel. */
+  private static class TreeWalk {
+    private final ExecutorService executor;
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile IOException error;
+
+    TreeWalk(ExecutorService executor) {
+      this.executor = executor;
+    }
+
+    long sum(File root) throws IOException {
+      submit(root);
+      try {
+        done.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while walking " + root);
+      }
+      if (error != null) {
+        throw error;
+      }
+      return total.get();
+    }
+
+    private void submit(final File dir) {
+      pending.incrementAndGet();
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            list(dir);
+          } catch (IOException e) {
+            error = e;
+          } finally {
+            if (pending.decrementAndGet() == 0) {
+              done.countDown();
+            }
+          }
+        }
+      });
+    }
+
+    /**
+     * Add up a directory and its files, and submit its subdirectories.
+     * The directories walked are canonical, since the root is and symbolic
+     * links are skipped, so a child is a link exactly if its canonical path
+     * differs from its path.  This resolves each child once, where
+     * FileUtils#isSymlink would also canonicalize its parent every time.
+     */
+    private void list(File dir) throws IOException {
+      total.addAndGet(dir.length());
+      File[] children = dir.listFiles();
+      if (children == null) {
+        // blocks and their directories may be deleted while walking
+        if (dir.exists()) {
+          throw new IOException("Cannot list the contents of " + dir);
+        }
+        return;
+      }
+      for (File child : children) {
+        if (!child.getCanonicalPath().equals(child.getPath())) {
+          continue;
+        }
+        if (child.isDirectory()) {
+          submit(child);
+        } else {
+          total.addAndGet(child.length());
+        }
+      }
+    }
+  }
+
   /**
    * Start the disk usage checking thread.
    */
@@ -531,6 +531,13 @@ public Path getWorkingDirectory() {
   public UserGroupInformation getUgi() {
     return ugi;
   }
+
+  /**
+   * Gets the configuration this file-context was created with.
+   */
+  Configuration getConf() {
+    return conf;
+  }
   
   /**
    * Return the current user's home directory in this file system.
@@ -20,14 +20,15 @@
 import java.io.Closeable;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.lang.ref.WeakReference;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.security.PrivilegedExceptionAction;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -38,6 +39,9 @@
 import java.util.Set;
 import java.util.Stack;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
@@ -65,6 +69,7 @@
 import org.apache.hadoop.util.ShutdownHookManager;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.SettableFuture;
 
 /****************************************************************
  * An abstract base class for a fairly generic filesystem.  It
@@ -1640,6 +1645,26 @@ public FileStatus[] globStatus(Path pathPattern, PathFilter filter)
       throws IOException {
     return new Globber(this, pathPattern, filter).glob();
   }
+
+  /**
+   * Return a RemoteIterator over the FileStatus objects whose path names
+   * match {@code pathPattern} and are accepted by the user-supplied path
+   * filter.  The matches are the same, and come in the same order, as those
+   * of {@link #globStatus(Path, PathFilter)}, but they are returned as soon
+   * as the directory holding them has been listed.  Up to
+   * {@value CommonConfigurationKeys#FS_GLOB_THREADS_KEY} directories are
+   * listed at the same time.
+   *
+   * @param pathPattern a regular expression specifying the path pattern
+   * @param filter a user-supplied path filter
+   * @return an iterator over the matching {@link FileStatus} objects, which
+   *         is empty if nothing matches the pattern
+   * @throws IOException if any I/O error occurs when fetching file status
+   */
+  public RemoteIterator<FileStatus> globStatusIterator(Path pathPattern,
+      PathFilter filter) throws IOException {
+    return new Globber(this, pathPattern, filter).globIterator();
+  }
   
   /**
    * List the statuses of the files/directories in the given path if the path is
@@ -2401,8 +2426,31 @@ private static FileSystem createFileSystem(URI uri, Configuration conf
   static class Cache {
     private final ClientFinalizer clientFinalizer = new ClientFinalizer();
 
-    private final Map<Key, FileSystem> map = new HashMap<Key, FileSystem>();
-    private final Set<Key> toAutoClose = new HashSet<Key>();
+    /**
+     * The cached file systems. Lookups do not take the cache lock; insertions
+     * are made under it so that the shutdown hook is registered consistently.
+     */
+    private final ConcurrentMap<Key, FileSystem> map =
+        new ConcurrentHashMap<Key, FileSystem>();
+    private final Set<Key> toAutoClose =
+        Collections.newSetFromMap(new ConcurrentHashMap<Key, Boolean>());
+    /**
+     * File systems being created, so that concurrent lookups of the same key
+     * wait for a single instance to be created instead of each creating and
+     * closing their own.
+     */
+    private final ConcurrentMap<Key, Creation> creating =
+        new ConcurrentHashMap<Key, Creation>();
+
+    /** The creation each thread waits for, guarded by itself */
+    private final Map<Thread, Creation> waiting =
+        new HashMap<Thread, Creation>();
+
+    /** A file system being created by a thread. */
+    private static class Creation {
+      final Thread creator = Thread.currentThread();
+      final SettableFuture<FileSystem> future = SettableFuture.create();
+    }
 
     /** A variable that makes all objects in the cache unique */
     private static AtomicLong unique = new AtomicLong(1);
@@ -2419,41 +2467,115 @@ FileSystem getUnique(URI uri, Configuration conf) throws IOException{
     }
 
     private FileSystem getInternal(URI uri, Configuration conf, Key key) throws IOException{
-      FileSystem fs;
-      synchronized (this) {
-        fs = map.get(key);
-      }
+      FileSystem fs = map.get(key);
       if (fs != null) {
         return fs;
       }
 
-      fs = createFileSystem(uri, conf);
-      synchronized (this) { // refetch the lock again
-        FileSystem oldfs = map.get(key);
-        if (oldfs != null) { // a file system is created while lock is releasing
-          fs.close(); // close the new file system
-          return oldfs;  // return the old file system
+      Creation creation = new Creation();
+      Creation inProgress = creating.putIfAbsent(key, creation);
+      if (inProgress != null) {
+        if (!startWaiting(inProgress)) {
+          // the creator waits for this thread, for example because the file
+          // system being created asks for its own key during initialization,
+          // or for the key of a file system this thread is creating. Waiting
+          // would deadlock, so don't cache it.
+          return createFileSystem(uri, conf);
         }
-        
-        // now insert the new file system into the map
-        if (map.isEmpty()
-                && !ShutdownHookManager.get().isShutdownInProgress()) {
-          ShutdownHookManager.get().addShutdownHook(clientFinalizer, SHUTDOWN_HOOK_PRIORITY);
+        // another thread is creating the file system for this key
+        try {
+          return waitForCreation(key, inProgress.future);
+        } finally {
+          synchronized (waiting) {
+            waiting.remove(Thread.currentThread());
+          }
         }
-        fs.key = key;
-        map.put(key, fs);
-        if (conf.getBoolean("fs.automatic.close", true)) {
-          toAutoClose.add(key);
+      }
+      SettableFuture<FileSystem> future = creation.future;
+      try {
+        // the file system may have been inserted since the first lookup
+        fs = map.get(key);
+        if (fs == null) {
+          // created outside the cache lock since it may be slow
+          fs = createFileSystem(uri, conf);
+          synchronized (this) {
+            if (map.isEmpty()
+                    && !ShutdownHookManager.get().isShutdownInProgress()) {
+              ShutdownHookManager.get().addShutdownHook(clientFinalizer, SHUTDOWN_HOOK_PRIORITY);
+            }
+            fs.key = key;
+            map.put(key, fs);
+            if (conf.getBoolean("fs.automatic.close", true)) {
+              toAutoClose.add(key);
+            }
+          }
         }
+        future.set(fs);
         return fs;
+      } catch (IOException e) {
+        future.setException(e);
+        throw e;
+      } catch (RuntimeException e) {
+        future.setException(e);
+        throw e;
+      } catch (Error e) {
+        future.setException(e);
+        throw e;
+      } finally {
+        creating.remove(key, creation);
       }
     }
 
+    /**
+     * Register the current thread as waiting for a creation, unless the
+     * creator waits for the current thread, directly or through other
+     * threads.
+     * @return false if waiting for the creation would deadlock
+     */
+    private boolean startWaiting(Creation creation) {
+      Thread current = Thread.currentThread();
+      synchronized (waiting) {
+        // no cycle is ever registered, so this walk ends
+        for (Creation c = creation; c != null; c = waiting.get(c.creator)) {
+          if (c.creator == current) {
+            return false;
+          }
+        }
+        waiting.put(current, creation);
+        return true;
+      }
+    }
+
+    /** Wait for another thread to create the file system for a key. */
+    private FileSystem waitForCreation(Key key,
+        SettableFuture<FileSystem> future) throws IOException {
+      try {
+        return future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException(
+            "Interrupted while waiting for the creation of " + key);
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+          throw (IOException) cause;
+        } else if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+          throw (Error) cause;
+        }
+        throw new IOException(cause);
+      }
+    }
+
+    /**
+     * Remove a file system. Synchronized like the insertions, so that an
+     * insertion of the same key cannot interleave with the removal.
+     */
     synchronized void remove(Key key, FileSystem fs) {
-      if (map.containsKey(key) && fs == map.get(key)) {
-        map.remove(key);
+      if (key != null && map.remove(key, fs)) {
         toAutoClose.remove(key);
-        }
+      }
     }
 
     synchronized void closeAll() throws IOException {
@@ -2540,6 +2662,7 @@ static class Key {
       final String authority;
       final UserGroupInformation ugi;
       final long unique;   // an artificial way to make a key unique
+      private final int hash;
 
       Key(URI uri, Configuration conf) throws IOException {
         this(uri, conf, 0);
@@ -2551,11 +2674,13 @@ static class Key {
         this.unique = unique;
         
         this.ugi = UserGroupInformation.getCurrentUser();
+        this.hash = (scheme + authority).hashCode() + ugi.hashCode()
+            + (int)unique;
       }
 
       @Override
       public int hashCode() {
-        return (scheme + authority).hashCode() + ugi.hashCode() + (int)unique;
+        return hash;
       }
 
       static boolean isEqual(Object a, Object b) {
@@ -22,8 +22,15 @@
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.jar.Attributes;
 import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
@@ -41,12 +48,15 @@
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.nativeio.NativeIO;
+import org.apache.hadoop.util.Progressable;
 import org.apache.hadoop.util.StringUtils;
 import org.apache.hadoop.util.Shell;
 import org.apache.hadoop.util.Shell.ShellCommandExecutor;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 /**
  * A collection of file-processing util methods
  */
@@ -338,6 +348,154 @@ public static boolean copy(FileSystem srcFS, Path src,
     return copy(srcFS, fileStatus, dstFS, dst, deleteSource, overwrite, conf);
   }
 
+  /**
+   * Copy files between FileSystems, copying up to <code>threads</code> files
+   * at the same time.  The calling thread walks the source tree and creates
+   * the target directories in order, while the files are copied by a pool
+   * of threads.  If <code>deleteSource</code> is set, the source is deleted
+   * once everything below it has been copied.
+   *
+   * @param threads number of files to copy at the same time
+   * @param progress reported by the copying threads after each file that
+   *                 has been copied; may be null
+   * @return false if the target directory could not be created or the source
+   *         could not be deleted
+   * @throws IOException the first failure of any of the copies
+   */
+  public static boolean copy(FileSystem srcFS, Path src,
+                             FileSystem dstFS, Path dst,
+                             boolean deleteSource,
+                             boolean overwrite,
+                             Configuration conf,
+                             int threads,
+                             Progressable progress) throws IOException {
+    FileStatus srcStatus = srcFS.getFileStatus(src);
+    TreeCopier copier = new TreeCopier(srcFS, dstFS, overwrite, conf,
+        threads, progress);
+    boolean result;
+    try {
+      result = copier.copy(srcStatus, dst);
+      copier.waitForCopies();
+    } finally {
+      copier.close();
+    }
+    if (result && deleteSource) {
+      return srcFS.delete(src, true);
+    }
+    return result;
+  }
+
+  /**
+   * Walks a source tree, handing out the copies of its files to a pool of
+   * threads.  The pool's queue is bounded, so once it is full the walking
+   * thread copies files itself rather than getting too far ahead.
+   */
+  private static class TreeCopier {
+    private final FileSystem srcFS;
+    private final FileSystem dstFS;
+    private final boolean overwrite;
+    private final Configuration conf;
+    private final Progressable progress;
+    private final ThreadPoolExecutor executor;
+    private final LinkedList<Future<Void>> pending =
+        new LinkedList<Future<Void>>();
+
+    TreeCopier(FileSystem srcFS, FileSystem dstFS, boolean overwrite,
+        Configuration conf, int threads, Progressable progress) {
+      this.srcFS = srcFS;
+      this.dstFS = dstFS;
+      this.overwrite = overwrite;
+      this.conf = conf;
+      this.progress = progress;
+      if (threads > 1) {
+        executor = new ThreadPoolExecutor(threads, threads,
+            0, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(threads * 4),
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("FileUtil copy #%d")
+                .build(),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+      } else {
+        executor = null;
+      }
+    }
+
+    boolean copy(FileStatus srcStatus, Path dst) throws IOException {
+      Path src = srcStatus.getPath();
+      dst = checkDest(src.getName(), dstFS, dst, overwrite);
+      if (srcStatus.isDirectory()) {
+        checkDependencies(srcFS, src, dstFS, dst);
+        if (!dstFS.mkdirs(dst)) {
+          return false;
+        }
+        for (FileStatus child : srcFS.listStatus(src)) {
+          copy(child, new Path(dst, child.getPath().getName()));
+        }
+      } else if (executor == null) {
+        copyFile(src, dst);
+      } else {
+        final Path from = src;
+        final Path to = dst;
+        pending.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            copyFile(from, to);
+            return null;
+          }
+        }));
+        // fail early rather than walking the rest of the tree
+        while (!pending.isEmpty() && pending.getFirst().isDone()) {
+          waitFor(pending.removeFirst());
+        }
+      }
+      return true;
+    }
+
+    private void copyFile(Path src, Path dst) throws IOException {
+      InputStream in = null;
+      OutputStream out = null;
+      try {
+        in = srcFS.open(src);
+        out = dstFS.create(dst, overwrite);
+        IOUtils.copyBytes(in, out, conf, true);
+      } catch (IOException e) {
+        IOUtils.closeStream(out);
+        IOUtils.closeStream(in);
+        throw e;
+      }
+      if (progress != null) {
+        progress.progress();
+      }
+    }
+
+    void waitForCopies() throws IOException {
+      while (!pending.isEmpty()) {
+        waitFor(pending.removeFirst());
+      }
+    }
+
+    private void waitFor(Future<Void> copy) throws IOException {
+      try {
+        copy.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while copying");
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+          throw (IOException) cause;
+        }
+        throw new IOException(cause);
+      }
+    }
+
+    void close() {
+      if (executor != null) {
+        executor.shutdownNow();
+      }
+    }
+  }
+
   /** Copy files between FileSystems. */
   public static boolean copy(FileSystem srcFS, FileStatus srcStatus,
                              FileSystem dstFS, Path dst,
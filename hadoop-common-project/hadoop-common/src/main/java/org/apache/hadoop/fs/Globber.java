@@ -19,13 +19,27 @@
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.security.PrivilegedExceptionAction;
 import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.LogFactory;
 import org.apache.commons.logging.Log;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.security.UserGroupInformation;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 @InterfaceAudience.Private
 @InterfaceStability.Unstable
@@ -36,19 +50,40 @@ class Globber {
   private final FileContext fc;
   private final Path pathPattern;
   private final PathFilter filter;
+  /** Maximum number of directories listed at the same time */
+  private final int numThreads;
+  /** The user the glob is run as; worker threads act on its behalf */
+  private final UserGroupInformation ugi;
+  /** Lazily created once a level has more than one directory to list */
+  private ThreadPoolExecutor executor;
+  private boolean sawWildcard = false;
   
-  public Globber(FileSystem fs, Path pathPattern, PathFilter filter) {
+  public Globber(FileSystem fs, Path pathPattern, PathFilter filter)
+      throws IOException {
     this.fs = fs;
     this.fc = null;
     this.pathPattern = pathPattern;
     this.filter = filter;
+    this.numThreads = getNumThreads(fs.getConf());
+    this.ugi = UserGroupInformation.getCurrentUser();
   }
 
-  public Globber(FileContext fc, Path pathPattern, PathFilter filter) {
+  public Globber(FileContext fc, Path pathPattern, PathFilter filter)
+      throws IOException {
     this.fs = null;
     this.fc = fc;
     this.pathPattern = pathPattern;
     this.filter = filter;
+    this.numThreads = getNumThreads(fc.getConf());
+    this.ugi = UserGroupInformation.getCurrentUser();
+  }
+
+  private static int getNumThreads(Configuration conf) {
+    if (conf == null) {
+      return CommonConfigurationKeys.FS_GLOB_THREADS_DEFAULT;
+    }
+    return Math.max(1, conf.getInt(CommonConfigurationKeys.FS_GLOB_THREADS_KEY,
+        CommonConfigurationKeys.FS_GLOB_THREADS_DEFAULT));
   }
 
   private FileStatus getFileStatus(Path path) throws IOException {
@@ -92,6 +127,27 @@ private static String unescapePathComponent(String name) {
     return name.replaceAll("\\\\(.)", "$1");
   }
 
+  /**
+   * Get the literal characters a path component pattern starts with, i.e.
+   * everything up to its first globber metacharacter.  Every name matched by
+   * the pattern starts with this prefix.
+   */
+  private static String getLiteralPrefix(String pattern) {
+    for (int i = 0; i < pattern.length(); i++) {
+      switch (pattern.charAt(i)) {
+      case '*':
+      case '?':
+      case '[':
+      case '{':
+      case '\\':
+        return pattern.substring(0, i);
+      default:
+        break;
+      }
+    }
+    return pattern;
+  }
+
   /**
    * Translate an absolute path into a list of path components.
    * We merge double slashes into a single slash here.
@@ -134,24 +190,140 @@ private String authorityFromPath(Path path) throws IOException {
     return authority ;
   }
 
+  /**
+   * Expand the pattern and return all of the matching paths.
+   *
+   * @return null if the pattern has no glob and the path does not exist, or
+   *         else an array of the matching paths, which may be empty
+   */
   public FileStatus[] glob() throws IOException {
-    // First we get the scheme and authority of the pattern that was passed
-    // in.
-    String scheme = schemeFromPath(pathPattern);
-    String authority = authorityFromPath(pathPattern);
+    GlobIterator iter = new GlobIterator();
+    ArrayList<FileStatus> results = new ArrayList<FileStatus>();
+    try {
+      while (iter.hasNext()) {
+        results.add(iter.next());
+      }
+    } finally {
+      iter.close();
+    }
+    /*
+     * When the input pattern "looks" like just a simple filename, and we
+     * can't find it, we return null rather than an empty array.
+     * This is a special case which the shell relies on.
+     *
+     * To be more precise: if there were no results, AND there were no
+     * groupings (aka brackets), and no wildcards in the input (aka stars),
+     * we return null.
+     */
+    if ((!sawWildcard) && results.isEmpty() &&
+        (iter.flattenedPatterns.size() <= 1)) {
+      return null;
+    }
+    return results.toArray(new FileStatus[0]);
+  }
 
-    // Next we strip off everything except the pathname itself, and expand all
-    // globs.  Expansion is a process which turns "grouping" clauses,
-    // expressed as brackets, into separate path patterns.
-    String pathPatternString = pathPattern.toUri().getPath();
-    List<String> flattenedPatterns = GlobExpander.expand(pathPatternString);
+  /**
+   * Expand the pattern, returning the matching paths as they are found.
+   * The matches are returned in the same order as by {@link #glob()}, but the
+   * caller can start working on the first matches while the directories
+   * holding later ones are still being listed.  Unlike {@link #glob()}, an
+   * empty iterator is returned if a pattern without glob does not exist.
+   */
+  public RemoteIterator<FileStatus> globIterator() throws IOException {
+    return new GlobIterator();
+  }
+
+  /**
+   * Iterates over the matches of all flattened patterns in turn.  All but
+   * the last path component of a flattened pattern are resolved up front;
+   * the directories matched by them are then listed in the background while
+   * the matches of the last component are handed out in order.
+   */
+  private class GlobIterator implements RemoteIterator<FileStatus> {
+    private final String scheme;
+    private final String authority;
+    private final List<String> flattenedPatterns;
+    private int patternIdx = 0;
+    private FileStatus rootPlaceholder;
+    /** Pending expansions of the last path component, in result order */
+    private final LinkedList<FutureTask<List<FileStatus>>> pending =
+        new LinkedList<FutureTask<List<FileStatus>>>();
+    private final LinkedList<FileStatus> ready = new LinkedList<FileStatus>();
+
+    GlobIterator() throws IOException {
+      // First we get the scheme and authority of the pattern that was passed
+      // in.
+      scheme = schemeFromPath(pathPattern);
+      authority = authorityFromPath(pathPattern);
+
+      // Next we strip off everything except the pathname itself, and expand
+      // all globs.  Expansion is a process which turns "grouping" clauses,
+      // expressed as brackets, into separate path patterns.
+      String pathPatternString = pathPattern.toUri().getPath();
+      flattenedPatterns = GlobExpander.expand(pathPatternString);
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+      try {
+        while (ready.isEmpty()) {
+          if (!pending.isEmpty()) {
+            addMatches(await(pending.removeFirst()));
+          } else if (patternIdx < flattenedPatterns.size()) {
+            expandPattern(flattenedPatterns.get(patternIdx++));
+          } else {
+            close();
+            return false;
+          }
+        }
+        return true;
+      } catch (IOException e) {
+        close();
+        throw e;
+      }
+    }
+
+    @Override
+    public FileStatus next() throws IOException {
+      if (!hasNext()) {
+        throw new NoSuchElementException("No more matches for "
+            + pathPattern);
+      }
+      return ready.removeFirst();
+    }
+
+    void close() {
+      for (FutureTask<List<FileStatus>> task : pending) {
+        task.cancel(true);
+      }
+      pending.clear();
+      if (executor != null) {
+        executor.shutdownNow();
+        executor = null;
+      }
+    }
+
+    private void addMatches(List<FileStatus> candidates) throws IOException {
+      for (FileStatus status : candidates) {
+        // Use object equality to see if this status is the root placeholder.
+        // See the explanation for rootPlaceholder above for more information.
+        if (status == rootPlaceholder) {
+          status = getFileStatus(rootPlaceholder.getPath());
+          if (status == null) continue;
+        }
+        // HADOOP-3497 semantics: the user-defined filter is applied at the
+        // end, once the full path is built up.
+        if (filter.accept(status.getPath())) {
+          ready.add(status);
+        }
+      }
+    }
 
-    // Now loop over all flattened patterns.  In every case, we'll be trying to
-    // match them to entries in the filesystem.
-    ArrayList<FileStatus> results = 
-        new ArrayList<FileStatus>(flattenedPatterns.size());
-    boolean sawWildcard = false;
-    for (String flatPattern : flattenedPatterns) {
+    /**
+     * Resolve all but the last component of a flattened pattern, and queue
+     * the expansion of the last one.
+     */
+    private void expandPattern(String flatPattern) throws IOException {
       // Get the absolute path for this flattened pattern.  We couldn't do 
       // this prior to flattening because of patterns like {/,a}, where which
       // path you go down influences how the path must be made absolute.
@@ -163,14 +335,13 @@ public FileStatus[] glob() throws IOException {
           getPathComponents(absPattern.toUri().getPath());
       // Starting out at the root of the filesystem, we try to match
       // filesystem entries against pattern components.
-      ArrayList<FileStatus> candidates = new ArrayList<FileStatus>(1);
+      List<FileStatus> candidates = new ArrayList<FileStatus>(1);
       // To get the "real" FileStatus of root, we'd have to do an expensive
       // RPC to the NameNode.  So we create a placeholder FileStatus which has
       // the correct path, but defaults for the rest of the information.
       // Later, if it turns out we actually want the FileStatus of root, we'll
       // replace the placeholder with a real FileStatus obtained from the
       // NameNode.
-      FileStatus rootPlaceholder;
       if (Path.WINDOWS && !components.isEmpty()
           && Path.isWindowsAbsolutePath(absPattern.toUri().getPath(), true)) {
         // On Windows the path could begin with a drive letter, e.g. /E:/foo.
@@ -187,8 +358,6 @@ public FileStatus[] glob() throws IOException {
       
       for (int componentIdx = 0; componentIdx < components.size();
           componentIdx++) {
-        ArrayList<FileStatus> newCandidates =
-            new ArrayList<FileStatus>(candidates.size());
         GlobFilter globFilter = new GlobFilter(components.get(componentIdx));
         String component = unescapePathComponent(components.get(componentIdx));
         if (globFilter.hasPattern()) {
@@ -201,8 +370,8 @@ public FileStatus[] glob() throws IOException {
           // components in case one of them is a wildcard.
           break;
         }
-        if ((componentIdx < components.size() - 1) &&
-            (!globFilter.hasPattern())) {
+        boolean isTerminal = componentIdx == components.size() - 1;
+        if (!isTerminal && !globFilter.hasPattern()) {
           // Optimization: if this is not the terminal path component, and we 
           // are not matching against a glob, assume that it exists.  If it 
           // doesn't exist, we'll find out later when resolving a later glob
@@ -212,75 +381,146 @@ public FileStatus[] glob() throws IOException {
           }
           continue;
         }
+        String prefix = globFilter.hasPattern() ?
+            getLiteralPrefix(components.get(componentIdx)) : null;
+        List<FutureTask<List<FileStatus>>> tasks =
+            new ArrayList<FutureTask<List<FileStatus>>>(candidates.size());
         for (FileStatus candidate : candidates) {
-          if (globFilter.hasPattern()) {
-            FileStatus[] children = listStatus(candidate.getPath());
-            if (children.length == 1) {
-              // If we get back only one result, this could be either a listing
-              // of a directory with one entry, or it could reflect the fact
-              // that what we listed resolved to a file.
-              //
-              // Unfortunately, we can't just compare the returned paths to
-              // figure this out.  Consider the case where you have /a/b, where
-              // b is a symlink to "..".  In that case, listing /a/b will give
-              // back "/a/b" again.  If we just went by returned pathname, we'd
-              // incorrectly conclude that /a/b was a file and should not match
-              // /a/*/*.  So we use getFileStatus of the path we just listed to
-              // disambiguate.
-              if (!getFileStatus(candidate.getPath()).isDirectory()) {
-                continue;
-              }
-            }
-            for (FileStatus child : children) {
-              // Set the child path based on the parent path.
-              child.setPath(new Path(candidate.getPath(),
-                      child.getPath().getName()));
-              if (globFilter.accept(child.getPath())) {
-                newCandidates.add(child);
-              }
-            }
-          } else {
-            // When dealing with non-glob components, use getFileStatus 
-            // instead of listStatus.  This is an optimization, but it also
-            // is necessary for correctness in HDFS, since there are some
-            // special HDFS directories like .reserved and .snapshot that are
-            // not visible to listStatus, but which do exist.  (See HADOOP-9877)
-            FileStatus childStatus = getFileStatus(
-                new Path(candidate.getPath(), component));
-            if (childStatus != null) {
-              newCandidates.add(childStatus);
-             }
-           }
+          tasks.add(newExpandTask(candidate, globFilter, component, prefix));
+        }
+        if (tasks.size() > 1) {
+          startAll(tasks);
+        }
+        if (isTerminal) {
+          // The matches of the last component are collected as they are
+          // handed out, so the caller can already use the first ones.
+          pending.addAll(tasks);
+          return;
+        }
+        List<FileStatus> newCandidates =
+            new ArrayList<FileStatus>(candidates.size());
+        for (FutureTask<List<FileStatus>> task : tasks) {
+          newCandidates.addAll(await(task));
         }
         candidates = newCandidates;
       }
-      for (FileStatus status : candidates) {
-        // Use object equality to see if this status is the root placeholder.
-        // See the explanation for rootPlaceholder above for more information.
-        if (status == rootPlaceholder) {
-          status = getFileStatus(rootPlaceholder.getPath());
-          if (status == null) continue;
+      addMatches(candidates);
+    }
+  }
+
+  private FutureTask<List<FileStatus>> newExpandTask(
+      final FileStatus candidate, final GlobFilter globFilter,
+      final String component, final String prefix) {
+    return new FutureTask<List<FileStatus>>(new Callable<List<FileStatus>>() {
+      @Override
+      public List<FileStatus> call() throws Exception {
+        // the task may run on a pool thread, so act as the caller
+        return ugi.doAs(new PrivilegedExceptionAction<List<FileStatus>>() {
+          @Override
+          public List<FileStatus> run() throws IOException {
+            return expandCandidate(candidate, globFilter, component, prefix);
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Find the children of a candidate that match a path component.
+   */
+  private List<FileStatus> expandCandidate(FileStatus candidate,
+      GlobFilter globFilter, String component, String prefix)
+      throws IOException {
+    List<FileStatus> matches = new ArrayList<FileStatus>();
+    if (globFilter.hasPattern()) {
+      FileStatus[] children = listStatus(candidate.getPath());
+      if (children.length == 1) {
+        // If we get back only one result, this could be either a listing
+        // of a directory with one entry, or it could reflect the fact
+        // that what we listed resolved to a file.
+        //
+        // Unfortunately, we can't just compare the returned paths to
+        // figure this out.  Consider the case where you have /a/b, where
+        // b is a symlink to "..".  In that case, listing /a/b will give
+        // back "/a/b" again.  If we just went by returned pathname, we'd
+        // incorrectly conclude that /a/b was a file and should not match
+        // /a/*/*.  So we use getFileStatus of the path we just listed to
+        // disambiguate.
+        if (!getFileStatus(candidate.getPath()).isDirectory()) {
+          return matches;
         }
-        // HADOOP-3497 semantics: the user-defined filter is applied at the
-        // end, once the full path is built up.
-        if (filter.accept(status.getPath())) {
-          results.add(status);
+      }
+      for (FileStatus child : children) {
+        String name = child.getPath().getName();
+        // Optimization: a name that does not start with the literal prefix
+        // of the pattern can't match, so don't bother building its path
+        // and running the regex on it.
+        if (!name.startsWith(prefix)) {
+          continue;
+        }
+        // Set the child path based on the parent path.
+        child.setPath(new Path(candidate.getPath(), name));
+        if (globFilter.accept(child.getPath())) {
+          matches.add(child);
         }
       }
+    } else {
+      // When dealing with non-glob components, use getFileStatus 
+      // instead of listStatus.  This is an optimization, but it also
+      // is necessary for correctness in HDFS, since there are some
+      // special HDFS directories like .reserved and .snapshot that are
+      // not visible to listStatus, but which do exist.  (See HADOOP-9877)
+      FileStatus childStatus = getFileStatus(
+          new Path(candidate.getPath(), component));
+      if (childStatus != null) {
+        matches.add(childStatus);
+      }
     }
-    /*
-     * When the input pattern "looks" like just a simple filename, and we
-     * can't find it, we return null rather than an empty array.
-     * This is a special case which the shell relies on.
-     *
-     * To be more precise: if there were no results, AND there were no
-     * groupings (aka brackets), and no wildcards in the input (aka stars),
-     * we return null.
-     */
-    if ((!sawWildcard) && results.isEmpty() &&
-        (flattenedPatterns.size() <= 1)) {
-      return null;
+    return matches;
+  }
+
+  /**
+   * Hand the tasks to the thread pool.  Tasks that have not been picked up
+   * by a pool thread yet when their result is needed are run by the caller.
+   */
+  private void startAll(List<FutureTask<List<FileStatus>>> tasks) {
+    if (numThreads <= 1) {
+      return;
+    }
+    if (executor == null) {
+      executor = new ThreadPoolExecutor(numThreads, numThreads,
+          10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+          new ThreadFactoryBuilder()
+              .setDaemon(true)
+              .setNameFormat("Globber #%d")
+              .build());
+      // let the threads of an abandoned iterator go away
+      executor.allowCoreThreadTimeOut(true);
+    }
+    for (FutureTask<List<FileStatus>> task : tasks) {
+      executor.execute(task);
+    }
+  }
+
+  /** Wait for the result of a task, running it here if nobody else has. */
+  private static List<FileStatus> await(FutureTask<List<FileStatus>> task)
+      throws IOException {
+    task.run();
+    try {
+      return task.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while expanding glob");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException(cause);
     }
-    return results.toArray(new FileStatus[0]);
   }
 }
@@ -28,10 +28,8 @@
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.net.URLDecoder;
 import java.util.*;
 
 /**
@@ -71,6 +69,11 @@ public class HarFileSystem extends FileSystem {
 
   private FileSystem fs;
 
+  // the stream of the binary index, if the index is not mapped. The cached
+  // metadata is shared with other instances, so each instance reads the
+  // index through its own stream, which is closed with this file system.
+  private FSDataInputStream indexIn;
+
   /**
    * public construction of harfilesystem
    */
@@ -99,7 +102,7 @@ public HarFileSystem(FileSystem fs) {
     this.statistics = fs.statistics;
   }
  
-  private synchronized void initializeMetadataCache(Configuration conf) {
+  private static synchronized void initializeMetadataCache(Configuration conf) {
     if (harMetaCache == null) {
       int cacheSize = conf.getInt(METADATA_CACHE_ENTRIES_KEY, METADATA_CACHE_ENTRIES_DEFAULT);
       harMetaCache = Collections.synchronizedMap(new LruCache<URI, HarMetaData>(cacheSize));
@@ -144,15 +147,18 @@ public void initialize(URI name, Configuration conf) throws IOException {
     // the index file
     Path masterIndexPath = new Path(archivePath, "_masterindex");
     Path archiveIndexPath = new Path(archivePath, "_index");
-    if (!fs.exists(masterIndexPath) || !fs.exists(archiveIndexPath)) {
+    FileStatus mStat;
+    FileStatus aStat;
+    try {
+      mStat = fs.getFileStatus(masterIndexPath);
+      aStat = fs.getFileStatus(archiveIndexPath);
+    } catch (FileNotFoundException e) {
       throw new IOException("Invalid path for the Har Filesystem. " +
           "No index file in " + harPath);
     }
 
     metadata = harMetaCache.get(uri);
     if (metadata != null) {
-      FileStatus mStat = fs.getFileStatus(masterIndexPath);
-      FileStatus aStat = fs.getFileStatus(archiveIndexPath);
       if (mStat.getModificationTime() != metadata.getMasterIndexTimestamp() ||
           aStat.getModificationTime() != metadata.getArchiveIndexTimestamp()) {
         // the archive has been overwritten since we last read it
@@ -162,7 +168,7 @@ public void initialize(URI name, Configuration conf) throws IOException {
       }
     }
     if (metadata == null) {
-      metadata = new HarMetaData(fs, masterIndexPath, archiveIndexPath);
+      metadata = new HarMetaData(fs, mStat, aStat);
       metadata.parseMetaData();
       harMetaCache.put(uri, metadata);
     }
@@ -252,20 +258,6 @@ private URI decodeHarURI(URI rawURI, Configuration conf) throws IOException {
     return tmp;
   }
 
-  private static String decodeString(String str)
-    throws UnsupportedEncodingException {
-    return URLDecoder.decode(str, "UTF-8");
-  }
-
-  private String decodeFileName(String fname)
-    throws UnsupportedEncodingException {
-    int version = metadata.getVersion();
-    if (version == 2 || version == 3){
-      return decodeString(fname);
-    }
-    return fname;
-  }
-
   /**
    * return the top level archive.
    */
@@ -524,6 +516,17 @@ private void fileStatusesInIndex(HarStatus parent, List<FileStatus> statuses)
     int harlen = harPath.depth();
     final Map<String, FileStatus> cache = new TreeMap<String, FileStatus>();
 
+    if (metadata.index != null) {
+      // the binary index is not held in memory, so look up the children
+      // the parent lists instead of scanning all entries
+      for (String child : parent.children) {
+        HarStatus hstatus = lookUpHarStatus(new Path(harPath, child));
+        if (hstatus != null) {
+          statuses.add(toFileStatus(hstatus, cache));
+        }
+      }
+      return;
+    }
     for (HarStatus hstatus : metadata.archive.values()) {
       String child = hstatus.getName();
       if ((child.startsWith(parentString))) {
@@ -560,7 +563,7 @@ private FileStatus toFileStatus(HarStatus h,
     int version = metadata.getVersion();
     if (version < 3) {
       modTime = underlying.getModificationTime();
-    } else if (version == 3) {
+    } else {
       modTime = h.getModificationTime();
     }
 
@@ -577,12 +580,10 @@ private FileStatus toFileStatus(HarStatus h,
         makeRelative(this.uri.getPath(), new Path(h.name)));
   }
 
-  // a single line parser for hadoop archives status 
-  // stored in a single line in the index files 
-  // the format is of the form 
-  // filename "dir"/"file" partFileName startIndex length 
-  // <space separated children>
-  private class HarStatus {
+  // the status of a file or directory of the archive, as stored in
+  // either of the index files. See HarIndex.Entry for the format of a
+  // single line of the text index.
+  private static class HarStatus {
     boolean isDir;
     String name;
     List<String> children;
@@ -591,47 +592,18 @@ private class HarStatus {
     long length;
     long modificationTime = 0;
 
-    public HarStatus(String harString) throws UnsupportedEncodingException {
-      String[] splits = harString.split(" ");
-      this.name = decodeFileName(splits[0]);
-      this.isDir = "dir".equals(splits[1]) ? true: false;
-      // this is equal to "none" if its a directory
-      this.partName = splits[2];
-      this.startIndex = Long.parseLong(splits[3]);
-      this.length = Long.parseLong(splits[4]);
-
-      int version = metadata.getVersion();
-      String[] propSplits = null;
-      // propSplits is used to retrieve the metainformation that Har versions
-      // 1 & 2 missed (modification time, permission, owner group).
-      // These fields are stored in an encoded string placed in different
-      // locations depending on whether it's a file or directory entry.
-      // If it's a directory, the string will be placed at the partName
-      // location (directories have no partName because they don't have data
-      // to be stored). This is done because the number of fields in a
-      // directory entry is unbounded (all children are listed at the end)
-      // If it's a file, the string will be the last field.
-      if (isDir) {
-        if (version == 3){
-          propSplits = decodeString(this.partName).split(" ");
-        }
-        children = new ArrayList<String>();
-        for (int i = 5; i < splits.length; i++) {
-          children.add(decodeFileName(splits[i]));
-        }
-      } else if (version == 3) {
-        propSplits = decodeString(splits[5]).split(" ");
-      }
-
-      if (propSplits != null && propSplits.length >= 4) {
-        modificationTime = Long.parseLong(propSplits[0]);
-        // the fields below are stored in the file but are currently not used
-        // by HarFileSystem
-        // permission = new FsPermission(Short.parseShort(propSplits[1]));
-        // owner = decodeString(propSplits[2]);
-        // group = decodeString(propSplits[3]);
-      }
+    public HarStatus(HarIndex.Entry entry) {
+      this.name = entry.getName();
+      this.isDir = entry.isDir();
+      this.partName = entry.getPartName();
+      this.startIndex = entry.getStartIndex();
+      this.length = entry.getLength();
+      this.children = entry.getChildren();
+      // the permission, owner and group stored in the index are currently
+      // not used by HarFileSystem
+      this.modificationTime = entry.getModificationTime();
     }
+
     public boolean isDir() {
       return isDir;
     }
@@ -668,6 +640,30 @@ public FileStatus getFileStatus(Path f) throws IOException {
     return toFileStatus(hstatus, null);
   }
 
+  /**
+   * @return the status of a path in the archive, or null if the archive
+   *         does not contain it
+   */
+  private HarStatus lookUpHarStatus(Path harPath) throws IOException {
+    HarIndex index = metadata.index;
+    if (index == null) {
+      return metadata.archive.get(harPath);
+    }
+    HarIndex.Entry entry = index.get(harPath, getIndexStream(index));
+    return entry == null ? null : new HarStatus(entry);
+  }
+
+  private synchronized PositionedReadable getIndexStream(HarIndex index)
+      throws IOException {
+    if (index.isMapped()) {
+      return null;
+    }
+    if (indexIn == null) {
+      indexIn = fs.open(index.getPath());
+    }
+    return indexIn;
+  }
+
   private HarStatus getFileHarStatus(Path f) throws IOException {
     // get the fs DataInputStream for the underlying file
     // look up the index.
@@ -676,7 +672,7 @@ private HarStatus getFileHarStatus(Path f) throws IOException {
     if (harPath == null) {
       throw new IOException("Invalid file name: " + f + " in " + uri);
     }
-    HarStatus hstatus = metadata.archive.get(harPath);
+    HarStatus hstatus = lookUpHarStatus(harPath);
     if (hstatus == null) {
       throw new FileNotFoundException("File: " +  f + " does not exist in " + uri);
     }
@@ -741,6 +737,10 @@ public FSDataOutputStream append(Path f, int bufferSize, Progressable progress)
   @Override
   public void close() throws IOException {
     super.close();
+    synchronized (this) {
+      IOUtils.closeStream(indexIn);
+      indexIn = null;
+    }
     if (fs != null) {
       try {
         fs.close();
@@ -790,7 +790,7 @@ public FileStatus[] listStatus(Path f) throws IOException {
     List<FileStatus> statuses = new ArrayList<FileStatus>();
     Path tmpPath = makeQualified(f);
     Path harPath = getPathInHar(tmpPath);
-    HarStatus hstatus = metadata.archive.get(harPath);
+    HarStatus hstatus = lookUpHarStatus(harPath);
     if (hstatus == null) {
       throw new FileNotFoundException("File " + f + " not found in " + archivePath);
     }
@@ -1095,7 +1095,7 @@ public HarFSDataInputStream(FileSystem fs, Path  p, long start,
     }
   }
 
-  private class HarMetaData {
+  class HarMetaData {
     private FileSystem fs;
     private int version;
     // the masterIndex of the archive
@@ -1103,17 +1103,25 @@ private class HarMetaData {
     // the index file 
     private Path archiveIndexPath;
 
+    private long masterIndexLength;
     private long masterIndexTimestamp;
     private long archiveIndexTimestamp;
 
     List<Store> stores = new ArrayList<Store>();
+    // the text index of the archive, used if there is no binary index
     Map<Path, HarStatus> archive = new HashMap<Path, HarStatus>();
+    // the binary index of the archive, if it has one
+    HarIndex index;
     private Map<Path, FileStatus> partFileStatuses = new HashMap<Path, FileStatus>();
 
-    public HarMetaData(FileSystem fs, Path masterIndexPath, Path archiveIndexPath) {
+    public HarMetaData(FileSystem fs, FileStatus masterIndexStat,
+        FileStatus archiveIndexStat) {
       this.fs = fs;
-      this.masterIndexPath = masterIndexPath;
-      this.archiveIndexPath = archiveIndexPath;
+      this.masterIndexPath = masterIndexStat.getPath();
+      this.archiveIndexPath = archiveIndexStat.getPath();
+      this.masterIndexLength = masterIndexStat.getLen();
+      this.masterIndexTimestamp = masterIndexStat.getModificationTime();
+      this.archiveIndexTimestamp = archiveIndexStat.getModificationTime();
     }
 
     public FileStatus getPartFileStatus(Path partPath) throws IOException {
@@ -1146,8 +1154,6 @@ private void parseMetaData() throws IOException {
 
       try {
         in = fs.open(masterIndexPath);
-        FileStatus masterStat = fs.getFileStatus(masterIndexPath);
-        masterIndexTimestamp = masterStat.getModificationTime();
         lin = new LineReader(in, getConf());
         read = lin.readLine(line);
 
@@ -1163,7 +1169,7 @@ private void parseMetaData() throws IOException {
 
         // each line contains a hashcode range and the index file name
         String[] readStr;
-        while(read < masterStat.getLen()) {
+        while(read < masterIndexLength) {
           int b = lin.readLine(line);
           read += b;
           readStr = line.toString().split(" ");
@@ -1181,10 +1187,18 @@ private void parseMetaData() throws IOException {
         IOUtils.cleanup(LOG, lin, in);
       }
 
+      if (version >= 3) {
+        try {
+          index = HarIndex.open(fs,
+              new Path(archiveIndexPath.getParent(), HarIndex.NAME));
+          return;
+        } catch (FileNotFoundException e) {
+          // fall back to the text index
+        }
+      }
+
       FSDataInputStream aIn = fs.open(archiveIndexPath);
       try {
-        FileStatus archiveStat = fs.getFileStatus(archiveIndexPath);
-        archiveIndexTimestamp = archiveStat.getModificationTime();
         LineReader aLin;
 
         // now start reading the real index file
@@ -1195,10 +1209,9 @@ private void parseMetaData() throws IOException {
           while (read + s.begin < s.end) {
             int tmp = aLin.readLine(line);
             read += tmp;
-            String lineFeed = line.toString();
-            String[] parsed = lineFeed.split(" ");
-            parsed[0] = decodeFileName(parsed[0]);
-            archive.put(new Path(parsed[0]), new HarStatus(lineFeed));
+            HarIndex.Entry entry =
+                HarIndex.Entry.parse(line.toString(), version);
+            archive.put(new Path(entry.getName()), new HarStatus(entry));
             line.clear();
           }
         }
@@ -0,0 +1,479 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs;
+
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * The binary index of a Hadoop archive, stored in the <code>_index.bin</code>
+ * file next to the text <code>_index</code>.  Archives that have one are
+ * still version 3 archives, so readers that do not know the binary index
+ * use the text index as before.
+ * <p>
+ * Unlike the text index, the binary index does not have to be read and
+ * decoded as a whole before the archive can be used.  An entry is found by
+ * binary searching a table of slots sorted by the har hash of the entry
+ * names, so a lookup reads a few small ranges of the file, or nothing at all
+ * when the index could be memory-mapped.  The file consists of
+ * <ol>
+ * <li>the entries, in the order of the slot table</li>
+ * <li>the slot table: for every entry, its hash as an int and the offset of
+ *     the entry as a long, sorted by hash</li>
+ * <li>the summary: the hash of every {@link #SUMMARY_INTERVAL}th slot</li>
+ * <li>the trailer: the offset of the slot table as a long, the number of
+ *     entries as an int, and {@link #MAGIC}</li>
+ * </ol>
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Unstable
+public class HarIndex {
+  private static final Log LOG = LogFactory.getLog(HarIndex.class);
+
+  /** Name of the binary index file in the archive directory */
+  public static final String NAME = "_index.bin";
+
+  static final int MAGIC = 0x48415249; // "HARI"
+  static final int SLOT_SIZE = 12;
+  static final int SUMMARY_INTERVAL = 256;
+  static final int TRAILER_SIZE = 16;
+
+  /** A file or directory of the archive */
+  public static class Entry {
+    private final String name;
+    private final boolean isDir;
+    private final String partName;
+    private final long startIndex;
+    private final long length;
+    private final long modificationTime;
+    private final short permission;
+    private final String owner;
+    private final String group;
+    private final List<String> children;
+
+    public Entry(String name, boolean isDir, String partName, long startIndex,
+        long length, long modificationTime, short permission, String owner,
+        String group, List<String> children) {
+      this.name = name;
+      this.isDir = isDir;
+      this.partName = partName;
+      this.startIndex = startIndex;
+      this.length = length;
+      this.modificationTime = modificationTime;
+      this.permission = permission;
+      this.owner = owner;
+      this.group = group;
+      this.children = children;
+    }
+
+    /**
+     * Parse a line of the text index.  The format is
+     * <code>name "dir"/"file" partName startIndex length properties</code>
+     * for files, and
+     * <code>name "dir"/"file" properties startIndex length children...</code>
+     * for directories.  Names are URL encoded from version 2 on, and the
+     * URL encoded properties were added in version 3.
+     *
+     * @param line the line, without line terminator
+     * @param version the version of the archive
+     */
+    public static Entry parse(String line, int version)
+        throws UnsupportedEncodingException {
+      String[] splits = line.split(" ");
+      String name = decodeFileName(splits[0], version);
+      boolean isDir = "dir".equals(splits[1]);
+      // this is equal to "none" if its a directory
+      String partName = splits[2];
+      long startIndex = Long.parseLong(splits[3]);
+      long length = Long.parseLong(splits[4]);
+
+      // propSplits is used to retrieve the metainformation that Har versions
+      // 1 & 2 missed (modification time, permission, owner group).
+      // These fields are stored in an encoded string placed in different
+      // locations depending on whether it's a file or directory entry.
+      // If it's a directory, the string will be placed at the partName
+      // location (directories have no partName because they don't have data
+      // to be stored). This is done because the number of fields in a
+      // directory entry is unbounded (all children are listed at the end)
+      // If it's a file, the string will be the last field.
+      String[] propSplits = null;
+      List<String> children = null;
+      if (isDir) {
+        if (version >= 3) {
+          propSplits = decodeString(partName).split(" ");
+        }
+        children = new ArrayList<String>();
+        for (int i = 5; i < splits.length; i++) {
+          children.add(decodeFileName(splits[i], version));
+        }
+      } else if (version >= 3) {
+        propSplits = decodeString(splits[5]).split(" ");
+      }
+
+      long modificationTime = 0;
+      short permission = 0;
+      String owner = "";
+      String group = "";
+      if (propSplits != null && propSplits.length >= 4) {
+        modificationTime = Long.parseLong(propSplits[0]);
+        permission = Short.parseShort(propSplits[1]);
+        owner = decodeString(propSplits[2]);
+        group = decodeString(propSplits[3]);
+      }
+      return new Entry(name, isDir, partName, startIndex, length,
+          modificationTime, permission, owner, group, children);
+    }
+
+    private static String decodeString(String str)
+        throws UnsupportedEncodingException {
+      return URLDecoder.decode(str, "UTF-8");
+    }
+
+    private static String decodeFileName(String fname, int version)
+        throws UnsupportedEncodingException {
+      if (version >= 2) {
+        return decodeString(fname);
+      }
+      return fname;
+    }
+
+    void write(DataOutput out) throws IOException {
+      Text.writeString(out, name);
+      out.writeBoolean(isDir);
+      Text.writeString(out, isDir ? "" : partName);
+      WritableUtils.writeVLong(out, startIndex);
+      WritableUtils.writeVLong(out, length);
+      WritableUtils.writeVLong(out, modificationTime);
+      out.writeShort(permission);
+      Text.writeString(out, owner);
+      Text.writeString(out, group);
+      if (isDir) {
+        WritableUtils.writeVInt(out, children.size());
+        for (String child : children) {
+          Text.writeString(out, child);
+        }
+      }
+    }
+
+    static Entry read(DataInput in) throws IOException {
+      String name = Text.readString(in);
+      boolean isDir = in.readBoolean();
+      String partName = Text.readString(in);
+      long startIndex = WritableUtils.readVLong(in);
+      long length = WritableUtils.readVLong(in);
+      long modificationTime = WritableUtils.readVLong(in);
+      short permission = in.readShort();
+      String owner = Text.readString(in);
+      String group = Text.readString(in);
+      List<String> children = null;
+      if (isDir) {
+        int numChildren = WritableUtils.readVInt(in);
+        children = new ArrayList<String>(numChildren);
+        for (int i = 0; i < numChildren; i++) {
+          children.add(Text.readString(in));
+        }
+      }
+      return new Entry(name, isDir, isDir ? "none" : partName, startIndex,
+          length, modificationTime, permission, owner, group, children);
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public boolean isDir() {
+      return isDir;
+    }
+
+    public String getPartName() {
+      return partName;
+    }
+
+    public long getStartIndex() {
+      return startIndex;
+    }
+
+    public long getLength() {
+      return length;
+    }
+
+    public long getModificationTime() {
+      return modificationTime;
+    }
+
+    public short getPermission() {
+      return permission;
+    }
+
+    public String getOwner() {
+      return owner;
+    }
+
+    public String getGroup() {
+      return group;
+    }
+
+    /** @return the names of the children of a directory, null for files */
+    public List<String> getChildren() {
+      return children == null ? null : Collections.unmodifiableList(children);
+    }
+  }
+
+  /**
+   * Writes a binary index.  Entries have to be appended in the order of
+   * their hashes, which is the order the archive index is created in.
+   */
+  public static class Writer implements Closeable {
+    private final FileSystem fs;
+    private final FSDataOutputStream out;
+    // the slot table is spilled to a side file, and appended on close
+    private final Path tablePath;
+    private final FSDataOutputStream tableOut;
+    private int[] summary = new int[64];
+    private int numEntries = 0;
+    private int lastHash = Integer.MIN_VALUE;
+
+    public Writer(FileSystem fs, Path path) throws IOException {
+      this.fs = fs;
+      this.tablePath = path.suffix(".table");
+      this.out = fs.create(path, true);
+      this.tableOut = fs.create(tablePath, true);
+    }
+
+    public void append(int hash, Entry entry) throws IOException {
+      if (hash < lastHash) {
+        throw new IOException("Entry " + entry.getName() + " with hash "
+            + hash + " appended after hash " + lastHash);
+      }
+      if (numEntries == Integer.MAX_VALUE) {
+        throw new IOException("Too many entries in the archive index");
+      }
+      lastHash = hash;
+      if (numEntries % SUMMARY_INTERVAL == 0) {
+        int i = numEntries / SUMMARY_INTERVAL;
+        if (i == summary.length) {
+          summary = Arrays.copyOf(summary, summary.length * 2);
+        }
+        summary[i] = hash;
+      }
+      tableOut.writeInt(hash);
+      tableOut.writeLong(out.getPos());
+      entry.write(out);
+      numEntries++;
+    }
+
+    @Override
+    public void close() throws IOException {
+      tableOut.close();
+      long tableOffset = out.getPos();
+      FSDataInputStream tableIn = fs.open(tablePath);
+      try {
+        IOUtils.copyBytes(tableIn, out, 64 * 1024, false);
+      } finally {
+        IOUtils.closeStream(tableIn);
+      }
+      int summarySize = (numEntries + SUMMARY_INTERVAL - 1) / SUMMARY_INTERVAL;
+      for (int i = 0; i < summarySize; i++) {
+        out.writeInt(summary[i]);
+      }
+      out.writeLong(tableOffset);
+      out.writeInt(numEntries);
+      out.writeInt(MAGIC);
+      out.close();
+      fs.delete(tablePath, false);
+    }
+  }
+
+  private final Path path;
+  private final ByteBuffer mapped;
+  private final long tableOffset;
+  private final int numEntries;
+  private final int[] summary;
+
+  private HarIndex(Path path, ByteBuffer mapped, PositionedReadable in,
+      long fileLength) throws IOException {
+    this.path = path;
+    this.mapped = mapped;
+    if (fileLength < TRAILER_SIZE) {
+      throw new IOException("Archive index is truncated");
+    }
+    DataInputBuffer trailer =
+        read(in, fileLength - TRAILER_SIZE, TRAILER_SIZE);
+    tableOffset = trailer.readLong();
+    numEntries = trailer.readInt();
+    if (trailer.readInt() != MAGIC) {
+      throw new IOException("Archive index is corrupt");
+    }
+    int summarySize = (numEntries + SUMMARY_INTERVAL - 1) / SUMMARY_INTERVAL;
+    long summaryOffset = tableOffset + (long) numEntries * SLOT_SIZE;
+    if (summaryOffset + summarySize * 4L + TRAILER_SIZE != fileLength) {
+      throw new IOException("Archive index is corrupt");
+    }
+    DataInputBuffer buf = read(in, summaryOffset, summarySize * 4);
+    summary = new int[summarySize];
+    for (int i = 0; i < summarySize; i++) {
+      summary[i] = buf.readInt();
+    }
+  }
+
+  /**
+   * Open the binary index of an archive.  Indexes on the local file system
+   * are memory-mapped, others are read range by range as entries are looked
+   * up.  The index does not keep a stream open: lookups in an index that is
+   * not mapped read from a stream of the caller's, so that an index can be
+   * shared by file system instances that are closed independently.
+   *
+   * @throws java.io.FileNotFoundException if the archive has no binary index
+   */
+  public static HarIndex open(FileSystem fs, Path path) throws IOException {
+    File file = null;
+    if (fs instanceof LocalFileSystem) {
+      file = ((LocalFileSystem) fs).pathToFile(path);
+    } else if (fs instanceof RawLocalFileSystem) {
+      file = ((RawLocalFileSystem) fs).pathToFile(path);
+    }
+    if (file != null && file.length() <= Integer.MAX_VALUE) {
+      RandomAccessFile raf = null;
+      try {
+        raf = new RandomAccessFile(file, "r");
+        ByteBuffer mapped = raf.getChannel().map(
+            FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        return new HarIndex(path, mapped, null, mapped.capacity());
+      } catch (IOException e) {
+        LOG.debug("Unable to map " + file + ", reading it instead", e);
+      } finally {
+        IOUtils.closeStream(raf);
+      }
+    }
+    long length = fs.getFileStatus(path).getLen();
+    FSDataInputStream in = fs.open(path);
+    try {
+      return new HarIndex(path, null, in, length);
+    } finally {
+      IOUtils.closeStream(in);
+    }
+  }
+
+  /** @return the path of the index file */
+  public Path getPath() {
+    return path;
+  }
+
+  /**
+   * @return whether the index is memory-mapped, and lookups do not need a
+   *         stream of the index file
+   */
+  public boolean isMapped() {
+    return mapped != null;
+  }
+
+  /** @return the number of entries in the index */
+  public int size() {
+    return numEntries;
+  }
+
+  /**
+   * Look up an entry of the archive.  If the archive lists the path more
+   * than once, the last entry is returned, like the text index does.
+   * @param name the path of the entry inside the archive
+   * @param in a stream of the index file, unused if the index is mapped
+   * @return the entry, or null if the archive has no such entry
+   */
+  public Entry get(Path name, PositionedReadable in) throws IOException {
+    Entry found = null;
+    int hash = HarFileSystem.getHarHash(name);
+    // the first block that may hold the hash; entries with the same hash
+    // may begin in the block before the one whose first hash matches
+    int block = Arrays.binarySearch(summary, hash);
+    if (block < 0) {
+      block = -block - 2;
+    }
+    while (block > 0 && summary[block] >= hash) {
+      block--;
+    }
+    if (block < 0) {
+      block = 0;
+    }
+    for (; block < summary.length; block++) {
+      int first = block * SUMMARY_INTERVAL;
+      int count = Math.min(SUMMARY_INTERVAL, numEntries - first);
+      // read one slot more than the block has, for the end of its last entry
+      boolean hasNext = first + count < numEntries;
+      DataInputBuffer slots = read(in, tableOffset + (long) first * SLOT_SIZE,
+          (count + (hasNext ? 1 : 0)) * SLOT_SIZE);
+      int slotHash = slots.readInt();
+      long offset = slots.readLong();
+      for (int i = 0; i < count; i++) {
+        int nextHash = 0;
+        long next = tableOffset;
+        if (i + 1 < count || hasNext) {
+          nextHash = slots.readInt();
+          next = slots.readLong();
+        }
+        if (slotHash > hash) {
+          return found;
+        }
+        if (slotHash == hash) {
+          Entry entry = Entry.read(read(in, offset, (int) (next - offset)));
+          if (new Path(entry.getName()).equals(name)) {
+            found = entry;
+          }
+        }
+        slotHash = nextHash;
+        offset = next;
+      }
+    }
+    return found;
+  }
+
+  private DataInputBuffer read(PositionedReadable in, long position,
+      int length) throws IOException {
+    byte[] buf = new byte[length];
+    if (mapped != null) {
+      ByteBuffer dup = mapped.duplicate();
+      dup.position((int) position);
+      dup.get(buf);
+    } else {
+      in.readFully(position, buf);
+    }
+    DataInputBuffer dib = new DataInputBuffer();
+    dib.reset(buf, length);
+    return dib;
+  }
+}
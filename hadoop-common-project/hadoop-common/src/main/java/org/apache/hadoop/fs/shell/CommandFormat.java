@@ -31,6 +31,7 @@
 public class CommandFormat {
   final int minPar, maxPar;
   final Map<String, Boolean> options = new HashMap<String, Boolean>();
+  final Map<String, String> optionsWithValue = new HashMap<String, String>();
   boolean ignoreUnknownOpts = false;
   
   /**
@@ -64,6 +65,14 @@ public CommandFormat(int min, int max, String ... possibleOpt) {
     }
   }
 
+  /**
+   * Allow an option that takes a value, such as <code>-t 4</code>
+   * @param option the switch, without the leading "-"
+   */
+  public void addOptionWithValue(String option) {
+    optionsWithValue.put(option, null);
+  }
+
   /** Parse parameters starting from the given position
    * Consider using the variant that directly takes a List
    * 
@@ -99,6 +108,12 @@ public void parse(List<String> args) {
       if (options.containsKey(opt)) {
         args.remove(pos);
         options.put(opt, Boolean.TRUE);
+      } else if (optionsWithValue.containsKey(opt)) {
+        args.remove(pos);
+        if (pos >= args.size()) {
+          throw new MissingOptionValueException(arg);
+        }
+        optionsWithValue.put(opt, args.remove(pos));
       } else if (ignoreUnknownOpts) {
         pos++;
       } else {
@@ -123,6 +138,15 @@ public boolean getOpt(String option) {
     return options.containsKey(option) ? options.get(option) : false;
   }
   
+  /** Return the value of an option that takes a value
+   * 
+   * @param option String representation of an option
+   * @return the value of the option; null if it was not given
+   */
+  public String getOptValue(String option) {
+    return optionsWithValue.get(option);
+  }
+
   /** Returns all the options that are set
    * 
    * @return Set<String> of the enabled options
@@ -203,4 +227,15 @@ public String getOption() {
       return option;
     }
   }
+
+  /** Used when an option that takes a value is the last argument
+   */
+  public static class MissingOptionValueException
+  extends IllegalArgumentException {
+    private static final long serialVersionUID = 0L;
+
+    public MissingOptionValueException(String option) {
+      super("Missing value for option " + option);
+    }
+  }
 }
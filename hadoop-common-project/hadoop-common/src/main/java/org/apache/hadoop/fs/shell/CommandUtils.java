@@ -17,6 +17,12 @@
  */
 package org.apache.hadoop.fs.shell;
 
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 final class CommandUtils {
   static String formatDescription(String usage, String... desciptions) {
     StringBuilder b = new StringBuilder(usage + ": " + desciptions[0]);
@@ -25,4 +31,42 @@ static String formatDescription(String usage, String... desciptions) {
     }
     return b.toString();
   }
+
+  /**
+   * Parse the value of a -t option
+   * @param value of the option, null if it was not given
+   * @return the number of threads
+   */
+  static int parseThreads(String value) {
+    if (value == null) {
+      return 1;
+    }
+    try {
+      int threads = Integer.parseInt(value);
+      if (threads > 0) {
+        return threads;
+      }
+    } catch (NumberFormatException e) {
+      // fall through
+    }
+    throw new IllegalArgumentException("Invalid number of threads: " + value);
+  }
+
+  /**
+   * Create a pool that runs the work handed out by a command walking a
+   * tree.  The queue is bounded so that the walk does not get arbitrarily
+   * far ahead of the workers; once it is full, the walking thread does the
+   * work itself.
+   * @param name of the command, used to name the threads
+   * @param threads number of threads
+   */
+  static ThreadPoolExecutor newExecutor(String name, int threads) {
+    return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<Runnable>(threads * 4),
+        new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat(name + " #%d")
+            .build(),
+        new ThreadPoolExecutor.CallerRunsPolicy());
+  }
 }
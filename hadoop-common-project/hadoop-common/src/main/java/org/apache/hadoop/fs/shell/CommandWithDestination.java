@@ -20,9 +20,14 @@
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
@@ -48,6 +53,11 @@ abstract class CommandWithDestination extends FsCommand {
   private boolean preserve = false;
   private boolean verifyChecksum = true;
   private boolean writeChecksum = true;
+  private int threads = 1;
+  private ThreadPoolExecutor executor;
+  // copies handed to the executor, in the order they were started
+  private final LinkedList<Future<Void>> pendingCopies =
+      new LinkedList<Future<Void>>();
   
   /**
    * 
@@ -77,6 +87,14 @@ protected void setPreserve(boolean preserve) {
     this.preserve = preserve;
   }
 
+  /**
+   * Copy up to the given number of files at the same time.  Directories are
+   * still created one after the other as the source tree is walked.
+   */
+  protected void setThreads(int threads) {
+    this.threads = threads;
+  }
+
   /**
    *  The last arg is expected to be a local path, if only one argument is
    *  given then the destination will be the current directory 
@@ -142,7 +160,15 @@ protected void processArguments(LinkedList<PathData> args)
     } else if (!dst.parentExists()) {
       throw new PathNotFoundException(dst.toString());
     }
-    super.processArguments(args);
+    try {
+      super.processArguments(args);
+      waitForPendingCopies();
+    } finally {
+      if (executor != null) {
+        executor.shutdownNow();
+        executor = null;
+      }
+    }
   }
 
   @Override
@@ -185,7 +211,7 @@ protected void processPath(PathData src, PathData dst) throws IOException {
       // copy the symlink or deref the symlink
       throw new PathOperationException(src.toString());        
     } else if (src.stat.isFile()) {
-      copyFileToTarget(src, dst);
+      copyFile(src, dst);
     } else if (src.stat.isDirectory() && !isRecursive()) {
       throw new PathIsDirectoryException(src.toString());
     }
@@ -231,6 +257,60 @@ protected PathData getTargetPath(PathData src) throws IOException {
     return target;
   }
   
+  /**
+   * Copies the source file to the target, in the background if more than
+   * one thread was requested.  Failures of background copies are reported
+   * as they are noticed by the thread walking the tree.
+   */
+  private void copyFile(final PathData src, final PathData target)
+      throws IOException {
+    if (threads <= 1) {
+      copyFileToTarget(src, target);
+      return;
+    }
+    if (executor == null) {
+      executor = CommandUtils.newExecutor(getName(), threads);
+    }
+    pendingCopies.add(executor.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws IOException {
+        copyFileToTarget(src, target);
+        return null;
+      }
+    }));
+    while (!pendingCopies.isEmpty() && pendingCopies.getFirst().isDone()) {
+      reapCopy(pendingCopies.removeFirst());
+    }
+  }
+
+  /**
+   * Wait for all of the copies running in the background, and report their
+   * failures.
+   */
+  protected void waitForPendingCopies() throws IOException {
+    while (!pendingCopies.isEmpty()) {
+      reapCopy(pendingCopies.removeFirst());
+    }
+  }
+
+  private void reapCopy(Future<Void> copy) throws IOException {
+    try {
+      copy.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for copies");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        displayError((IOException) cause);
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else {
+        throw new IOException(cause);
+      }
+    }
+  }
+
   /**
    * Copies the source file to the target.
    * @param src item to copy
@@ -132,20 +132,24 @@ protected void processPath(PathData src) throws IOException {
 
   static class Cp extends CommandWithDestination {
     public static final String NAME = "cp";
-    public static final String USAGE = "[-f] [-p] <src> ... <dst>";
+    public static final String USAGE =
+      "[-f] [-p] [-t <threads>] <src> ... <dst>";
     public static final String DESCRIPTION =
       "Copy files that match the file pattern <src> to a\n" +
       "destination.  When copying multiple files, the destination\n" +
       "must be a directory. Passing -p preserves access and\n" +
       "modification times, ownership and the mode. Passing -f\n" +
-      "overwrites the destination if it already exists.\n";
+      "overwrites the destination if it already exists. Passing\n" +
+      "-t copies up to <threads> files at the same time.\n";
     
     @Override
     protected void processOptions(LinkedList<String> args) throws IOException {
       CommandFormat cf = new CommandFormat(2, Integer.MAX_VALUE, "f", "p");
+      cf.addOptionWithValue("t");
       cf.parse(args);
       setOverwrite(cf.getOpt("f"));
       setPreserve(cf.getOpt("p"));
+      setThreads(CommandUtils.parseThreads(cf.getOptValue("t")));
       // should have a -r option
       setRecursive(true);
       getRemoteDestination(args);
@@ -158,23 +162,26 @@ protected void processOptions(LinkedList<String> args) throws IOException {
   public static class Get extends CommandWithDestination {
     public static final String NAME = "get";
     public static final String USAGE =
-      "[-p] [-ignoreCrc] [-crc] <src> ... <localdst>";
+      "[-p] [-ignoreCrc] [-crc] [-t <threads>] <src> ... <localdst>";
     public static final String DESCRIPTION =
       "Copy files that match the file pattern <src>\n" +
       "to the local name.  <src> is kept.  When copying multiple,\n" +
       "files, the destination must be a directory. Passing\n" +
       "-p preserves access and modification times,\n" +
-      "ownership and the mode.\n";
+      "ownership and the mode. Passing -t copies up to\n" +
+      "<threads> files at the same time.\n";
 
     @Override
     protected void processOptions(LinkedList<String> args)
     throws IOException {
       CommandFormat cf = new CommandFormat(
           1, Integer.MAX_VALUE, "crc", "ignoreCrc", "p");
+      cf.addOptionWithValue("t");
       cf.parse(args);
       setWriteChecksum(cf.getOpt("crc"));
       setVerifyChecksum(!cf.getOpt("ignoreCrc"));
       setPreserve(cf.getOpt("p"));
+      setThreads(CommandUtils.parseThreads(cf.getOptValue("t")));
       setRecursive(true);
       getLocalDestination(args);
     }
@@ -185,21 +192,25 @@ protected void processOptions(LinkedList<String> args)
    */
   public static class Put extends CommandWithDestination {
     public static final String NAME = "put";
-    public static final String USAGE = "[-f] [-p] <localsrc> ... <dst>";
+    public static final String USAGE =
+      "[-f] [-p] [-t <threads>] <localsrc> ... <dst>";
     public static final String DESCRIPTION =
       "Copy files from the local file system\n" +
       "into fs. Copying fails if the file already\n" +
       "exists, unless the -f flag is given. Passing\n" +
       "-p preserves access and modification times,\n" +
       "ownership and the mode. Passing -f overwrites\n" +
-      "the destination if it already exists.\n";
+      "the destination if it already exists. Passing\n" +
+      "-t copies up to <threads> files at the same time.\n";
 
     @Override
     protected void processOptions(LinkedList<String> args) throws IOException {
       CommandFormat cf = new CommandFormat(1, Integer.MAX_VALUE, "f", "p");
+      cf.addOptionWithValue("t");
       cf.parse(args);
       setOverwrite(cf.getOpt("f"));
       setPreserve(cf.getOpt("p"));
+      setThreads(CommandUtils.parseThreads(cf.getOptValue("t")));
       getRemoteDestination(args);
       // should have a -r option
       setRecursive(true);
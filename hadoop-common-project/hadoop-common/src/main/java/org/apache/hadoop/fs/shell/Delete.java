@@ -20,8 +20,14 @@
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
@@ -49,7 +55,8 @@ public static void registerCommands(CommandFactory factory) {
   /** remove non-directory paths */
   public static class Rm extends FsCommand {
     public static final String NAME = "rm";
-    public static final String USAGE = "[-f] [-r|-R] [-skipTrash] <src> ...";
+    public static final String USAGE =
+      "[-f] [-r|-R] [-skipTrash] [-t <threads>] <src> ...";
     public static final String DESCRIPTION =
       "Delete all files that match the specified file pattern.\n" +
       "Equivalent to the Unix command \"rm <src>\"\n" +
@@ -57,20 +64,39 @@ public static class Rm extends FsCommand {
       "deletes <src>\n" +
       "  -f     If the file does not exist, do not display a diagnostic\n" +
       "         message or modify the exit status to reflect an error.\n" +
-      "  -[rR]  Recursively deletes directories";
+      "  -[rR]  Recursively deletes directories\n" +
+      "  -t     Deletes up to <threads> entries of a directory at the\n" +
+      "         same time when it is not moved to the trash.";
 
     private boolean skipTrash = false;
     private boolean deleteDirs = false;
     private boolean ignoreFNF = false;
+    private int threads = 1;
+    private ThreadPoolExecutor executor;
     
     @Override
     protected void processOptions(LinkedList<String> args) throws IOException {
       CommandFormat cf = new CommandFormat(
           1, Integer.MAX_VALUE, "f", "r", "R", "skipTrash");
+      cf.addOptionWithValue("t");
       cf.parse(args);
       ignoreFNF = cf.getOpt("f");
       deleteDirs = cf.getOpt("r") || cf.getOpt("R");
       skipTrash = cf.getOpt("skipTrash");
+      threads = CommandUtils.parseThreads(cf.getOptValue("t"));
+    }
+
+    @Override
+    protected void processArguments(LinkedList<PathData> args)
+    throws IOException {
+      try {
+        super.processArguments(args);
+      } finally {
+        if (executor != null) {
+          executor.shutdownNow();
+          executor = null;
+        }
+      }
     }
 
     @Override
@@ -104,12 +130,54 @@ protected void processPath(PathData item) throws IOException {
       if (moveToTrash(item)) {
         return;
       }
+      if (threads > 1 && deleteDirs && item.stat.isDirectory()) {
+        deleteContents(item);
+      }
       if (!item.fs.delete(item.path, deleteDirs)) {
         throw new PathIOException(item.toString());
       }
       out.println("Deleted " + item);
     }
 
+    /**
+     * Delete the entries of a directory at the same time, each of them
+     * recursively.
+     */
+    private void deleteContents(PathData dir) throws IOException {
+      if (executor == null) {
+        executor = CommandUtils.newExecutor(getName(), threads);
+      }
+      List<Future<Void>> deletes = new ArrayList<Future<Void>>();
+      for (final PathData child : dir.getDirectoryContents()) {
+        deletes.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            if (!child.fs.delete(child.path, true)) {
+              throw new PathIOException(child.toString());
+            }
+            return null;
+          }
+        }));
+      }
+      IOException failure = null;
+      for (Future<Void> delete : deletes) {
+        try {
+          delete.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted deleting " + dir);
+        } catch (ExecutionException e) {
+          if (failure == null) {
+            failure = e.getCause() instanceof IOException ?
+                (IOException) e.getCause() : new IOException(e.getCause());
+          }
+        }
+      }
+      if (failure != null) {
+        throw failure;
+      }
+    }
+
     private boolean moveToTrash(PathData item) throws IOException {
       boolean success = false;
       if (!skipTrash) {
@@ -57,8 +57,25 @@ protected void processPath(PathData src, PathData target) throws IOException {
       super.processPath(src, target);
     }
     
+    @Override
+    protected void copyFileToTarget(PathData src, PathData target)
+        throws IOException {
+      super.copyFileToTarget(src, target);
+      // files are removed as soon as they are copied, which may happen in
+      // the background
+      removeSource(src);
+    }
+
     @Override
     protected void postProcessPath(PathData src) throws IOException {
+      if (src.stat.isDirectory()) {
+        // a directory can only go once everything below it has been moved
+        waitForPendingCopies();
+        removeSource(src);
+      }
+    }
+
+    private void removeSource(PathData src) throws IOException {
       if (!src.fs.delete(src.path, false)) {
         // we have no way to know the actual error...
         PathIOException e = new PathIOException(src.toString());
@@ -0,0 +1,280 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.io;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.metrics2.annotation.Metric;
+import org.apache.hadoop.metrics2.annotation.Metrics;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A ByteBufferPool which caches released buffers up to a bound on the total
+ * capacity it holds.  Unlike {@link ElasticByteBufferPool}, a burst of large
+ * buffers does not stay pinned in the pool forever.
+ * <p>
+ * Buffers are cached in power-of-two size classes, and a request is served
+ * from the class of the smallest power of two at least as large as the
+ * request, so every buffer returned has at least the requested capacity.
+ * Newly allocated buffers are rounded up to that power of two.  When a
+ * released buffer would exceed the bound, cached buffers are evicted,
+ * largest size classes first.  If that does not make room, the released
+ * buffer is dropped.
+ * <p>
+ * Each thread additionally keeps one released buffer per size class of up
+ * to {@link #THREAD_CACHE_MAX_CAPACITY} bytes, which it can take back without
+ * touching the shared queues.  These count against the bound too.  They are
+ * evicted after the shared size classes, and the buffers of threads which
+ * have exited are released first.
+ * <p>
+ * The pool may be registered as a metrics source, to publish the numbers of
+ * allocations, cache hits and evictions.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+@Metrics(about="ByteBuffer pool statistics", context="io")
+public final class BoundedByteBufferPool implements ByteBufferPool {
+  /** Largest buffers kept in the per-thread caches */
+  public static final int THREAD_CACHE_MAX_CAPACITY = 64 * 1024;
+
+  private static final int NUM_CLASSES = 32;
+  private static final int THREAD_CACHE_CLASSES =
+      sizeClassOf(THREAD_CACHE_MAX_CAPACITY) + 1;
+
+  private final long maxCachedBytes;
+  private final List<Queue<ByteBuffer>> heapBuffers = newQueues();
+  private final List<Queue<ByteBuffer>> directBuffers = newQueues();
+  private final AtomicLong cachedBytes = new AtomicLong();
+
+  /** The buffers kept by one thread, which other threads may evict. */
+  private static final class ThreadCache {
+    private final Thread owner = Thread.currentThread();
+    private final AtomicReferenceArray<ByteBuffer> heap =
+        new AtomicReferenceArray<ByteBuffer>(THREAD_CACHE_CLASSES);
+    private final AtomicReferenceArray<ByteBuffer> direct =
+        new AtomicReferenceArray<ByteBuffer>(THREAD_CACHE_CLASSES);
+
+    AtomicReferenceArray<ByteBuffer> get(boolean isDirect) {
+      return isDirect ? direct : heap;
+    }
+  }
+
+  /** The caches of all threads which have used the pool */
+  private final Queue<ThreadCache> threadCaches =
+      new ConcurrentLinkedQueue<ThreadCache>();
+  private final ThreadLocal<ThreadCache> threadCache =
+      new ThreadLocal<ThreadCache>() {
+        @Override
+        protected ThreadCache initialValue() {
+          // keep the number of caches to that of the live threads
+          releaseExitedThreadCaches();
+          ThreadCache cache = new ThreadCache();
+          threadCaches.add(cache);
+          return cache;
+        }
+      };
+
+  private final AtomicLong allocations = new AtomicLong();
+  private final AtomicLong allocatedBytes = new AtomicLong();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * @param maxCachedBytes the maximum total capacity of the buffers held in
+   *                       the shared size classes
+   */
+  public BoundedByteBufferPool(long maxCachedBytes) {
+    Preconditions.checkArgument(maxCachedBytes >= 0,
+        "Invalid cache size %s", maxCachedBytes);
+    this.maxCachedBytes = maxCachedBytes;
+  }
+
+  private static List<Queue<ByteBuffer>> newQueues() {
+    List<Queue<ByteBuffer>> queues =
+        new ArrayList<Queue<ByteBuffer>>(NUM_CLASSES);
+    for (int i = 0; i < NUM_CLASSES; i++) {
+      queues.add(new ConcurrentLinkedQueue<ByteBuffer>());
+    }
+    return queues;
+  }
+
+  /** @return the class of buffers with at least the given capacity */
+  private static int sizeClassOf(int length) {
+    return length <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(length - 1);
+  }
+
+  @Override
+  public ByteBuffer getBuffer(boolean direct, int length) {
+    int sizeClass = sizeClassOf(length);
+    ByteBuffer buffer = null;
+    if (sizeClass < THREAD_CACHE_CLASSES) {
+      buffer = threadCache.get().get(direct).getAndSet(sizeClass, null);
+    }
+    if (buffer == null) {
+      buffer = (direct ? directBuffers : heapBuffers).get(sizeClass).poll();
+    }
+    if (buffer != null) {
+      cachedBytes.addAndGet(-buffer.capacity());
+      hits.incrementAndGet();
+      buffer.clear();
+      return buffer;
+    }
+    // round up to the size class, unless that would overflow an int
+    int capacity = sizeClass < 31 ? 1 << sizeClass : length;
+    allocations.incrementAndGet();
+    allocatedBytes.addAndGet(capacity);
+    return direct ? ByteBuffer.allocateDirect(capacity) :
+                    ByteBuffer.allocate(capacity);
+  }
+
+  @Override
+  public void putBuffer(ByteBuffer buffer) {
+    int capacity = buffer.capacity();
+    if (capacity == 0) {
+      return;
+    }
+    buffer.clear();
+    // the class of buffers this one is large enough for
+    int sizeClass = 31 - Integer.numberOfLeadingZeros(capacity);
+    boolean direct = buffer.isDirect();
+    if (capacity > maxCachedBytes) {
+      evictions.incrementAndGet();
+      return;
+    }
+    if (cachedBytes.addAndGet(capacity) > maxCachedBytes
+        && !evict(cachedBytes.get() - maxCachedBytes)) {
+      cachedBytes.addAndGet(-capacity);
+      evictions.incrementAndGet();
+      return;
+    }
+    // only the owner fills the slots of a thread cache
+    if (sizeClass < THREAD_CACHE_CLASSES
+        && threadCache.get().get(direct).compareAndSet(sizeClass, null,
+            buffer)) {
+      return;
+    }
+    (direct ? directBuffers : heapBuffers).get(sizeClass).offer(buffer);
+  }
+
+  /**
+   * Evict cached buffers until the given number of bytes has been released:
+   * those of exited threads, then the shared ones, largest first, then those
+   * of live threads.
+   * @return whether enough bytes were released
+   */
+  private boolean evict(long bytes) {
+    bytes -= releaseExitedThreadCaches();
+    for (int i = NUM_CLASSES - 1; i >= 0 && bytes > 0; i--) {
+      bytes = evict(directBuffers.get(i), bytes);
+      bytes = evict(heapBuffers.get(i), bytes);
+    }
+    for (Iterator<ThreadCache> it = threadCaches.iterator();
+         it.hasNext() && bytes > 0;) {
+      ThreadCache cache = it.next();
+      bytes = evict(cache.get(true), bytes);
+      bytes = evict(cache.get(false), bytes);
+    }
+    return bytes <= 0;
+  }
+
+  /**
+   * Drop the caches of the threads which have exited.
+   * @return the number of bytes released
+   */
+  private long releaseExitedThreadCaches() {
+    long released = 0;
+    for (Iterator<ThreadCache> it = threadCaches.iterator(); it.hasNext();) {
+      ThreadCache cache = it.next();
+      if (!cache.owner.isAlive()) {
+        it.remove();
+        released += Long.MAX_VALUE - evict(cache.get(true), Long.MAX_VALUE);
+        released += Long.MAX_VALUE - evict(cache.get(false), Long.MAX_VALUE);
+      }
+    }
+    return released;
+  }
+
+  private long evict(Queue<ByteBuffer> queue, long bytes) {
+    ByteBuffer buffer;
+    while (bytes > 0 && (buffer = queue.poll()) != null) {
+      bytes = evicted(buffer, bytes);
+    }
+    return bytes;
+  }
+
+  private long evict(AtomicReferenceArray<ByteBuffer> cache, long bytes) {
+    for (int i = cache.length() - 1; i >= 0 && bytes > 0; i--) {
+      ByteBuffer buffer = cache.getAndSet(i, null);
+      if (buffer != null) {
+        bytes = evicted(buffer, bytes);
+      }
+    }
+    return bytes;
+  }
+
+  private long evicted(ByteBuffer buffer, long bytes) {
+    cachedBytes.addAndGet(-buffer.capacity());
+    evictions.incrementAndGet();
+    return bytes - buffer.capacity();
+  }
+
+  /** @return the maximum total capacity of the shared size classes */
+  public long getMaxCachedBytes() {
+    return maxCachedBytes;
+  }
+
+  @Metric(value={"CachedBytes", "Capacity of the buffers in the pool"},
+      type=Metric.Type.GAUGE)
+  public long getCachedBytes() {
+    return cachedBytes.get();
+  }
+
+  @Metric(value={"Allocations", "Buffers allocated"},
+      type=Metric.Type.COUNTER)
+  public long getAllocations() {
+    return allocations.get();
+  }
+
+  @Metric(value={"AllocatedBytes", "Capacity of the buffers allocated"},
+      type=Metric.Type.COUNTER)
+  public long getAllocatedBytes() {
+    return allocatedBytes.get();
+  }
+
+  @Metric(value={"Hits", "Requests served from the pool"},
+      type=Metric.Type.COUNTER)
+  public long getHits() {
+    return hits.get();
+  }
+
+  @Metric(value={"Evictions", "Buffers dropped to respect the bound"},
+      type=Metric.Type.COUNTER)
+  public long getEvictions() {
+    return evictions.get();
+  }
+}
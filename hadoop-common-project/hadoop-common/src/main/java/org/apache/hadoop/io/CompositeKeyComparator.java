@@ -0,0 +1,164 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.io;
+
+import java.io.IOException;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A raw comparator for keys which are written as a sequence of
+ * {@link IntWritable}, {@link LongWritable}, {@link Text} and
+ * {@link BytesWritable} fields, and ordered by comparing these fields in
+ * turn.  The serialized fields are compared in place, without deserializing
+ * the keys.
+ * <p>
+ * For example, a key which writes an int and a Text in its
+ * {@link Writable#write(java.io.DataOutput)}, and compares the int first,
+ * would be registered with
+ * <pre>
+ * WritableComparator.define(MyKey.class, new CompositeKeyComparator(
+ *     MyKey.class, IntWritable.class, Text.class));
+ * </pre>
+ * The order of the fields and their types must match both the serialization
+ * and the {@link Comparable#compareTo(Object)} of the key, or raw and
+ * deserialized keys will sort differently.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public class CompositeKeyComparator extends WritableComparator {
+
+  /** The serialized forms of the supported fields. */
+  private static enum Field {
+    INT {
+      @Override
+      int length(byte[] b, int s) {
+        return 4;
+      }
+
+      @Override
+      int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+        int v1 = readInt(b1, s1);
+        int v2 = readInt(b2, s2);
+        return v1 < v2 ? -1 : (v1 == v2 ? 0 : 1);
+      }
+    },
+
+    LONG {
+      @Override
+      int length(byte[] b, int s) {
+        return 8;
+      }
+
+      @Override
+      int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+        long v1 = readLong(b1, s1);
+        long v2 = readLong(b2, s2);
+        return v1 < v2 ? -1 : (v1 == v2 ? 0 : 1);
+      }
+    },
+
+    /** A vint length followed by the bytes. */
+    TEXT {
+      @Override
+      int length(byte[] b, int s) throws IOException {
+        return WritableUtils.decodeVIntSize(b[s]) + readVInt(b, s);
+      }
+
+      @Override
+      int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+        int n1 = WritableUtils.decodeVIntSize(b1[s1]);
+        int n2 = WritableUtils.decodeVIntSize(b2[s2]);
+        return compareBytes(b1, s1 + n1, l1 - n1, b2, s2 + n2, l2 - n2);
+      }
+    },
+
+    /** An int length followed by the bytes. */
+    BYTES {
+      @Override
+      int length(byte[] b, int s) {
+        return 4 + readInt(b, s);
+      }
+
+      @Override
+      int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+        return compareBytes(b1, s1 + 4, l1 - 4, b2, s2 + 4, l2 - 4);
+      }
+    };
+
+    /** @return the length of the field serialized at s */
+    abstract int length(byte[] b, int s) throws IOException;
+
+    /** Compare two serialized fields, given their lengths. */
+    abstract int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2);
+
+    static Field of(Class<?> c) {
+      if (c == IntWritable.class) {
+        return INT;
+      } else if (c == LongWritable.class) {
+        return LONG;
+      } else if (c == Text.class) {
+        return TEXT;
+      } else if (c == BytesWritable.class) {
+        return BYTES;
+      }
+      throw new IllegalArgumentException("Unsupported key field " + c);
+    }
+  }
+
+  private final Field[] fields;
+
+  /**
+   * @param keyClass the class of the keys
+   * @param fieldClasses the classes of the fields of the keys, in the order
+   *                     they are written and compared
+   */
+  public CompositeKeyComparator(Class<? extends WritableComparable<?>> keyClass,
+      Class<?>... fieldClasses) {
+    super(keyClass, true);
+    Preconditions.checkArgument(fieldClasses.length > 0,
+        "No fields given for %s", keyClass);
+    fields = new Field[fieldClasses.length];
+    for (int i = 0; i < fields.length; i++) {
+      fields[i] = Field.of(fieldClasses[i]);
+    }
+  }
+
+  @Override
+  public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+    try {
+      for (Field field : fields) {
+        int n1 = field.length(b1, s1);
+        int n2 = field.length(b2, s2);
+        int c = field.compare(b1, s1, n1, b2, s2, n2);
+        if (c != 0) {
+          return c;
+        }
+        s1 += n1;
+        s2 += n2;
+      }
+    } catch (IOException e) {
+      throw new IllegalArgumentException(e);
+    }
+    return 0;
+  }
+}
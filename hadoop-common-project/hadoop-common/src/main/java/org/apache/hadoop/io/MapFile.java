@@ -28,6 +28,7 @@
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.CommonConfigurationKeys;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.IOUtils;
@@ -45,7 +46,9 @@
  * {@link Writer#getIndexInterval()}.
  *
  * <p>The index file is read entirely into memory.  Thus key implementations
- * should try to keep themselves small.
+ * should try to keep themselves small.  Map files written with
+ * <code>io.map.index.binary</code> set also have a binary index, which is
+ * searched in place rather than read into memory.
  *
  * <p>Map files are created by adding entries in-order.  To maintain a large
  * database, perform updates by copying the previous version of a database and
@@ -64,12 +67,16 @@ public class MapFile {
   /** The name of the data file. */
   public static final String DATA_FILE_NAME = "data";
 
+  /** The name of the binary index file, if any. */
+  public static final String BINARY_INDEX_FILE_NAME = "index.bin";
+
   protected MapFile() {}                          // no public ctor
 
   /** Writes a new map. */
   public static class Writer implements java.io.Closeable {
     private SequenceFile.Writer data;
     private SequenceFile.Writer index;
+    private MapFileIndex.Writer binaryIndex;
 
     final private static String INDEX_INTERVAL = "io.map.index.interval";
     private int indexInterval = 128;
@@ -279,6 +286,16 @@ public Writer(Configuration conf,
             SequenceFile.Writer.valueClass(LongWritable.class),
             SequenceFile.Writer.compression(CompressionType.BLOCK));
       this.index = SequenceFile.createWriter(conf, indexOptions);      
+
+      Path binaryIndexFile = new Path(dirName, BINARY_INDEX_FILE_NAME);
+      if (conf.getBoolean(CommonConfigurationKeys.IO_MAP_INDEX_BINARY_KEY,
+          CommonConfigurationKeys.IO_MAP_INDEX_BINARY_DEFAULT)) {
+        this.binaryIndex = new MapFileIndex.Writer(fs, binaryIndexFile);
+      } else {
+        // readers would prefer the binary index of a map written before
+        fs.delete(binaryIndexFile, false);
+        fs.delete(MapFileIndex.getTablePath(binaryIndexFile), false);
+      }
     }
 
     /** The number of entries that are added before an index entry is added.*/
@@ -301,6 +318,9 @@ public static void setIndexInterval(Configuration conf, int interval) {
     public synchronized void close() throws IOException {
       data.close();
       index.close();
+      if (binaryIndex != null) {
+        binaryIndex.close();
+      }
     }
 
     /** Append a key/value pair to the map.  The key must be greater or equal
@@ -316,6 +336,9 @@ public synchronized void append(WritableComparable key, Writable val)
       if (size >= lastIndexKeyCount + indexInterval && pos > lastIndexPos) {
         position.set(pos);                        // point to current eof
         index.append(key, position);
+        if (binaryIndex != null) {                // checkKey serialized key
+          binaryIndex.append(outBuf.getData(), outBuf.getLength(), pos);
+        }
         lastIndexPos = pos;
         lastIndexKeyCount = size;
       }
@@ -366,6 +389,10 @@ public static class Reader implements java.io.Closeable {
     private WritableComparable[] keys;
     private long[] positions;
 
+    // or the binary index, searched in place, and the serialized search key
+    private MapFileIndex binaryIndex;
+    private DataOutputBuffer keyBuf;
+
     /** Returns the class of keys in this file. */
     public Class<?> getKeyClass() { return data.getKeyClass(); }
 
@@ -435,7 +462,16 @@ protected synchronized void open(Path dir,
       else
         this.comparator = comparator;
 
-      // open the index
+      // open the binary index if the map has a complete one, else the index
+      FileSystem fs = FileSystem.get(dir.toUri(), conf);
+      this.binaryIndex =
+        MapFileIndex.open(fs, new Path(dir, BINARY_INDEX_FILE_NAME));
+      if (binaryIndex != null) {
+        this.count = binaryIndex.size();
+        this.keyBuf = new DataOutputBuffer();
+        this.indexClosed = true;
+        return;
+      }
       SequenceFile.Reader.Option[] indexOptions =
         Options.prependOptions(options, SequenceFile.Reader.file(indexFile));
       this.index = new SequenceFile.Reader(conf, indexOptions);
@@ -456,7 +492,7 @@ protected synchronized void open(Path dir,
 
     private void readIndex() throws IOException {
       // read the index entirely into memory
-      if (this.keys != null)
+      if (this.keys != null || this.binaryIndex != null)
         return;
       this.count = 0;
       this.positions = new long[1024];
@@ -525,6 +561,11 @@ public synchronized WritableComparable midKey() throws IOException {
         return null;
       }
     
+      if (binaryIndex != null) {
+        WritableComparable<?> key = comparator.newKey();
+        binaryIndex.getKey((count - 1) / 2, key);
+        return key;
+      }
       return keys[(count - 1) / 2];
     }
     
@@ -539,7 +580,7 @@ public synchronized void finalKey(WritableComparable key)
       try {
         readIndex();                              // make sure index is valid
         if (count > 0) {
-          data.seek(positions[count-1]);          // skip to last indexed entry
+          data.seek(getIndexPosition(count-1));   // skip to last indexed entry
         } else {
           reset();                                // start at the beginning
         }
@@ -587,10 +628,14 @@ private synchronized int seekInternal(WritableComparable key,
         final boolean before)
       throws IOException {
       readIndex();                                // make sure index is read
+      if (binaryIndex != null) {
+        keyBuf.reset();
+        key.write(keyBuf);
+      }
 
       if (seekIndex != -1                         // seeked before
           && seekIndex+1 < count           
-          && comparator.compare(key, keys[seekIndex+1])<0 // before next indexed
+          && compareToIndex(key, seekIndex+1)<0   // before next indexed
           && comparator.compare(key, nextKey)
           >= 0) {                                 // but after last seeked
         // do nothing
@@ -602,7 +647,7 @@ private synchronized int seekInternal(WritableComparable key,
         if (seekIndex == -1)                      // belongs before first entry
           seekPosition = firstPosition;           // use beginning of file
         else
-          seekPosition = positions[seekIndex];    // else use index
+          seekPosition = getIndexPosition(seekIndex); // else use index
       }
       data.seek(seekPosition);
       
@@ -644,7 +689,29 @@ private synchronized int seekInternal(WritableComparable key,
       return 1;
     }
 
-    private int binarySearch(WritableComparable key) {
+    /** The data file position of an index entry. */
+    private long getIndexPosition(int i) {
+      return binaryIndex != null ? binaryIndex.getPosition(i) : positions[i];
+    }
+
+    /**
+     * Compare a key to the key of an index entry. With a binary index, the
+     * key has to be serialized in keyBuf.
+     */
+    private int compareToIndex(WritableComparable<?> key, int i)
+        throws IOException {
+      if (binaryIndex != null) {
+        return binaryIndex.compareTo(keyBuf.getData(), keyBuf.getLength(), i,
+            comparator);
+      }
+      return comparator.compare(key, keys[i]);
+    }
+
+    private int binarySearch(WritableComparable key) throws IOException {
+      if (binaryIndex != null) {
+        return binaryIndex.binarySearch(keyBuf.getData(), keyBuf.getLength(),
+            comparator);
+      }
       int low = 0;
       int high = count-1;
 
@@ -730,6 +797,9 @@ public synchronized void close() throws IOException {
       if (!indexClosed) {
         index.close();
       }
+      if (binaryIndex != null) {
+        binaryIndex.close();
+      }
       data.close();
     }
 
@@ -753,11 +823,16 @@ public static void delete(FileSystem fs, String name) throws IOException {
 
     fs.delete(data, true);
     fs.delete(index, true);
+    Path binaryIndex = new Path(dir, BINARY_INDEX_FILE_NAME);
+    fs.delete(binaryIndex, true);
+    fs.delete(MapFileIndex.getTablePath(binaryIndex), true);
     fs.delete(dir, true);
   }
 
   /**
    * This method attempts to fix a corrupt MapFile by re-creating its index.
+   * A binary index is re-created as well if <code>io.map.index.binary</code>
+   * is set, and deleted otherwise.
    * @param fs filesystem
    * @param dir directory containing the MapFile data and index
    * @param keyClass key class (has to be a subclass of Writable)
@@ -796,6 +871,8 @@ public static long fix(FileSystem fs, Path dir,
     Writable key = ReflectionUtils.newInstance(keyClass, conf);
     Writable value = ReflectionUtils.newInstance(valueClass, conf);
     SequenceFile.Writer indexWriter = null;
+    MapFileIndex.Writer binaryIndexWriter = null;
+    DataOutputBuffer keyBuf = null;
     if (!dryrun) {
       indexWriter = 
         SequenceFile.createWriter(conf, 
@@ -803,6 +880,15 @@ public static long fix(FileSystem fs, Path dir,
                                   SequenceFile.Writer.keyClass(keyClass), 
                                   SequenceFile.Writer.valueClass
                                     (LongWritable.class));
+      // readers would use a stale binary index rather than the new index
+      Path binaryIndex = new Path(dir, BINARY_INDEX_FILE_NAME);
+      fs.delete(binaryIndex, false);
+      fs.delete(MapFileIndex.getTablePath(binaryIndex), false);
+      if (conf.getBoolean(CommonConfigurationKeys.IO_MAP_INDEX_BINARY_KEY,
+          CommonConfigurationKeys.IO_MAP_INDEX_BINARY_DEFAULT)) {
+        binaryIndexWriter = new MapFileIndex.Writer(fs, binaryIndex);
+        keyBuf = new DataOutputBuffer();
+      }
     }
     try {
       long pos = 0L;
@@ -812,6 +898,12 @@ public static long fix(FileSystem fs, Path dir,
         if (cnt % indexInterval == 0) {
           position.set(pos);
           if (!dryrun) indexWriter.append(key, position);
+          if (binaryIndexWriter != null) {
+            keyBuf.reset();
+            key.write(keyBuf);
+            binaryIndexWriter.append(keyBuf.getData(), keyBuf.getLength(),
+                pos);
+          }
         }
         pos = dataReader.getPosition();
       }
@@ -820,6 +912,7 @@ public static long fix(FileSystem fs, Path dir,
     }
     dataReader.close();
     if (!dryrun) indexWriter.close();
+    if (binaryIndexWriter != null) binaryIndexWriter.close();
     return cnt;
   }
 
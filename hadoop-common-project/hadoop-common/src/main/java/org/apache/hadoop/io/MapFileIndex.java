@@ -0,0 +1,333 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+
+/**
+ * The binary index of a {@link MapFile}, stored in its
+ * {@link MapFile#BINARY_INDEX_FILE_NAME} file next to the SequenceFile index.
+ * <p>
+ * Keys are kept serialized, so the index is searched by comparing raw bytes
+ * and does not have to be read into memory as a whole.  The file consists
+ * of
+ * <ol>
+ * <li>the serialized keys, in order</li>
+ * <li>the slot table: for every key, its offset in the file and the
+ *     position of its entry in the data file, both as longs</li>
+ * <li>the trailer: the offset of the slot table as a long, the number of
+ *     keys as an int, and {@link #MAGIC}</li>
+ * </ol>
+ * Indexes on the local file system are memory-mapped.  Of others, only the
+ * slot table is read into memory, and keys are read as they are compared.
+ */
+final class MapFileIndex implements Closeable {
+  private static final Log LOG = LogFactory.getLog(MapFileIndex.class);
+
+  static final int MAGIC = 0x4d415049; // "MAPI"
+  static final int SLOT_SIZE = 16;
+  static final int TRAILER_SIZE = 16;
+
+  /**
+   * Writes a binary index.  Keys have to be appended in order.
+   */
+  static class Writer implements Closeable {
+    private final FileSystem fs;
+    private final FSDataOutputStream out;
+    // the slot table is spilled to a side file, and appended on close
+    private final Path tablePath;
+    private final FSDataOutputStream tableOut;
+    private int numKeys = 0;
+
+    Writer(FileSystem fs, Path path) throws IOException {
+      this.fs = fs;
+      this.tablePath = getTablePath(path);
+      this.out = fs.create(path, true);
+      this.tableOut = fs.create(tablePath, true);
+    }
+
+    /**
+     * @param key the serialized key
+     * @param length the length of the key
+     * @param position the position of its entry in the data file
+     */
+    void append(byte[] key, int length, long position) throws IOException {
+      if (numKeys == Integer.MAX_VALUE) {
+        throw new IOException("Too many keys in the MapFile index");
+      }
+      tableOut.writeLong(out.getPos());
+      tableOut.writeLong(position);
+      out.write(key, 0, length);
+      numKeys++;
+    }
+
+    @Override
+    public void close() throws IOException {
+      boolean closed = false;
+      try {
+        tableOut.close();
+        long tableOffset = out.getPos();
+        FSDataInputStream tableIn = fs.open(tablePath);
+        try {
+          IOUtils.copyBytes(tableIn, out, 64 * 1024, false);
+        } finally {
+          IOUtils.closeStream(tableIn);
+        }
+        out.writeLong(tableOffset);
+        out.writeInt(numKeys);
+        out.writeInt(MAGIC);
+        out.close();
+        closed = true;
+      } finally {
+        if (!closed) {
+          IOUtils.cleanup(LOG, tableOut, out);
+        }
+        fs.delete(tablePath, false);
+      }
+    }
+  }
+
+  /**
+   * @return the side file of the slot table while the index at the given
+   * path is written.  It is left behind if the writer dies.
+   */
+  static Path getTablePath(Path path) {
+    return path.suffix(".table");
+  }
+
+  private final ByteBuffer mapped;
+  private final FSDataInputStream in;
+  private final long tableOffset;
+  private final int numKeys;
+  // the slot table, when the index is not mapped
+  private final long[] keyOffsets;
+  private final long[] positions;
+  private byte[] keyBuffer = new byte[64];
+
+  private MapFileIndex(ByteBuffer mapped, FSDataInputStream in,
+      long fileLength) throws IOException {
+    this.mapped = mapped;
+    this.in = in;
+    if (fileLength < TRAILER_SIZE) {
+      throw new CorruptIndexException("MapFile index is truncated");
+    }
+    DataInputBuffer trailer =
+      read(fileLength - TRAILER_SIZE, TRAILER_SIZE);
+    tableOffset = trailer.readLong();
+    numKeys = trailer.readInt();
+    if (trailer.readInt() != MAGIC ||
+        tableOffset + (long) numKeys * SLOT_SIZE + TRAILER_SIZE !=
+          fileLength) {
+      throw new CorruptIndexException("MapFile index is corrupt");
+    }
+    if (mapped == null) {
+      keyOffsets = new long[numKeys];
+      positions = new long[numKeys];
+      DataInputBuffer table = read(tableOffset, numKeys * SLOT_SIZE);
+      for (int i = 0; i < numKeys; i++) {
+        keyOffsets[i] = table.readLong();
+        positions[i] = table.readLong();
+      }
+    } else {
+      keyOffsets = null;
+      positions = null;
+    }
+  }
+
+  /** Thrown for an index which was not completely written. */
+  private static class CorruptIndexException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    CorruptIndexException(String message) {
+      super(message);
+    }
+  }
+
+  /**
+   * Open the binary index of a MapFile.
+   *
+   * @return the index, or null if the MapFile has no binary index, or one
+   * left incomplete by a writer which died
+   */
+  static MapFileIndex open(FileSystem fs, Path path) throws IOException {
+    try {
+      return openIndex(fs, path);
+    } catch (FileNotFoundException e) {
+      return null;
+    } catch (CorruptIndexException e) {
+      LOG.warn("Ignoring the binary index " + path + ": " + e.getMessage());
+      return null;
+    }
+  }
+
+  private static MapFileIndex openIndex(FileSystem fs, Path path)
+      throws IOException {
+    File file = null;
+    if (fs instanceof LocalFileSystem) {
+      file = ((LocalFileSystem) fs).pathToFile(path);
+    } else if (fs instanceof RawLocalFileSystem) {
+      file = ((RawLocalFileSystem) fs).pathToFile(path);
+    }
+    if (file != null && file.isFile()
+        && file.length() <= Integer.MAX_VALUE) {
+      RandomAccessFile raf = null;
+      try {
+        raf = new RandomAccessFile(file, "r");
+        ByteBuffer mapped = raf.getChannel().map(
+            FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        return new MapFileIndex(mapped, null, mapped.capacity());
+      } catch (CorruptIndexException e) {
+        throw e;
+      } catch (IOException e) {
+        LOG.debug("Unable to map " + file + ", reading it instead", e);
+      } finally {
+        IOUtils.closeStream(raf);
+      }
+    }
+    long length = fs.getFileStatus(path).getLen();
+    FSDataInputStream in = fs.open(path);
+    try {
+      return new MapFileIndex(null, in, length);
+    } catch (IOException e) {
+      IOUtils.closeStream(in);
+      throw e;
+    }
+  }
+
+  /** @return the number of keys in the index */
+  int size() {
+    return numKeys;
+  }
+
+  /** @return the position in the data file of the i-th key */
+  long getPosition(int i) {
+    if (mapped == null) {
+      return positions[i];
+    }
+    return mapped.getLong((int) (tableOffset + (long) i * SLOT_SIZE + 8));
+  }
+
+  private long getKeyOffset(int i) {
+    if (i == numKeys) {
+      return tableOffset;
+    }
+    if (mapped == null) {
+      return keyOffsets[i];
+    }
+    return mapped.getLong((int) (tableOffset + (long) i * SLOT_SIZE));
+  }
+
+  /** Read the i-th key into keyBuffer, returning its length. */
+  private int readKey(int i) throws IOException {
+    long offset = getKeyOffset(i);
+    int length = (int) (getKeyOffset(i + 1) - offset);
+    if (keyBuffer.length < length) {
+      keyBuffer = new byte[Math.max(length, keyBuffer.length * 2)];
+    }
+    if (mapped != null) {
+      ByteBuffer dup = mapped.duplicate();
+      dup.position((int) offset);
+      dup.get(keyBuffer, 0, length);
+    } else {
+      in.readFully(offset, keyBuffer, 0, length);
+    }
+    return length;
+  }
+
+  /**
+   * Deserialize the i-th key.
+   */
+  void getKey(int i, WritableComparable<?> key) throws IOException {
+    int length = readKey(i);
+    DataInputBuffer buf = new DataInputBuffer();
+    buf.reset(keyBuffer, length);
+    key.readFields(buf);
+  }
+
+  /**
+   * Compare a serialized key to the i-th key of the index.
+   */
+  int compareTo(byte[] key, int length, int i, RawComparator<?> comparator)
+      throws IOException {
+    int indexKeyLength = readKey(i);
+    return comparator.compare(key, 0, length, keyBuffer, 0, indexKeyLength);
+  }
+
+  /**
+   * Search the index for a serialized key.
+   * @return the index of the key, if the index contains it; otherwise,
+   *         <code>(-(insertion point) - 1)</code>, as in
+   *         {@link java.util.Arrays#binarySearch(long[], long)}
+   */
+  int binarySearch(byte[] key, int length, RawComparator<?> comparator)
+      throws IOException {
+    int low = 0;
+    int high = numKeys - 1;
+
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int cmp = -compareTo(key, length, mid, comparator);
+
+      if (cmp < 0)
+        low = mid + 1;
+      else if (cmp > 0)
+        high = mid - 1;
+      else
+        return mid;                               // key found
+    }
+    return -(low + 1);                            // key not found.
+  }
+
+  /**
+   * Read a range of the index.
+   */
+  private DataInputBuffer read(long position, int length) throws IOException {
+    byte[] buf = new byte[length];
+    if (mapped != null) {
+      ByteBuffer dup = mapped.duplicate();
+      dup.position((int) position);
+      dup.get(buf);
+    } else {
+      in.readFully(position, buf);
+    }
+    DataInputBuffer dib = new DataInputBuffer();
+    dib.reset(buf, length);
+    return dib;
+  }
+
+  @Override
+  public void close() throws IOException {
+    IOUtils.closeStream(in);
+  }
+}
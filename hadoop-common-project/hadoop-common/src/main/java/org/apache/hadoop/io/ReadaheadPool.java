@@ -22,18 +22,30 @@
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
 import org.apache.hadoop.io.nativeio.NativeIO;
+import org.apache.hadoop.metrics2.annotation.Metric;
+import org.apache.hadoop.metrics2.annotation.Metrics;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * Manages a pool of threads which can issue readahead requests on file descriptors.
+ * <p>
+ * The readahead window of a stream adapts to the way it is read. It starts at
+ * the configured readahead length, doubles (up to {@link #MAX_WINDOW_FACTOR}
+ * times that length) each time the reader reaches the middle of the window,
+ * and halves (down to 1/{@link #MAX_WINDOW_FACTOR} of that length) each time
+ * the reader seeks away from it. Successive windows of a stream overlap, and
+ * only the part of a window that was not advised before is requested again.
  */
 @InterfaceAudience.Private
 @InterfaceStability.Evolving
@@ -42,7 +54,10 @@ public class ReadaheadPool {
   private static final int POOL_SIZE = 4;
   private static final int MAX_POOL_SIZE = 16;
   private static final int CAPACITY = 1024;
+  /** Bounds the adaptive window, relative to the configured length */
+  static final int MAX_WINDOW_FACTOR = 8;
   private final ThreadPoolExecutor pool;
+  private final ReadaheadMetrics metrics = new ReadaheadMetrics();
   
   private static ReadaheadPool instance;
 
@@ -53,12 +68,15 @@ public static ReadaheadPool getInstance() {
     synchronized (ReadaheadPool.class) {
       if (instance == null && NativeIO.isAvailable()) {
         instance = new ReadaheadPool();
+        DefaultMetricsSystem.instance().register("ReadaheadPool",
+            "Readahead statistics", instance.metrics);
       }
       return instance;
     }
   }
   
-  private ReadaheadPool() {
+  @VisibleForTesting
+  ReadaheadPool() {
     pool = new ThreadPoolExecutor(POOL_SIZE, MAX_POOL_SIZE, 3L, TimeUnit.SECONDS,
         new ArrayBlockingQueue<Runnable>(CAPACITY));
     pool.setRejectedExecutionHandler(new ThreadPoolExecutor.DiscardOldestPolicy());
@@ -84,7 +102,7 @@ private ReadaheadPool() {
    *        of this function on this file descriptor, or null if this is
    *        the first call
    * @return an object representing this outstanding request, or null
-   *        if no readahead was performed
+   *        if the end of the stream has been reached
    */
   public ReadaheadRequest readaheadStream(
       String identifier,
@@ -101,38 +119,59 @@ public ReadaheadRequest readaheadStream(
     if (readaheadLength <= 0) {
       return null;
     }
-    
-    long lastOffset = Long.MIN_VALUE;
-    
-    if (lastReadahead != null) {
-      lastOffset = lastReadahead.getOffset();
-    }
-
-    // trigger each readahead when we have reached the halfway mark
-    // in the previous readahead. This gives the system time
-    // to satisfy the readahead before we start reading the data.
-    long nextOffset = lastOffset + readaheadLength / 2; 
-    if (curPos >= nextOffset) {
-      // cancel any currently pending readahead, to avoid
-      // piling things up in the queue. Each reader should have at most
-      // one outstanding request in the queue.
-      if (lastReadahead != null) {
-        lastReadahead.cancel();
-        lastReadahead = null;
-      }
-      
-      long length = Math.min(readaheadLength,
-          maxOffsetToRead - curPos);
 
-      if (length <= 0) {
-        // we've reached the end of the stream
-        return null;
+    ReadaheadRequestImpl last = null;
+    if (lastReadahead instanceof ReadaheadRequestImpl) {
+      last = (ReadaheadRequestImpl) lastReadahead;
+    }
+    long window = readaheadLength;
+    // the data before this offset has been advised already
+    long advisedEnd = curPos;
+    if (last != null) {
+      window = last.window;
+      long lastEnd = last.off + last.len;
+      if (curPos >= last.off && curPos <= lastEnd) {
+        last.consumed = Math.max(last.consumed, curPos);
+        // trigger each readahead when we have reached the halfway mark
+        // in the previous readahead. This gives the system time
+        // to satisfy the readahead before we start reading the data.
+        if (curPos < last.off + last.len / 2) {
+          return lastReadahead;
+        }
+        metrics.hits.incrementAndGet();
+        window = Math.min(window * 2, readaheadLength * MAX_WINDOW_FACTOR);
+        if (last.done) {
+          advisedEnd = lastEnd;
+        } else {
+          // replace the pending request, so that each reader has at most
+          // one outstanding request in the queue
+          last.replace();
+        }
+      } else {
+        // the reader seeked away from the data read ahead for it
+        last.cancel();
+        metrics.misses.incrementAndGet();
+        window = Math.max(window / 2,
+            Math.max(readaheadLength / MAX_WINDOW_FACTOR, 1));
       }
-      
-      return submitReadahead(identifier, fd, curPos, length);
-    } else {
-      return lastReadahead;
     }
+
+    long length = Math.min(window, maxOffsetToRead - curPos);
+    if (length <= 0) {
+      // we've reached the end of the stream
+      return null;
+    }
+    ReadaheadRequestImpl req = new ReadaheadRequestImpl(
+        identifier, fd, curPos, length, window, metrics);
+    long adviseFrom = Math.max(advisedEnd, curPos);
+    if (adviseFrom >= curPos + length) {
+      // everything in the window has been advised already
+      req.done = true;
+      return req;
+    }
+    req.adviseFrom = adviseFrom;
+    submit(req);
+    return req;
   }
       
   /**
@@ -146,12 +185,79 @@ public ReadaheadRequest readaheadStream(
   public ReadaheadRequest submitReadahead(
       String identifier, FileDescriptor fd, long off, long len) {
     ReadaheadRequestImpl req = new ReadaheadRequestImpl(
-        identifier, fd, off, len);
+        identifier, fd, off, len, len, metrics);
+    submit(req);
+    return req;
+  }
+
+  private void submit(ReadaheadRequestImpl req) {
     pool.execute(req);
     if (LOG.isTraceEnabled()) {
       LOG.trace("submit readahead: " + req);
     }
-    return req;
+  }
+
+  @VisibleForTesting
+  ReadaheadMetrics getMetrics() {
+    return metrics;
+  }
+
+  @VisibleForTesting
+  long getPendingRequests() {
+    return pool.getTaskCount() - pool.getCompletedTaskCount();
+  }
+
+  /**
+   * Statistics of the readahead requests of all streams. A window is hit if
+   * its reader reaches its middle, and missed if the reader seeks away from
+   * it. Wasted bytes were read ahead, but not read before the reader seeked
+   * away or stopped reading.
+   */
+  @Metrics(about="Readahead statistics", context="io")
+  static class ReadaheadMetrics {
+    final AtomicLong requests = new AtomicLong();
+    final AtomicLong bytes = new AtomicLong();
+    final AtomicLong hits = new AtomicLong();
+    final AtomicLong misses = new AtomicLong();
+    final AtomicLong wastedBytes = new AtomicLong();
+
+    @Metric(value={"ReadaheadRequests", "Readahead requests issued"},
+        type=Metric.Type.COUNTER)
+    public long getRequests() {
+      return requests.get();
+    }
+
+    @Metric(value={"ReadaheadBytes", "Bytes requested to be read ahead"},
+        type=Metric.Type.COUNTER)
+    public long getBytes() {
+      return bytes.get();
+    }
+
+    @Metric(value={"ReadaheadHits", "Readahead windows read into"},
+        type=Metric.Type.COUNTER)
+    public long getHits() {
+      return hits.get();
+    }
+
+    @Metric(value={"ReadaheadMisses", "Readahead windows seeked away from"},
+        type=Metric.Type.COUNTER)
+    public long getMisses() {
+      return misses.get();
+    }
+
+    @Metric(value={"ReadaheadHitRatio", "Ratio of hit readahead windows"},
+        type=Metric.Type.GAUGE)
+    public float getHitRatio() {
+      long h = hits.get();
+      long total = h + misses.get();
+      return total == 0 ? 0 : (float) h / total;
+    }
+
+    @Metric(value={"ReadaheadWastedBytes", "Bytes read ahead but not read"},
+        type=Metric.Type.COUNTER)
+    public long getWastedBytes() {
+      return wastedBytes.get();
+    }
   }
   
   /**
@@ -185,13 +291,26 @@ private static class ReadaheadRequestImpl implements Runnable, ReadaheadRequest
     private final String identifier;
     private final FileDescriptor fd;
     private final long off, len;
+    // the adaptive window of the stream, which len may be clamped from
+    private final long window;
+    private final ReadaheadMetrics metrics;
+    // the part before this offset was requested by an earlier request
+    private long adviseFrom;
+    // how far the reader has got in this request, as seen by readaheadStream
+    private long consumed;
     private volatile boolean canceled = false;
+    private volatile boolean done = false;
     
-    private ReadaheadRequestImpl(String identifier, FileDescriptor fd, long off, long len) {
+    private ReadaheadRequestImpl(String identifier, FileDescriptor fd,
+        long off, long len, long window, ReadaheadMetrics metrics) {
       this.identifier = identifier;
       this.fd = fd;
       this.off = off;
       this.len = len;
+      this.window = window;
+      this.metrics = metrics;
+      this.adviseFrom = off;
+      this.consumed = off;
     }
     
     @Override
@@ -203,8 +322,11 @@ public void run() {
       // It's also possible that we'll end up requesting readahead on some
       // other FD, which may be wasted work, but won't cause a problem.
       try {
+        long adviseLen = off + len - adviseFrom;
         NativeIO.POSIX.getCacheManipulator().posixFadviseIfPossible(identifier,
-            fd, off, len, NativeIO.POSIX.POSIX_FADV_WILLNEED);
+            fd, adviseFrom, adviseLen, NativeIO.POSIX.POSIX_FADV_WILLNEED);
+        metrics.requests.incrementAndGet();
+        metrics.bytes.addAndGet(adviseLen);
       } catch (IOException ioe) {
         if (canceled) {
           // no big deal - the reader canceled the request and closed
@@ -213,15 +335,31 @@ public void run() {
         }
         LOG.warn("Failed readahead on " + identifier,
             ioe);
+      } finally {
+        done = true;
       }
     }
 
     @Override
     public void cancel() {
+      if (canceled) {
+        return;
+      }
       canceled = true;
       // We could attempt to remove it from the work queue, but that would
       // add complexity. In practice, the work queues remain very short,
       // so removing canceled requests has no gain.
+      if (done) {
+        long unread = off + len - Math.max(consumed, adviseFrom);
+        if (unread > 0) {
+          metrics.wastedBytes.addAndGet(unread);
+        }
+      }
+    }
+
+    /** Cancel a pending request, which a request for the stream replaces. */
+    private void replace() {
+      canceled = true;
     }
 
     @Override
@@ -237,7 +375,7 @@ public long getLength() {
     @Override
     public String toString() {
       return "ReadaheadRequestImpl [identifier='" + identifier + "', fd=" + fd
-          + ", off=" + off + ", len=" + len + "]";
+          + ", off=" + off + ", len=" + len + ", window=" + window + "]";
     }
   }
 }
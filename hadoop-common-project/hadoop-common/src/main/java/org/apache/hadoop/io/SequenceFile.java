@@ -20,6 +20,11 @@
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.rmi.server.UID;
 import java.security.MessageDigest;
 import org.apache.commons.logging.*;
@@ -49,6 +54,8 @@
 import org.apache.hadoop.util.PriorityQueue;
 import org.apache.hadoop.util.Time;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 /** 
  * <code>SequenceFile</code>s are flat files consisting of binary key/value 
  * pairs.
@@ -1238,9 +1245,7 @@ public void sync() throws IOException {
      */
     @Deprecated
     public void syncFs() throws IOException {
-      if (out != null) {
-        out.hflush();  // flush contents to file system
-      }
+      hflush();
     }
 
     @Override
@@ -1435,6 +1440,13 @@ static class BlockCompressWriter extends Writer {
     private DataOutputBuffer valBuffer = new DataOutputBuffer();
 
     private final int compressionBlockSize;
+
+    // blocks being compressed in the background, in file order; only used
+    // if a compression pool is configured
+    private final ExecutorService compressionPool;
+    private final int maxPendingBlocks;
+    private final Queue<Future<CompressedBlock>> pendingBlocks =
+      new LinkedList<Future<CompressedBlock>>();
     
     BlockCompressWriter(Configuration conf,
                         Option... options) throws IOException {
@@ -1445,6 +1457,20 @@ static class BlockCompressWriter extends Writer {
       keySerializer.open(keyBuffer);
       uncompressedValSerializer.close();
       uncompressedValSerializer.open(valBuffer);
+      int compressionThreads = conf.getInt(
+          CommonConfigurationKeys.IO_SEQFILE_COMPRESS_THREADS_KEY,
+          CommonConfigurationKeys.IO_SEQFILE_COMPRESS_THREADS_DEFAULT);
+      if (compressionThreads > 0) {
+        compressionPool = Executors.newFixedThreadPool(compressionThreads,
+            new ThreadFactoryBuilder()
+              .setDaemon(true)
+              .setNameFormat("SequenceFile compressor #%d")
+              .build());
+        maxPendingBlocks = 2 * compressionThreads;
+      } else {
+        compressionPool = null;
+        maxPendingBlocks = 0;
+      }
     }
 
     /** Workhorse to check and write out compressed data/lengths */
@@ -1465,7 +1491,9 @@ void writeBuffer(DataOutputBuffer uncompressedDataBuffer)
     /** Compress and flush contents to dfs */
     @Override
     public synchronized void sync() throws IOException {
-      if (noBufferedRecords > 0) {
+      if (noBufferedRecords > 0 && compressionPool != null) {
+        submitBlock();
+      } else if (noBufferedRecords > 0) {
         super.sync();
         
         // No. of records
@@ -1492,11 +1520,109 @@ public synchronized void sync() throws IOException {
       
     }
     
+    /**
+     * Hand the buffered records to the compression pool as a block, writing
+     * out the oldest pending block first if too many are pending already.
+     */
+    private void submitBlock() throws IOException {
+      final int records = noBufferedRecords;
+      final DataOutputBuffer[] data = {
+        copyOf(keyLenBuffer), copyOf(keyBuffer),
+        copyOf(valLenBuffer), copyOf(valBuffer)
+      };
+      keyLenBuffer.reset();
+      keyBuffer.reset();
+      valLenBuffer.reset();
+      valBuffer.reset();
+      noBufferedRecords = 0;
+
+      if (pendingBlocks.size() >= maxPendingBlocks) {
+        writeBlock(pendingBlocks.remove());
+      }
+      pendingBlocks.add(compressionPool.submit(
+          new Callable<CompressedBlock>() {
+            @Override
+            public CompressedBlock call() throws IOException {
+              return new CompressedBlock(records, data, codec);
+            }
+          }));
+    }
+
+    private static DataOutputBuffer copyOf(DataOutputBuffer buffer)
+        throws IOException {
+      DataOutputBuffer copy = new DataOutputBuffer(buffer.getLength());
+      copy.write(buffer.getData(), 0, buffer.getLength());
+      return copy;
+    }
+
+    /** Wait for a block to be compressed and write it to the file. */
+    private void writeBlock(Future<CompressedBlock> future)
+        throws IOException {
+      CompressedBlock block;
+      try {
+        block = future.get();
+      } catch (InterruptedException e) {
+        throw (IOException)
+          new InterruptedIOException("Interrupted compressing a block")
+            .initCause(e);
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        throw cause instanceof IOException ? (IOException) cause
+            : new IOException("Failed to compress a block", cause);
+      }
+      super.sync();
+      WritableUtils.writeVInt(out, block.records);
+      int offset = 0;
+      for (int length : block.lengths) {
+        WritableUtils.writeVInt(out, length);
+        out.write(block.data.getData(), offset, length);
+        offset += length;
+      }
+      out.flush();
+    }
+
+    /** Write out all the blocks being compressed. */
+    private void writePendingBlocks() throws IOException {
+      while (!pendingBlocks.isEmpty()) {
+        writeBlock(pendingBlocks.remove());
+      }
+    }
+
+    @Override
+    public synchronized void hsync() throws IOException {
+      writePendingBlocks();
+      super.hsync();
+    }
+
+    /**
+     * Writes out the blocks being compressed first, so that the length
+     * covers all the records synced so far, as it does without a compression
+     * pool.
+     */
+    @Override
+    public synchronized long getLength() throws IOException {
+      writePendingBlocks();
+      return super.getLength();
+    }
+
+    @Override
+    public synchronized void hflush() throws IOException {
+      writePendingBlocks();
+      super.hflush();
+    }
+
     /** Close the file. */
     @Override
     public synchronized void close() throws IOException {
-      if (out != null) {
-        sync();
+      try {
+        if (out != null) {
+          sync();
+          writePendingBlocks();
+        }
+      } finally {
+        if (compressionPool != null) {
+          compressionPool.shutdownNow();
+        }
       }
       super.close();
     }
@@ -1560,6 +1686,37 @@ public synchronized void appendRaw(byte[] keyData, int keyOffset,
       }
     }
   
+    /**
+     * The compressed key lengths, keys, value lengths and values of a block,
+     * compressed with a compressor of its own.
+     */
+    private static class CompressedBlock {
+      final int records;
+      final DataOutputBuffer data = new DataOutputBuffer();
+      final int[] lengths;
+
+      CompressedBlock(int records, DataOutputBuffer[] uncompressed,
+                      CompressionCodec codec) throws IOException {
+        this.records = records;
+        this.lengths = new int[uncompressed.length];
+        Compressor compressor = CodecPool.getCompressor(codec);
+        try {
+          CompressionOutputStream deflateFilter =
+            codec.createOutputStream(data, compressor);
+          for (int i = 0; i < uncompressed.length; i++) {
+            int start = data.getLength();
+            deflateFilter.resetState();
+            deflateFilter.write(uncompressed[i].getData(), 0,
+                                uncompressed[i].getLength());
+            deflateFilter.finish();
+            lengths[i] = data.getLength() - start;
+          }
+        } finally {
+          CodecPool.returnCompressor(compressor);
+        }
+      }
+    }
+  
   } // BlockCompressionWriter
 
   /** Get the configured buffer size */
@@ -1625,6 +1782,18 @@ public static class Reader implements java.io.Closeable {
     private Deserializer keyDeserializer;
     private Deserializer valDeserializer;
 
+    // blocks to decompress ahead, if any; the prefetcher is started on the
+    // second block read in a row, and stopped whenever the reader seeks
+    private int prefetchBlocks = 0;
+    private long prefetchBytes;
+    private BlockPrefetcher prefetcher = null;
+    private long prefetchedPosition;      // end of the current block
+    private int blocksSinceSeek = 0;
+    // decompresses the blocks read without the prefetcher
+    private Decompressor blockDecompressor = null;
+    private DataInputBuffer compressedBuffer = null;
+    private CompressionInputStream blockInFilter = null;
+
     /**
      * A tag interface for all of the Reader options
      */
@@ -1910,8 +2079,16 @@ private void init(boolean tempReader) throws IOException {
       
       // Initialize... *not* if this we are constructing a temporary Reader
       if (!tempReader) {
+        if (blockCompressed) {
+          prefetchBlocks = conf.getInt(
+              CommonConfigurationKeys.IO_SEQFILE_PREFETCH_BLOCKS_KEY,
+              CommonConfigurationKeys.IO_SEQFILE_PREFETCH_BLOCKS_DEFAULT);
+          prefetchBytes = conf.getLong(
+              CommonConfigurationKeys.IO_SEQFILE_PREFETCH_BYTES_KEY,
+              CommonConfigurationKeys.IO_SEQFILE_PREFETCH_BYTES_DEFAULT);
+        }
         valBuffer = new DataInputBuffer();
-        if (decompress) {
+        if (decompress && prefetchBlocks <= 0) {
           valDecompressor = CodecPool.getDecompressor(codec);
           valInFilter = codec.createInputStream(valBuffer, valDecompressor);
           valIn = new DataInputStream(valInFilter);
@@ -1923,7 +2100,14 @@ private void init(boolean tempReader) throws IOException {
           keyLenBuffer = new DataInputBuffer();
           keyBuffer = new DataInputBuffer();
           valLenBuffer = new DataInputBuffer();
+        }
 
+        if (blockCompressed && prefetchBlocks > 0) {
+          // the prefetcher hands over decompressed blocks
+          keyLenIn = keyLenBuffer;
+          keyIn = keyBuffer;
+          valLenIn = valLenBuffer;
+        } else if (blockCompressed) {
           keyLenDecompressor = CodecPool.getDecompressor(codec);
           keyLenInFilter = codec.createInputStream(keyLenBuffer, 
                                                    keyLenDecompressor);
@@ -1980,13 +2164,16 @@ private Deserializer getDeserializer(SerializationFactory sf, Class c) {
     /** Close the file. */
     @Override
     public synchronized void close() throws IOException {
+      stopPrefetching();
       // Return the decompressors to the pool
       CodecPool.returnDecompressor(keyLenDecompressor);
       CodecPool.returnDecompressor(keyDecompressor);
       CodecPool.returnDecompressor(valLenDecompressor);
       CodecPool.returnDecompressor(valDecompressor);
+      CodecPool.returnDecompressor(blockDecompressor);
       keyLenDecompressor = keyDecompressor = null;
       valLenDecompressor = valDecompressor = null;
+      blockDecompressor = null;
       
       if (keyDeserializer != null) {
     	keyDeserializer.close();
@@ -2084,6 +2271,11 @@ private synchronized void readBuffer(DataInputBuffer buffer,
     
     /** Read the next 'compressed' block */
     private synchronized void readBlock() throws IOException {
+      if (prefetchBlocks > 0) {
+        readPrefetchedBlock();
+        return;
+      }
+
       // Check if we need to throw away a whole block of 
       // 'values' due to 'lazy decompression' 
       if (lazyDecompress && !valuesDecompressed) {
@@ -2121,6 +2313,254 @@ private synchronized void readBlock() throws IOException {
       }
     }
 
+    /**
+     * Take the next block from the prefetcher.  The first block after a seek
+     * is read in this thread, and the prefetcher is only started when the
+     * next one is needed, so that readers seeking for every lookup, like
+     * those of MapFiles, do not start a thread each time.  Blocks after the
+     * end of the range the reader was opened for are not prefetched, but
+     * read in this thread if asked for.
+     */
+    private synchronized void readPrefetchedBlock() throws IOException {
+      PrefetchedBlock block = null;
+      if (prefetcher == null && blocksSinceSeek > 0 && in.getPos() < end) {
+        prefetcher = new BlockPrefetcher();
+        prefetcher.start();
+      }
+      if (prefetcher != null) {
+        block = prefetcher.take();
+        if (block == null) {
+          // it stopped at the end of the range, after the current block
+          prefetcher = null;
+        }
+      }
+      if (block == null) {
+        if (blockDecompressor == null) {
+          blockDecompressor = CodecPool.getDecompressor(codec);
+          compressedBuffer = new DataInputBuffer();
+          blockInFilter = codec.createInputStream(compressedBuffer,
+                                                  blockDecompressor);
+        }
+        block = readDecompressedBlock(compressedBuffer, blockInFilter);
+        if (block == null) {
+          throw new EOFException();
+        }
+      }
+      blocksSinceSeek++;
+
+      noBufferedRecords = block.records;
+      noBufferedKeys = noBufferedRecords;
+      noBufferedValues = noBufferedRecords;
+      valuesDecompressed = true;
+      syncSeen = true;
+      keyLenBuffer.reset(block.keyLens.getData(), block.keyLens.getLength());
+      keyBuffer.reset(block.keys.getData(), block.keys.getLength());
+      valLenBuffer.reset(block.valLens.getData(), block.valLens.getLength());
+      valBuffer.reset(block.vals.getData(), block.vals.getLength());
+      prefetchedPosition = block.end;
+    }
+
+    /**
+     * Stop prefetching, leaving the stream after the last block read by the
+     * prefetcher.  The callers seek to a new position.
+     */
+    private synchronized void stopPrefetching() throws IOException {
+      if (prefetcher != null) {
+        prefetcher.shutdown();
+        prefetcher = null;
+      }
+      blocksSinceSeek = 0;
+    }
+
+    /**
+     * Read and decompress the block at the current position.  This is not
+     * synchronized, as the prefetcher uses it while the reader waits for it.
+     * @return the block, or null at the end of the file
+     */
+    private PrefetchedBlock readDecompressedBlock(DataInputBuffer compressed,
+        CompressionInputStream inFilter) throws IOException {
+      try {
+        if (sync != null) {
+          in.readInt();
+          in.readFully(syncCheck);
+          if (!Arrays.equals(sync, syncCheck)) {
+            throw new IOException("File is corrupt!");
+          }
+        }
+        int records = WritableUtils.readVInt(in);
+        DataOutputBuffer keyLens = readDecompressedBuffer(compressed, inFilter);
+        DataOutputBuffer keys = readDecompressedBuffer(compressed, inFilter);
+        DataOutputBuffer valLens = readDecompressedBuffer(compressed, inFilter);
+        DataOutputBuffer vals = readDecompressedBuffer(compressed, inFilter);
+        return new PrefetchedBlock(records, keyLens, keys, valLens, vals,
+                                   in.getPos());
+      } catch (EOFException e) {
+        return null;
+      }
+    }
+
+    private DataOutputBuffer readDecompressedBuffer(DataInputBuffer compressed,
+        CompressionInputStream inFilter) throws IOException {
+      int length = WritableUtils.readVInt(in);
+      DataOutputBuffer data = new DataOutputBuffer(length);
+      data.write(in, length);
+      compressed.reset(data.getData(), 0, data.getLength());
+      inFilter.resetState();
+      DataOutputBuffer decompressed = new DataOutputBuffer(4 * length);
+      IOUtils.copyBytes(inFilter, decompressed, 64 * 1024, false);
+      return decompressed;
+    }
+
+    /** A block read and decompressed by the prefetcher. */
+    private static class PrefetchedBlock {
+      final int records;
+      final DataOutputBuffer keyLens;
+      final DataOutputBuffer keys;
+      final DataOutputBuffer valLens;
+      final DataOutputBuffer vals;
+      final long end;                     // the position after the block
+
+      PrefetchedBlock(int records, DataOutputBuffer keyLens,
+                      DataOutputBuffer keys, DataOutputBuffer valLens,
+                      DataOutputBuffer vals, long end) {
+        this.records = records;
+        this.keyLens = keyLens;
+        this.keys = keys;
+        this.valLens = valLens;
+        this.vals = vals;
+        this.end = end;
+      }
+
+      long size() {
+        return keyLens.getLength() + keys.getLength() +
+          valLens.getLength() + vals.getLength();
+      }
+    }
+
+    /**
+     * Reads and decompresses the blocks following the current one, so that
+     * the reader does not wait for the next block when it is done with the
+     * current one.  It keeps up to {@link #prefetchBlocks} blocks ready, and
+     * stops adding blocks beyond {@link #prefetchBytes} decompressed bytes,
+     * or at the end of the range the reader was opened for.
+     * While it runs, it is the only user of the input stream.
+     */
+    private class BlockPrefetcher extends Thread {
+      private final LinkedList<PrefetchedBlock> blocks =
+        new LinkedList<PrefetchedBlock>();
+      private long bufferedBytes = 0;
+      private boolean done = false;
+      private boolean stopped = false;
+      private boolean reachedEnd = false;
+      private IOException error = null;
+
+      BlockPrefetcher() {
+        setDaemon(true);
+        setName("SequenceFile prefetcher for " + filename);
+      }
+
+      @Override
+      public void run() {
+        Decompressor decompressor = CodecPool.getDecompressor(codec);
+        try {
+          DataInputBuffer compressed = new DataInputBuffer();
+          CompressionInputStream inFilter =
+            codec.createInputStream(compressed, decompressor);
+          while (waitForRoom()) {
+            if (in.getPos() >= end) {
+              synchronized (this) {
+                reachedEnd = true;
+              }
+              break;
+            }
+            PrefetchedBlock block =
+              readDecompressedBlock(compressed, inFilter);
+            if (block == null) {
+              break;
+            }
+            synchronized (this) {
+              blocks.add(block);
+              bufferedBytes += block.size();
+              notifyAll();
+            }
+          }
+        } catch (IOException e) {
+          synchronized (this) {
+            error = e;
+          }
+        } catch (RuntimeException e) {
+          synchronized (this) {
+            error = new IOException("Failed to prefetch a block", e);
+          }
+        } finally {
+          CodecPool.returnDecompressor(decompressor);
+          synchronized (this) {
+            done = true;
+            notifyAll();
+          }
+        }
+      }
+
+      /** @return false if the prefetcher was stopped while waiting */
+      private synchronized boolean waitForRoom() {
+        while (!stopped && !blocks.isEmpty() &&
+               (blocks.size() >= prefetchBlocks ||
+                bufferedBytes >= prefetchBytes)) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            return false;
+          }
+        }
+        return !stopped;
+      }
+
+      /**
+       * @return the next block, or null if the prefetcher stopped at the end
+       *         of the range of the reader, leaving the stream there
+       * @throws EOFException at the end of the file
+       */
+      synchronized PrefetchedBlock take() throws IOException {
+        while (blocks.isEmpty() && !done) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            throw (IOException) new InterruptedIOException(
+                "Interrupted waiting for a block of " + filename).initCause(e);
+          }
+        }
+        if (!blocks.isEmpty()) {
+          PrefetchedBlock block = blocks.removeFirst();
+          bufferedBytes -= block.size();
+          notifyAll();
+          return block;
+        }
+        if (error != null) {
+          throw error;
+        }
+        if (reachedEnd) {
+          return null;
+        }
+        throw new EOFException();
+      }
+
+      /** Stop and wait until the prefetcher no longer uses the stream. */
+      void shutdown() throws IOException {
+        synchronized (this) {
+          stopped = true;
+          blocks.clear();
+          notifyAll();
+        }
+        try {
+          join();
+        } catch (InterruptedException e) {
+          throw (IOException) new InterruptedIOException(
+              "Interrupted stopping the prefetcher of " + filename)
+            .initCause(e);
+        }
+      }
+    }
+
     /** 
      * Position valLenIn/valIn to the 'value' 
      * corresponding to the 'current' key 
@@ -2405,7 +2845,7 @@ public synchronized int nextRaw(DataOutputBuffer key, ValueBytes val)
         
         // Read 'key'
         if (noBufferedKeys == 0) {
-          if (in.getPos() >= end) 
+          if (getPosition() >= end) 
             return -1;
 
           try { 
@@ -2455,7 +2895,7 @@ public synchronized int nextRawKey(DataOutputBuffer key)
         
         // Read 'key'
         if (noBufferedKeys == 0) {
-          if (in.getPos() >= end) 
+          if (getPosition() >= end) 
             return -1;
 
           try { 
@@ -2585,6 +3025,7 @@ synchronized void ignoreSync() {
      * position, use {@link SequenceFile.Reader#sync(long)}.
      */
     public synchronized void seek(long position) throws IOException {
+      stopPrefetching();
       in.seek(position);
       if (blockCompressed) {                      // trigger block read
         noBufferedKeys = 0;
@@ -2594,6 +3035,7 @@ public synchronized void seek(long position) throws IOException {
 
     /** Seek to the next sync mark past a given position.*/
     public synchronized void sync(long position) throws IOException {
+      stopPrefetching();
       if (position+SYNC_SIZE >= end) {
         seek(end);
         return;
@@ -2633,6 +3075,10 @@ public synchronized void sync(long position) throws IOException {
 
     /** Return the current byte position in the input file. */
     public synchronized long getPosition() throws IOException {
+      if (prefetcher != null) {
+        // the stream is ahead, at the end of the blocks prefetched
+        return prefetchedPosition;
+      }
       return in.getPos();
     }
 
@@ -31,7 +31,6 @@
 import java.nio.charset.MalformedInputException;
 import java.text.CharacterIterator;
 import java.text.StringCharacterIterator;
-import java.util.Arrays;
 
 import org.apache.avro.reflect.Stringable;
 
@@ -263,7 +262,10 @@ public void clear() {
   private void setCapacity(int len, boolean keepData) {
     if (bytes == null || bytes.length < len) {
       if (bytes != null && keepData) {
-        bytes = Arrays.copyOf(bytes, Math.max(len,length << 1));
+        // only copy the valid bytes, not the whole old array
+        byte[] newBytes = new byte[Math.max(len, length << 1)];
+        System.arraycopy(bytes, 0, newBytes, 0, length);
+        bytes = newBytes;
       } else {
         bytes = new byte[len];
       }
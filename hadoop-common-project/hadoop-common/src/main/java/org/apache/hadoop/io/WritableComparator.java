@@ -21,11 +21,20 @@
 import java.io.DataInput;
 import java.io.IOException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.metrics2.annotation.Metric;
+import org.apache.hadoop.metrics2.annotation.Metrics;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
 import org.apache.hadoop.util.ReflectionUtils;
 
+import com.google.common.annotations.VisibleForTesting;
+
 /** A Comparator for {@link WritableComparable}s.
  *
  * <p>This base implemenation uses the natural ordering.  To define alternate
@@ -33,11 +42,15 @@
  *
  * <p>One may optimize compare-intensive operations by overriding
  * {@link #compare(byte[],int,int,byte[],int,int)}.  Static utility methods are
- * provided to assist in optimized implementations of this method.
+ * provided to assist in optimized implementations of this method, and
+ * {@link CompositeKeyComparator} implements it for keys made of common
+ * fields.  Uses of the deserializing implementation are logged once per key
+ * class and counted in the <code>WritableComparator</code> metrics.
  */
 @InterfaceAudience.Public
 @InterfaceStability.Stable
 public class WritableComparator implements RawComparator {
+  private static final Log LOG = LogFactory.getLog(WritableComparator.class);
 
   private static final ConcurrentHashMap<Class, WritableComparator> comparators 
           = new ConcurrentHashMap<Class, WritableComparator>(); // registry
@@ -84,6 +97,7 @@ public static void define(Class c, WritableComparator comparator) {
   private final WritableComparable key1;
   private final WritableComparable key2;
   private final DataInputBuffer buffer;
+  private boolean fallbackReported = false;
 
   protected WritableComparator() {
     this(null);
@@ -124,6 +138,11 @@ public WritableComparable newKey() {
    */
   @Override
   public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+    if (!fallbackReported) {
+      reportFallback(keyClass);
+      fallbackReported = true;
+    }
+    fallbackMetrics.incrComparisons();
     try {
       buffer.reset(b1, s1, l1);                   // parse key1
       key1.readFields(buffer);
@@ -138,6 +157,70 @@ public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
     return compare(key1, key2);                   // compare them
   }
 
+  private static final FallbackMetrics fallbackMetrics = new FallbackMetrics();
+  private static final ConcurrentHashMap<Class<?>, Boolean> fallbackClasses
+          = new ConcurrentHashMap<Class<?>, Boolean>();
+
+  /** Warn the first time keys of a class are deserialized to compare them. */
+  private static void reportFallback(Class<?> keyClass) {
+    if (keyClass == null
+        || fallbackClasses.putIfAbsent(keyClass, Boolean.TRUE) != null) {
+      return;
+    }
+    LOG.warn("Comparing serialized " + keyClass.getName() + " keys by"
+        + " deserializing them, as no raw comparator is defined for them."
+        + " Defining one, such as a CompositeKeyComparator, makes sorting"
+        + " them faster.");
+    if (fallbackMetrics.classes.getAndIncrement() == 0) {
+      DefaultMetricsSystem.instance().register("WritableComparator",
+          "Deserializing key comparisons", fallbackMetrics);
+    }
+  }
+
+  @VisibleForTesting
+  static FallbackMetrics getFallbackMetrics() {
+    return fallbackMetrics;
+  }
+
+  /**
+   * Statistics of the comparisons of serialized keys which deserialize the
+   * keys, as their comparator does not compare their bytes.
+   */
+  @Metrics(about="Deserializing key comparisons", context="io")
+  static class FallbackMetrics {
+    // The comparisons are counted in stripes chosen by thread, each on a
+    // cache line of its own, so that concurrent sorts do not contend on a
+    // single counter.
+    private static final int STRIPES = 16;
+    private static final int STRIPE_SPACING = 8;
+    private final AtomicLongArray comparisons =
+        new AtomicLongArray(STRIPES * STRIPE_SPACING);
+    final AtomicLong classes = new AtomicLong();
+
+    void incrComparisons() {
+      int stripe = (int) (Thread.currentThread().getId() & (STRIPES - 1));
+      comparisons.incrementAndGet(stripe * STRIPE_SPACING);
+    }
+
+    @Metric(value={"DeserializingComparisons",
+        "Serialized keys compared by deserializing them"},
+        type=Metric.Type.COUNTER)
+    public long getComparisons() {
+      long sum = 0;
+      for (int i = 0; i < STRIPES; i++) {
+        sum += comparisons.get(i * STRIPE_SPACING);
+      }
+      return sum;
+    }
+
+    @Metric(value={"DeserializingKeyClasses",
+        "Key classes compared by deserializing them"},
+        type=Metric.Type.GAUGE)
+    public long getClasses() {
+      return classes.get();
+    }
+  }
+
   /** Compare two WritableComparables.
    *
    * <p> The default implementation uses the natural ordering, calling {@link
@@ -17,6 +17,7 @@
 
 package org.apache.hadoop.io.file.tfile;
 
+import java.io.ByteArrayInputStream;
 import java.io.Closeable;
 import java.io.DataInput;
 import java.io.DataInputStream;
@@ -478,6 +479,12 @@ public void register(long raw, long begin, long end) {
   static public class Reader implements Closeable {
     private final FSDataInputStream in;
     private final Configuration conf;
+    // name, length and modification time of the file, and the shared block
+    // cache, if any
+    private final String name;
+    private final long fileLength;
+    private final long modificationTime;
+    private final BlockCache blockCache;
     final DataIndex dataIndex;
     // Index for meta blocks
     final MetaIndex metaIndex;
@@ -512,6 +519,17 @@ public RBlockState(Algorithm compressionAlgo, FSDataInputStream fsin,
         }
       }
 
+      /**
+       * Read a block already decompressed.
+       */
+      public RBlockState(Algorithm compressionAlgo, BlockRegion region,
+          byte[] data) {
+        this.compressAlgo = compressionAlgo;
+        this.region = region;
+        this.decompressor = null;
+        this.in = new ByteArrayInputStream(data);
+      }
+
       /**
        * Get the output stream for BlockAppender's consumption.
        * 
@@ -616,8 +634,32 @@ public long getStartPos() {
      */
     public Reader(FSDataInputStream fin, long fileLength, Configuration conf)
         throws IOException {
+      this(fin, fileLength, conf, null, 0);
+    }
+
+    /**
+     * Constructor
+     * 
+     * @param fin
+     *          FS input stream.
+     * @param fileLength
+     *          Length of the corresponding file
+     * @param name
+     *          Name of the file, identifying its data blocks in the shared
+     *          block cache together with the length and modification time of
+     *          the file. If null, data blocks are not cached.
+     * @param modificationTime
+     *          Modification time of the file
+     * @throws IOException
+     */
+    public Reader(FSDataInputStream fin, long fileLength, Configuration conf,
+        String name, long modificationTime) throws IOException {
       this.in = fin;
       this.conf = conf;
+      this.name = name;
+      this.fileLength = fileLength;
+      this.modificationTime = modificationTime;
+      this.blockCache = name == null ? null : BlockCache.getInstance(conf);
 
       // move the cursor to the beginning of the tail, containing: offset to the
       // meta block index, version and magic
@@ -724,7 +766,27 @@ public BlockReader getDataBlock(int blockIndex) throws IOException {
       }
 
       BlockRegion region = dataIndex.getBlockRegionList().get(blockIndex);
-      return createReader(dataIndex.getDefaultCompressionAlgorithm(), region);
+      Algorithm compressAlgo = dataIndex.getDefaultCompressionAlgorithm();
+      // blocks too large for the cache are streamed, without materializing
+      // them first
+      if (blockCache == null || !blockCache.canCache(region.getRawSize())) {
+        return createReader(compressAlgo, region);
+      }
+
+      byte[] data = blockCache.get(name, fileLength, modificationTime,
+          region.getOffset());
+      if (data == null) {
+        data = new byte[(int) region.getRawSize()];
+        BlockReader blockR = createReader(compressAlgo, region);
+        try {
+          blockR.readFully(data);
+        } finally {
+          blockR.close();
+        }
+        blockCache.put(name, fileLength, modificationTime, region.getOffset(),
+            data);
+      }
+      return new BlockReader(new RBlockState(compressAlgo, region, data));
     }
 
     private BlockReader createReader(Algorithm compressAlgo, BlockRegion region)
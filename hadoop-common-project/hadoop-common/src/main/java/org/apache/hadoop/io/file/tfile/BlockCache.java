@@ -0,0 +1,167 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.apache.hadoop.io.file.tfile;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * A cache of decompressed data blocks, shared by all the BCFile readers of a
+ * JVM which are given the name of their file. Blocks are keyed by the file
+ * name, file length, file modification time and block offset, and evicted
+ * least recently used first once the total size of the cached blocks exceeds
+ * the capacity.
+ */
+final class BlockCache {
+  private static final Log LOG = LogFactory.getLog(BlockCache.class);
+  private static BlockCache instance = null;
+  // whether a reader asked for another capacity than that of the instance
+  private static boolean conflictLogged = false;
+
+  private final long capacity;
+  private long size = 0;
+  private long hits = 0;
+  private long misses = 0;
+  private final LinkedHashMap<BlockId, byte[]> blocks =
+      new LinkedHashMap<BlockId, byte[]>(16, 0.75f, true);
+
+  BlockCache(long capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Get the shared cache. It is created with the capacity configured for the
+   * first reader that uses it. Other capacities configured for later readers
+   * do not resize it, which is logged the first time.
+   *
+   * @param conf
+   *          The configuration of the reader.
+   * @return the shared cache, or null if the configuration disables caching.
+   */
+  static synchronized BlockCache getInstance(Configuration conf) {
+    long capacity = TFile.getBlockCacheSize(conf);
+    if (capacity <= 0) {
+      return null;
+    }
+    if (instance == null) {
+      instance = new BlockCache(capacity);
+    } else if (capacity != instance.capacity && !conflictLogged) {
+      conflictLogged = true;
+      LOG.warn("Ignoring the TFile block cache size of " + capacity
+          + " bytes; the cache shared by the readers of this process was"
+          + " created with " + instance.capacity + " bytes");
+    }
+    return instance;
+  }
+
+  /**
+   * @return whether a block of a raw size can be cached. Larger blocks
+   *         should not be decompressed into memory as a whole.
+   */
+  boolean canCache(long rawSize) {
+    return rawSize <= capacity && rawSize <= Integer.MAX_VALUE;
+  }
+
+  /**
+   * @return the decompressed block, or null if it is not cached.
+   */
+  synchronized byte[] get(String file, long fileLength, long modificationTime,
+      long offset) {
+    byte[] block = blocks.get(
+        new BlockId(file, fileLength, modificationTime, offset));
+    if (block == null) {
+      ++misses;
+    } else {
+      ++hits;
+    }
+    return block;
+  }
+
+  /**
+   * Cache a decompressed block, evicting the least recently used blocks to
+   * make room. Blocks larger than the capacity are not cached.
+   */
+  synchronized void put(String file, long fileLength, long modificationTime,
+      long offset, byte[] block) {
+    if (!canCache(block.length)) {
+      return;
+    }
+    byte[] old = blocks.put(
+        new BlockId(file, fileLength, modificationTime, offset), block);
+    size += block.length - (old == null ? 0 : old.length);
+    Iterator<byte[]> it = blocks.values().iterator();
+    while (size > capacity) {
+      size -= it.next().length;
+      it.remove();
+    }
+  }
+
+  synchronized long getCapacity() {
+    return capacity;
+  }
+
+  synchronized long getSize() {
+    return size;
+  }
+
+  synchronized long getHits() {
+    return hits;
+  }
+
+  synchronized long getMisses() {
+    return misses;
+  }
+
+  private static final class BlockId {
+    private final String file;
+    private final long fileLength;
+    private final long modificationTime;
+    private final long offset;
+
+    BlockId(String file, long fileLength, long modificationTime,
+        long offset) {
+      this.file = file;
+      this.fileLength = fileLength;
+      this.modificationTime = modificationTime;
+      this.offset = offset;
+    }
+
+    @Override
+    public int hashCode() {
+      int result = file.hashCode();
+      result = 31 * result + (int) (fileLength ^ (fileLength >>> 32));
+      result = 31 * result
+          + (int) (modificationTime ^ (modificationTime >>> 32));
+      result = 31 * result + (int) (offset ^ (offset >>> 32));
+      return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) return true;
+      if (!(obj instanceof BlockId)) return false;
+      BlockId other = (BlockId) obj;
+      return offset == other.offset && fileLength == other.fileLength
+          && modificationTime == other.modificationTime
+          && file.equals(other.file);
+    }
+  }
+}
@@ -27,6 +27,7 @@
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 
 import org.apache.commons.logging.Log;
@@ -36,6 +37,7 @@
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.io.BoundedByteArrayOutputStream;
 import org.apache.hadoop.io.BytesWritable;
 import org.apache.hadoop.io.DataInputBuffer;
@@ -51,6 +53,9 @@
 import org.apache.hadoop.io.file.tfile.CompareUtils.MemcmpRawComparator;
 import org.apache.hadoop.io.file.tfile.Utils.Version;
 import org.apache.hadoop.io.serializer.JavaSerializationComparator;
+import org.apache.hadoop.util.bloom.BloomFilter;
+import org.apache.hadoop.util.bloom.Key;
+import org.apache.hadoop.util.hash.Hash;
 
 /**
  * A TFile is a container of key-value pairs. Both keys and values are type-less
@@ -94,6 +99,15 @@
  * FSDataOutputStream. Integer (in bytes). Default to 256KB.
  * <li><b>tfile.fs.input.buffer.size</b>: Buffer size used for
  * FSDataInputStream. Integer (in bytes). Default to 256KB.
+ * <li><b>tfile.block.cache.size</b>: Size of the decompressed data block
+ * cache shared by the readers given the status of their file. Long (in
+ * bytes). Default to 0, no caching. The cache is sized by the first reader
+ * using it.
+ * <li><b>tfile.bloom.filter.keys</b>: Number of keys the bloom filter written
+ * by TFile.Writer is sized for. Integer. Default to 0, no bloom filter.
+ * <li><b>tfile.bloom.filter.error.rate</b>: False positive rate of the bloom
+ * filter at that number of keys. Float. Default to 0.005. Writers reject
+ * combinations which need a filter of more than 2^31 - 1 bits.
  * </ul>
  * <p>
  * Suggestions on performance optimization.
@@ -138,6 +152,13 @@ public class TFile {
       "tfile.fs.input.buffer.size";
   private static final String FS_OUTPUT_BUF_SIZE_ATTR =
       "tfile.fs.output.buffer.size";
+  private static final String BLOCK_CACHE_SIZE_ATTR = "tfile.block.cache.size";
+  private static final String BLOOM_FILTER_KEYS_ATTR =
+      "tfile.bloom.filter.keys";
+  private static final String BLOOM_FILTER_ERROR_RATE_ATTR =
+      "tfile.bloom.filter.error.rate";
+  private static final int BLOOM_FILTER_HASH_COUNT = 5;
+  static final String BLOOM_FILTER_BLOCK_NAME = "TFile.bloom";
 
   static int getChunkBufferSize(Configuration conf) {
     int ret = conf.getInt(CHUNK_BUF_SIZE_ATTR, 1024 * 1024);
@@ -152,6 +173,18 @@ static int getFSOutputBufferSize(Configuration conf) {
     return conf.getInt(FS_OUTPUT_BUF_SIZE_ATTR, 256 * 1024);
   }
 
+  static long getBlockCacheSize(Configuration conf) {
+    return conf.getLong(BLOCK_CACHE_SIZE_ATTR, 0);
+  }
+
+  static int getBloomFilterKeys(Configuration conf) {
+    return conf.getInt(BLOOM_FILTER_KEYS_ATTR, 0);
+  }
+
+  static float getBloomFilterErrorRate(Configuration conf) {
+    return conf.getFloat(BLOOM_FILTER_ERROR_RATE_ATTR, 0.005f);
+  }
+
   private static final int MAX_KEY_SIZE = 64 * 1024; // 64KB
   static final Version API_VERSION = new Version((short) 1, (short) 0);
 
@@ -225,6 +258,9 @@ public static class Writer implements Closeable {
     // buffer used by chunk codec
     private byte[] valueBuffer;
 
+    // bloom filter of the keys, if enabled.
+    private final BloomFilter bloomFilter;
+
     /**
      * Writer states. The state always transits in circles: READY -> IN_KEY ->
      * END_KEY -> IN_VALUE -> READY.
@@ -289,6 +325,31 @@ public Writer(FSDataOutputStream fsdos, int minBlockSize,
       currentKeyBufferOS = new BoundedByteArrayOutputStream(MAX_KEY_SIZE);
       lastKeyBufferOS = new BoundedByteArrayOutputStream(MAX_KEY_SIZE);
       this.conf = conf;
+
+      int bloomKeys = getBloomFilterKeys(conf);
+      if (bloomKeys > 0) {
+        // vector size is -kn / (ln(1 - c^(1/k))) bits, for k hash functions,
+        // n keys and an error rate of c.
+        double errorRate = getBloomFilterErrorRate(conf);
+        if (!(errorRate > 0 && errorRate < 1)) {
+          throw new IllegalArgumentException("Bloom filter error rate "
+              + errorRate + " is not between 0 and 1");
+        }
+        double bits = Math.ceil(-BLOOM_FILTER_HASH_COUNT * (double) bloomKeys
+            / Math.log(1.0 - Math.pow(errorRate,
+                1.0 / BLOOM_FILTER_HASH_COUNT)));
+        if (bits > Integer.MAX_VALUE) {
+          throw new IllegalArgumentException("A bloom filter of " + bloomKeys
+              + " keys at an error rate of " + errorRate + " needs " + bits
+              + " bits, more than " + Integer.MAX_VALUE);
+        }
+        int vectorSize = (int) bits;
+        bloomFilter =
+            new BloomFilter(vectorSize, BLOOM_FILTER_HASH_COUNT, Hash
+                .getHashType(conf));
+      } else {
+        bloomFilter = null;
+      }
     }
 
     /**
@@ -332,6 +393,17 @@ public void close() throws IOException {
             outIndex.close();
           }
 
+          // last, write out data:TFile.bloom if enabled
+          if (bloomFilter != null) {
+            BlockAppender outBloom =
+                writerBCF.prepareMetaBlock(BLOOM_FILTER_BLOCK_NAME);
+            try {
+              bloomFilter.write(outBloom);
+            } finally {
+              outBloom.close();
+            }
+          }
+
           writerBCF.close();
         }
       } finally {
@@ -453,6 +525,10 @@ public void close() throws IOException {
             tfileIndex.setFirstKey(key, 0, len);
           }
 
+          if (bloomFilter != null) {
+            bloomFilter.add(new Key(Arrays.copyOf(key, len)));
+          }
+
           if (tfileMeta.isSorted() && tfileMeta.getRecordCount()>0) {
             byte[] lastKey = lastKeyBufferOS.getBuffer();
             int lastLen = lastKeyBufferOS.size();
@@ -688,6 +764,9 @@ public static class Reader implements Closeable {
     // TFile index, it is loaded lazily.
     TFileIndex tfileIndex = null;
     final TFileMeta tfileMeta;
+    // bloom filter of the keys, loaded lazily if the TFile has one.
+    private BloomFilter bloomFilter = null;
+    private boolean bloomFilterLoaded = false;
     final BytesComparator comparator;
 
     // global begin and end locations.
@@ -801,7 +880,34 @@ public boolean equals(Object obj) {
      */
     public Reader(FSDataInputStream fsdis, long fileLength, Configuration conf)
         throws IOException {
-      readerBCF = new BCFile.Reader(fsdis, fileLength, conf);
+      this(fsdis, fileLength, conf, null, 0);
+    }
+
+    /**
+     * Constructor
+     * 
+     * @param fsdis
+     *          FS input stream of the TFile.
+     * @param status
+     *          The status of the TFile. Readers given the status share the
+     *          decompressed data blocks they read through the block cache, if
+     *          tfile.block.cache.size enables it. Blocks are cached by path,
+     *          length and modification time, so a rewritten file does not
+     *          see the blocks of its previous version.
+     * @param conf
+     * @throws IOException
+     */
+    public Reader(FSDataInputStream fsdis, FileStatus status,
+        Configuration conf) throws IOException {
+      this(fsdis, status.getLen(), conf, status.getPath().toString(),
+          status.getModificationTime());
+    }
+
+    private Reader(FSDataInputStream fsdis, long fileLength,
+        Configuration conf, String name, long modificationTime)
+        throws IOException {
+      readerBCF =
+          new BCFile.Reader(fsdis, fileLength, conf, name, modificationTime);
 
       // first, read TFile meta
       BlockReader brMeta = readerBCF.getMetaBlock(TFileMeta.BLOCK_NAME);
@@ -892,6 +998,70 @@ synchronized void checkTFileDataIndex() throws IOException {
       }
     }
 
+    /**
+     * Lazily loading the bloom filter, if the TFile has one.
+     * 
+     * @throws IOException
+     */
+    synchronized BloomFilter checkBloomFilter() throws IOException {
+      if (!bloomFilterLoaded) {
+        try {
+          BlockReader brBloom =
+              readerBCF.getMetaBlock(BLOOM_FILTER_BLOCK_NAME);
+          try {
+            BloomFilter filter = new BloomFilter();
+            filter.readFields(brBloom);
+            bloomFilter = filter;
+          } finally {
+            brBloom.close();
+          }
+        } catch (MetaBlockDoesNotExist e) {
+          // written without a bloom filter
+        }
+        bloomFilterLoaded = true;
+      }
+      return bloomFilter;
+    }
+
+    /**
+     * Check whether the TFile might contain a key, without reading any data
+     * block if it was written with a bloom filter. Looking up keys for which
+     * this returns false can be skipped.
+     * 
+     * @param key
+     *          buffer for key.
+     * @param keyOffset
+     *          offset in key buffer.
+     * @param keyLen
+     *          length of key.
+     * @return false if the TFile does not contain the key; true if it may,
+     *         or if it has no bloom filter.
+     * @throws IOException
+     */
+    public boolean mightContain(byte[] key, int keyOffset, int keyLen)
+        throws IOException {
+      BloomFilter filter = checkBloomFilter();
+      if (filter == null) {
+        return true;
+      }
+      return filter.membershipTest(new Key(Arrays.copyOfRange(key, keyOffset,
+          keyOffset + keyLen)));
+    }
+
+    /**
+     * Check whether the TFile might contain a key. Synonymous to
+     * mightContain(key, 0, key.length).
+     * 
+     * @param key
+     *          The input key
+     * @return false if the TFile does not contain the key; true if it may,
+     *         or if it has no bloom filter.
+     * @throws IOException
+     */
+    public boolean mightContain(byte[] key) throws IOException {
+      return mightContain(key, 0, key.length);
+    }
+
     /**
      * Get the first key in the TFile.
      * 
@@ -1245,6 +1415,9 @@ public static class Scanner implements Closeable {
       DataInputStream valueDataInputStream;
       // vlen == -1 if unknown.
       int vlen;
+      // a key ruled out by the bloom filter in seekTo; the cursor is moved
+      // to its lower bound only when it is next used.
+      private RawComparable pendingKey = null;
 
       /**
        * Constructor
@@ -1357,14 +1530,51 @@ public boolean seekTo(byte[] key) throws IOException {
        *          key buffer length.
        * @return true if we find an equal key; false otherwise.
        * @throws IOException
+       * 
+       *           If the TFile has a bloom filter which rules the key out, no
+       *           block is read until the cursor is used.
        */
       public boolean seekTo(byte[] key, int keyOffset, int keyLen)
           throws IOException {
+        if (!reader.mightContain(key, keyOffset, keyLen)
+            && deferSeekTo(new ByteArray(Arrays.copyOfRange(key, keyOffset,
+                keyOffset + keyLen)))) {
+          return false;
+        }
         return seekTo(new ByteArray(key, keyOffset, keyLen), false);
       }
 
+      /**
+       * Remember an absent key to seek to when the cursor is next used. This
+       * is only done if the lower bound of the key is known to lie between
+       * the begin and end locations, from the block index alone, so that
+       * atEnd() holds without reading the block.
+       * 
+       * @return false if the key has to be sought right away.
+       */
+      private boolean deferSeekTo(RawComparable key) throws IOException {
+        Location l = reader.getBlockContainsKey(key, false);
+        // the index holds the last key of each block, so the lower bound is
+        // in block l
+        if (l.compareTo(beginLocation) < 0
+            || endLocation.compareTo(l.getBlockIndex() + 1, 0) < 0) {
+          return false;
+        }
+        pendingKey = key;
+        return true;
+      }
+
+      /** Move the cursor to the lower bound of a deferred key, if any. */
+      private void resolvePendingSeek() throws IOException {
+        if (pendingKey != null) {
+          seekTo(pendingKey, false);
+        }
+      }
+
       private boolean seekTo(RawComparable key, boolean beyond)
           throws IOException {
+        // a new seek replaces a deferred one
+        pendingKey = null;
         Location l = reader.getBlockContainsKey(key, beyond);
         if (l.compareTo(beginLocation) < 0) {
           l = beginLocation;
@@ -1394,6 +1604,7 @@ private boolean seekTo(RawComparable key, boolean beyond)
        * @throws IOException
        */
       private void seekTo(Location l) throws IOException {
+        pendingKey = null;
         if (l.compareTo(beginLocation) < 0) {
           throw new IllegalArgumentException(
               "Attempt to seek before the begin location.");
@@ -1519,6 +1730,7 @@ public void upperBound(byte[] key, int keyOffset, int keyLen)
        * @throws IOException
        */
       public boolean advance() throws IOException {
+        resolvePendingSeek();
         if (atEnd()) {
           return false;
         }
@@ -1559,6 +1771,7 @@ private void initBlock(int blockIndex) throws IOException {
       }
 
       private void parkCursorAtEnd() throws IOException {
+        pendingKey = null;
         klen = -1;
         currentLocation.set(endLocation);
         if (blkReader != null) {
@@ -1586,7 +1799,9 @@ public void close() throws IOException {
        * @return true if the cursor is at the end location.
        */
       public boolean atEnd() {
-        return (currentLocation.compareTo(endLocation) >= 0);
+        // the lower bound of a deferred key is before the end location
+        return pendingKey == null
+            && (currentLocation.compareTo(endLocation) >= 0);
       }
 
       /**
@@ -1594,6 +1809,7 @@ public boolean atEnd() {
        * initializes the valueInputStream.
        */
       void checkKey() throws IOException {
+        resolvePendingSeek();
         if (klen >= 0) return;
         if (atEnd()) {
           throw new EOFException("No key-value to read");
@@ -1627,6 +1843,7 @@ public Entry entry() throws IOException {
        * @throws IOException
        */
       public long getRecordNum() throws IOException {
+        resolvePendingSeek();
         return reader.getRecordNumByLocation(currentLocation);
       }
       
@@ -285,7 +285,6 @@ public static Server get() {
   private static final ThreadLocal<Call> CurCall = new ThreadLocal<Call>();
   
   /** Get the current call */
-  @VisibleForTesting
   public static ThreadLocal<Call> getCurCall() {
     return CurCall;
   }
@@ -509,6 +508,14 @@ public static class Call implements Schedulable {
     private ByteBuffer rpcResponse;       // the response for this call
     private final RPC.RpcKind rpcKind;
     private final byte[] clientId;
+    // the handler and every postponement hold the response back
+    private final AtomicInteger responseWaitCount = new AtomicInteger(1);
+    // the outcome of the call, kept for a postponed response
+    private RpcStatusProto returnStatus;
+    private RpcErrorCodeProto detailedErr;
+    private Writable returnValue;
+    private String errorClass;
+    private String error;
 
     public Call(int id, int retryCount, Writable param, 
         Connection connection) {
@@ -538,6 +545,37 @@ public void setResponse(ByteBuffer response) {
       this.rpcResponse = response;
     }
 
+    /**
+     * Hold back the response to this call, once the handler has finished
+     * it, until {@link #sendResponse()} is called.  This lets a handler
+     * move on to other calls while work the response depends on completes
+     * elsewhere.  Every postponement needs its own sendResponse().
+     */
+    public void postponeResponse() {
+      responseWaitCount.incrementAndGet();
+    }
+
+    /**
+     * Release a postponement of the response.  The response is sent once
+     * the handler has finished the call and all postponements are released,
+     * by whichever thread gets there last.
+     */
+    public void sendResponse() throws IOException {
+      if (responseWaitCount.decrementAndGet() == 0) {
+        connection.sendResponse(this);
+      }
+    }
+
+    private void setOutcome(RpcStatusProto returnStatus,
+        RpcErrorCodeProto detailedErr, Writable returnValue,
+        String errorClass, String error) {
+      this.returnStatus = returnStatus;
+      this.detailedErr = detailedErr;
+      this.returnValue = returnValue;
+      this.errorClass = errorClass;
+      this.error = error;
+    }
+
     // For Schedulable
     @Override
     public UserGroupInformation getUserGroupInformation() {
@@ -1175,6 +1213,17 @@ public Connection(SocketChannel channel, long lastContact) {
       }
     }   
 
+    /** Send the postponed response to a call. */
+    private void sendResponse(Call call) throws IOException {
+      ByteArrayOutputStream buf =
+          new ByteArrayOutputStream(INITIAL_RESP_BUF_SIZE);
+      synchronized (responseQueue) {
+        setupResponse(buf, call, call.returnStatus, call.detailedErr,
+            call.returnValue, call.errorClass, call.error);
+        responder.doRespond(call);
+      }
+    }
+
     @Override
     public String toString() {
       return getHostAddress() + ":" + remotePort; 
@@ -2158,6 +2207,10 @@ public Writable run() throws Exception {
             }
           }
           CurCall.set(null);
+          call.setOutcome(returnStatus, detailedErr, value, errorClass, error);
+          if (call.responseWaitCount.decrementAndGet() != 0) {
+            continue;                 // postponed, sent by sendResponse()
+          }
           synchronized (call.connection.responseQueue) {
             // setupResponse() needs to be sync'ed together with 
             // responder.doResponse() since setupResponse may use
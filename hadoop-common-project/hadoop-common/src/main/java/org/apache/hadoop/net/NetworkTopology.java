@@ -18,8 +18,12 @@
 package org.apache.hadoop.net;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -32,6 +36,8 @@
 import org.apache.hadoop.fs.CommonConfigurationKeysPublic;
 import org.apache.hadoop.util.ReflectionUtils;
 
+import com.google.common.annotations.VisibleForTesting;
+
 /** The class represents a cluster of computer with a tree hierarchical
  * network topology.
  * For example, a cluster may be consists of many data centers filled 
@@ -364,6 +370,156 @@ int getNumOfLeaves() {
     }
   } // end of InnerNode
 
+  /**
+   * An immutable snapshot of the cluster map that answers distance, rack and
+   * random leaf queries without walking the tree or taking {@link #netlock}.
+   * <p>
+   * Leaves are numbered in depth-first order, so that the leaves of every
+   * inner node form a contiguous range of leaf ids, and every inner node has
+   * a dense integer id. For each leaf the ids of all its ancestors are kept,
+   * from the root down to its parent.
+   */
+  static class TopologySnapshot {
+    /** The topology version this snapshot was built from */
+    final long version;
+    private final Node[] leaves;
+    private final Map<Node, Integer> leafIds;
+    private final Map<String, Integer> leafIdsByPath;
+    /** ancestors[leaf] = inner node ids from the root down to the parent */
+    private final int[][] ancestors;
+    /** path of an inner node -> {first leaf id, last leaf id + 1} */
+    private final Map<String, int[]> leafRanges;
+    private int numOfInnerNodes = 0;
+
+    TopologySnapshot(InnerNode root, long version) {
+      this.version = version;
+      // sized by the traversal itself rather than the leaf counts of the
+      // inner nodes, so that every leaf of the tree is numbered
+      List<Node> leafList = new ArrayList<Node>();
+      List<int[]> ancestorList = new ArrayList<int[]>();
+      leafIds = new IdentityHashMap<Node, Integer>();
+      leafIdsByPath = new HashMap<String, Integer>();
+      leafRanges = new HashMap<String, int[]>();
+      addInnerNode(root, NodeBase.ROOT, new int[0], leafList, ancestorList);
+      leaves = leafList.toArray(new Node[leafList.size()]);
+      ancestors = ancestorList.toArray(new int[ancestorList.size()][]);
+    }
+
+    /**
+     * Number the leaves of the given subtree, following those already in
+     * <i>leafList</i>.
+     */
+    private void addInnerNode(InnerNode node, String location,
+        int[] parentIds, List<Node> leafList, List<int[]> ancestorList) {
+      int[] ids = Arrays.copyOf(parentIds, parentIds.length + 1);
+      ids[parentIds.length] = numOfInnerNodes++;
+      int first = leafList.size();
+      for (Node child : node.getChildren()) {
+        String childLocation = location + NodeBase.PATH_SEPARATOR_STR
+            + child.getName();
+        if (child instanceof InnerNode) {
+          addInnerNode((InnerNode)child, childLocation, ids, leafList,
+              ancestorList);
+        } else {
+          int leaf = leafList.size();
+          leafList.add(child);
+          ancestorList.add(ids);
+          leafIds.put(child, leaf);
+          leafIdsByPath.put(childLocation, leaf);
+        }
+      }
+      leafRanges.put(location, new int[] {first, leafList.size()});
+    }
+
+    /** @return the id of the given leaf, or -1 if it is not a known leaf */
+    int getLeafId(Node node) {
+      Integer id = node == null ? null : leafIds.get(node);
+      return id == null ? -1 : id;
+    }
+
+    int getNumOfLeaves() {
+      return leaves.length;
+    }
+
+    /**
+     * @return the id of the ancestor <i>generation</i> levels above the given
+     *         leaf, 1 being its parent, or -1 if there is no such ancestor
+     */
+    int getAncestorId(int leaf, int generation) {
+      int[] ids = ancestors[leaf];
+      return generation <= ids.length ? ids[ids.length - generation] : -1;
+    }
+
+    /**
+     * @return the distance between two leaves, computed the same way as
+     *         {@link NetworkTopology#getDistance(Node, Node)}
+     */
+    int getDistance(int leaf1, int leaf2) {
+      if (leaf1 == leaf2) {
+        return 0;
+      }
+      int[] path1 = ancestors[leaf1];
+      int[] path2 = ancestors[leaf2];
+      int common = 0;
+      while (common < path1.length && common < path2.length
+          && path1[common] == path2[common]) {
+        common++;
+      }
+      return (path1.length - common + 1) + (path2.length - common + 1);
+    }
+
+    /**
+     * Randomly choose a leaf under <i>scope</i> that is not under
+     * <i>excludedScope</i>, with the same semantics as
+     * {@link NetworkTopology#chooseRandom(String)}.
+     */
+    Node chooseRandom(String scope, String excludedScope) {
+      if (excludedScope != null) {
+        if (scope.startsWith(excludedScope)) {
+          return null;
+        }
+        if (!excludedScope.startsWith(scope)) {
+          excludedScope = null;
+        }
+      }
+      scope = NodeBase.normalize(scope);
+      int[] range = leafRanges.get(scope);
+      if (range == null) {
+        Integer leaf = leafIdsByPath.get(scope);
+        return leaf == null ? null : leaves[leaf];
+      }
+      int numOfDatanodes = range[1] - range[0];
+      int excludedFirst = range[1];
+      int excludedCount = 0;
+      if (excludedScope != null) {
+        excludedScope = NodeBase.normalize(excludedScope);
+        int[] excludedRange = leafRanges.get(excludedScope);
+        if (excludedRange != null) {
+          excludedFirst = excludedRange[0];
+          excludedCount = excludedRange[1] - excludedRange[0];
+          numOfDatanodes -= excludedCount;
+        } else {
+          Integer leaf = leafIdsByPath.get(excludedScope);
+          if (leaf != null) {
+            excludedFirst = leaf;
+            excludedCount = 1;
+          }
+          numOfDatanodes -= 1;
+        }
+      }
+      if (numOfDatanodes <= 0) {
+        throw new InvalidTopologyException(
+            "Failed to find datanode (scope=\"" + String.valueOf(scope) +
+            "\" excludedScope=\"" + String.valueOf(excludedScope) + "\").");
+      }
+      int leafId = range[0] + r.nextInt(numOfDatanodes);
+      if (leafId >= excludedFirst) {
+        leafId += excludedCount;
+      }
+      return leaves[leafId];
+    }
+  }
+
   /**
    * the root cluster map
    */
@@ -374,6 +530,15 @@ int getNumOfLeaves() {
   protected int numOfRacks = 0;
   /** the lock used to manage access */
   protected ReadWriteLock netlock = new ReentrantReadWriteLock();
+  /** Incremented on every change of the cluster map, protected by netlock */
+  private long version = 0;
+  /**
+   * Snapshot of the current cluster map, or null if it has changed since
+   * the last snapshot was built
+   */
+  private volatile TopologySnapshot snapshot;
+  /** Held while a snapshot is built, so that it is built only once */
+  private final Object snapshotLock = new Object();
 
   public NetworkTopology() {
     clusterMap = new InnerNode(InnerNode.ROOT);
@@ -419,6 +584,8 @@ public void add(Node node) {
           }
         }
       }
+      // the node may also have replaced an existing node of the same name
+      invalidateSnapshot();
       if(LOG.isDebugEnabled()) {
         LOG.debug("NetworkTopology became:\n" + this.toString());
       }
@@ -486,6 +653,7 @@ public void remove(Node node) {
         if (rack == null) {
           numOfRacks--;
         }
+        invalidateSnapshot();
       }
       if(LOG.isDebugEnabled()) {
         LOG.debug("NetworkTopology became:\n" + this.toString());
@@ -495,6 +663,45 @@ public void remove(Node node) {
     }
   }
 
+  /**
+   * Discard the current topology snapshot after the cluster map changed.
+   * Must be called with the write lock held by every method that modifies
+   * {@link #clusterMap}.
+   */
+  protected void invalidateSnapshot() {
+    version++;
+    snapshot = null;
+  }
+
+  /**
+   * Get a snapshot of the current cluster map, building a new one if the
+   * cluster map changed since the last snapshot was built. Only one of the
+   * readers that find the snapshot discarded builds the new one, the others
+   * wait for it.
+   */
+  @VisibleForTesting
+  TopologySnapshot getSnapshot() {
+    TopologySnapshot s = snapshot;
+    if (s != null) {
+      return s;
+    }
+    netlock.readLock().lock();
+    try {
+      // writers are excluded while the snapshot is built and published, so
+      // it can never replace a snapshot of a newer version
+      synchronized (snapshotLock) {
+        s = snapshot;
+        if (s == null) {
+          s = new TopologySnapshot(clusterMap, version);
+          snapshot = s;
+        }
+        return s;
+      }
+    } finally {
+      netlock.readLock().unlock();
+    }
+  }
+
   /** Check if the tree contains node <i>node</i>
    * 
    * @param node a node
@@ -582,6 +789,12 @@ public int getDistance(Node node1, Node node2) {
     if (node1 == node2) {
       return 0;
     }
+    TopologySnapshot s = getSnapshot();
+    int leaf1 = s.getLeafId(node1);
+    int leaf2 = s.getLeafId(node2);
+    if (leaf1 >= 0 && leaf2 >= 0) {
+      return s.getDistance(leaf1, leaf2);
+    }
     Node n1=node1, n2=node2;
     int dis = 0;
     netlock.readLock().lock();
@@ -627,6 +840,12 @@ public boolean isOnSameRack( Node node1,  Node node2) {
     if (node1 == null || node2 == null) {
       return false;
     }
+    TopologySnapshot s = getSnapshot();
+    int leaf1 = s.getLeafId(node1);
+    int leaf2 = s.getLeafId(node2);
+    if (leaf1 >= 0 && leaf2 >= 0) {
+      return s.getAncestorId(leaf1, 1) == s.getAncestorId(leaf2, 1);
+    }
       
     netlock.readLock().lock();
     try {
@@ -655,7 +874,9 @@ public boolean isOnSameNodeGroup(Node node1, Node node2) {
    * 
    * <p>To be overridden in subclasses for specific NetworkTopology 
    * implementations, as alternative to overriding the full 
-   * {@link #isOnSameRack(Node, Node)} method.
+   * {@link #isOnSameRack(Node, Node)} method. Note that
+   * {@link #isOnSameRack(Node, Node)} only falls back to this method for
+   * nodes that are not leaves of the topology snapshot.
    * 
    * @param node1 the first node to compare
    * @param node2 the second node to compare
@@ -675,50 +896,12 @@ protected boolean isSameParents(Node node1, Node node2) {
    * @return the chosen node
    */
   public Node chooseRandom(String scope) {
-    netlock.readLock().lock();
-    try {
-      if (scope.startsWith("~")) {
-        return chooseRandom(NodeBase.ROOT, scope.substring(1));
-      } else {
-        return chooseRandom(scope, null);
-      }
-    } finally {
-      netlock.readLock().unlock();
-    }
-  }
-
-  private Node chooseRandom(String scope, String excludedScope){
-    if (excludedScope != null) {
-      if (scope.startsWith(excludedScope)) {
-        return null;
-      }
-      if (!excludedScope.startsWith(scope)) {
-        excludedScope = null;
-      }
-    }
-    Node node = getNode(scope);
-    if (!(node instanceof InnerNode)) {
-      return node;
-    }
-    InnerNode innerNode = (InnerNode)node;
-    int numOfDatanodes = innerNode.getNumOfLeaves();
-    if (excludedScope == null) {
-      node = null;
+    TopologySnapshot s = getSnapshot();
+    if (scope.startsWith("~")) {
+      return s.chooseRandom(NodeBase.ROOT, scope.substring(1));
     } else {
-      node = getNode(excludedScope);
-      if (!(node instanceof InnerNode)) {
-        numOfDatanodes -= 1;
-      } else {
-        numOfDatanodes -= ((InnerNode)node).getNumOfLeaves();
-      }
-    }
-    if (numOfDatanodes == 0) {
-      throw new InvalidTopologyException(
-          "Failed to find datanode (scope=\"" + String.valueOf(scope) +
-          "\" excludedScope=\"" + String.valueOf(excludedScope) + "\").");
+      return s.chooseRandom(scope, null);
     }
-    int leaveIndex = r.nextInt(numOfDatanodes);
-    return innerNode.getLeaf(leaveIndex, node);
   }
 
   /** return leaves in <i>scope</i>
@@ -118,6 +118,12 @@ public boolean isOnSameRack( Node node1,  Node node2) {
         node1.getParent() == null || node2.getParent() == null) {
       return false;
     }
+    TopologySnapshot s = getSnapshot();
+    int leaf1 = s.getLeafId(node1);
+    int leaf2 = s.getLeafId(node2);
+    if (leaf1 >= 0 && leaf2 >= 0) {
+      return s.getAncestorId(leaf1, 2) == s.getAncestorId(leaf2, 2);
+    }
       
     netlock.readLock().lock();
     try {
@@ -146,6 +152,12 @@ public boolean isOnSameNodeGroup(Node node1, Node node2) {
     if (node1 == null || node2 == null) {
       return false;
     }
+    TopologySnapshot s = getSnapshot();
+    int leaf1 = s.getLeafId(node1);
+    int leaf2 = s.getLeafId(node2);
+    if (leaf1 >= 0 && leaf2 >= 0) {
+      return s.getAncestorId(leaf1, 1) == s.getAncestorId(leaf2, 1);
+    }
     netlock.readLock().lock();
     try {
       return isSameParents(node1, node2);
@@ -208,6 +220,8 @@ public void add(Node node) {
           numOfRacks++;
         }
       }
+      // the node may also have replaced an existing node of the same name
+      invalidateSnapshot();
       if(LOG.isDebugEnabled()) {
         LOG.debug("NetworkTopology became:\n" + this.toString());
       }
@@ -239,6 +253,7 @@ public void remove(Node node) {
         if (rack == null) {
           numOfRacks--;
         }
+        invalidateSnapshot();
       }
       if(LOG.isDebugEnabled()) {
         LOG.debug("NetworkTopology became:\n" + this.toString());
@@ -25,6 +25,8 @@
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.util.Shell;
 import org.apache.hadoop.util.Shell.ExitCodeException;
 
@@ -32,15 +34,58 @@
  * A simple shell-based implementation of {@link GroupMappingServiceProvider} 
  * that exec's the <code>groups</code> shell command to fetch the group
  * memberships of a given user.
+ * <p>
+ * When {@link #HELPER_ENABLED_KEY} is set, lookups are instead sent to a
+ * single long-lived helper process, which avoids forking the JVM for every
+ * lookup. The per-lookup shell command is still used whenever the helper
+ * process fails.
  */
 @InterfaceAudience.LimitedPrivate({"HDFS", "MapReduce"})
 @InterfaceStability.Evolving
-public class ShellBasedUnixGroupsMapping
+public class ShellBasedUnixGroupsMapping extends Configured
   implements GroupMappingServiceProvider {
   
   private static final Log LOG =
     LogFactory.getLog(ShellBasedUnixGroupsMapping.class);
-  
+
+  public static final String SHELL_CONFIG_PREFIX =
+      "hadoop.security.group.mapping.shell";
+
+  /*
+   * Whether to resolve groups through a long-lived helper process
+   */
+  public static final String HELPER_ENABLED_KEY =
+      SHELL_CONFIG_PREFIX + ".helper.enabled";
+  public static final boolean HELPER_ENABLED_DEFAULT = false;
+
+  /*
+   * How long to wait for the helper process to answer a lookup before
+   * restarting it and falling back to the per-lookup shell command
+   */
+  public static final String HELPER_TIMEOUT_KEY =
+      SHELL_CONFIG_PREFIX + ".helper.timeout.ms";
+  public static final long HELPER_TIMEOUT_DEFAULT = 10000; // 10s
+
+  private ShellGroupsHelper helper;
+
+  @Override
+  public synchronized void setConf(Configuration conf) {
+    super.setConf(conf);
+    if (helper != null) {
+      helper.stop();
+      helper = null;
+    }
+    if (conf != null && !Shell.WINDOWS
+        && conf.getBoolean(HELPER_ENABLED_KEY, HELPER_ENABLED_DEFAULT)) {
+      helper = new ShellGroupsHelper(
+          conf.getLong(HELPER_TIMEOUT_KEY, HELPER_TIMEOUT_DEFAULT));
+    }
+  }
+
+  synchronized ShellGroupsHelper getHelper() {
+    return helper;
+  }
+
   /**
    * Returns list of groups for a user
    *
@@ -49,6 +94,19 @@
    */
   @Override
   public List<String> getGroups(String user) throws IOException {
+    ShellGroupsHelper h = getHelper();
+    if (h != null && ShellGroupsHelper.isSupportedUser(user)) {
+      try {
+        return parseGroups(h.getGroups(user));
+      } catch (ExitCodeException e) {
+        // if we didn't get the group - just return empty list;
+        LOG.warn("got exception trying to get groups for user " + user, e);
+        return new LinkedList<String>();
+      } catch (IOException e) {
+        LOG.warn("Groups helper process failed to get groups for user "
+            + user + ", falling back to the shell command: " + e);
+      }
+    }
     return getUnixGroups(user);
   }
 
@@ -87,7 +145,14 @@ private static List<String> getUnixGroups(final String user) throws IOException
       LOG.warn("got exception trying to get groups for user " + user, e);
       return new LinkedList<String>();
     }
-    
+    return parseGroups(result);
+  }
+
+  /**
+   * Parse the output of the groups command into a group list, removing the
+   * duplicated primary group.
+   */
+  private static List<String> parseGroups(String result) {
     StringTokenizer tokenizer =
         new StringTokenizer(result, Shell.TOKEN_SEPARATOR_REGEX);
     List<String> groups = new LinkedList<String>();
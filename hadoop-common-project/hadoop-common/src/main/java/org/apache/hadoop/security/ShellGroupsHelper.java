@@ -0,0 +1,274 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.security;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.util.Daemon;
+import org.apache.hadoop.util.Shell.ExitCodeException;
+import org.apache.hadoop.util.Time;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * A long-lived helper process that resolves the groups of users on behalf of
+ * {@link ShellBasedUnixGroupsMapping}, so that the JVM does not have to fork
+ * a new shell for every lookup.
+ * <p>
+ * Requests are written to the helper's stdin as <code>id user</code> lines,
+ * and the helper answers each of them with an <code>id status groups</code>
+ * line on stdout. The request id allows any number of lookups to be in
+ * flight at the same time. If the helper dies or stops answering, all
+ * pending lookups fail with an IOException, and the helper is restarted on a
+ * later lookup.
+ */
+@InterfaceAudience.Private
+class ShellGroupsHelper {
+  private static final Log LOG = LogFactory.getLog(ShellGroupsHelper.class);
+
+  /**
+   * The script run by the helper process. The primary group is printed
+   * first and repeated in the full group list, like
+   * {@link org.apache.hadoop.util.Shell#getGroupsForUserCommand(String)}.
+   */
+  private static final String HELPER_SCRIPT =
+      "while read -r id user; do "
+      + "if g=$(id -gn -- \"$user\" 2>/dev/null) && "
+      + "G=$(id -Gn -- \"$user\" 2>/dev/null); then "
+      + "printf '%s 0 %s %s\\n' \"$id\" \"$g\" \"$G\"; "
+      + "else printf '%s 1\\n' \"$id\"; fi; "
+      + "done";
+
+  /** Minimum time between two restarts of the helper process */
+  private static final long RESTART_INTERVAL_MS = 1000;
+
+  private final long timeoutMs;
+  private final Map<Long, SettableFuture<String>> pending =
+      new ConcurrentHashMap<Long, SettableFuture<String>>();
+
+  // all of the following are protected by this object lock
+  private Process process;
+  private Writer stdin;
+  private long nextRequestId = 0;
+  private long lastStartTime = 0;
+  private int restarts = 0;
+
+  ShellGroupsHelper(long timeoutMs) {
+    this.timeoutMs = timeoutMs;
+  }
+
+  /**
+   * Whether the given user name can be passed to the helper process.
+   * Names containing whitespace or control characters cannot be framed
+   * on a single request line.
+   */
+  static boolean isSupportedUser(String user) {
+    if (user == null || user.isEmpty()) {
+      return false;
+    }
+    for (int i = 0; i < user.length(); i++) {
+      char c = user.charAt(i);
+      if (Character.isWhitespace(c) || Character.isISOControl(c)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Resolve the groups of a user through the helper process.
+   *
+   * @param user user name
+   * @return the group names separated by whitespace, primary group first
+   * @throws ExitCodeException if the user could not be resolved
+   * @throws IOException if the helper process failed
+   */
+  String getGroups(String user) throws IOException {
+    SettableFuture<String> future = SettableFuture.create();
+    long id;
+    Process p;
+    synchronized (this) {
+      ensureRunning();
+      p = process;
+      id = nextRequestId++;
+      pending.put(id, future);
+      try {
+        stdin.write(id + " " + user + "\n");
+        stdin.flush();
+      } catch (IOException e) {
+        pending.remove(id);
+        LOG.warn("Failed to send request to the groups helper process", e);
+        destroy(e);
+        throw e;
+      }
+    }
+
+    String response;
+    try {
+      response = future.get(timeoutMs, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      pending.remove(id);
+      // a stuck helper would hold up every later lookup, so restart it
+      IOException ioe = new IOException("Timed out after " + timeoutMs
+          + " ms waiting for the groups of " + user);
+      synchronized (this) {
+        if (process == p) {
+          destroy(ioe);
+        }
+      }
+      throw ioe;
+    } catch (InterruptedException e) {
+      pending.remove(id);
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(
+          "Interrupted while waiting for the groups of " + user);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new IOException(cause);
+    }
+
+    int sep = response.indexOf(' ');
+    String status = sep < 0 ? response : response.substring(0, sep);
+    if (!"0".equals(status)) {
+      throw new ExitCodeException(Integer.parseInt(status),
+          "Unable to resolve the groups of user " + user);
+    }
+    return response.substring(sep + 1);
+  }
+
+  /** Stop the helper process, failing all pending lookups. */
+  synchronized void stop() {
+    destroy(new IOException("Groups helper process stopped"));
+  }
+
+  @VisibleForTesting
+  synchronized int getRestarts() {
+    return restarts;
+  }
+
+  @VisibleForTesting
+  synchronized Process getProcess() {
+    return process;
+  }
+
+  private void ensureRunning() throws IOException {
+    assert Thread.holdsLock(this);
+    if (process != null) {
+      return;
+    }
+    long now = Time.monotonicNow();
+    if (lastStartTime != 0 && now - lastStartTime < RESTART_INTERVAL_MS) {
+      throw new IOException("Groups helper process was restarted less than "
+          + RESTART_INTERVAL_MS + " ms ago");
+    }
+    if (lastStartTime != 0) {
+      restarts++;
+    }
+    lastStartTime = now;
+
+    ProcessBuilder builder = new ProcessBuilder("bash", "-c", HELPER_SCRIPT);
+    final Process p = builder.start();
+    IOUtils.closeStream(p.getErrorStream());
+    process = p;
+    stdin = new BufferedWriter(new OutputStreamWriter(p.getOutputStream(),
+        Charsets.UTF_8));
+    final BufferedReader stdout = new BufferedReader(new InputStreamReader(
+        p.getInputStream(), Charsets.UTF_8));
+    Thread reader = new Daemon(new Runnable() {
+      @Override
+      public void run() {
+        readResponses(p, stdout);
+      }
+    });
+    reader.setName("ShellGroupsHelper reader");
+    reader.start();
+    LOG.info("Started groups helper process");
+  }
+
+  /** Dispatch the responses of helper process p to the pending lookups. */
+  private void readResponses(Process p, BufferedReader stdout) {
+    IOException failure;
+    try {
+      String line;
+      while ((line = stdout.readLine()) != null) {
+        int sep = line.indexOf(' ');
+        if (sep < 0) {
+          LOG.warn("Ignoring malformed groups helper response: " + line);
+          continue;
+        }
+        SettableFuture<String> future;
+        try {
+          future = pending.remove(Long.parseLong(line.substring(0, sep)));
+        } catch (NumberFormatException e) {
+          LOG.warn("Ignoring malformed groups helper response: " + line);
+          continue;
+        }
+        if (future != null) {
+          future.set(line.substring(sep + 1));
+        }
+      }
+      failure = new IOException("Groups helper process exited");
+    } catch (IOException e) {
+      failure = e;
+    } finally {
+      IOUtils.closeStream(stdout);
+    }
+    synchronized (this) {
+      if (process == p) {
+        LOG.warn("Groups helper process failed", failure);
+        destroy(failure);
+      }
+    }
+  }
+
+  private void destroy(IOException cause) {
+    assert Thread.holdsLock(this);
+    if (process != null) {
+      IOUtils.closeStream(stdin);
+      process.destroy();
+      process = null;
+      stdin = null;
+    }
+    for (Iterator<SettableFuture<String>> it = pending.values().iterator();
+        it.hasNext();) {
+      it.next().setException(cause);
+      it.remove();
+    }
+  }
+}
@@ -26,16 +26,21 @@
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.crypto.SecretKey;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.metrics2.annotation.Metric;
+import org.apache.hadoop.metrics2.annotation.Metrics;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.apache.hadoop.metrics2.lib.MetricsRegistry;
+import org.apache.hadoop.metrics2.lib.MutableRate;
 import org.apache.hadoop.security.AccessControlException;
 import org.apache.hadoop.security.HadoopKerberosName;
 import org.apache.hadoop.security.token.Token;
@@ -43,6 +48,7 @@
 import org.apache.hadoop.util.Daemon;
 import org.apache.hadoop.util.Time;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 
 @InterfaceAudience.LimitedPrivate({"HDFS", "MapReduce", "Hive"})
@@ -56,10 +62,25 @@
 
   /** 
    * Cache of currently valid tokens, mapping from DelegationTokenIdentifier 
-   * to DelegationTokenInformation. Protected by this object lock.
+   * to DelegationTokenInformation. This is a concurrent map so that token
+   * lookups do not need this object lock; renewal and cancellation of a
+   * given token are serialized on its lock stripe, see
+   * {@link #getTokenLock(AbstractDelegationTokenIdentifier)}.
    */
   protected final Map<TokenIdent, DelegationTokenInformation> currentTokens 
-      = new HashMap<TokenIdent, DelegationTokenInformation>();
+      = new ConcurrentHashMap<TokenIdent, DelegationTokenInformation>();
+
+  /**
+   * Number of lock stripes used to serialize renew and cancel of a token.
+   * Must be a power of two.
+   */
+  private static final int TOKEN_LOCK_STRIPES = 64;
+
+  /**
+   * Lock stripes guarding the renewal and cancellation of individual tokens,
+   * so that operations on different tokens do not contend with each other.
+   */
+  private final Object[] tokenLocks = new Object[TOKEN_LOCK_STRIPES];
   
   /**
    * Sequence number to create DelegationTokenIdentifier.
@@ -68,10 +89,11 @@
   protected int delegationTokenSequenceNumber = 0;
   
   /**
-   * Access to allKeys is protected by this object lock
+   * Updates to allKeys are protected by this object lock. It is a concurrent
+   * map so that token verification and renewal can read it without the lock.
    */
   protected final Map<Integer, DelegationKey> allKeys 
-      = new HashMap<Integer, DelegationKey>();
+      = new ConcurrentHashMap<Integer, DelegationKey>();
   
   /**
    * Access to currentId is protected by this object lock.
@@ -100,6 +122,9 @@
    */
   protected Object noInterruptsLock = new Object();
 
+  /** Token operation metrics, shared by all secret managers in the JVM. */
+  private static DelegationTokenSecretManagerMetrics metrics;
+
   public AbstractDelegationTokenSecretManager(long delegationKeyUpdateInterval,
       long delegationTokenMaxLifetime, long delegationTokenRenewInterval,
       long delegationTokenRemoverScanInterval) {
@@ -108,6 +133,31 @@ public AbstractDelegationTokenSecretManager(long delegationKeyUpdateInterval,
     this.tokenRenewInterval = delegationTokenRenewInterval;
     this.tokenRemoverScanInterval = delegationTokenRemoverScanInterval;
     this.storeTokenTrackingId = false;
+    for (int i = 0; i < tokenLocks.length; i++) {
+      tokenLocks[i] = new Object();
+    }
+    initMetrics();
+  }
+
+  private static synchronized void initMetrics() {
+    if (metrics == null) {
+      metrics = DelegationTokenSecretManagerMetrics.create();
+    }
+  }
+
+  @VisibleForTesting
+  static DelegationTokenSecretManagerMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Get the lock stripe that serializes renewal and cancellation of the
+   * given token.
+   */
+  protected Object getTokenLock(TokenIdent ident) {
+    int h = ident.hashCode();
+    h ^= (h >>> 16);
+    return tokenLocks[h & (TOKEN_LOCK_STRIPES - 1)];
   }
 
   /** should be called before this object is used */
@@ -273,30 +323,47 @@ private synchronized void removeExpiredKeys() {
   }
   
   @Override
-  protected synchronized byte[] createPassword(TokenIdent identifier) {
-    int sequenceNum;
-    long now = Time.now();
-    sequenceNum = ++delegationTokenSequenceNumber;
-    identifier.setIssueDate(now);
-    identifier.setMaxDate(now + tokenMaxLifetime);
-    identifier.setMasterKeyId(currentId);
-    identifier.setSequenceNumber(sequenceNum);
-    LOG.info("Creating password for identifier: " + identifier);
-    byte[] password = createPassword(identifier.getBytes(), currentKey.getKey());
-    storeNewToken(identifier, now + tokenRenewInterval);
-    currentTokens.put(identifier, new DelegationTokenInformation(now
-        + tokenRenewInterval, password, getTrackingIdIfEnabled(identifier)));
-    return password;
+  protected byte[] createPassword(TokenIdent identifier) {
+    long start = Time.monotonicNow();
+    try {
+      int sequenceNum;
+      DelegationKey key;
+      long now = Time.now();
+      // The sequence number and the current key are taken, and the new
+      // token is stored, in two separate sections under this object lock;
+      // the password is computed between them, outside it. State saved in
+      // between may thus have this sequence number but not the token yet.
+      // That is harmless: the restored counter is never below a number that
+      // was handed out, and the token is stored, and logged, after it.
+      synchronized (this) {
+        sequenceNum = ++delegationTokenSequenceNumber;
+        key = currentKey;
+      }
+      identifier.setIssueDate(now);
+      identifier.setMaxDate(now + tokenMaxLifetime);
+      identifier.setMasterKeyId(key.getKeyId());
+      identifier.setSequenceNumber(sequenceNum);
+      LOG.info("Creating password for identifier: " + identifier);
+      byte[] password = createPassword(identifier.getBytes(), key.getKey());
+      synchronized (this) {
+        storeNewToken(identifier, now + tokenRenewInterval);
+        currentTokens.put(identifier, new DelegationTokenInformation(
+            now + tokenRenewInterval, password,
+            getTrackingIdIfEnabled(identifier)));
+      }
+      return password;
+    } finally {
+      metrics.createToken.add(Time.monotonicNow() - start);
+    }
   }
   
   /**
    * Find the DelegationTokenInformation for the given token id, and verify that
-   * if the token is expired. Note that this method should be called with 
-   * acquiring the secret manager's monitor.
+   * if the token is expired. This method does not need the secret manager's
+   * monitor.
    */
   protected DelegationTokenInformation checkToken(TokenIdent identifier)
       throws InvalidToken {
-    assert Thread.holdsLock(this);
     DelegationTokenInformation info = currentTokens.get(identifier);
     if (info == null) {
       throw new InvalidToken("token (" + identifier.toString()
@@ -309,9 +376,14 @@ protected DelegationTokenInformation checkToken(TokenIdent identifier)
   }
   
   @Override
-  public synchronized byte[] retrievePassword(TokenIdent identifier)
+  public byte[] retrievePassword(TokenIdent identifier)
       throws InvalidToken {
-    return checkToken(identifier).getPassword();
+    long start = Time.monotonicNow();
+    try {
+      return checkToken(identifier).getPassword();
+    } finally {
+      metrics.retrievePassword.add(Time.monotonicNow() - start);
+    }
   }
 
   protected String getTrackingIdIfEnabled(TokenIdent ident) {
@@ -321,7 +393,7 @@ protected String getTrackingIdIfEnabled(TokenIdent ident) {
     return null;
   }
 
-  public synchronized String getTokenTrackingId(TokenIdent identifier) {
+  public String getTokenTrackingId(TokenIdent identifier) {
     DelegationTokenInformation info = currentTokens.get(identifier);
     if (info == null) {
       return null;
@@ -335,7 +407,7 @@ public synchronized String getTokenTrackingId(TokenIdent identifier) {
    * @param password Password in the token.
    * @throws InvalidToken
    */
-  public synchronized void verifyToken(TokenIdent identifier, byte[] password)
+  public void verifyToken(TokenIdent identifier, byte[] password)
       throws InvalidToken {
     byte[] storedPassword = retrievePassword(identifier);
     if (!Arrays.equals(password, storedPassword)) {
@@ -352,8 +424,18 @@ public synchronized void verifyToken(TokenIdent identifier, byte[] password)
    * @throws InvalidToken if the token is invalid
    * @throws AccessControlException if the user can't renew token
    */
-  public synchronized long renewToken(Token<TokenIdent> token,
+  public long renewToken(Token<TokenIdent> token,
                          String renewer) throws InvalidToken, IOException {
+    long start = Time.monotonicNow();
+    try {
+      return renewTokenInternal(token, renewer);
+    } finally {
+      metrics.renewToken.add(Time.monotonicNow() - start);
+    }
+  }
+
+  private long renewTokenInternal(Token<TokenIdent> token, String renewer)
+      throws InvalidToken, IOException {
     ByteArrayInputStream buf = new ByteArrayInputStream(token.getIdentifier());
     DataInputStream in = new DataInputStream(buf);
     TokenIdent id = createIdentifier();
@@ -390,11 +472,13 @@ public synchronized long renewToken(Token<TokenIdent> token,
     DelegationTokenInformation info = new DelegationTokenInformation(renewTime,
         password, trackingId);
 
-    if (currentTokens.get(id) == null) {
-      throw new InvalidToken("Renewal request for unknown token");
+    synchronized (getTokenLock(id)) {
+      if (currentTokens.get(id) == null) {
+        throw new InvalidToken("Renewal request for unknown token");
+      }
+      currentTokens.put(id, info);
+      updateStoredToken(id, renewTime);
     }
-    currentTokens.put(id, info);
-    updateStoredToken(id, renewTime);
     return renewTime;
   }
   
@@ -404,7 +488,17 @@ public synchronized long renewToken(Token<TokenIdent> token,
    * @throws InvalidToken for invalid token
    * @throws AccessControlException if the user isn't allowed to cancel
    */
-  public synchronized TokenIdent cancelToken(Token<TokenIdent> token,
+  public TokenIdent cancelToken(Token<TokenIdent> token,
+      String canceller) throws IOException {
+    long start = Time.monotonicNow();
+    try {
+      return cancelTokenInternal(token, canceller);
+    } finally {
+      metrics.cancelToken.add(Time.monotonicNow() - start);
+    }
+  }
+
+  private TokenIdent cancelTokenInternal(Token<TokenIdent> token,
       String canceller) throws IOException {
     ByteArrayInputStream buf = new ByteArrayInputStream(token.getIdentifier());
     DataInputStream in = new DataInputStream(buf);
@@ -425,11 +519,13 @@ public synchronized TokenIdent cancelToken(Token<TokenIdent> token,
       throw new AccessControlException(canceller
           + " is not authorized to cancel the token");
     }
-    DelegationTokenInformation info = currentTokens.remove(id);
-    if (info == null) {
-      throw new InvalidToken("Token not found");
+    synchronized (getTokenLock(id)) {
+      DelegationTokenInformation info = currentTokens.remove(id);
+      if (info == null) {
+        throw new InvalidToken("Token not found");
+      }
+      removeStoredToken(id);
     }
-    removeStoredToken(id);
     return id;
   }
   
@@ -477,19 +573,24 @@ public String getTrackingId() {
   private void removeExpiredToken() throws IOException {
     long now = Time.now();
     Set<TokenIdent> expiredTokens = new HashSet<TokenIdent>();
-    synchronized (this) {
-      Iterator<Map.Entry<TokenIdent, DelegationTokenInformation>> i =
-          currentTokens.entrySet().iterator();
-      while (i.hasNext()) {
-        Map.Entry<TokenIdent, DelegationTokenInformation> entry = i.next();
-        long renewDate = entry.getValue().getRenewDate();
-        if (renewDate < now) {
-          expiredTokens.add(entry.getKey());
-          i.remove();
+    Iterator<Map.Entry<TokenIdent, DelegationTokenInformation>> i =
+        currentTokens.entrySet().iterator();
+    while (i.hasNext()) {
+      Map.Entry<TokenIdent, DelegationTokenInformation> entry = i.next();
+      if (entry.getValue().getRenewDate() < now) {
+        TokenIdent ident = entry.getKey();
+        // re-check under the token's lock so that a concurrent renewal
+        // or cancellation is not lost
+        synchronized (getTokenLock(ident)) {
+          DelegationTokenInformation info = currentTokens.get(ident);
+          if (info != null && info.getRenewDate() < now) {
+            currentTokens.remove(ident);
+            expiredTokens.add(ident);
+          }
         }
       }
     }
-    // don't hold lock on 'this' to avoid edit log updates blocking token ops
+    // don't hold any lock to avoid edit log updates blocking token ops
     for (TokenIdent ident : expiredTokens) {
       logExpireToken(ident);
       removeStoredToken(ident);
@@ -522,6 +623,30 @@ public synchronized boolean isRunning() {
     return running;
   }
   
+  /**
+   * DelegationTokenSecretManagerMetrics tracks the latency of delegation
+   * token operations and publishes it through the metrics interfaces.
+   */
+  @Metrics(about="Delegation token secret manager metrics", context="token")
+  static class DelegationTokenSecretManagerMetrics {
+    final MetricsRegistry registry =
+        new MetricsRegistry("DelegationTokenSecretManagerMetrics");
+
+    @Metric("Rate of token creations and latency (milliseconds)")
+    MutableRate createToken;
+    @Metric("Rate of token password lookups and latency (milliseconds)")
+    MutableRate retrievePassword;
+    @Metric("Rate of token renewals and latency (milliseconds)")
+    MutableRate renewToken;
+    @Metric("Rate of token cancellations and latency (milliseconds)")
+    MutableRate cancelToken;
+
+    static DelegationTokenSecretManagerMetrics create() {
+      return DefaultMetricsSystem.instance().register(
+          new DelegationTokenSecretManagerMetrics());
+    }
+  }
+
   private class ExpiredTokenRemover extends Thread {
     private long lastMasterKeyUpdate;
     private long lastTokenCacheCleanup;
@@ -180,6 +180,54 @@ protected int fillBuffer(InputStream in, byte[] buffer, boolean inDelimiter)
     return in.read(buffer);
   }
 
+  /**
+   * @return the position of the first CR or LF in buf[from, to), or to
+   */
+  private static int findNewline(byte[] buf, int from, int to) {
+    int i = from;
+    // test eight bytes at a time with non-short-circuit comparisons, which
+    // the JIT compiles without a branch per byte. Only the blocks holding a
+    // control character, which CR and LF are, are looked at byte by byte.
+    for (; i + 8 <= to; i += 8) {
+      if (((buf[i] & 0xFF) <= CR) | ((buf[i + 1] & 0xFF) <= CR)
+          | ((buf[i + 2] & 0xFF) <= CR) | ((buf[i + 3] & 0xFF) <= CR)
+          | ((buf[i + 4] & 0xFF) <= CR) | ((buf[i + 5] & 0xFF) <= CR)
+          | ((buf[i + 6] & 0xFF) <= CR) | ((buf[i + 7] & 0xFF) <= CR)) {
+        for (int j = i; j < i + 8; j++) {
+          if (buf[j] == LF || buf[j] == CR) {
+            return j;
+          }
+        }
+      }
+    }
+    for (; i < to; i++) {
+      if (buf[i] == LF || buf[i] == CR) {
+        return i;
+      }
+    }
+    return to;
+  }
+
+  /**
+   * @return the position of the first b in buf[from, to), or to
+   */
+  private static int indexOf(byte[] buf, int from, int to, byte b) {
+    int i = from;
+    for (; i + 8 <= to; i += 8) {
+      if ((buf[i] == b) | (buf[i + 1] == b) | (buf[i + 2] == b)
+          | (buf[i + 3] == b) | (buf[i + 4] == b) | (buf[i + 5] == b)
+          | (buf[i + 6] == b) | (buf[i + 7] == b)) {
+        break;
+      }
+    }
+    for (; i < to; i++) {
+      if (buf[i] == b) {
+        return i;
+      }
+    }
+    return to;
+  }
+
   /**
    * Read a line terminated by one of CR, LF, or CRLF.
    */
@@ -218,17 +266,27 @@ private int readDefaultLine(Text str, int maxLineLength, int maxBytesToConsume)
           break; // EOF
         }
       }
-      for (; bufferPosn < bufferLength; ++bufferPosn) { //search for newline
+      if (prevCharCR) { //the previous buffer ended in CR
         if (buffer[bufferPosn] == LF) {
-          newlineLength = (prevCharCR) ? 2 : 1;
-          ++bufferPosn; // at next invocation proceed from following byte
-          break;
+          ++bufferPosn; //CRLF, proceed from the following byte
+          newlineLength = 2;
+        } else {
+          newlineLength = 1; //CR + notLF, we are at notLF
         }
-        if (prevCharCR) { //CR + notLF, we are at notLF
-          newlineLength = 1;
-          break;
+      } else {
+        bufferPosn = findNewline(buffer, bufferPosn, bufferLength);
+        if (bufferPosn < bufferLength) {
+          if (buffer[bufferPosn++] == LF) {
+            newlineLength = 1;
+          } else if (bufferPosn == bufferLength) {
+            prevCharCR = true; //CR at the end of the buffer
+          } else if (buffer[bufferPosn] == LF) {
+            ++bufferPosn;
+            newlineLength = 2;
+          } else {
+            newlineLength = 1;
+          }
         }
-        prevCharCR = (buffer[bufferPosn] == CR);
       }
       int readLength = bufferPosn - startPosn;
       if (prevCharCR && newlineLength == 0) {
@@ -307,6 +365,11 @@ private int readCustomLine(Text str, int maxLineLength, int maxBytesToConsume)
           break; // EOF
         }
       }
+      if (delPosn == 0) {
+        // skip to the first byte that can start the delimiter
+        bufferPosn = indexOf(buffer, bufferPosn, bufferLength,
+            recordDelimiterBytes[0]);
+      }
       for (; bufferPosn < bufferLength; ++bufferPosn) {
         if (buffer[bufferPosn] == recordDelimiterBytes[delPosn]) {
           delPosn++;
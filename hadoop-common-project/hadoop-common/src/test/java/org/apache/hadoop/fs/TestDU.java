@@ -131,4 +131,34 @@ public void testDUSetInitialValue() throws IOException {
 
     assertTrue("Usage didn't get updated", du.getUsed() == 8192);
   }
+
+  public void testDUWalk() throws IOException {
+    long expected = DU_DIR.length();
+    for (int i = 0; i < 5; i++) {
+      File dir = new File(DU_DIR, "subdir" + i);
+      assertTrue(dir.mkdirs());
+      for (int j = 0; j < 3; j++) {
+        File subdir = new File(dir, "subdir" + j);
+        assertTrue(subdir.mkdir());
+        createFile(new File(subdir, "data"), 1024 * (j + 1));
+        expected += subdir.length() + 1024 * (j + 1);
+      }
+      createFile(new File(dir, "data"), 4096);
+      expected += dir.length() + 4096;
+    }
+
+    Configuration conf = new Configuration();
+    conf.setInt(CommonConfigurationKeys.FS_DU_WALK_THREADS_KEY, 4);
+    DU du = new DU(DU_DIR, conf);
+    assertEquals(expected, du.getUsed());
+
+    // symbolic links are not followed
+    assertEquals(0, FileUtil.symLink(new File(DU_DIR, "subdir1").getPath(),
+        new File(DU_DIR, "subdir0/link").getPath()));
+    assertEquals(expected, du.getUsed());
+
+    // a file is measured by its own length
+    du = new DU(new File(DU_DIR, "subdir0/data"), conf);
+    assertEquals(4096, du.getUsed());
+  }
 }
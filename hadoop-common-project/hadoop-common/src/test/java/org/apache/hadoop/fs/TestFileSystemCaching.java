@@ -32,7 +32,19 @@
 import org.apache.hadoop.security.token.TokenIdentifier;
 import org.junit.Test;
 import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
@@ -151,6 +163,114 @@ public void run() {
     t.join();
   }
 
+  public static class SlowInitializeFileSystem extends LocalFileSystem {
+    final static AtomicInteger initializations = new AtomicInteger();
+    @Override
+    public void initialize(URI uri, Configuration conf) throws IOException {
+      initializations.incrementAndGet();
+      try {
+        Thread.sleep(100);
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+      super.initialize(uri, conf);
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testConcurrentCreationIsDeduplicated() throws Exception {
+    final Configuration conf = new Configuration();
+    conf.set("fs.slowfs.impl", SlowInitializeFileSystem.class.getName());
+    final URI uri = new URI("slowfs://a");
+    int numThreads = 10;
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      List<Future<FileSystem>> results = new ArrayList<Future<FileSystem>>();
+      for (int i = 0; i < numThreads; i++) {
+        results.add(executor.submit(new Callable<FileSystem>() {
+          @Override
+          public FileSystem call() throws Exception {
+            return FileSystem.get(uri, conf);
+          }
+        }));
+      }
+      FileSystem fs = results.get(0).get();
+      for (Future<FileSystem> result : results) {
+        assertSame(fs, result.get());
+      }
+      // only one instance was created for all the concurrent lookups
+      assertEquals(1, SlowInitializeFileSystem.initializations.get());
+      fs.close();
+      FileSystem fs2 = FileSystem.get(uri, conf);
+      assertNotSame(fs, fs2);
+      fs2.close();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * A file system whose first initialization looks up the file system
+   * configured in test.cross.fs.&lt;scheme&gt;, once both of two threads have
+   * started initializing one.
+   */
+  public static class CrossInitializeFileSystem extends LocalFileSystem {
+    static final CountDownLatch started = new CountDownLatch(2);
+    static final Set<String> initialized =
+        Collections.synchronizedSet(new HashSet<String>());
+
+    @Override
+    public void initialize(URI uri, Configuration conf) throws IOException {
+      if (initialized.add(uri.getScheme())) {
+        started.countDown();
+        try {
+          started.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+        FileSystem.get(
+            URI.create(conf.get("test.cross.fs." + uri.getScheme())), conf);
+      }
+      super.initialize(uri, conf);
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testCrossInitializationDoesNotDeadlock() throws Exception {
+    final Configuration conf = new Configuration();
+    conf.set("fs.crossa.impl", CrossInitializeFileSystem.class.getName());
+    conf.set("fs.crossb.impl", CrossInitializeFileSystem.class.getName());
+    conf.set("test.cross.fs.crossa", "crossb://b");
+    conf.set("test.cross.fs.crossb", "crossa://a");
+    final URI uriA = new URI("crossa://a");
+    final URI uriB = new URI("crossb://b");
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      // each thread creates one of the file systems, which waits for the
+      // other one
+      Future<FileSystem> a = executor.submit(new Callable<FileSystem>() {
+        @Override
+        public FileSystem call() throws Exception {
+          return FileSystem.get(uriA, conf);
+        }
+      });
+      Future<FileSystem> b = executor.submit(new Callable<FileSystem>() {
+        @Override
+        public FileSystem call() throws Exception {
+          return FileSystem.get(uriB, conf);
+        }
+      });
+      FileSystem fsA = a.get();
+      FileSystem fsB = b.get();
+      assertSame(fsA, FileSystem.get(uriA, conf));
+      assertSame(fsB, FileSystem.get(uriB, conf));
+      fsA.close();
+      fsB.close();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
   @Test
   public void testCacheDisabled() throws Exception {
     Configuration conf = new Configuration();
@@ -31,6 +31,7 @@
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.Attributes;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
@@ -40,6 +41,8 @@
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.apache.hadoop.util.Progressable;
 import org.apache.hadoop.util.Shell;
 import org.apache.hadoop.util.StringUtils;
 import org.apache.tools.tar.TarEntry;
@@ -523,6 +526,58 @@ public void testCopyMergeSingleDirectory() throws IOException {
     }
   }
 
+  @Test (timeout = 30000)
+  public void testMultiThreadedCopy() throws IOException {
+    setupDirs();
+    File srcDir = new File(tmp, "src");
+    for (int d = 0; d < 3; d++) {
+      File dir = new File(srcDir, "dir" + d);
+      dir.mkdirs();
+      for (int f = 0; f < 10; f++) {
+        createFile(dir, "file" + f, "contents" + f);
+      }
+    }
+    Configuration conf = new Configuration();
+    FileSystem fs = FileSystem.getLocal(conf).getRawFileSystem();
+    Path src = new Path(srcDir.getAbsolutePath());
+    Path dst = new Path(tmp.getAbsolutePath(), "copy");
+    final AtomicInteger copied = new AtomicInteger();
+    Assert.assertTrue(FileUtil.copy(fs, src, fs, dst, false, false, conf, 4,
+        new Progressable() {
+          @Override
+          public void progress() {
+            copied.incrementAndGet();
+          }
+        }));
+    Assert.assertEquals(30, copied.get());
+    for (int d = 0; d < 3; d++) {
+      for (int f = 0; f < 10; f++) {
+        File copy = new File(tmp, "copy/dir" + d + "/file" + f);
+        BufferedReader rdr = new BufferedReader(new FileReader(copy));
+        try {
+          Assert.assertEquals("contents" + f, rdr.readLine());
+        } finally {
+          rdr.close();
+        }
+      }
+    }
+
+    // copying onto an existing file without overwrite fails
+    try {
+      FileUtil.copy(fs, new Path(src, "dir0/file0"), fs,
+          new Path(dst, "dir0"), false, false, conf, 4, null);
+      Assert.fail("copied onto an existing file");
+    } catch (IOException e) {
+      GenericTestUtils.assertExceptionContains("already exists", e);
+    }
+
+    // the source goes once everything has been copied
+    Assert.assertTrue(FileUtil.copy(fs, src, fs, new Path(dst, "moved"),
+        true, false, conf, 4, null));
+    Assert.assertFalse(srcDir.exists());
+    Assert.assertTrue(new File(tmp, "copy/moved/dir2/file9").exists());
+  }
+
   /**
    * Calls FileUtil.copyMerge using the specified source and destination paths.
    * Both source and destination are assumed to be on the local file system.
@@ -167,6 +167,10 @@ public void processDeleteOnExit() { }
     public FileStatus[] globStatus(Path pathPattern, PathFilter filter) {
       return null;
     }
+    public RemoteIterator<FileStatus> globStatusIterator(Path pathPattern,
+        PathFilter filter) {
+      return null;
+    }
     public Iterator<LocatedFileStatus> listFiles(
         final Path path, final boolean isRecursive) {
       return null;
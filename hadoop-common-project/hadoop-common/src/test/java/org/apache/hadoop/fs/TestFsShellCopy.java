@@ -21,8 +21,10 @@
 import static org.junit.Assert.*;
 import static org.junit.Assume.assumeTrue;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
 
 import org.apache.hadoop.conf.Configuration;
 import org.junit.Before;
@@ -485,6 +487,63 @@ public void testGetWindowsLocalPath() throws Exception {
     checkPath(dstPath, false);
   }
   
+  @Test
+  public void testMultiThreadedCopy() throws Exception {
+    Path testRoot = new Path(testRootDir, "testMultiThreadedCopy");
+    lfs.delete(testRoot, true);
+    Path srcDir = new Path(testRoot, "srcDir");
+    for (int d = 0; d < 3; d++) {
+      Path dir = new Path(srcDir, "dir" + d);
+      lfs.mkdirs(new Path(dir, "empty"));
+      for (int f = 0; f < 10; f++) {
+        createFile(new Path(dir, "file" + f));
+      }
+    }
+
+    Path putDir = new Path(testRoot, "put");
+    shellRun(0, "-put", "-t", "4", srcDir.toString(), putDir.toString());
+    checkTreeCopy(srcDir, putDir);
+    Path cpDir = new Path(testRoot, "cp");
+    shellRun(0, "-cp", "-t", "4", putDir.toString(), cpDir.toString());
+    checkTreeCopy(srcDir, cpDir);
+    Path moveDir = new Path(testRoot, "move");
+    shellRun(0, "-moveFromLocal", "-t", "4", cpDir.toString(),
+        moveDir.toString());
+    checkTreeCopy(srcDir, moveDir);
+    assertFalse(lfs.exists(cpDir));
+
+    shellRun(0, "-rm", "-r", "-skipTrash", "-t", "4", putDir.toString());
+    assertFalse(lfs.exists(putDir));
+
+    // existing targets are reported, the other files are still copied
+    Path getDir = new Path(testRoot, "get");
+    lfs.mkdirs(new Path(getDir, "dir0"));
+    createFile(new Path(getDir, "dir0/file3"));
+    shellRun(1, "-get", "-t", "4", new Path(srcDir, "dir0").toString(),
+        getDir.toString());
+    assertTrue(lfs.exists(new Path(getDir, "dir0/file9")));
+
+    shellRun(-1, "-cp", "-t", "0", srcDir.toString(), cpDir.toString());
+    shellRun(-1, "-cp", "-t");
+  }
+
+  private void checkTreeCopy(Path srcDir, Path dstDir) throws IOException {
+    for (int d = 0; d < 3; d++) {
+      Path dir = new Path(dstDir, "dir" + d);
+      assertTrue(lfs.isDirectory(new Path(dir, "empty")));
+      for (int f = 0; f < 10; f++) {
+        Path file = new Path(dir, "file" + f);
+        BufferedReader in =
+            new BufferedReader(new InputStreamReader(lfs.open(file)));
+        try {
+          assertEquals(file.getName(), in.readLine());
+        } finally {
+          in.close();
+        }
+      }
+    }
+  }
+
   private void createFile(Path ... paths) throws IOException {
     for (Path path : paths) {
       FSDataOutputStream out = lfs.create(path);
@@ -116,6 +116,8 @@ public FSDataOutputStream create(Path f, FsPermission permission,
     public FileStatus[] listStatus(Path[] files, PathFilter filter);
     public FileStatus[] globStatus(Path pathPattern);
     public FileStatus[] globStatus(Path pathPattern, PathFilter filter);
+    public RemoteIterator<FileStatus> globStatusIterator(Path pathPattern,
+        PathFilter filter);
 
     public Iterator<LocatedFileStatus> listFiles(Path path,
         boolean isRecursive);
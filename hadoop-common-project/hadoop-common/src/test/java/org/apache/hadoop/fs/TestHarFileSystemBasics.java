@@ -20,6 +20,7 @@
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.util.Shell;
 import org.junit.After;
 import org.junit.Assert;
@@ -27,9 +28,15 @@
 import org.junit.Test;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import static org.junit.Assert.*;
@@ -274,6 +281,199 @@ public void testMakeQualifiedPath() throws Exception {
         qualifiedPath.toString().equals(harPathWithUserinfo));
   }
 
+  /**
+   * Write an archive with a binary index, of a directory holding numFiles
+   * files of 10 bytes each.
+   * @return the entries of the index
+   */
+  private List<HarIndex.Entry> writeBinaryHar(Path binHarPath, int numFiles)
+      throws IOException {
+    localFileSystem.mkdirs(binHarPath);
+    localFileSystem.createNewFile(new Path(binHarPath, "_index"));
+    writeVersionToMasterIndexImpl(HarFileSystem.VERSION,
+        new Path(binHarPath, "_masterindex"));
+
+    // a single part file holding all the files
+    final byte[] data = new byte[numFiles * 10];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (i / 10);
+    }
+    FSDataOutputStream out =
+        localFileSystem.create(new Path(binHarPath, "part-0"));
+    out.write(data);
+    out.close();
+
+    List<String> children = new ArrayList<String>();
+    List<HarIndex.Entry> entries = new ArrayList<HarIndex.Entry>();
+    for (int i = 0; i < numFiles; i++) {
+      children.add("f" + i);
+      entries.add(new HarIndex.Entry("/dir/f" + i, false, "part-0", i * 10,
+          10, i, (short) 0644, "owner", "group", null));
+    }
+    entries.add(new HarIndex.Entry("/dir", true, "none", 0, 0, 0,
+        (short) 0755, "owner", "group", children));
+    entries.add(new HarIndex.Entry("/", true, "none", 0, 0, 0,
+        (short) 0755, "owner", "group", Arrays.asList("dir")));
+    Collections.sort(entries, new Comparator<HarIndex.Entry>() {
+      @Override
+      public int compare(HarIndex.Entry a, HarIndex.Entry b) {
+        int ha = HarFileSystem.getHarHash(new Path(a.getName()));
+        int hb = HarFileSystem.getHarHash(new Path(b.getName()));
+        return ha < hb ? -1 : (ha == hb ? 0 : 1);
+      }
+    });
+    final Path indexPath = new Path(binHarPath, HarIndex.NAME);
+    HarIndex.Writer writer = new HarIndex.Writer(localFileSystem, indexPath);
+    for (HarIndex.Entry entry : entries) {
+      writer.append(HarFileSystem.getHarHash(new Path(entry.getName())),
+          entry);
+    }
+    writer.close();
+    return entries;
+  }
+
+  @Test
+  public void testBinaryIndex() throws Exception {
+    final Path binHarPath = new Path(rootPath, "path1/path2/binary.har");
+    final Path indexPath = new Path(binHarPath, HarIndex.NAME);
+    final int numFiles = 600;
+    List<HarIndex.Entry> entries = writeBinaryHar(binHarPath, numFiles);
+
+    // look up all entries in the mapped index, and through range reads
+    FileSystem unmappable = new FilterFileSystem(localFileSystem);
+    for (FileSystem fs : Arrays.asList(localFileSystem, unmappable)) {
+      HarIndex index = HarIndex.open(fs, indexPath);
+      assertEquals(fs == localFileSystem, index.isMapped());
+      FSDataInputStream in = index.isMapped() ? null : fs.open(indexPath);
+      try {
+        assertEquals(entries.size(), index.size());
+        for (HarIndex.Entry entry : entries) {
+          HarIndex.Entry found = index.get(new Path(entry.getName()), in);
+          assertNotNull(entry.getName(), found);
+          assertEquals(entry.getName(), found.getName());
+          assertEquals(entry.getStartIndex(), found.getStartIndex());
+          assertEquals(entry.getModificationTime(),
+              found.getModificationTime());
+          assertEquals(entry.getOwner(), found.getOwner());
+        }
+        assertNull(index.get(new Path("/dir/f" + numFiles), in));
+      } finally {
+        IOUtils.closeStream(in);
+      }
+    }
+
+    final HarFileSystem hfs = new HarFileSystem(localFileSystem);
+    hfs.initialize(new URI("har://" + binHarPath.toString()), conf);
+    assertNotNull(hfs.getMetadata().index);
+    assertEquals(numFiles, hfs.listStatus(new Path("dir")).length);
+    FileStatus status = hfs.getFileStatus(new Path("dir/f42"));
+    assertEquals(10, status.getLen());
+    assertEquals(42, status.getModificationTime());
+    FSDataInputStream in = hfs.open(new Path("dir/f42"));
+    try {
+      assertEquals(42, in.read());
+    } finally {
+      in.close();
+    }
+    try {
+      hfs.getFileStatus(new Path("dir/f" + numFiles));
+      Assert.fail("FileNotFoundException expected.");
+    } catch (FileNotFoundException e) {
+      // ok, expected.
+    }
+  }
+
+  /**
+   * A file system whose streams fail once it is closed, like those of HDFS.
+   * It does not close the file system it wraps.
+   */
+  private static class CloseableFileSystem extends FilterFileSystem {
+    private volatile boolean closed = false;
+
+    CloseableFileSystem(FileSystem fs) {
+      super(fs);
+    }
+
+    private void checkOpen() throws IOException {
+      if (closed) {
+        throw new IOException("Filesystem closed");
+      }
+    }
+
+    @Override
+    public FSDataInputStream open(Path f, int bufferSize) throws IOException {
+      checkOpen();
+      final FSDataInputStream in = super.open(f, bufferSize);
+      return new FSDataInputStream(new FSInputStream() {
+        @Override
+        public void seek(long pos) throws IOException {
+          checkOpen();
+          in.seek(pos);
+        }
+
+        @Override
+        public long getPos() throws IOException {
+          return in.getPos();
+        }
+
+        @Override
+        public boolean seekToNewSource(long targetPos) throws IOException {
+          return false;
+        }
+
+        @Override
+        public int read() throws IOException {
+          checkOpen();
+          return in.read();
+        }
+
+        @Override
+        public int read(long position, byte[] buffer, int offset, int length)
+            throws IOException {
+          checkOpen();
+          return in.read(position, buffer, offset, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+          in.close();
+        }
+      });
+    }
+
+    @Override
+    public void close() throws IOException {
+      closed = true;
+    }
+  }
+
+  @Test
+  public void testBinaryIndexAfterClose() throws Exception {
+    final Path binHarPath = new Path(rootPath, "path1/path2/closed.har");
+    writeBinaryHar(binHarPath, 10);
+    final URI uri = new URI("har://" + binHarPath.toString());
+
+    // the second instance shares the cached metadata of the first one, but
+    // must not read through the closed file system of the first one
+    HarFileSystem hfs1 =
+        new HarFileSystem(new CloseableFileSystem(localFileSystem));
+    hfs1.initialize(uri, conf);
+    assertFalse(hfs1.getMetadata().index.isMapped());
+    assertEquals(10, hfs1.getFileStatus(new Path("dir/f1")).getLen());
+    hfs1.close();
+
+    HarFileSystem hfs2 =
+        new HarFileSystem(new CloseableFileSystem(localFileSystem));
+    hfs2.initialize(uri, conf);
+    try {
+      assertSame(hfs1.getMetadata(), hfs2.getMetadata());
+      assertEquals(10, hfs2.getFileStatus(new Path("dir/f2")).getLen());
+      assertEquals(10, hfs2.listStatus(new Path("dir")).length);
+    } finally {
+      hfs2.close();
+    }
+  }
+
   // ========== Negative:
 
   @Test
@@ -0,0 +1,140 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.io;
+
+import static org.apache.hadoop.test.MetricsAsserts.assertCounter;
+import static org.apache.hadoop.test.MetricsAsserts.getMetrics;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.apache.hadoop.metrics2.lib.MetricsAnnotations;
+import org.junit.Test;
+
+public class TestBoundedByteBufferPool {
+  private static final int LARGE =
+      4 * BoundedByteBufferPool.THREAD_CACHE_MAX_CAPACITY;
+
+  @Test
+  public void testSizeClasses() {
+    BoundedByteBufferPool pool = new BoundedByteBufferPool(1024 * 1024);
+    ByteBuffer buf = pool.getBuffer(false, 100);
+    assertEquals(128, buf.capacity());
+    assertFalse(buf.isDirect());
+    assertEquals(1, pool.getAllocations());
+
+    // a released buffer serves requests up to its capacity
+    pool.putBuffer(buf);
+    assertSame(buf, pool.getBuffer(false, 65));
+    pool.putBuffer(buf);
+    assertNotSame(buf, pool.getBuffer(false, 129));
+    // direct and heap buffers are kept apart
+    assertTrue(pool.getBuffer(true, 100).isDirect());
+    assertEquals(1, pool.getHits());
+
+    // other capacities serve the requests they are large enough for
+    ByteBuffer odd = ByteBuffer.allocate(LARGE + 100);
+    pool.putBuffer(odd);
+    assertNotSame(odd, pool.getBuffer(false, LARGE + 200));
+    assertSame(odd, pool.getBuffer(false, LARGE));
+  }
+
+  @Test
+  public void testBound() {
+    BoundedByteBufferPool pool = new BoundedByteBufferPool(2 * LARGE);
+    ByteBuffer[] bufs = new ByteBuffer[3];
+    for (int i = 0; i < bufs.length; i++) {
+      bufs[i] = pool.getBuffer(true, LARGE);
+    }
+    for (ByteBuffer buf : bufs) {
+      pool.putBuffer(buf);
+    }
+    assertEquals(2 * LARGE, pool.getCachedBytes());
+    assertEquals(1, pool.getEvictions());
+
+    // a smaller buffer makes room by evicting a larger one
+    pool.putBuffer(ByteBuffer.allocate(LARGE / 2));
+    assertEquals(LARGE + LARGE / 2, pool.getCachedBytes());
+    assertEquals(2, pool.getEvictions());
+
+    // buffers larger than the bound are never kept
+    pool.putBuffer(ByteBuffer.allocate(4 * LARGE));
+    assertEquals(LARGE + LARGE / 2, pool.getCachedBytes());
+
+    pool.getBuffer(true, LARGE);
+    assertEquals(LARGE / 2, pool.getCachedBytes());
+
+    MetricsRecordBuilder rb = getMetrics(MetricsAnnotations.makeSource(pool));
+    assertCounter("Hits", 1L, rb);
+    assertCounter("Evictions", 3L, rb);
+  }
+
+  @Test
+  public void testThreadCache() throws Exception {
+    final BoundedByteBufferPool pool = new BoundedByteBufferPool(LARGE);
+    final ByteBuffer buf = pool.getBuffer(false, 1024);
+    pool.putBuffer(buf);
+    // held by this thread only, and counted against the bound
+    assertEquals(1024, pool.getCachedBytes());
+    final ByteBuffer[] other = new ByteBuffer[1];
+    Thread t = new Thread() {
+      @Override
+      public void run() {
+        other[0] = pool.getBuffer(false, 1024);
+      }
+    };
+    t.start();
+    t.join();
+    assertNotSame(buf, other[0]);
+    assertSame(buf, pool.getBuffer(false, 1024));
+    assertEquals(0, pool.getCachedBytes());
+  }
+
+  @Test
+  public void testThreadCacheEviction() throws Exception {
+    final BoundedByteBufferPool pool = new BoundedByteBufferPool(LARGE);
+    final ByteBuffer buf = pool.getBuffer(false, 1024);
+    pool.putBuffer(buf);
+    // the buffer kept by this thread makes room for a shared one
+    pool.putBuffer(ByteBuffer.allocate(LARGE));
+    assertEquals(LARGE, pool.getCachedBytes());
+    assertEquals(1, pool.getEvictions());
+    assertNotSame(buf, pool.getBuffer(false, 1024));
+
+    // the buffers of exited threads are released first
+    Thread t = new Thread() {
+      @Override
+      public void run() {
+        pool.getBuffer(false, LARGE);
+        pool.putBuffer(pool.getBuffer(true, 1024));
+      }
+    };
+    t.start();
+    t.join();
+    assertEquals(1024, pool.getCachedBytes());
+    pool.putBuffer(ByteBuffer.allocate(LARGE));
+    assertEquals(LARGE, pool.getCachedBytes());
+    assertEquals(2, pool.getEvictions());
+    assertEquals(LARGE, pool.getBuffer(false, LARGE).capacity());
+  }
+}
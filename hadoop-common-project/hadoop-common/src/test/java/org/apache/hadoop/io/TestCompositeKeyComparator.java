@@ -0,0 +1,147 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestCompositeKeyComparator {
+
+  /** A key of every supported field, compared field by field. */
+  public static class CompositeKey implements WritableComparable<CompositeKey> {
+    final IntWritable i = new IntWritable();
+    final LongWritable l = new LongWritable();
+    final Text t = new Text();
+    final BytesWritable b = new BytesWritable();
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      i.write(out);
+      l.write(out);
+      t.write(out);
+      b.write(out);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      i.readFields(in);
+      l.readFields(in);
+      t.readFields(in);
+      b.readFields(in);
+    }
+
+    @Override
+    public int compareTo(CompositeKey o) {
+      int c = i.compareTo(o.i);
+      if (c == 0) {
+        c = l.compareTo(o.l);
+      }
+      if (c == 0) {
+        c = t.compareTo(o.t);
+      }
+      if (c == 0) {
+        c = b.compareTo(o.b);
+      }
+      return c;
+    }
+  }
+
+  /** A key without a raw comparator. */
+  public static class PlainKey implements WritableComparable<PlainKey> {
+    int value;
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      out.writeInt(value);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      value = in.readInt();
+    }
+
+    @Override
+    public int compareTo(PlainKey o) {
+      return value < o.value ? -1 : (value == o.value ? 0 : 1);
+    }
+  }
+
+  @Test
+  public void testMatchesDeserializedOrder() throws Exception {
+    Random random = new Random();
+    long seed = random.nextLong();
+    random.setSeed(seed);
+    WritableComparator comparator = new CompositeKeyComparator(
+        CompositeKey.class, IntWritable.class, LongWritable.class,
+        Text.class, BytesWritable.class);
+    CompositeKey key1 = new CompositeKey();
+    CompositeKey key2 = new CompositeKey();
+    DataOutputBuffer out1 = new DataOutputBuffer();
+    DataOutputBuffer out2 = new DataOutputBuffer();
+    for (int n = 0; n < 10000; n++) {
+      // few distinct values, so that keys often tie on leading fields
+      randomize(key1, random);
+      randomize(key2, random);
+      out1.reset();
+      key1.write(out1);
+      out2.reset();
+      key2.write(out2);
+      int expected = Integer.signum(key1.compareTo(key2));
+      int actual = Integer.signum(comparator.compare(out1.getData(), 0,
+          out1.getLength(), out2.getData(), 0, out2.getLength()));
+      assertEquals("seed " + seed, expected, actual);
+    }
+  }
+
+  private static void randomize(CompositeKey key, Random random) {
+    key.i.set(random.nextInt(3) - 1);
+    key.l.set(random.nextInt(3) - 1L);
+    byte[] bytes = new byte[random.nextInt(3)];
+    for (int j = 0; j < bytes.length; j++) {
+      bytes[j] = (byte) (random.nextBoolean() ? 'a' : 0xe9);
+    }
+    key.t.set(bytes);
+    key.b.set(bytes, 0, random.nextInt(bytes.length + 1));
+  }
+
+  @Test
+  public void testDeserializingFallbackIsCounted() throws Exception {
+    WritableComparator.FallbackMetrics metrics =
+        WritableComparator.getFallbackMetrics();
+    long comparisons = metrics.getComparisons();
+    long classes = metrics.getClasses();
+    WritableComparator comparator = WritableComparator.get(PlainKey.class);
+    byte[] b1 = {0, 0, 0, 1};
+    byte[] b2 = {0, 0, 0, 2};
+    assertTrue(comparator.compare(b1, 0, 4, b2, 0, 4) < 0);
+    assertTrue(comparator.compare(b2, 0, 4, b1, 0, 4) > 0);
+    assertEquals(comparisons + 2, metrics.getComparisons());
+    assertEquals(classes + 1, metrics.getClasses());
+
+    // raw comparators are not counted
+    WritableComparator.get(IntWritable.class).compare(b1, 0, 4, b2, 0, 4);
+    assertEquals(comparisons + 2, metrics.getComparisons());
+  }
+}
@@ -23,7 +23,11 @@
 import java.io.OutputStream;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.CommonConfigurationKeys;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FilterFileSystem;
 import org.apache.hadoop.fs.LocalFileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.IOUtils;
@@ -731,4 +735,194 @@ public void testMidKeyEmpty() throws Exception {
       reader.close();
     }
   }
+
+  @Test
+  public void testBinaryIndex() throws Exception {
+    FileSystem fs = FileSystem.getLocal(conf);
+    Path plainDir = new Path(TEST_DIR, "testBinaryIndex.plain");
+    Path binaryDir = new Path(TEST_DIR, "testBinaryIndex.binary");
+    Configuration binaryConf = new Configuration(conf);
+    binaryConf.setBoolean(CommonConfigurationKeys.IO_MAP_INDEX_BINARY_KEY,
+        true);
+    MapFile.Writer.setIndexInterval(conf, 3);
+    MapFile.Writer.setIndexInterval(binaryConf, 3);
+    writeBinaryIndexTestFile(conf, plainDir);
+    writeBinaryIndexTestFile(binaryConf, binaryDir);
+    Path indexPath = new Path(binaryDir, MapFile.BINARY_INDEX_FILE_NAME);
+    assertFalse(fs.exists(new Path(plainDir, MapFile.BINARY_INDEX_FILE_NAME)));
+    assertTrue(fs.exists(indexPath));
+
+    MapFile.Reader plain = new MapFile.Reader(plainDir, conf);
+    MapFile.Reader binary = new MapFile.Reader(binaryDir, conf);
+    try {
+      assertEquals(plain.midKey(), binary.midKey());
+      Text plainKey = new Text();
+      Text binaryKey = new Text();
+      plain.finalKey(plainKey);
+      binary.finalKey(binaryKey);
+      assertEquals(plainKey, binaryKey);
+      Text value = new Text();
+      for (int i = 0; i < 1100; i += 3) {
+        Text key = new Text(String.format("%05d", i));
+        assertEquals(plain.get(key, value), binary.get(key, value));
+        assertEquals(plain.getClosest(key, value),
+            binary.getClosest(key, value));
+        assertEquals(plain.getClosest(key, value, true),
+            binary.getClosest(key, value, true));
+      }
+    } finally {
+      IOUtils.cleanup(null, plain, binary);
+    }
+
+    // off the local file system, the index is read rather than mapped
+    MapFileIndex index = MapFileIndex.open(new FilterFileSystem(fs), indexPath);
+    try {
+      assertEquals(112, index.size());
+      Text key = new Text("00045");
+      DataOutputBuffer out = new DataOutputBuffer();
+      key.write(out);
+      int i = index.binarySearch(out.getData(), out.getLength(),
+          WritableComparator.get(Text.class));
+      assertEquals(5, i);
+      Text indexKey = new Text();
+      index.getKey(i, indexKey);
+      assertEquals(key, indexKey);
+    } finally {
+      index.close();
+    }
+  }
+
+  @Test
+  public void testFixBinaryIndex() throws Exception {
+    FileSystem fs = FileSystem.getLocal(conf);
+    Path dir = new Path(TEST_DIR, "testFixBinaryIndex");
+    Configuration binaryConf = new Configuration(conf);
+    binaryConf.setBoolean(CommonConfigurationKeys.IO_MAP_INDEX_BINARY_KEY,
+        true);
+    MapFile.Writer.setIndexInterval(binaryConf, 3);
+    writeBinaryIndexTestFile(binaryConf, dir);
+    Path index = new Path(dir, MapFile.INDEX_FILE_NAME);
+    Path binaryIndex = new Path(dir, MapFile.BINARY_INDEX_FILE_NAME);
+    Path table = MapFileIndex.getTablePath(binaryIndex);
+    assertFalse(fs.exists(table));
+
+    // a stale binary index and the table left by a dead writer are removed
+    fs.delete(index, false);
+    fs.create(table).close();
+    Configuration plainConf = new Configuration(conf);
+    MapFile.Writer.setIndexInterval(plainConf, 5);
+    assertEquals(334,
+        MapFile.fix(fs, dir, Text.class, Text.class, false, plainConf));
+    assertTrue(fs.exists(index));
+    assertFalse(fs.exists(binaryIndex));
+    assertFalse(fs.exists(table));
+    checkFixedBinaryIndex(dir);
+
+    // or re-created if configured
+    fs.delete(index, false);
+    assertEquals(334,
+        MapFile.fix(fs, dir, Text.class, Text.class, false, binaryConf));
+    assertTrue(fs.exists(binaryIndex));
+    checkFixedBinaryIndex(dir);
+  }
+
+  @Test
+  public void testRewriteWithoutBinaryIndex() throws Exception {
+    FileSystem fs = FileSystem.getLocal(conf);
+    Path dir = new Path(TEST_DIR, "testRewriteWithoutBinaryIndex");
+    Configuration binaryConf = new Configuration(conf);
+    binaryConf.setBoolean(CommonConfigurationKeys.IO_MAP_INDEX_BINARY_KEY,
+        true);
+    MapFile.Writer.setIndexInterval(binaryConf, 3);
+    Path binaryIndex = new Path(dir, MapFile.BINARY_INDEX_FILE_NAME);
+    writeBinaryIndexTestFile(binaryConf, dir);
+    assertTrue(fs.exists(binaryIndex));
+    fs.create(MapFileIndex.getTablePath(binaryIndex)).close();
+
+    // the old binary index does not apply to the new data
+    MapFile.Writer writer = new MapFile.Writer(conf, dir,
+        MapFile.Writer.keyClass(Text.class),
+        MapFile.Writer.valueClass(Text.class));
+    try {
+      for (int i = 0; i < 1000; i += 2) {
+        Text t = new Text(String.format("%05d", i));
+        writer.append(t, new Text("new" + t));
+      }
+    } finally {
+      writer.close();
+    }
+    assertFalse(fs.exists(binaryIndex));
+    assertFalse(fs.exists(MapFileIndex.getTablePath(binaryIndex)));
+    MapFile.Reader reader = new MapFile.Reader(dir, conf);
+    try {
+      Text value = new Text();
+      for (int i = 0; i < 1000; i += 2) {
+        Text key = new Text(String.format("%05d", i));
+        assertEquals(new Text("new" + key), reader.get(key, value));
+      }
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testTruncatedBinaryIndex() throws Exception {
+    FileSystem fs = FileSystem.getLocal(conf);
+    Path dir = new Path(TEST_DIR, "testTruncatedBinaryIndex");
+    Configuration binaryConf = new Configuration(conf);
+    binaryConf.setBoolean(CommonConfigurationKeys.IO_MAP_INDEX_BINARY_KEY,
+        true);
+    MapFile.Writer.setIndexInterval(binaryConf, 3);
+    writeBinaryIndexTestFile(binaryConf, dir);
+
+    // as left by a writer which died, without the trailer
+    Path binaryIndex = new Path(dir, MapFile.BINARY_INDEX_FILE_NAME);
+    byte[] head = new byte[100];
+    FSDataInputStream in = fs.open(binaryIndex);
+    try {
+      in.readFully(head);
+    } finally {
+      in.close();
+    }
+    FSDataOutputStream out = fs.create(binaryIndex, true);
+    try {
+      out.write(head);
+    } finally {
+      out.close();
+    }
+    checkFixedBinaryIndex(dir);
+  }
+
+  private void checkFixedBinaryIndex(Path dir) throws IOException {
+    MapFile.Reader reader = new MapFile.Reader(dir, conf);
+    try {
+      Text value = new Text();
+      for (int i = 0; i < 1000; i++) {
+        Text key = new Text(String.format("%05d", i));
+        if (i % 3 == 0) {
+          assertEquals(key, reader.get(key, value));
+        } else {
+          assertNull(reader.get(key, value));
+        }
+      }
+    } finally {
+      reader.close();
+    }
+  }
+
+  /** Write every third key from 0 to 1000 */
+  private static void writeBinaryIndexTestFile(Configuration conf, Path dir)
+      throws IOException {
+    MapFile.Writer writer = new MapFile.Writer(conf, dir,
+        MapFile.Writer.keyClass(Text.class),
+        MapFile.Writer.valueClass(Text.class));
+    try {
+      for (int i = 0; i < 1000; i += 3) {
+        Text t = new Text(String.format("%05d", i));
+        writer.append(t, t);
+      }
+    } finally {
+      writer.close();
+    }
+  }
 }
@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.io;
+
+import static org.apache.hadoop.test.MetricsAsserts.assertCounter;
+import static org.apache.hadoop.test.MetricsAsserts.assertGauge;
+import static org.apache.hadoop.test.MetricsAsserts.getMetrics;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+
+import org.apache.hadoop.io.ReadaheadPool.ReadaheadMetrics;
+import org.apache.hadoop.io.ReadaheadPool.ReadaheadRequest;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.apache.hadoop.metrics2.lib.MetricsAnnotations;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Supplier;
+
+public class TestReadaheadPool {
+  private static final long LENGTH = 1024 * 1024;
+  private static final File TEST_FILE = new File(
+      System.getProperty("test.build.data", "/tmp"), "TestReadaheadPool");
+
+  private ReadaheadPool pool;
+  private RandomAccessFile file;
+  private FileDescriptor fd;
+
+  @Before
+  public void setUp() throws Exception {
+    TEST_FILE.getParentFile().mkdirs();
+    new FileOutputStream(TEST_FILE).close();
+    file = new RandomAccessFile(TEST_FILE, "r");
+    fd = file.getFD();
+    pool = new ReadaheadPool();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    IOUtils.closeStream(file);
+    TEST_FILE.delete();
+  }
+
+  @Test(timeout = 60000)
+  public void testSequentialReadsGrowWindow() throws Exception {
+    ReadaheadRequest req = null;
+    for (long pos = 0; pos < 64 * LENGTH; pos += 64 * 1024) {
+      req = pool.readaheadStream("test", fd, pos, LENGTH, Long.MAX_VALUE, req);
+      assertNotNull(req);
+      awaitRequests();
+    }
+    assertEquals(ReadaheadPool.MAX_WINDOW_FACTOR * LENGTH, req.getLength());
+    ReadaheadMetrics metrics = pool.getMetrics();
+    assertTrue(metrics.getHits() > 0);
+    assertEquals(0, metrics.getMisses());
+    assertEquals(1.0f, metrics.getHitRatio(), 0.0f);
+    // overlapping windows are only requested once
+    assertTrue(metrics.getBytes() <= 64 * LENGTH + req.getLength());
+    req.cancel();
+  }
+
+  @Test(timeout = 60000)
+  public void testRandomReadsShrinkWindow() throws Exception {
+    ReadaheadRequest req = null;
+    for (int i = 0; i < 10; i++) {
+      long pos = (i % 2 == 0 ? 0 : 1000) * LENGTH;
+      req = pool.readaheadStream("test", fd, pos, LENGTH, Long.MAX_VALUE, req);
+      awaitRequests();
+    }
+    assertEquals(LENGTH / ReadaheadPool.MAX_WINDOW_FACTOR, req.getLength());
+    ReadaheadMetrics metrics = pool.getMetrics();
+    assertEquals(0, metrics.getHits());
+    assertEquals(9, metrics.getMisses());
+    assertTrue(metrics.getWastedBytes() > 0);
+    req.cancel();
+
+    MetricsRecordBuilder rb =
+        getMetrics(MetricsAnnotations.makeSource(metrics));
+    assertCounter("ReadaheadMisses", 9L, rb);
+    assertGauge("ReadaheadHitRatio", 0.0f, rb);
+  }
+
+  @Test
+  public void testEndOfStream() throws Exception {
+    ReadaheadRequest req =
+        pool.readaheadStream("test", fd, 0, LENGTH, LENGTH / 4, null);
+    assertEquals(LENGTH / 4, req.getLength());
+    assertNull(pool.readaheadStream("test", fd, LENGTH / 4, LENGTH,
+        LENGTH / 4, req));
+  }
+
+  /** Wait until the pool has run all submitted requests. */
+  private void awaitRequests() throws Exception {
+    GenericTestUtils.waitFor(new Supplier<Boolean>() {
+      @Override
+      public Boolean get() {
+        return pool.getPendingRequests() == 0;
+      }
+    }, 1, 10000);
+  }
+}
@@ -33,6 +33,7 @@
 import org.apache.hadoop.util.ReflectionUtils;
 import org.apache.hadoop.conf.*;
 import org.mockito.Mockito;
+import org.mockito.internal.util.reflection.Whitebox;
 
 
 /** Support for flat files of binary key/value pairs. */
@@ -52,6 +53,158 @@ public void testZlibSequenceFile() throws Exception {
     LOG.info("Successfully tested SequenceFile with DefaultCodec");
   }
   
+  /** Unit tests for pipelined compression and prefetching. */
+  public void testPipelinedBlockCompression() throws Exception {
+    int count = 1024 * 10;
+    Path file = new Path(System.getProperty("test.build.data",".") +
+                         "/test.pipelined.bc.seq");
+    int seed = new Random().nextInt();
+    LOG.info("Seed = " + seed);
+
+    conf.setInt(CommonConfigurationKeys.IO_SEQFILE_COMPRESS_BLOCKSIZE_KEY,
+                10000);
+    conf.setInt(CommonConfigurationKeys.IO_SEQFILE_COMPRESS_THREADS_KEY, 3);
+    conf.setInt(CommonConfigurationKeys.IO_SEQFILE_PREFETCH_BLOCKS_KEY, 4);
+    conf.setLong(CommonConfigurationKeys.IO_SEQFILE_PREFETCH_BYTES_KEY,
+                 100000);
+    FileSystem fs = FileSystem.getLocal(conf);
+    try {
+      writeTest(fs, count, seed, file, CompressionType.BLOCK,
+                new DefaultCodec());
+      readTest(fs, count, seed, file);
+      sortTest(fs, count, 1, 5, true, file);
+      checkSort(fs, count, seed, file);
+
+      // seeking stops prefetching, and positions are those of the blocks
+      // handed out, as without prefetching once their values are read
+      Configuration plainConf = new Configuration(conf);
+      plainConf.setInt(CommonConfigurationKeys.IO_SEQFILE_PREFETCH_BLOCKS_KEY,
+                       0);
+      SequenceFile.Reader plain = new SequenceFile.Reader(plainConf,
+          SequenceFile.Reader.file(file));
+      SequenceFile.Reader prefetching = new SequenceFile.Reader(conf,
+          SequenceFile.Reader.file(file));
+      long length = fs.getFileStatus(file).getLen();
+      RandomDatum k1 = new RandomDatum();
+      RandomDatum k2 = new RandomDatum();
+      RandomDatum v = new RandomDatum();
+      for (long pos = 0; pos < length; pos += length / 7) {
+        plain.sync(pos);
+        prefetching.sync(pos);
+        assertEquals(plain.getPosition(), prefetching.getPosition());
+        for (int i = 0; i < 100 && plain.next(k1, v); i++) {
+          assertTrue(prefetching.next(k2, v));
+          assertEquals(k1, k2);
+          assertEquals(plain.syncSeen(), prefetching.syncSeen());
+          assertEquals(plain.getPosition(), prefetching.getPosition());
+        }
+      }
+
+      // a lookup after each seek reads its block without starting a thread
+      for (long pos = 0; pos < length; pos += length / 7) {
+        prefetching.sync(pos);
+        prefetching.next(k2, v);
+        assertFalse(isPrefetching());
+      }
+      plain.close();
+      prefetching.close();
+    } finally {
+      fs.close();
+    }
+  }
+
+  /**
+   * The length of a pipelined writer and the range of a prefetching reader
+   * match those without pipelining.
+   */
+  public void testPipelinedLengthAndRange() throws Exception {
+    Path file = new Path(System.getProperty("test.build.data",".") +
+                         "/test.pipelined.range.seq");
+    Path plainFile = new Path(System.getProperty("test.build.data",".") +
+                              "/test.plain.range.seq");
+    conf.setInt(CommonConfigurationKeys.IO_SEQFILE_COMPRESS_BLOCKSIZE_KEY,
+                10000);
+    conf.setInt(CommonConfigurationKeys.IO_SEQFILE_COMPRESS_THREADS_KEY, 3);
+    conf.setInt(CommonConfigurationKeys.IO_SEQFILE_PREFETCH_BLOCKS_KEY, 4);
+    conf.setLong(CommonConfigurationKeys.IO_SEQFILE_PREFETCH_BYTES_KEY,
+                 100000);
+    Configuration plainConf = new Configuration(conf);
+    plainConf.setInt(CommonConfigurationKeys.IO_SEQFILE_COMPRESS_THREADS_KEY,
+                     0);
+    plainConf.setInt(CommonConfigurationKeys.IO_SEQFILE_PREFETCH_BLOCKS_KEY,
+                     0);
+    FileSystem fs = FileSystem.getLocal(conf);
+    try {
+      SequenceFile.Writer writer = SequenceFile.createWriter(conf,
+          SequenceFile.Writer.file(file),
+          SequenceFile.Writer.keyClass(RandomDatum.class),
+          SequenceFile.Writer.valueClass(RandomDatum.class),
+          SequenceFile.Writer.compression(CompressionType.BLOCK,
+                                          new DefaultCodec()));
+      SequenceFile.Writer plainWriter = SequenceFile.createWriter(plainConf,
+          SequenceFile.Writer.file(plainFile),
+          SequenceFile.Writer.keyClass(RandomDatum.class),
+          SequenceFile.Writer.valueClass(RandomDatum.class),
+          SequenceFile.Writer.compression(CompressionType.BLOCK,
+                                          new DefaultCodec()));
+      RandomDatum.Generator generator = new RandomDatum.Generator(17);
+      for (int i = 0; i < 10240; i++) {
+        generator.next();
+        writer.append(generator.getKey(), generator.getValue());
+        plainWriter.append(generator.getKey(), generator.getValue());
+        if (i % 1000 == 0) {
+          assertEquals(plainWriter.getLength(), writer.getLength());
+        }
+      }
+      writer.close();
+      plainWriter.close();
+
+      // the prefetcher stops at the end of the range, and blocks after it
+      // are still read when asked for
+      long end = fs.getFileStatus(file).getLen() / 2;
+      SequenceFile.Reader plain = new SequenceFile.Reader(plainConf,
+          SequenceFile.Reader.file(file),
+          SequenceFile.Reader.length(end));
+      SequenceFile.Reader prefetching = new SequenceFile.Reader(conf,
+          SequenceFile.Reader.file(file),
+          SequenceFile.Reader.length(end));
+      RandomDatum k1 = new RandomDatum();
+      RandomDatum k2 = new RandomDatum();
+      RandomDatum v = new RandomDatum();
+      while (prefetching.getPosition() < end) {
+        assertTrue(plain.next(k1, v));
+        assertTrue(prefetching.next(k2, v));
+        assertEquals(k1, k2);
+      }
+      Thread prefetcher =
+        (Thread) Whitebox.getInternalState(prefetching, "prefetcher");
+      assertNotNull(prefetcher);
+      prefetcher.join(10000);
+      assertFalse(prefetcher.isAlive());
+      FSDataInputStream in =
+        (FSDataInputStream) Whitebox.getInternalState(prefetching, "in");
+      assertEquals(prefetching.getPosition(), in.getPos());
+      while (plain.next(k1, v)) {
+        assertTrue(prefetching.next(k2, v));
+        assertEquals(k1, k2);
+      }
+      assertFalse(prefetching.next(k2, v));
+      plain.close();
+      prefetching.close();
+    } finally {
+      fs.close();
+    }
+  }
+
+  private static boolean isPrefetching() {
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.getName().startsWith("SequenceFile prefetcher")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   public void compressedSeqFileTest(CompressionCodec codec) throws Exception {
     int count = 1024 * 10;
     int megabytes = 1;
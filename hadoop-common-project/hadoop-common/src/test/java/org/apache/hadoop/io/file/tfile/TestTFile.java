@@ -27,6 +27,7 @@
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.file.tfile.TFile.Reader;
@@ -428,4 +429,144 @@ public void testMetaBlocks() throws IOException {
     reader.close();
     fin.close();
   }
+
+  private Path writeSortedTFile(String name, int count) throws IOException {
+    Path file = new Path(ROOT, name);
+    FSDataOutputStream fout = createFSOutput(file);
+    Writer writer = new Writer(fout, minBlockSize, "gz", "memcmp", conf);
+    for (int i = 0; i < count; i++) {
+      // only even keys
+      byte[] key = String.format(localFormatter, 2 * i).getBytes();
+      writer.append(key, ("value" + i).getBytes());
+    }
+    writer.close();
+    fout.close();
+    return file;
+  }
+
+  // test the bloom filter meta block
+  public void testBloomFilter() throws IOException {
+    conf.setInt("tfile.bloom.filter.keys", 1000);
+    Path file = writeSortedTFile("bloom.tfile", 1000);
+    Reader reader =
+        new Reader(fs.open(file), fs.getFileStatus(file).getLen(), conf);
+    int falsePositives = 0;
+    for (int i = 0; i < 2000; i++) {
+      byte[] key = String.format(localFormatter, i).getBytes();
+      if (i % 2 == 0) {
+        assertTrue(reader.mightContain(key));
+      } else if (reader.mightContain(key)) {
+        falsePositives++;
+      }
+    }
+    assertTrue("false positives: " + falsePositives, falsePositives < 50);
+
+    // seeking to keys ruled out by the filter leaves the scanner where it
+    // would be without the filter
+    conf.setInt("tfile.bloom.filter.keys", 0);
+    Path plainFile = writeSortedTFile("plain.tfile", 1000);
+    Reader plain = new Reader(fs.open(plainFile),
+        fs.getFileStatus(plainFile).getLen(), conf);
+    Scanner scanner = reader.createScanner();
+    Scanner plainScanner = plain.createScanner();
+    for (int i = 0; i < 2001; i += 3) {
+      byte[] key = String.format(localFormatter, i).getBytes();
+      assertEquals(plainScanner.seekTo(key), scanner.seekTo(key));
+      assertEquals(plainScanner.atEnd(), scanner.atEnd());
+      if (i % 2 == 1 && !plainScanner.atEnd()) {
+        assertEquals(plainScanner.getRecordNum(), scanner.getRecordNum());
+        assertEquals(plainScanner.advance(), scanner.advance());
+      }
+      if (!plainScanner.atEnd()) {
+        assertEquals(new String(plainScanner.entry().getKeyBuffer(), 0,
+            plainScanner.entry().getKeyLength()),
+            new String(scanner.entry().getKeyBuffer(), 0,
+                scanner.entry().getKeyLength()));
+      }
+    }
+    scanner.close();
+    plainScanner.close();
+    plain.close();
+    reader.close();
+
+    // filters too large for a bit vector are rejected
+    conf.setInt("tfile.bloom.filter.keys", Integer.MAX_VALUE);
+    FSDataOutputStream fout = createFSOutput(new Path(ROOT, "huge.tfile"));
+    try {
+      new Writer(fout, minBlockSize, "gz", "memcmp", conf);
+      fail("Created a bloom filter of more than 2^31 bits");
+    } catch (IllegalArgumentException e) {
+      // expected
+    } finally {
+      fout.close();
+    }
+
+    // files written without a filter might contain any key
+    conf.setInt("tfile.bloom.filter.keys", 0);
+    file = writeSortedTFile("nobloom.tfile", 10);
+    reader = new Reader(fs.open(file), fs.getFileStatus(file).getLen(), conf);
+    assertTrue(reader.mightContain("absent".getBytes()));
+    reader.close();
+  }
+
+  // test the cache of decompressed blocks shared by readers
+  public void testBlockCache() throws IOException {
+    conf.setLong("tfile.block.cache.size", 1024 * 1024);
+    Path file = writeSortedTFile("cache.tfile", 1000);
+    BlockCache cache = BlockCache.getInstance(conf);
+    byte[] key = String.format(localFormatter, 1000).getBytes();
+
+    for (int i = 0; i < 3; i++) {
+      if (i == 2) {
+        // the blocks of a file of the same length, but modified since, are
+        // not those of the cache
+        FileStatus status = fs.getFileStatus(file);
+        fs.setTimes(file, status.getModificationTime() + 1000, -1);
+      }
+      long hits = cache.getHits();
+      long misses = cache.getMisses();
+      Reader reader = new Reader(fs.open(file), fs.getFileStatus(file), conf);
+      Scanner scanner = reader.createScanner();
+      assertTrue(scanner.seekTo(key));
+      assertTrue(Arrays.equals(key, readKey(scanner)));
+      assertTrue(Arrays.equals("value500".getBytes(), readValue(scanner)));
+      if (i == 1) {
+        // the second reader finds the block decompressed by the first one
+        assertEquals(misses, cache.getMisses());
+        assertEquals(hits + 1, cache.getHits());
+      } else {
+        assertEquals(misses + 1, cache.getMisses());
+      }
+      scanner.close();
+      reader.close();
+    }
+
+    // readers without the status do not use the cache
+    long length = fs.getFileStatus(file).getLen();
+    long misses = cache.getMisses();
+    Reader reader = new Reader(fs.open(file), length, conf);
+    Scanner scanner = reader.createScanner();
+    assertTrue(scanner.seekTo(key));
+    assertEquals(misses, cache.getMisses());
+    scanner.close();
+    reader.close();
+
+    // blocks larger than the cache are read without caching them
+    Path large = new Path(ROOT, "large.tfile");
+    FSDataOutputStream fout = createFSOutput(large);
+    Writer writer = new Writer(fout, minBlockSize, "gz", "memcmp", conf);
+    writer.append("key".getBytes(), new byte[2 * 1024 * 1024]);
+    writer.close();
+    fout.close();
+    misses = cache.getMisses();
+    long size = cache.getSize();
+    reader = new Reader(fs.open(large), fs.getFileStatus(large), conf);
+    scanner = reader.createScanner();
+    assertTrue(scanner.seekTo("key".getBytes()));
+    assertEquals(2 * 1024 * 1024, readValue(scanner).length);
+    assertEquals(misses, cache.getMisses());
+    assertEquals(size, cache.getSize());
+    scanner.close();
+    reader.close();
+  }
 }
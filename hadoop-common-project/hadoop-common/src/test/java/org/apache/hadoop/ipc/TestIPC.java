@@ -44,9 +44,11 @@
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.BrokenBarrierException;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -260,6 +262,47 @@ public void internalTestSerial(int handlerCount, boolean handlerSleep,
     server.stop();
   }
 	
+  @Test(timeout=60000)
+  public void testPostponedResponse() throws Exception {
+    // a single handler, which postpones every response
+    final TestServer server = new TestServer(1, false);
+    final BlockingQueue<Server.Call> postponed =
+        new LinkedBlockingQueue<Server.Call>();
+    server.callListener = new Runnable() {
+      @Override
+      public void run() {
+        Server.Call call = Server.getCurCall().get();
+        call.postponeResponse();
+        postponed.add(call);
+      }
+    };
+    InetSocketAddress addr = NetUtils.getConnectAddress(server);
+    server.start();
+    Client client = new Client(LongWritable.class, conf);
+    try {
+      SerialCaller[] callers = new SerialCaller[2];
+      for (int i = 0; i < callers.length; i++) {
+        callers[i] = new SerialCaller(client, addr, 1);
+        callers[i].start();
+      }
+      // the handler got to both calls, but neither has been answered
+      Server.Call first = postponed.take();
+      Server.Call second = postponed.take();
+      for (SerialCaller caller : callers) {
+        assertTrue(caller.isAlive());
+      }
+      second.sendResponse();
+      first.sendResponse();
+      for (SerialCaller caller : callers) {
+        caller.join();
+        assertFalse(caller.failed);
+      }
+    } finally {
+      client.stop();
+      server.stop();
+    }
+  }
+
   @Test(timeout=60000)
   public void testStandAloneClient() throws IOException {
     Client client = new Client(LongWritable.class, conf);
@@ -0,0 +1,134 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.security;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.hadoop.util.Shell;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestShellBasedUnixGroupsMapping {
+  private ShellBasedUnixGroupsMapping mapping;
+
+  @Before
+  public void setUp() {
+    assumeTrue(!Shell.WINDOWS);
+    Configuration conf = new Configuration();
+    conf.setBoolean(ShellBasedUnixGroupsMapping.HELPER_ENABLED_KEY, true);
+    mapping = ReflectionUtils.newInstance(ShellBasedUnixGroupsMapping.class,
+        conf);
+  }
+
+  @After
+  public void tearDown() {
+    if (mapping != null && mapping.getHelper() != null) {
+      mapping.getHelper().stop();
+    }
+  }
+
+  @Test
+  public void testHelperMatchesShell() throws Exception {
+    String user = System.getProperty("user.name");
+    List<String> shellGroups =
+        new ShellBasedUnixGroupsMapping().getGroups(user);
+    assertTrue(shellGroups.size() > 0);
+    assertEquals(shellGroups, mapping.getGroups(user));
+    assertNotNull(mapping.getHelper().getProcess());
+  }
+
+  @Test
+  public void testUnknownUser() throws Exception {
+    assertTrue(mapping.getGroups("no-such-user-for-groups-test").isEmpty());
+    // an unknown user must not take down the helper
+    assertNotNull(mapping.getHelper().getProcess());
+  }
+
+  @Test(timeout = 60000)
+  public void testConcurrentLookups() throws Exception {
+    final String user = System.getProperty("user.name");
+    List<String> expected = new ShellBasedUnixGroupsMapping().getGroups(user);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<List<String>>> results =
+          new ArrayList<Future<List<String>>>();
+      for (int i = 0; i < 100; i++) {
+        results.add(executor.submit(new Callable<List<String>>() {
+          @Override
+          public List<String> call() throws Exception {
+            return mapping.getGroups(user);
+          }
+        }));
+      }
+      for (Future<List<String>> result : results) {
+        assertEquals(expected, result.get());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(0, mapping.getHelper().getRestarts());
+  }
+
+  @Test(timeout = 60000)
+  public void testHelperRestart() throws Exception {
+    String user = System.getProperty("user.name");
+    List<String> expected = mapping.getGroups(user);
+    ShellGroupsHelper helper = mapping.getHelper();
+    helper.getProcess().destroy();
+    // lookups fall back to the shell until the helper has been restarted
+    while (helper.getProcess() != null) {
+      Thread.sleep(10);
+    }
+    assertEquals(expected, mapping.getGroups(user));
+    Thread.sleep(1500);
+    assertEquals(expected, mapping.getGroups(user));
+    assertNotNull(helper.getProcess());
+    assertEquals(1, helper.getRestarts());
+  }
+
+  @Test
+  public void testUnsupportedUserNames() {
+    assertFalse(ShellGroupsHelper.isSupportedUser(null));
+    assertFalse(ShellGroupsHelper.isSupportedUser(""));
+    assertFalse(ShellGroupsHelper.isSupportedUser("a b"));
+    assertFalse(ShellGroupsHelper.isSupportedUser("a\nb"));
+    assertTrue(ShellGroupsHelper.isSupportedUser("user@EXAMPLE.COM"));
+  }
+
+  @Test
+  public void testHelperDisabledByDefault() {
+    ShellBasedUnixGroupsMapping m = ReflectionUtils.newInstance(
+        ShellBasedUnixGroupsMapping.class, new Configuration());
+    assertNull(m.getHelper());
+  }
+}
@@ -38,6 +38,7 @@
 import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
 import org.apache.hadoop.security.AccessControlException;
 import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.hadoop.security.UserGroupInformation.AuthenticationMethod;
@@ -49,6 +50,8 @@
 import org.apache.hadoop.util.Time;
 import org.junit.Test;
 
+import static org.apache.hadoop.test.MetricsAsserts.getLongCounter;
+import static org.apache.hadoop.test.MetricsAsserts.getMetrics;
 import static org.junit.Assert.*;
 
 public class TestDelegationToken {
@@ -469,6 +472,65 @@ public void run() {
     }
   }
   
+  @Test(timeout = 60000)
+  public void testConcurrentRenewAndCancel() throws Exception {
+    final TestDelegationTokenSecretManager dtSecretManager = 
+        new TestDelegationTokenSecretManager(24 * 60 * 60 * 1000,
+            24 * 60 * 60 * 1000, 60 * 60 * 1000, 3600000);
+    MetricsRecordBuilder rb =
+        getMetrics("DelegationTokenSecretManagerMetrics");
+    long renewOps = getLongCounter("RenewTokenNumOps", rb);
+    long cancelOps = getLongCounter("CancelTokenNumOps", rb);
+    try {
+      dtSecretManager.startThreads();
+      int numTokens = 200;
+      final List<Token<TestDelegationTokenIdentifier>> tokens =
+          new ArrayList<Token<TestDelegationTokenIdentifier>>();
+      for (int i = 0; i < numTokens; i++) {
+        tokens.add(generateDelegationToken(dtSecretManager, "SomeUser",
+            "JobTracker"));
+      }
+      Thread renewer = new Daemon(new Runnable() {
+        @Override
+        public void run() {
+          for (Token<TestDelegationTokenIdentifier> token : tokens) {
+            try {
+              dtSecretManager.renewToken(token, "JobTracker");
+            } catch (IOException e) {
+              // the token was already cancelled
+            }
+          }
+        }
+      });
+      Thread canceller = new Daemon(new Runnable() {
+        @Override
+        public void run() {
+          for (Token<TestDelegationTokenIdentifier> token : tokens) {
+            try {
+              dtSecretManager.cancelToken(token, "JobTracker");
+            } catch (IOException e) {
+              LOG.error("Unexpected cancellation failure", e);
+            }
+          }
+        }
+      });
+      renewer.start();
+      canceller.start();
+      renewer.join();
+      canceller.join();
+      // a renewal racing with a cancellation must not resurrect the token
+      assertTrue(dtSecretManager.getAllTokens().isEmpty());
+      rb = getMetrics("DelegationTokenSecretManagerMetrics");
+      assertEquals(cancelOps + numTokens,
+          getLongCounter("CancelTokenNumOps", rb));
+      // failed renewals are counted as well
+      assertEquals(renewOps + numTokens,
+          getLongCounter("RenewTokenNumOps", rb));
+    } finally {
+      dtSecretManager.stopThreads();
+    }
+  }
+
   @Test 
   public void testDelegationTokenNullRenewer() throws Exception {
     TestDelegationTokenSecretManager dtSecretManager = 
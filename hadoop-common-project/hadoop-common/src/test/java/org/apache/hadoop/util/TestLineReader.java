@@ -19,6 +19,11 @@
 package org.apache.hadoop.util;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
 
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.util.LineReader;
@@ -138,4 +143,49 @@ public void testCustomDelimiter() throws Exception {
     lineReader.readLine(line); 
     Assert.assertEquals(("ecord"+"recor"+"core"),line.toString());
   }
+
+  @Test
+  public void testDefaultDelimiterAcrossBuffers() throws Exception {
+    // random lines of ASCII, non-ASCII and control bytes, ended by LF, CR
+    // or CRLF, read with buffers cutting them at every possible position
+    Random r = new Random(0xBADCAFE);
+    byte[] alphabet = { 'a', 'b', 0, 9, 12, 14, (byte) 0xC3, (byte) 0xA9 };
+    String[] newlines = { "\n", "\r", "\r\n" };
+    ByteArrayOutputStream data = new ByteArrayOutputStream();
+    List<byte[]> expectedLines = new ArrayList<byte[]>();
+    List<Integer> expectedLengths = new ArrayList<Integer>();
+    boolean prevCR = false;
+    for (int i = 0; i < 200; i++) {
+      // an empty line after a lone CR would read as part of a CRLF
+      byte[] lineBytes = new byte[r.nextInt(40) + (prevCR ? 1 : 0)];
+      for (int j = 0; j < lineBytes.length; j++) {
+        lineBytes[j] = alphabet[r.nextInt(alphabet.length)];
+      }
+      byte[] newline = newlines[r.nextInt(newlines.length)].getBytes("UTF-8");
+      prevCR = newline.length == 1 && newline[0] == '\r';
+      data.write(lineBytes);
+      data.write(newline);
+      expectedLines.add(lineBytes);
+      expectedLengths.add(lineBytes.length + newline.length);
+    }
+    // a last line without newline
+    data.write('z');
+    expectedLines.add(new byte[] { 'z' });
+    expectedLengths.add(1);
+
+    for (int bufferSize = 1; bufferSize <= 20; bufferSize++) {
+      lineReader = new LineReader(
+          new ByteArrayInputStream(data.toByteArray()), bufferSize);
+      line = new Text();
+      for (int i = 0; i < expectedLines.size(); i++) {
+        int consumed = lineReader.readLine(line);
+        Assert.assertEquals("line " + i + " with buffer size " + bufferSize,
+            (int) expectedLengths.get(i), consumed);
+        Assert.assertTrue("line " + i + " with buffer size " + bufferSize,
+            Arrays.equals(expectedLines.get(i), line.copyBytes()));
+      }
+      Assert.assertEquals(0, lineReader.readLine(line));
+      Assert.assertEquals(0, line.getLength());
+    }
+  }
 }
@@ -97,6 +97,7 @@
 import org.apache.hadoop.fs.BlockStorageLocation;
 import org.apache.hadoop.fs.CacheFlag;
 import org.apache.hadoop.fs.CommonConfigurationKeysPublic;
+import org.apache.hadoop.fs.BatchedRemoteIterator.BatchedEntries;
 import org.apache.hadoop.fs.ContentSummary;
 import org.apache.hadoop.fs.CreateFlag;
 import org.apache.hadoop.fs.FileAlreadyExistsException;
@@ -105,6 +106,7 @@
 import org.apache.hadoop.fs.FsStatus;
 import org.apache.hadoop.fs.HdfsBlockLocation;
 import org.apache.hadoop.fs.InvalidPathException;
+import org.apache.hadoop.fs.InvalidRequestException;
 import org.apache.hadoop.fs.MD5MD5CRC32CastagnoliFileChecksum;
 import org.apache.hadoop.fs.MD5MD5CRC32FileChecksum;
 import org.apache.hadoop.fs.MD5MD5CRC32GzipFileChecksum;
@@ -112,6 +114,7 @@
 import org.apache.hadoop.fs.Options.ChecksumOpt;
 import org.apache.hadoop.fs.ParentNotDirectoryException;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathIsNotDirectoryException;
 import org.apache.hadoop.fs.RemoteIterator;
 import org.apache.hadoop.fs.UnresolvedLinkException;
 import org.apache.hadoop.fs.VolumeId;
@@ -121,6 +124,8 @@
 import org.apache.hadoop.hdfs.client.HdfsDataInputStream;
 import org.apache.hadoop.hdfs.client.HdfsDataOutputStream;
 import org.apache.hadoop.hdfs.protocol.AclException;
+import org.apache.hadoop.hdfs.protocol.BatchedListingEntry;
+import org.apache.hadoop.hdfs.protocol.BatchedListingIterator;
 import org.apache.hadoop.hdfs.net.Peer;
 import org.apache.hadoop.hdfs.net.TcpPeerServer;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
@@ -1746,6 +1751,39 @@ public DirectoryListing listPaths(String src,  byte[] startAfter,
     }
   }
 
+  /**
+   * List the children of several directories, fetching as many at once as
+   * the namenode returns in a single listing.
+   *
+   * @param statistics counts a read operation for every call to the
+   *                   namenode, if not null
+   * @see ClientProtocol#getBatchedListing(String[], int, byte[], String,
+   *      boolean)
+   */
+  public RemoteIterator<BatchedListingEntry> batchedListPaths(String[] srcs,
+      String pattern, boolean needLocation,
+      final FileSystem.Statistics statistics) throws IOException {
+    checkOpen();
+    return new BatchedListingIterator(namenode, srcs, pattern, needLocation) {
+      @Override
+      public BatchedEntries<BatchedListingEntry> makeRequest(
+          BatchedListingEntry prevKey) throws IOException {
+        if (statistics != null) {
+          statistics.incrementReadOps(1);
+        }
+        try {
+          return super.makeRequest(prevKey);
+        } catch (RemoteException re) {
+          throw re.unwrapRemoteException(AccessControlException.class,
+                                         FileNotFoundException.class,
+                                         InvalidRequestException.class,
+                                         PathIsNotDirectoryException.class,
+                                         UnresolvedPathException.class);
+        }
+      }
+    };
+  }
+
   /**
    * Get the file info for a specific file or directory.
    * @param src The string representation of the path to the file
@@ -60,6 +60,7 @@
 import org.apache.hadoop.hdfs.client.HdfsAdmin;
 import org.apache.hadoop.hdfs.client.HdfsDataInputStream;
 import org.apache.hadoop.hdfs.client.HdfsDataOutputStream;
+import org.apache.hadoop.hdfs.protocol.BatchedListingEntry;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
 import org.apache.hadoop.hdfs.protocol.CachePoolEntry;
@@ -778,6 +779,65 @@ public LocatedFileStatus next() throws IOException {
       }
     };
   }
+
+  /**
+   * List the children of several directories with as few calls to the
+   * namenode as possible. The children are returned in the order of the
+   * directories, and by name within each directory. Symlinks in the paths
+   * of the directories are not resolved.
+   *
+   * @param paths the directories to list
+   * @param pattern a glob pattern which the names of the children must match,
+   *          or null to list all of them. The namenode matches the names, so
+   *          the children which do not match are not transferred.
+   * @param filter a filter of the paths of the children, applied here
+   * @param needLocation whether the children are returned as
+   *          {@link LocatedFileStatus}, with the locations of their blocks
+   * @return an iterator over the children of the directories
+   * @throws FileNotFoundException if a directory does not exist
+   * @throws IOException if a path is not a directory, or listing failed
+   */
+  public RemoteIterator<FileStatus> batchedListStatusIterator(
+      final List<Path> paths, String pattern, final PathFilter filter,
+      final boolean needLocation) throws IOException {
+    final Path[] absPaths = new Path[paths.size()];
+    final String[] srcs = new String[paths.size()];
+    for (int i = 0; i < absPaths.length; i++) {
+      absPaths[i] = fixRelativePart(paths.get(i));
+      srcs[i] = getPathName(absPaths[i]);
+    }
+    final RemoteIterator<BatchedListingEntry> entries =
+        dfs.batchedListPaths(srcs, pattern, needLocation, statistics);
+    return new RemoteIterator<FileStatus>() {
+      private FileStatus curStat = null;
+
+      @Override
+      public boolean hasNext() throws IOException {
+        while (curStat == null && entries.hasNext()) {
+          BatchedListingEntry entry = entries.next();
+          Path parent = absPaths[entry.getSrcIndex()];
+          FileStatus next = needLocation ?
+              ((HdfsLocatedFileStatus)entry.getStatus())
+                  .makeQualifiedLocated(getUri(), parent) :
+              entry.getStatus().makeQualified(getUri(), parent);
+          if (filter == null || filter.accept(next.getPath())) {
+            curStat = next;
+          }
+        }
+        return curStat != null;
+      }
+
+      @Override
+      public FileStatus next() throws IOException {
+        if (hasNext()) {
+          FileStatus tmp = curStat;
+          curStat = null;
+          return tmp;
+        }
+        throw new java.util.NoSuchElementException("No more entries");
+      }
+    };
+  }
   
   /**
    * Create a directory, only when the parent directories exist.
@@ -0,0 +1,46 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.protocol;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+/**
+ * An entry of a batched listing: the status of a child of one of the
+ * directories listed, and the index of that directory in the request.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public class BatchedListingEntry {
+  private final int srcIndex;
+  private final HdfsFileStatus status;
+
+  public BatchedListingEntry(int srcIndex, HdfsFileStatus status) {
+    this.srcIndex = srcIndex;
+    this.status = status;
+  }
+
+  /** @return the index of the listed directory in the request */
+  public int getSrcIndex() {
+    return srcIndex;
+  }
+
+  public HdfsFileStatus getStatus() {
+    return status;
+  }
+}
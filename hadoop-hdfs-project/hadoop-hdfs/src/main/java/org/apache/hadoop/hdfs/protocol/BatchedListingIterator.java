@@ -0,0 +1,71 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.protocol;
+
+import java.io.IOException;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.fs.BatchedRemoteIterator;
+
+/**
+ * BatchedListingIterator is a remote iterator over the children of several
+ * directories, fetched with as few getBatchedListing calls as possible.
+ * Each call resumes after the last entry returned.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public class BatchedListingIterator
+    extends BatchedRemoteIterator<BatchedListingEntry, BatchedListingEntry> {
+
+  private final ClientProtocol namenode;
+  private final String[] srcs;
+  private final String pattern;
+  private final boolean needLocation;
+
+  /**
+   * @param srcs the directories to list
+   * @param pattern a glob pattern which the names of the children listed
+   *                must match, or null to list all children
+   * @param needLocation whether to return the block locations of files
+   */
+  public BatchedListingIterator(ClientProtocol namenode, String[] srcs,
+      String pattern, boolean needLocation) {
+    super(null);
+    this.namenode = namenode;
+    this.srcs = srcs;
+    this.pattern = pattern;
+    this.needLocation = needLocation;
+  }
+
+  @Override
+  public BatchedEntries<BatchedListingEntry> makeRequest(
+      BatchedListingEntry prevKey) throws IOException {
+    if (prevKey == null) {
+      return namenode.getBatchedListing(srcs, 0, HdfsFileStatus.EMPTY_NAME,
+          pattern, needLocation);
+    }
+    return namenode.getBatchedListing(srcs, prevKey.getSrcIndex(),
+        prevKey.getStatus().getLocalNameInBytes(), pattern, needLocation);
+  }
+
+  @Override
+  public BatchedListingEntry elementToPrevKey(BatchedListingEntry entry) {
+    return entry;
+  }
+}
@@ -30,6 +30,7 @@
 import org.apache.hadoop.fs.FileAlreadyExistsException;
 import org.apache.hadoop.fs.FsServerDefaults;
 import org.apache.hadoop.fs.InvalidPathException;
+import org.apache.hadoop.fs.InvalidRequestException;
 import org.apache.hadoop.fs.Options;
 import org.apache.hadoop.fs.BatchedRemoteIterator.BatchedEntries;
 import org.apache.hadoop.fs.Options.Rename;
@@ -570,6 +571,37 @@ public DirectoryListing getListing(String src,
                                      boolean needLocation)
       throws AccessControlException, FileNotFoundException,
       UnresolvedLinkException, IOException;
+
+  /**
+   * Get a partial listing of the children of several directories. The
+   * children are listed in the order of the directories, and by name within
+   * each directory. The listing holds at most as many entries as
+   * {@link #getListing(String, byte[], boolean)} returns at once.
+   *
+   * @param srcs the directory names
+   * @param startIndex the index in <code>srcs</code> of the directory to
+   *          start listing at
+   * @param startAfter the name in that directory to start listing after,
+   *          encoded in java UTF8
+   * @param pattern a glob pattern which the names of the children listed
+   *          must match, or null to list all the children
+   * @param needLocation if the FileStatus should contain block locations
+   *
+   * @return a batch of children, with the index of their directory
+   *
+   * @throws AccessControlException permission denied
+   * @throws FileNotFoundException a directory is not found
+   * @throws UnresolvedLinkException If a directory path contains a symlink
+   * @throws InvalidRequestException If the start index is out of range, or
+   *           the pattern is not a valid glob
+   * @throws IOException If a path is not a directory, or another I/O error
+   *           occurred
+   */
+  @Idempotent
+  public BatchedEntries<BatchedListingEntry> getBatchedListing(
+      String[] srcs, int startIndex, byte[] startAfter, String pattern,
+      boolean needLocation) throws AccessControlException,
+      FileNotFoundException, UnresolvedLinkException, IOException;
   
   /**
    * Get listing of all the snapshottable directories
@@ -39,6 +39,7 @@
 import org.apache.hadoop.fs.permission.AclStatus;
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.hdfs.protocol.AlreadyBeingCreatedException;
+import org.apache.hadoop.hdfs.protocol.BatchedListingEntry;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
 import org.apache.hadoop.hdfs.protocol.CachePoolEntry;
@@ -99,6 +100,8 @@
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetFsStatusRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetLinkTargetRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetLinkTargetResponseProto;
+import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetBatchedListingRequestProto;
+import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetBatchedListingResponseProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetListingRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetListingResponseProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetPreferredBlockSizeRequestProto;
@@ -525,6 +528,52 @@ public DirectoryListing getListing(String src, byte[] startAfter,
     }
   }
 
+  private static class BatchedListingEntries
+      implements BatchedEntries<BatchedListingEntry> {
+    private final GetBatchedListingResponseProto proto;
+
+    public BatchedListingEntries(GetBatchedListingResponseProto proto) {
+      this.proto = proto;
+    }
+
+    @Override
+    public BatchedListingEntry get(int i) {
+      return PBHelper.convert(proto.getEntries(i));
+    }
+
+    @Override
+    public int size() {
+      return proto.getEntriesCount();
+    }
+
+    @Override
+    public boolean hasMore() {
+      return proto.getHasMore();
+    }
+  }
+
+  @Override
+  public BatchedEntries<BatchedListingEntry> getBatchedListing(
+      String[] srcs, int startIndex, byte[] startAfter, String pattern,
+      boolean needLocation) throws AccessControlException,
+      FileNotFoundException, UnresolvedLinkException, IOException {
+    GetBatchedListingRequestProto.Builder builder =
+        GetBatchedListingRequestProto.newBuilder()
+        .addAllSrcs(Arrays.asList(srcs))
+        .setStartIndex(startIndex)
+        .setStartAfter(ByteString.copyFrom(startAfter))
+        .setNeedLocation(needLocation);
+    if (pattern != null) {
+      builder.setPattern(pattern);
+    }
+    try {
+      return new BatchedListingEntries(
+          rpcProxy.getBatchedListing(null, builder.build()));
+    } catch (ServiceException e) {
+      throw ProtobufHelper.getRemoteException(e);
+    }
+  }
+
   @Override
   public void renewLease(String clientName) throws AccessControlException,
       IOException {
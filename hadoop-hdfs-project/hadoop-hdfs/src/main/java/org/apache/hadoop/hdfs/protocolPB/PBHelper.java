@@ -42,6 +42,7 @@
 import org.apache.hadoop.ha.proto.HAServiceProtocolProtos;
 import org.apache.hadoop.hdfs.DFSUtil;
 import org.apache.hadoop.hdfs.StorageType;
+import org.apache.hadoop.hdfs.protocol.BatchedListingEntry;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
@@ -78,6 +79,7 @@
 import org.apache.hadoop.hdfs.protocol.proto.AclProtos.AclStatusProto;
 import org.apache.hadoop.hdfs.protocol.proto.AclProtos.GetAclStatusResponseProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos;
+import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.BatchedListingEntryProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CacheDirectiveEntryProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CacheDirectiveInfoExpirationProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CacheDirectiveInfoProto;
@@ -1962,6 +1964,18 @@ public static CachePoolEntry convert (CachePoolEntryProto proto) {
     CachePoolStats stats = PBHelper.convert(proto.getStats());
     return new CachePoolEntry(info, stats);
   }
+
+  public static BatchedListingEntryProto convert(BatchedListingEntry entry) {
+    return BatchedListingEntryProto.newBuilder()
+        .setSrcIndex(entry.getSrcIndex())
+        .setStatus(PBHelper.convert(entry.getStatus()))
+        .build();
+  }
+
+  public static BatchedListingEntry convert(BatchedListingEntryProto proto) {
+    return new BatchedListingEntry(proto.getSrcIndex(),
+        PBHelper.convert(proto.getStatus()));
+  }
   
   public static HdfsProtos.ChecksumTypeProto convert(DataChecksum.Type type) {
     return HdfsProtos.ChecksumTypeProto.valueOf(type.id);
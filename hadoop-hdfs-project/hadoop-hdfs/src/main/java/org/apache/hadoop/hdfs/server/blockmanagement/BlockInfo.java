@@ -178,6 +178,20 @@ private int ensureCapacity(int num) {
     return last;
   }
 
+  /**
+   * Shrink the triplets to room for the given number of storages, or for the
+   * storages the block belongs to if there are more.
+   */
+  void trimCapacity(int capacity) {
+    int last = numNodes();
+    capacity = Math.max(capacity, last);
+    if (getCapacity() > capacity) {
+      Object[] old = triplets;
+      triplets = new Object[capacity*3];
+      System.arraycopy(old, 0, triplets, 0, last*3);
+    }
+  }
+
   /**
    * Count the number of data-nodes the block belongs to.
    */
@@ -35,6 +35,14 @@
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
@@ -78,6 +86,7 @@
 import org.apache.hadoop.hdfs.server.protocol.ReceivedDeletedBlockInfo;
 import org.apache.hadoop.hdfs.server.protocol.StorageReceivedDeletedBlocks;
 import org.apache.hadoop.hdfs.util.LightWeightLinkedSet;
+import org.apache.hadoop.ipc.RetriableException;
 import org.apache.hadoop.net.Node;
 import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.hadoop.util.Daemon;
@@ -87,6 +96,7 @@
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * Keeps information related to the blocks stored in the Hadoop cluster.
@@ -255,6 +265,12 @@ public int getPendingDataNodeMessageCount() {
 
   /** Check whether name system is running before terminating */
   private boolean checkNSRunning = true;
+
+  /**
+   * Compares full block reports with the blocks map outside the write lock,
+   * or null if the reports are processed entirely under the write lock.
+   */
+  private final ExecutorService blockReportDiffExecutor;
   
   public BlockManager(final Namesystem namesystem, final FSClusterStats stats,
       final Configuration conf) throws IOException {
@@ -269,7 +285,9 @@ public BlockManager(final Namesystem namesystem, final FSClusterStats stats,
 
     // Compute the map capacity by allocating 2% of total memory
     blocksMap = new BlocksMap(
-        LightWeightGSet.computeCapacity(2.0, "BlocksMap"));
+        LightWeightGSet.computeCapacity(2.0, "BlocksMap"),
+        conf.getBoolean(DFSConfigKeys.DFS_NAMENODE_COMPACT_MEMORY_LAYOUT_KEY,
+            DFSConfigKeys.DFS_NAMENODE_COMPACT_MEMORY_LAYOUT_DEFAULT));
     blockplacement = BlockPlacementPolicy.getInstance(
         conf, stats, datanodeManager.getNetworkTopology(), 
         datanodeManager.getHost2DatanodeMap());
@@ -334,6 +352,22 @@ public BlockManager(final Namesystem namesystem, final FSClusterStats stats,
     this.numBlocksPerIteration = conf.getInt(
         DFSConfigKeys.DFS_BLOCK_MISREPLICATION_PROCESSING_LIMIT,
         DFSConfigKeys.DFS_BLOCK_MISREPLICATION_PROCESSING_LIMIT_DEFAULT);
+
+    final int diffThreads = conf.getInt(
+        DFSConfigKeys.DFS_BLOCKREPORT_DIFF_THREADS_KEY,
+        DFSConfigKeys.DFS_BLOCKREPORT_DIFF_THREADS_DEFAULT);
+    if (diffThreads > 0) {
+      final int queueSize = conf.getInt(
+          DFSConfigKeys.DFS_BLOCKREPORT_DIFF_QUEUE_SIZE_KEY,
+          DFSConfigKeys.DFS_BLOCKREPORT_DIFF_QUEUE_SIZE_DEFAULT);
+      this.blockReportDiffExecutor = new ThreadPoolExecutor(diffThreads,
+          diffThreads, 0L, TimeUnit.MILLISECONDS,
+          new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)),
+          new ThreadFactoryBuilder().setDaemon(true)
+              .setNameFormat("BlockReportDiff-%d").build());
+    } else {
+      this.blockReportDiffExecutor = null;
+    }
     
     LOG.info("defaultReplication         = " + defaultReplication);
     LOG.info("maxReplication             = " + maxReplication);
@@ -343,6 +377,7 @@ public BlockManager(final Namesystem namesystem, final FSClusterStats stats,
     LOG.info("replicationRecheckInterval = " + replicationRecheckInterval);
     LOG.info("encryptDataTransfer        = " + encryptDataTransfer);
     LOG.info("maxNumBlocksToLog          = " + maxNumBlocksToLog);
+    LOG.info("blockReportDiffThreads     = " + diffThreads);
   }
 
   private static BlockTokenSecretManager createBlockTokenSecretManager(
@@ -432,6 +467,9 @@ public void close() {
       replicationThread.join(3000);
     } catch (InterruptedException ie) {
     }
+    if (blockReportDiffExecutor != null) {
+      blockReportDiffExecutor.shutdownNow();
+    }
     datanodeManager.close();
     pendingReplications.stop();
     blocksMap.close();
@@ -1645,6 +1683,72 @@ public String toString() {
     }
   }
 
+  /**
+   * The storages of a datanode are reporting all their blocks.
+   * If block report diff threads are configured, the reports are compared
+   * with the blocks map concurrently under the read lock, and only the
+   * changes are applied under the write lock. Otherwise they are processed
+   * one by one under the write lock.
+   *
+   * @return true if all known storages of the given DN have finished reporting.
+   * @throws RetriableException if too many block reports are waiting to be
+   *         compared
+   */
+  public boolean processReports(final DatanodeID nodeID,
+      final DatanodeStorage[] storages, final String poolId,
+      final BlockListAsLongs[] reports) throws IOException {
+    final ReportDiff[] diffs = new ReportDiff[storages.length];
+    if (blockReportDiffExecutor != null) {
+      final List<Future<ReportDiff>> futures =
+          new ArrayList<Future<ReportDiff>>(storages.length);
+      try {
+        for (int i = 0; i < storages.length; i++) {
+          final DatanodeStorage storage = storages[i];
+          final BlockListAsLongs report = reports[i];
+          futures.add(blockReportDiffExecutor.submit(new Callable<ReportDiff>() {
+            @Override
+            public ReportDiff call() throws IOException {
+              return computeReportDiff(nodeID, storage, report);
+            }
+          }));
+        }
+      } catch (RejectedExecutionException e) {
+        for (Future<ReportDiff> f : futures) {
+          f.cancel(false);
+        }
+        throw new RetriableException("Too many block reports are queued, "
+            + "rejecting the block report from " + nodeID);
+      }
+      for (int i = 0; i < diffs.length; i++) {
+        diffs[i] = getReportDiff(futures.get(i));
+      }
+    }
+    boolean noStaleStorages = false;
+    for (int i = 0; i < storages.length; i++) {
+      noStaleStorages = processReport(nodeID, storages[i], poolId, reports[i],
+          diffs[i]);
+    }
+    return noStaleStorages;
+  }
+
+  private static ReportDiff getReportDiff(Future<ReportDiff> future)
+      throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while comparing a block report", e);
+    } catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
   /**
    * The given storage is reporting all its blocks.
    * Update the (storage-->block list) and (block-->storage list) maps.
@@ -1655,6 +1759,17 @@ public String toString() {
   public boolean processReport(final DatanodeID nodeID,
       final DatanodeStorage storage, final String poolId,
       final BlockListAsLongs newReport) throws IOException {
+    return processReport(nodeID, storage, poolId, newReport, null);
+  }
+
+  /**
+   * @param diff the changes in the report computed under the read lock, or
+   *             null to compare the report under the write lock
+   */
+  private boolean processReport(final DatanodeID nodeID,
+      final DatanodeStorage storage, final String poolId,
+      final BlockListAsLongs newReport, final ReportDiff diff)
+      throws IOException {
     namesystem.writeLock();
     final long startTime = Time.now(); //after acquiring write lock
     final long endTime;
@@ -1686,6 +1801,8 @@ public boolean processReport(final DatanodeID nodeID,
         // The first block report can be processed a lot more efficiently than
         // ordinary block reports.  This shortens restart times.
         processFirstBlockReport(node, storage.getStorageID(), newReport);
+      } else if (diff != null && diff.storageInfo == storageInfo) {
+        applyReportDiff(node, storage, diff);
       } else {
         processReport(node, storage, newReport);
       }
@@ -1762,7 +1879,42 @@ private void processReport(final DatanodeDescriptor node,
     Collection<StatefulBlockInfo> toUC = new LinkedList<StatefulBlockInfo>();
     reportDiff(node, storage, report,
         toAdd, toRemove, toInvalidate, toCorrupt, toUC);
+    processReportQueues(node, storage, toAdd, toRemove, toInvalidate,
+        toCorrupt, toUC);
+  }
+
+  /**
+   * Apply the changes in a block report found by
+   * {@link #computeReportDiff(DatanodeID, DatanodeStorage, BlockListAsLongs)}.
+   * The changed replicas are processed again, and the unreported blocks
+   * checked, since the blocks map may have changed since.
+   */
+  private void applyReportDiff(final DatanodeDescriptor node,
+      final DatanodeStorage storage, final ReportDiff diff) throws IOException {
+    assert namesystem.hasWriteLock();
+    Collection<BlockInfo> toAdd = new LinkedList<BlockInfo>();
+    Collection<Block> toRemove = new TreeSet<Block>();
+    Collection<Block> toInvalidate = new LinkedList<Block>();
+    Collection<BlockToMarkCorrupt> toCorrupt = new LinkedList<BlockToMarkCorrupt>();
+    Collection<StatefulBlockInfo> toUC = new LinkedList<StatefulBlockInfo>();
+    for (int i = 0; i < diff.changed.size(); i++) {
+      processReportedBlock(node, storage.getStorageID(), diff.changed.get(i),
+          diff.changedStates.get(i), toAdd, toInvalidate, toCorrupt, toUC);
+    }
+    for (BlockInfo b : diff.unreported) {
+      if (b.findStorageInfo(diff.storageInfo) >= 0) {
+        toRemove.add(b);
+      }
+    }
+    processReportQueues(node, storage, toAdd, toRemove, toInvalidate,
+        toCorrupt, toUC);
+  }
 
+  private void processReportQueues(final DatanodeDescriptor node,
+      final DatanodeStorage storage, final Collection<BlockInfo> toAdd,
+      final Collection<Block> toRemove, final Collection<Block> toInvalidate,
+      final Collection<BlockToMarkCorrupt> toCorrupt,
+      final Collection<StatefulBlockInfo> toUC) throws IOException {
     // Process the blocks on each queue
     for (StatefulBlockInfo b : toUC) { 
       addStoredBlockUnderConstruction(b, node, storage.getStorageID());
@@ -1861,6 +2013,93 @@ private void processFirstBlockReport(final DatanodeDescriptor node,
     }
   }
 
+  /** The changes in a block report, compared under the read lock. */
+  private static class ReportDiff {
+    final DatanodeStorageInfo storageInfo;
+    /** Reported replicas which change the blocks map, and their states */
+    final List<Block> changed = new ArrayList<Block>();
+    final List<ReplicaState> changedStates = new ArrayList<ReplicaState>();
+    /** Blocks of the storage which were not reported */
+    final List<BlockInfo> unreported = new ArrayList<BlockInfo>();
+
+    ReportDiff(DatanodeStorageInfo storageInfo) {
+      this.storageInfo = storageInfo;
+    }
+  }
+
+  /**
+   * Compare a block report with the blocks map under the read lock, so that
+   * the reports of several storages can be compared concurrently. Unlike
+   * {@link #reportDiff}, this does not modify the block list of the storage.
+   *
+   * @return the changes in the report, or null if the report has to be
+   *         processed under the write lock
+   */
+  private ReportDiff computeReportDiff(final DatanodeID nodeID,
+      final DatanodeStorage storage, BlockListAsLongs newReport)
+      throws IOException {
+    namesystem.readLock();
+    try {
+      final DatanodeDescriptor node = datanodeManager.getDatanode(nodeID);
+      if (node == null || !node.isAlive || shouldPostponeBlocksFromFuture) {
+        // reports of the standby may have to be queued, which needs the
+        // write lock
+        return null;
+      }
+      final DatanodeStorageInfo storageInfo =
+          node.getStorageInfo(storage.getStorageID());
+      if (storageInfo == null || storageInfo.numBlocks() == 0
+          || (namesystem.isInStartupSafeMode()
+              && storageInfo.getBlockReportCount() > 0)) {
+        return null;
+      }
+
+      final ReportDiff diff = new ReportDiff(storageInfo);
+      final Collection<BlockInfo> toAdd = new ArrayList<BlockInfo>(1);
+      final Collection<Block> toInvalidate = new ArrayList<Block>(1);
+      final Collection<BlockToMarkCorrupt> toCorrupt =
+          new ArrayList<BlockToMarkCorrupt>(1);
+      final Collection<StatefulBlockInfo> toUC =
+          new ArrayList<StatefulBlockInfo>(1);
+      final Set<BlockInfo> reported = new HashSet<BlockInfo>();
+      if (newReport == null) {
+        newReport = new BlockListAsLongs();
+      }
+      BlockReportIterator itBR = newReport.getBlockReportIterator();
+      while (itBR.hasNext()) {
+        Block iblk = itBR.next();
+        ReplicaState iState = itBR.getCurrentReplicaState();
+        BlockInfo storedBlock = processReportedBlock(node,
+            storage.getStorageID(), iblk, iState, toAdd, toInvalidate,
+            toCorrupt, toUC);
+        if (!toAdd.isEmpty() || !toInvalidate.isEmpty()
+            || !toCorrupt.isEmpty() || !toUC.isEmpty()) {
+          // the iterator reuses the block
+          diff.changed.add(new Block(iblk));
+          diff.changedStates.add(iState);
+          toAdd.clear();
+          toInvalidate.clear();
+          toCorrupt.clear();
+          toUC.clear();
+        }
+        if (storedBlock != null
+            && storedBlock.findStorageInfo(storageInfo) >= 0) {
+          reported.add(storedBlock);
+        }
+      }
+      Iterator<BlockInfo> it = storageInfo.getBlockIterator();
+      while (it.hasNext()) {
+        BlockInfo b = it.next();
+        if (!reported.contains(b)) {
+          diff.unreported.add(b);
+        }
+      }
+      return diff;
+    } finally {
+      namesystem.readUnlock();
+    }
+  }
+
   private void reportDiff(DatanodeDescriptor dn, DatanodeStorage storage, 
       BlockListAsLongs newReport, 
       Collection<BlockInfo> toAdd,              // add to DatanodeDescriptor
@@ -64,9 +64,20 @@ public void remove()  {
   
   private GSet<Block, BlockInfo> blocks;
 
+  /**
+   * Whether the storages of a block are trimmed back to its replication when
+   * a storage is removed.
+   */
+  private final boolean trimStorages;
+
   BlocksMap(int capacity) {
+    this(capacity, false);
+  }
+
+  BlocksMap(int capacity, boolean trimStorages) {
     // Use 2% of total memory to size the GSet capacity
     this.capacity = capacity;
+    this.trimStorages = trimStorages;
     this.blocks = new LightWeightGSet<Block, BlockInfo>(capacity) {
       @Override
       public Iterator<BlockInfo> iterator() {
@@ -190,6 +201,8 @@ boolean removeNode(Block b, DatanodeDescriptor node) {
     if (info.getDatanode(0) == null     // no datanodes left
               && info.getBlockCollection() == null) {  // does not belong to a file
       blocks.remove(b);  // remove block from the map
+    } else if (removed && trimStorages && info.getBlockCollection() != null) {
+      info.trimCapacity(info.getBlockCollection().getBlockReplication());
     }
     return removed;
   }
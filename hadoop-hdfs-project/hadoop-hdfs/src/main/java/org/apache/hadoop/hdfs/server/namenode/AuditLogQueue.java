@@ -0,0 +1,209 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.util.Daemon;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Passes audit events from the RPC handlers to a background thread, which
+ * builds the audit messages and hands them to the audit loggers in batches.
+ * The handlers only record the fields of an event, so they do not wait for
+ * the audit log.
+ * <p>
+ * Events are queued in a bounded buffer. When it is full, handlers either
+ * wait for room, or drop the event and count it. Once the queue is stopped,
+ * handlers log their events themselves.
+ */
+@InterfaceAudience.Private
+class AuditLogQueue {
+  static final Log LOG = LogFactory.getLog(AuditLogQueue.class);
+
+  /** The maximum number of events taken from the queue at once */
+  private static final int MAX_BATCH_SIZE = 256;
+  /** How often a handler waiting for room checks if the queue stopped */
+  private static final long OFFER_TIMEOUT_MS = 100;
+
+  /** An audit event, kept as the fields its message is built from. */
+  static class AuditEvent {
+    final boolean succeeded;
+    final UserGroupInformation ugi;
+    final InetAddress addr;
+    final String cmd;
+    final String src;
+    final String dst;
+    final HdfsFileStatus stat;
+    /** Whether the operation came through WebHDFS rather than RPC */
+    final boolean webHdfs;
+
+    AuditEvent(boolean succeeded, UserGroupInformation ugi, InetAddress addr,
+        String cmd, String src, String dst, HdfsFileStatus stat,
+        boolean webHdfs) {
+      this.succeeded = succeeded;
+      this.ugi = ugi;
+      this.addr = addr;
+      this.cmd = cmd;
+      this.src = src;
+      this.dst = dst;
+      this.stat = stat;
+      this.webHdfs = webHdfs;
+    }
+  }
+
+  /** Logs the events taken from the queue. */
+  interface Sink {
+    void log(AuditEvent event);
+  }
+
+  private final BlockingQueue<AuditEvent> queue;
+  private final boolean blockWhenFull;
+  private final Sink sink;
+  private final AtomicLong droppedEvents = new AtomicLong();
+  private final Daemon thread;
+  private volatile boolean running = true;
+
+  /**
+   * @param capacity the number of events which may wait to be logged
+   * @param blockWhenFull whether to wait for room in a full queue, rather
+   *                      than drop the event
+   */
+  AuditLogQueue(int capacity, boolean blockWhenFull, Sink sink) {
+    Preconditions.checkArgument(capacity > 0,
+        "Audit log queue capacity %s is not positive", capacity);
+    this.queue = new ArrayBlockingQueue<AuditEvent>(capacity);
+    this.blockWhenFull = blockWhenFull;
+    this.sink = sink;
+    this.thread = new Daemon(new Runnable() {
+      @Override
+      public void run() {
+        logEvents();
+      }
+    });
+    thread.setName("AuditLogger");
+  }
+
+  void start() {
+    thread.start();
+  }
+
+  /**
+   * Queue an event to be logged.
+   */
+  void add(AuditEvent event) {
+    if (!running) {
+      // the thread has stopped, so log the event here
+      logEvent(event);
+      return;
+    }
+    if (blockWhenFull) {
+      try {
+        // nothing takes events once the queue stops, so do not wait then
+        while (!queue.offer(event, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+          if (!running) {
+            logEvent(event);
+            return;
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        droppedEvents.incrementAndGet();
+        return;
+      }
+    } else if (!queue.offer(event)) {
+      if (droppedEvents.getAndIncrement() == 0) {
+        LOG.warn("The audit log queue is full, dropping audit events");
+      }
+      return;
+    }
+    // the queue may have stopped and been drained after the check above,
+    // in which case the event is logged here unless another thread got it
+    if (!running && queue.remove(event)) {
+      logEvent(event);
+    }
+  }
+
+  /** @return the number of events waiting to be logged */
+  int size() {
+    return queue.size();
+  }
+
+  /** @return the number of events dropped because the queue was full */
+  long getDroppedEvents() {
+    return droppedEvents.get();
+  }
+
+  /**
+   * Stop the thread, and log the events left in the queue. Events added
+   * afterwards are logged by the threads adding them.
+   */
+  void stop() {
+    running = false;
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    List<AuditEvent> batch = new ArrayList<AuditEvent>();
+    queue.drainTo(batch);
+    for (AuditEvent event : batch) {
+      logEvent(event);
+    }
+  }
+
+  private void logEvents() {
+    final List<AuditEvent> batch = new ArrayList<AuditEvent>(MAX_BATCH_SIZE);
+    while (running) {
+      try {
+        AuditEvent first = queue.poll(1, TimeUnit.SECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+      } catch (InterruptedException e) {
+        continue;
+      }
+      queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+      for (AuditEvent event : batch) {
+        logEvent(event);
+      }
+      batch.clear();
+    }
+  }
+
+  private void logEvent(AuditEvent event) {
+    try {
+      sink.log(event);
+    } catch (RuntimeException e) {
+      LOG.warn("Failed to log audit event " + event.cmd + " " + event.src, e);
+    }
+  }
+}
@@ -0,0 +1,121 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hdfs.server.namenode.snapshot.Snapshot;
+
+/**
+ * The content summary counts of large directories, kept by inode id so that
+ * getContentSummary does not walk their subtrees again.
+ * <p>
+ * The counts of a directory are those of the current state of its subtree,
+ * including the snapshot data below it. They are removed whenever a path
+ * through the directory is resolved for modification, and the whole cache
+ * is cleared when a snapshot is deleted, since that removes snapshot data
+ * below the snapshot root. Counts are added by readers holding the read
+ * lock, so the map is concurrent.
+ * <p>
+ * Only the directories of the current tree are cached. The root of a
+ * snapshot is a copy of the snapshottable directory with the same id, but
+ * without its snapshot data, so their counts differ.
+ */
+@InterfaceAudience.Private
+class ContentSummaryCache {
+  private final ConcurrentMap<Long, Content.Counts> map =
+      new ConcurrentHashMap<Long, Content.Counts>();
+  private final INodeMap inodeMap;
+  /** The minimum number of entries in a subtree for it to be cached */
+  private final long minEntries;
+  /** The number of invalidations, to detect modifications during a yield */
+  private final AtomicLong invalidations = new AtomicLong();
+
+  ContentSummaryCache(long minEntries, INodeMap inodeMap) {
+    this.minEntries = minEntries;
+    this.inodeMap = inodeMap;
+  }
+
+  /** @return whether a directory is the inode of its id in the current tree */
+  private boolean isCacheable(INodeDirectory dir) {
+    return !(dir instanceof Snapshot.Root) && inodeMap.get(dir.getId()) == dir;
+  }
+
+  /** @return the cached counts of a directory, or null */
+  Content.Counts get(INodeDirectory dir) {
+    return isCacheable(dir) ? map.get(dir.getId()) : null;
+  }
+
+  /**
+   * Cache the counts of a directory if its subtree is large enough.
+   */
+  void put(INodeDirectory dir, Content.Counts counts) {
+    long entries = counts.get(Content.FILE) + counts.get(Content.SYMLINK)
+        + counts.get(Content.DIRECTORY);
+    if (entries >= minEntries && isCacheable(dir)) {
+      map.put(dir.getId(), counts);
+    }
+  }
+
+  /**
+   * Remove the counts of the inodes in a path, which is about to be
+   * modified. These are all the directories whose subtree may change.
+   */
+  void invalidate(INodesInPath iip) {
+    invalidations.incrementAndGet();
+    if (map.isEmpty()) {
+      return;
+    }
+    for (INode inode : iip.getINodes()) {
+      if (inode != null) {
+        map.remove(inode.getId());
+      }
+    }
+  }
+
+  /** Remove the counts of deleted inodes. */
+  void remove(List<? extends INode> inodes) {
+    if (map.isEmpty()) {
+      return;
+    }
+    for (INode inode : inodes) {
+      if (inode != null) {
+        map.remove(inode.getId());
+      }
+    }
+  }
+
+  void clear() {
+    invalidations.incrementAndGet();
+    map.clear();
+  }
+
+  /** @return the number of invalidations so far */
+  long getInvalidations() {
+    return invalidations.get();
+  }
+
+  /** @return the number of cached directories */
+  int size() {
+    return map.size();
+  }
+}
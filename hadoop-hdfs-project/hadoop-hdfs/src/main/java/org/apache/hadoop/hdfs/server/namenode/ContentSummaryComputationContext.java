@@ -29,6 +29,8 @@ public class ContentSummaryComputationContext {
   private long nextCountLimit = 0;
   private long limitPerRun = 0;
   private long yieldCount = 0;
+  private ContentSummaryCache cache = null;
+  private long uncacheableCount = 0;
 
   /**
    * Constructor
@@ -46,6 +48,10 @@ public ContentSummaryComputationContext(FSDirectory dir,
     this.limitPerRun = limitPerRun;
     this.nextCountLimit = limitPerRun;
     this.counts = Content.Counts.newInstance();
+    if (dir != null && fsn != null && !fsn.isInStandbyState()) {
+      // the edits applied by a standby do not invalidate the cache
+      this.cache = dir.getContentSummaryCache();
+    }
   }
 
   /** Constructor for blocking computation. */
@@ -112,6 +118,28 @@ public boolean yield() {
     return true;
   }
 
+  /**
+   * @return the cache of directory counts, or null if the counts computed
+   *         are not to be cached
+   */
+  ContentSummaryCache getCache() {
+    return cache;
+  }
+
+  /**
+   * Record that the subtree being computed has counts which may change
+   * without a modification of a path through it, such as an under
+   * construction file, so its directories must not be cached.
+   */
+  public void markUncacheable() {
+    uncacheableCount++;
+  }
+
+  /** @return the number of times {@link #markUncacheable()} was called */
+  public long getUncacheableCount() {
+    return uncacheableCount;
+  }
+
   /** Get the content counts */
   public Content.Counts getCounts() {
     return counts;
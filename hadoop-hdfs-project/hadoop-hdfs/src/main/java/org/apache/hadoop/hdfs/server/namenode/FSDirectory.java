@@ -33,6 +33,8 @@
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.ContentSummary;
 import org.apache.hadoop.fs.FileAlreadyExistsException;
+import org.apache.hadoop.fs.GlobPattern;
+import org.apache.hadoop.fs.InvalidPathException;
 import org.apache.hadoop.fs.Options;
 import org.apache.hadoop.fs.Options.Rename;
 import org.apache.hadoop.fs.ParentNotDirectoryException;
@@ -48,6 +50,7 @@
 import org.apache.hadoop.hdfs.DFSUtil;
 import org.apache.hadoop.hdfs.DistributedFileSystem;
 import org.apache.hadoop.hdfs.protocol.AclException;
+import org.apache.hadoop.hdfs.protocol.BatchedListingEntry;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.ClientProtocol;
 import org.apache.hadoop.hdfs.protocol.DirectoryListing;
@@ -123,6 +126,8 @@ private static INodeDirectorySnapshottable createRoot(FSNamesystem namesystem) {
   private final int maxDirItems;
   private final int lsLimit;  // max list limit
   private final int contentCountLimit; // max content summary counts per run
+  /** The content summary counts of large directories, or null */
+  private final ContentSummaryCache contentSummaryCache;
   private final INodeMap inodeMap; // Synchronized by dirLock
   private long yieldCount = 0; // keep track of lock yield count.
 
@@ -168,6 +173,8 @@ public int getWriteHoldCount() {
    * byte[] objects and reduce heap usage.
    */
   private final NameCache<ByteArray> nameCache;
+  /** Whether the names of all inodes are cached, rather than of files only */
+  private final boolean cacheAllNames;
 
   FSDirectory(FSImage fsImage, FSNamesystem ns, Configuration conf) {
     this.dirLock = new ReentrantReadWriteLock(true); // fair
@@ -182,6 +189,11 @@ public int getWriteHoldCount() {
     this.contentCountLimit = conf.getInt(
         DFSConfigKeys.DFS_CONTENT_SUMMARY_LIMIT_KEY,
         DFSConfigKeys.DFS_CONTENT_SUMMARY_LIMIT_DEFAULT);
+    final long cacheMinEntries = conf.getLong(
+        DFSConfigKeys.DFS_CONTENT_SUMMARY_CACHE_MIN_ENTRIES_KEY,
+        DFSConfigKeys.DFS_CONTENT_SUMMARY_CACHE_MIN_ENTRIES_DEFAULT);
+    this.contentSummaryCache = cacheMinEntries > 0 ?
+        new ContentSummaryCache(cacheMinEntries, inodeMap) : null;
     
     // filesystem limits
     this.maxComponentLength = conf.getInt(
@@ -202,8 +214,11 @@ public int getWriteHoldCount() {
     int threshold = conf.getInt(
         DFSConfigKeys.DFS_NAMENODE_NAME_CACHE_THRESHOLD_KEY,
         DFSConfigKeys.DFS_NAMENODE_NAME_CACHE_THRESHOLD_DEFAULT);
-    NameNode.LOG.info("Caching file names occuring more than " + threshold
-        + " times");
+    cacheAllNames = conf.getBoolean(
+        DFSConfigKeys.DFS_NAMENODE_COMPACT_MEMORY_LAYOUT_KEY,
+        DFSConfigKeys.DFS_NAMENODE_COMPACT_MEMORY_LAYOUT_DEFAULT);
+    NameNode.LOG.info("Caching " + (cacheAllNames ? "inode" : "file")
+        + " names occuring more than " + threshold + " times");
     nameCache = new NameCache<ByteArray>(threshold);
     namesystem = ns;
   }
@@ -1563,6 +1578,74 @@ DirectoryListing getListing(String src, byte[] startAfter,
       readUnlock();
     }
   }
+
+  /** @return the maximum number of entries listed at once */
+  int getLsLimit() {
+    return lsLimit;
+  }
+
+  /**
+   * Add the children of a directory to a batched listing, starting after
+   * startAfter, until the listing holds lsLimit entries, or the block
+   * locations of its files use up the location budget.
+   *
+   * @param src the directory name
+   * @param srcIndex the index of the directory in the request
+   * @param startAfter the name to start listing after
+   * @param pattern the pattern which the names listed must match, or null
+   * @param needLocation if block locations are returned
+   * @param locationBudget the number of block replicas which may still be
+   *                       located, as in {@link #getListing}
+   * @param listing the listing to add the children to
+   * @return the location budget left
+   */
+  int getBatchedListing(String src, int srcIndex, byte[] startAfter,
+      GlobPattern pattern, boolean needLocation, int locationBudget,
+      List<BatchedListingEntry> listing)
+      throws UnresolvedLinkException, IOException {
+    String srcs = normalizePath(src);
+
+    readLock();
+    try {
+      if (srcs.endsWith(HdfsConstants.SEPARATOR_DOT_SNAPSHOT_DIR)) {
+        throw new InvalidPathException(src,
+            "Snapshots cannot be listed in a batch");
+      }
+      final INodesInPath inodesInPath = getLastINodeInPath(srcs, true);
+      final int snapshot = inodesInPath.getPathSnapshotId();
+      final INode targetNode = inodesInPath.getINode(0);
+      if (targetNode == null) {
+        throw new FileNotFoundException("File " + src + " does not exist.");
+      }
+      if (!targetNode.isDirectory()) {
+        throw new PathIsNotDirectoryException(src);
+      }
+
+      final ReadOnlyList<INode> contents =
+          targetNode.asDirectory().getChildrenList(snapshot);
+      for (int i = INodeDirectory.nextChild(contents, startAfter);
+          i < contents.size() && listing.size() < lsLimit
+              && locationBudget > 0; i++) {
+        INode cur = contents.get(i);
+        // match the name before building the status, which may locate blocks
+        if (pattern != null && !pattern.matches(cur.getLocalName())) {
+          continue;
+        }
+        HdfsFileStatus status = createFileStatus(cur.getLocalNameBytes(), cur,
+            needLocation, snapshot);
+        listing.add(new BatchedListingEntry(srcIndex, status));
+        if (needLocation) {
+          LocatedBlocks blks =
+              ((HdfsLocatedFileStatus)status).getBlockLocations();
+          locationBudget -= (blks == null) ? 0 :
+              blks.locatedBlockCount() * status.getReplication();
+        }
+      }
+      return locationBudget;
+    } finally {
+      readUnlock();
+    }
+  }
   
   /**
    * Get a listing of all the snapshots of a snapshottable directory
@@ -1652,7 +1735,10 @@ private INode getINode4DotSnapshot(String src) throws UnresolvedLinkException {
 
   INodesInPath getExistingPathINodes(byte[][] components)
       throws UnresolvedLinkException {
-    return INodesInPath.resolve(rootDir, components);
+    final INodesInPath iip = INodesInPath.resolve(rootDir, components);
+    // the callers add an inode at the end of the path
+    invalidateContentSummaries(iip);
+    return iip;
   }
 
   /**
@@ -2014,6 +2100,7 @@ private void unprotectedMkdir(long inodeId, INodesInPath inodesInPath,
     assert hasWriteLock();
     final INodeDirectory dir = new INodeDirectory(inodeId, name, permission,
         timestamp);
+    cacheName(dir);
     if (addChild(inodesInPath, pos, dir, true)) {
       if (aclEntries != null) {
         AclStorage.updateINodeAcl(dir, aclEntries, Snapshot.CURRENT_STATE_ID);
@@ -2359,6 +2446,21 @@ public long getYieldCount() {
     return yieldCount;
   }
 
+  /** @return the content summary cache, or null if it is disabled */
+  ContentSummaryCache getContentSummaryCache() {
+    return contentSummaryCache;
+  }
+
+  /**
+   * Drop all the cached content summary counts, after a change which may
+   * affect any directory.
+   */
+  void clearContentSummaryCache() {
+    if (contentSummaryCache != null) {
+      contentSummaryCache.clear();
+    }
+  }
+
   public INodeMap getINodeMap() {
     return inodeMap;
   }
@@ -2382,6 +2484,9 @@ public final void removeFromInodeMap(List<? extends INode> inodes) {
           inodeMap.remove(inode);
         }
       }
+      if (contentSummaryCache != null) {
+        contentSummaryCache.remove(inodes);
+      }
     }
   }
   
@@ -2870,8 +2975,8 @@ private static INode resolveLastINode(String src, INodesInPath iip)
    * reduce heap size.
    */
   void cacheName(INode inode) {
-    // Name is cached only for files
-    if (!inode.isFile()) {
+    // Name is cached only for files, unless the compact layout is enabled
+    if (!inode.isFile() && !cacheAllNames) {
       return;
     }
     ByteArray name = new ByteArray(inode.getLocalNameBytes());
@@ -3074,6 +3179,17 @@ private INodesInPath getINodesInPath4Write(String src, boolean resolveLink)
       throw new SnapshotAccessControlException(
               "Modification on a read-only snapshot is disallowed");
     }
+    invalidateContentSummaries(inodesInPath);
     return inodesInPath;
   }
+
+  /**
+   * Drop the cached content summary counts of the directories in a path,
+   * whose subtrees are to be modified.
+   */
+  private void invalidateContentSummaries(INodesInPath iip) {
+    if (contentSummaryCache != null) {
+      contentSummaryCache.invalidate(iip);
+    }
+  }
 }
@@ -27,6 +27,9 @@
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -169,6 +172,10 @@ private enum State {
 
   private final NNStorage storage;
   private final Configuration conf;
+
+  // whether RPC calls wait for their edits to be synced in the syncer
+  private final boolean asyncLogging;
+  private volatile EditLogSyncer syncer = null;
   
   private final List<URI> editsDirs;
 
@@ -187,6 +194,8 @@ protected OpInstanceCache initialValue() {
 
   private static class TransactionId {
     public long txid;
+    // whether logSync() has to sync in this thread, even in an RPC call
+    public boolean syncNow = false;
 
     TransactionId(long value) {
       this.txid = value;
@@ -221,6 +230,9 @@ protected synchronized TransactionId initialValue() {
     this.editsDirs = Lists.newArrayList(editsDirs);
 
     this.sharedEditsDirs = FSNamesystem.getSharedEditsDirs(conf);
+    this.asyncLogging = conf.getBoolean(
+        DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING,
+        DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING_DEFAULT);
   }
   
   public synchronized void initJournalsForWrite() {
@@ -302,6 +314,11 @@ synchronized void openForWrite() throws IOException {
     
     startLogSegmentAndWriteHeaderTxn(segmentTxId);
     assert state == State.IN_SEGMENT : "Bad state: " + state;
+
+    if (asyncLogging && syncer == null) {
+      syncer = new EditLogSyncer();
+      syncer.start();
+    }
   }
   
   /**
@@ -344,6 +361,21 @@ synchronized void close() {
         endCurrentLogSegment(true);
       }
     } finally {
+      if (syncer != null) {
+        // wait for the syncer to respond to its pending calls, whose edits
+        // are synced by now, before the journals are closed under it
+        syncer.shutdown();
+        while (syncer.isAlive()) {
+          try {
+            wait(100);
+          } catch (InterruptedException ie) {
+            LOG.warn("Interrupted waiting for " + syncer.getName());
+            Thread.currentThread().interrupt();
+            break;
+          }
+        }
+        syncer = null;
+      }
       if (journalSet != null && !journalSet.isEmpty()) {
         try {
           journalSet.close();
@@ -419,7 +451,7 @@ assert isOpenForWrite() :
     }
     
     // sync buffered edit log entries to persistent store
-    logSync();
+    logSyncNow();
   }
 
   /**
@@ -522,7 +554,23 @@ void logSyncAll() {
       id.txid = txid;
     }
     // Then make sure we're synced up to this point
-    logSync();
+    logSyncNow();
+  }
+
+  /**
+   * Sync all modifications done by this thread, in this thread, even with
+   * asynchronous logging. This is for callers that go on to act on the
+   * assumption that their edits are durable, such as removing the blocks
+   * of a deleted file.
+   */
+  public void logSyncNow() {
+    TransactionId id = myTransactionId.get();
+    id.syncNow = true;
+    try {
+      logSync();
+    } finally {
+      id.syncNow = false;
+    }
   }
   
   /**
@@ -552,12 +600,33 @@ void logSyncAll() {
    * Because this step is unsynchronized, actions that need to avoid
    * concurrency with sync() should be synchronized and also call
    * waitForSyncToFinish() before assuming they are running alone.
+   *
+   * With {@link DFSConfigKeys#DFS_NAMENODE_EDITS_ASYNC_LOGGING} set, a
+   * thread handling an RPC call does not wait for the sync. The response to
+   * the call is postponed instead, and sent by the {@link EditLogSyncer}
+   * once the edits are synced.
    */
   public void logSync() {
     long syncStart = 0;
 
     // Fetch the transactionId of this thread. 
-    long mytxid = myTransactionId.get().txid;
+    TransactionId id = myTransactionId.get();
+    long mytxid = id.txid;
+
+    EditLogSyncer syncer = this.syncer;
+    if (syncer != null && !id.syncNow) {
+      Server.Call call = Server.getCurCall().get();
+      if (call != null) {
+        synchronized (this) {
+          if (mytxid <= synctxid) {
+            return;
+          }
+        }
+        if (syncer.add(call)) {
+          return;
+        }
+      }
+    }
     
     boolean sync = false;
     try {
@@ -649,6 +718,90 @@ public void logSync() {
     }
   }
 
+  /**
+   * Syncs the edits of RPC calls in batches, and then sends the responses
+   * to the calls, which were postponed until their edits are durable.
+   */
+  private class EditLogSyncer extends Thread {
+    private final BlockingQueue<Server.Call> pendingCalls =
+        new LinkedBlockingQueue<Server.Call>();
+    private boolean running = true;
+
+    EditLogSyncer() {
+      super("Edit log syncer");
+      setDaemon(true);
+    }
+
+    /**
+     * Postpone the response to a call until the edits logged so far are
+     * synced.
+     * @return false if the syncer is shut down, and the caller has to sync
+     */
+    synchronized boolean add(Server.Call call) {
+      if (!running) {
+        return false;
+      }
+      call.postponeResponse();
+      pendingCalls.add(call);
+      return true;
+    }
+
+    /**
+     * Stop taking calls. The pending ones are still synced and responded
+     * to.
+     */
+    synchronized void shutdown() {
+      running = false;
+    }
+
+    private synchronized boolean isRunning() {
+      return running;
+    }
+
+    @Override
+    public void run() {
+      List<Server.Call> calls = new ArrayList<Server.Call>();
+      try {
+        while (isRunning() || !pendingCalls.isEmpty()) {
+          Server.Call call;
+          try {
+            call = pendingCalls.poll(1, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            // stop taking calls, but do not leave the pending ones hanging
+            LOG.warn(getName() + " interrupted, responding to "
+                + pendingCalls.size() + " pending calls");
+            shutdown();
+            continue;
+          }
+          if (call == null) {
+            continue;
+          }
+          calls.add(call);
+          pendingCalls.drainTo(calls);
+          syncAndRespond(calls);
+        }
+      } catch (RuntimeException e) {
+        final String msg = "Unable to sync the edits of " + calls.size()
+            + " calls";
+        LOG.fatal(msg, e);
+        terminate(1, msg);
+      }
+    }
+
+    private void syncAndRespond(List<Server.Call> calls) {
+      // the edits of the calls were logged before they were added
+      logSyncAll();
+      for (Server.Call call : calls) {
+        try {
+          call.sendResponse();
+        } catch (IOException e) {
+          LOG.warn("Unable to respond to " + call, e);
+        }
+      }
+      calls.clear();
+    }
+  }
+
   //
   // print statistics every 1 minute.
   //
@@ -1175,7 +1328,7 @@ synchronized void startLogSegmentAndWriteHeaderTxn(final long segmentTxId
 
     logEdit(LogSegmentOp.getInstance(cache.get(),
         FSEditLogOpCodes.OP_START_LOG_SEGMENT));
-    logSync();
+    logSyncNow();
   }
 
   /**
@@ -1190,7 +1343,7 @@ public synchronized void endCurrentLogSegment(boolean writeEndTxn) {
     if (writeEndTxn) {
       logEdit(LogSegmentOp.getInstance(cache.get(), 
           FSEditLogOpCodes.OP_END_LOG_SEGMENT));
-      logSync();
+      logSyncNow();
     }
 
     printStatistics(true);
@@ -1345,7 +1498,7 @@ public synchronized void journal(long firstTxId, int numTxns, byte[] data) {
         firstTxId, expectedTxId);
     setNextTxId(firstTxId + numTxns - 1);
     logEdit(data.length, data);
-    logSync();
+    logSyncNow();
   }
 
   /**
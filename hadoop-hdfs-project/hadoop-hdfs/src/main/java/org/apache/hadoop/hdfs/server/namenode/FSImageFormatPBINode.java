@@ -25,6 +25,9 @@
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -51,9 +54,11 @@
 import org.apache.hadoop.hdfs.server.namenode.FsImageProto.INodeSection.AclFeatureProto;
 import org.apache.hadoop.hdfs.server.namenode.snapshot.Snapshot;
 import org.apache.hadoop.hdfs.util.ReadOnlyList;
+import org.apache.hadoop.io.IOUtils;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.google.protobuf.ByteString;
 
 @InterfaceAudience.Private
@@ -168,6 +173,64 @@ void loadINodeDirectorySection(InputStream in) throws IOException {
       }
     }
 
+    /**
+     * Load the directory section from its sub-sections, concurrently. The
+     * children of a directory are all in the same entry, so every worker
+     * links the children of different directories. The name cache and the
+     * blocks map are updated serially as the sub-sections complete.
+     */
+    void loadINodeDirectorySectionInParallel(
+        List<FileSummary.Section> subSections, ExecutorService executor)
+        throws IOException {
+      LOG.info("Loading the INode directory section in "
+          + subSections.size() + " sub-sections");
+      final List<INodeReference> refList = parent.getLoaderContext()
+          .getRefList();
+      List<Future<List<INode>>> futures = Lists.newArrayList();
+      for (final FileSummary.Section s : subSections) {
+        futures.add(executor.submit(new Callable<List<INode>>() {
+          @Override
+          public List<INode> call() throws IOException {
+            List<INode> added = Lists.newArrayList();
+            InputStream in = parent.openSubSection(s);
+            try {
+              while (true) {
+                INodeDirectorySection.DirEntry e = INodeDirectorySection
+                    .DirEntry.parseDelimitedFrom(in);
+                if (e == null) {
+                  break;
+                }
+                // the inode map is complete and no longer modified, so it
+                // is read without the directory lock
+                INodeDirectory p = dir.getINodeMap().get(e.getParent())
+                    .asDirectory();
+                for (long id : e.getChildrenList()) {
+                  INode child = dir.getINodeMap().get(id);
+                  if (linkToParent(p, child)) {
+                    added.add(child);
+                  }
+                }
+                for (int refId : e.getRefChildrenList()) {
+                  INodeReference ref = refList.get(refId);
+                  if (linkToParent(p, ref)) {
+                    added.add(ref);
+                  }
+                }
+              }
+            } finally {
+              IOUtils.closeStream(in);
+            }
+            return added;
+          }
+        }));
+      }
+      for (Future<List<INode>> f : futures) {
+        for (INode child : FSImageFormatProtobuf.getResult(f)) {
+          childAdded(child);
+        }
+      }
+    }
+
     void loadINodeSection(InputStream in) throws IOException {
       INodeSection s = INodeSection.parseDelimitedFrom(in);
       fsn.resetLastInodeId(s.getLastInodeId());
@@ -183,6 +246,53 @@ void loadINodeSection(InputStream in) throws IOException {
       }
     }
 
+    /**
+     * Load the inode section from its sub-sections, concurrently. Only the
+     * header of the section is read from the given stream. The inodes are
+     * added to the inode map serially, in the order of the image, as the
+     * sub-sections complete.
+     */
+    void loadINodeSectionInParallel(InputStream in,
+        List<FileSummary.Section> subSections, ExecutorService executor)
+        throws IOException {
+      INodeSection s = INodeSection.parseDelimitedFrom(in);
+      fsn.resetLastInodeId(s.getLastInodeId());
+      LOG.info("Loading " + s.getNumInodes() + " INodes in "
+          + subSections.size() + " sub-sections.");
+      List<Future<List<INode>>> futures = Lists.newArrayList();
+      for (final FileSummary.Section sub : subSections) {
+        futures.add(executor.submit(new Callable<List<INode>>() {
+          @Override
+          public List<INode> call() throws IOException {
+            List<INode> inodes = Lists.newArrayList();
+            InputStream subIn = parent.openSubSection(sub);
+            try {
+              while (true) {
+                INodeSection.INode p = INodeSection.INode
+                    .parseDelimitedFrom(subIn);
+                if (p == null) {
+                  break;
+                }
+                if (p.getId() == INodeId.ROOT_INODE_ID) {
+                  loadRootINode(p);
+                } else {
+                  inodes.add(loadINode(p));
+                }
+              }
+            } finally {
+              IOUtils.closeStream(subIn);
+            }
+            return inodes;
+          }
+        }));
+      }
+      for (Future<List<INode>> f : futures) {
+        for (INode n : FSImageFormatProtobuf.getResult(f)) {
+          dir.addToInodeMap(n);
+        }
+      }
+    }
+
     /**
      * Load the under-construction files section, and update the lease map
      */
@@ -202,6 +312,17 @@ void loadFilesUnderConstructionSection(InputStream in) throws IOException {
     }
 
     private void addToParent(INodeDirectory parent, INode child) {
+      if (linkToParent(parent, child)) {
+        childAdded(child);
+      }
+    }
+
+    /**
+     * Add a child to its parent directory.
+     *
+     * @return false if the parent already has a child of the same name
+     */
+    private boolean linkToParent(INodeDirectory parent, INode child) {
       if (parent == dir.rootDir && FSDirectory.isReservedName(child)) {
         throw new HadoopIllegalArgumentException("File name \""
             + child.getLocalName() + "\" is reserved. Please "
@@ -209,9 +330,14 @@ private void addToParent(INodeDirectory parent, INode child) {
             + "name before upgrading to this release.");
       }
       // NOTE: This does not update space counts for parents
-      if (!parent.addChild(child)) {
-        return;
-      }
+      return parent.addChild(child);
+    }
+
+    /**
+     * Update the name cache and the blocks map for a child which was added
+     * to its parent.
+     */
+    private void childAdded(INode child) {
       dir.cacheName(child);
 
       if (child.isFile()) {
@@ -370,35 +496,37 @@ void serializeINodeDirectorySection(OutputStream out) throws IOException {
           .getINodeMap().getMapIterator();
       final ArrayList<INodeReference> refList = parent.getSaverContext()
           .getRefList();
-      int i = 0;
-      while (iter.hasNext()) {
-        INodeWithAdditionalFields n = iter.next();
-        if (!n.isDirectory()) {
-          continue;
-        }
+      parent.saveSubSections(summary,
+          FSImageFormatProtobuf.SectionName.INODE_DIR_SUB, iter,
+          new FSImageFormatProtobuf.Saver.EntrySerializer<INodeWithAdditionalFields>() {
+        @Override
+        public void save(OutputStream out, INodeWithAdditionalFields n)
+            throws IOException {
+          if (!n.isDirectory()) {
+            return;
+          }
 
-        ReadOnlyList<INode> children = n.asDirectory().getChildrenList(
-            Snapshot.CURRENT_STATE_ID);
-        if (children.size() > 0) {
-          INodeDirectorySection.DirEntry.Builder b = INodeDirectorySection.
-              DirEntry.newBuilder().setParent(n.getId());
-          for (INode inode : children) {
-            if (!inode.isReference()) {
-              b.addChildren(inode.getId());
-            } else {
-              refList.add(inode.asReference());
-              b.addRefChildren(refList.size() - 1);
+          ReadOnlyList<INode> children = n.asDirectory().getChildrenList(
+              Snapshot.CURRENT_STATE_ID);
+          if (children.size() > 0) {
+            INodeDirectorySection.DirEntry.Builder b = INodeDirectorySection.
+                DirEntry.newBuilder().setParent(n.getId());
+            for (INode inode : children) {
+              if (!inode.isReference()) {
+                b.addChildren(inode.getId());
+              } else {
+                // sub-sections may be serialized concurrently
+                synchronized (refList) {
+                  refList.add(inode.asReference());
+                  b.addRefChildren(refList.size() - 1);
+                }
+              }
             }
+            INodeDirectorySection.DirEntry e = b.build();
+            e.writeDelimitedTo(out);
           }
-          INodeDirectorySection.DirEntry e = b.build();
-          e.writeDelimitedTo(out);
         }
-
-        ++i;
-        if (i % FSImageFormatProtobuf.Saver.CHECK_CANCEL_INTERVAL == 0) {
-          context.checkCancelled();
-        }
-      }
+      });
       parent.commitSection(summary,
           FSImageFormatProtobuf.SectionName.INODE_DIR);
     }
@@ -411,16 +539,16 @@ void serializeINodeSection(OutputStream out) throws IOException {
       INodeSection s = b.build();
       s.writeDelimitedTo(out);
 
-      int i = 0;
-      Iterator<INodeWithAdditionalFields> iter = inodesMap.getMapIterator();
-      while (iter.hasNext()) {
-        INodeWithAdditionalFields n = iter.next();
-        save(out, n);
-        ++i;
-        if (i % FSImageFormatProtobuf.Saver.CHECK_CANCEL_INTERVAL == 0) {
-          context.checkCancelled();
+      parent.saveSubSections(summary,
+          FSImageFormatProtobuf.SectionName.INODE_SUB,
+          inodesMap.getMapIterator(),
+          new FSImageFormatProtobuf.Saver.EntrySerializer<INodeWithAdditionalFields>() {
+        @Override
+        public void save(OutputStream out, INodeWithAdditionalFields n)
+            throws IOException {
+          Saver.this.save(out, n);
         }
-      }
+      });
       parent.commitSection(summary, FSImageFormatProtobuf.SectionName.INODE);
     }
 
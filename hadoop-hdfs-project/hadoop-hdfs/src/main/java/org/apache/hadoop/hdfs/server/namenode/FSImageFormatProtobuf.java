@@ -20,28 +20,39 @@
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CacheDirectiveInfoProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CachePoolInfoProto;
 import org.apache.hadoop.hdfs.security.token.delegation.DelegationTokenSecretManager;
@@ -63,6 +74,7 @@
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.io.LimitInputStream;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.protobuf.CodedOutputStream;
 
 /**
@@ -94,7 +106,7 @@ static <T> DeduplicationMap<T> newMap() {
         return new DeduplicationMap<T>();
       }
 
-      int getId(E value) {
+      synchronized int getId(E value) {
         if (value == null) {
           return 0;
         }
@@ -134,6 +146,10 @@ public static final class Loader implements FSImageFormat.AbstractLoader {
     private final Configuration conf;
     private final FSNamesystem fsn;
     private final LoaderContext ctx;
+    /** The file being loaded */
+    private File file;
+    /** The codec of the file being loaded */
+    private String codec;
     /** The MD5 sum of the loaded file */
     private MD5Hash imgDigest;
     /** The transaction ID of the last edit represented by the loaded file */
@@ -161,6 +177,7 @@ public LoaderContext getLoaderContext() {
 
     void load(File file) throws IOException {
       long start = System.currentTimeMillis();
+      this.file = file;
       imgDigest = MD5FileUtils.computeMd5ForFile(file);
       RandomAccessFile raFile = new RandomAccessFile(file, "r");
       FileInputStream fin = new FileInputStream(file);
@@ -180,6 +197,7 @@ private void loadInternal(RandomAccessFile raFile, FileInputStream fin)
         throw new IOException("Unrecognized file format");
       }
       FileSummary summary = FSImageUtil.loadSummary(raFile);
+      codec = summary.getCodec();
 
       FileChannel channel = fin.getChannel();
 
@@ -190,6 +208,8 @@ private void loadInternal(RandomAccessFile raFile, FileInputStream fin)
 
       ArrayList<FileSummary.Section> sections = Lists.newArrayList(summary
           .getSectionsList());
+      Map<SectionName, List<FileSummary.Section>> subSections =
+          extractSubSections(sections);
       Collections.sort(sections, new Comparator<FileSummary.Section>() {
         @Override
         public int compare(FileSummary.Section s1, FileSummary.Section s2) {
@@ -205,6 +225,39 @@ public int compare(FileSummary.Section s1, FileSummary.Section s2) {
         }
       });
 
+      ExecutorService executor = null;
+      if (!subSections.isEmpty()
+          && conf.getBoolean(DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY,
+              DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_DEFAULT)) {
+        int threads = Math.max(1, conf.getInt(
+            DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_KEY,
+            DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_DEFAULT));
+        LOG.info("Loading the sub-sections of the image with " + threads
+            + " threads");
+        executor = Executors.newFixedThreadPool(threads,
+            new ThreadFactoryBuilder().setDaemon(true)
+                .setNameFormat("FSImageLoader-%d").build());
+      }
+      try {
+        loadSections(sections, subSections, summary, channel, fin,
+            inodeLoader, snapshotLoader, executor);
+      } finally {
+        if (executor != null) {
+          executor.shutdownNow();
+        }
+      }
+    }
+
+    /**
+     * Load the sections in order. Sections with sub-sections are loaded from
+     * their sub-sections if an executor is given.
+     */
+    private void loadSections(ArrayList<FileSummary.Section> sections,
+        Map<SectionName, List<FileSummary.Section>> subSections,
+        FileSummary summary, FileChannel channel, FileInputStream fin,
+        FSImageFormatPBINode.Loader inodeLoader,
+        FSImageFormatPBSnapshot.Loader snapshotLoader,
+        ExecutorService executor) throws IOException {
       StartupProgress prog = NameNode.getStartupProgress();
       /**
        * beginStep() and the endStep() calls do not match the boundary of the
@@ -233,14 +286,26 @@ public int compare(FileSummary.Section s1, FileSummary.Section s2) {
         case INODE: {
           currentStep = new Step(StepType.INODES);
           prog.beginStep(Phase.LOADING_FSIMAGE, currentStep);
-          inodeLoader.loadINodeSection(in);
+          List<FileSummary.Section> subs = subSections.get(SectionName.INODE);
+          if (executor != null && subs != null) {
+            inodeLoader.loadINodeSectionInParallel(in, subs, executor);
+          } else {
+            inodeLoader.loadINodeSection(in);
+          }
         }
           break;
         case INODE_REFERENCE:
           snapshotLoader.loadINodeReferenceSection(in);
           break;
-        case INODE_DIR:
-          inodeLoader.loadINodeDirectorySection(in);
+        case INODE_DIR: {
+          List<FileSummary.Section> subs = subSections
+              .get(SectionName.INODE_DIR);
+          if (executor != null && subs != null) {
+            inodeLoader.loadINodeDirectorySectionInParallel(subs, executor);
+          } else {
+            inodeLoader.loadINodeDirectorySection(in);
+          }
+        }
           break;
         case FILES_UNDERCONSTRUCTION:
           inodeLoader.loadFilesUnderConstructionSection(in);
@@ -273,6 +338,50 @@ public int compare(FileSummary.Section s1, FileSummary.Section s2) {
       }
     }
 
+    /**
+     * Remove the sub-sections from the sections of the image.
+     *
+     * @return the sub-sections of each section, in the order of the image
+     */
+    private static Map<SectionName, List<FileSummary.Section>>
+        extractSubSections(List<FileSummary.Section> sections) {
+      Map<SectionName, List<FileSummary.Section>> subSections = Maps
+          .newEnumMap(SectionName.class);
+      for (Iterator<FileSummary.Section> it = sections.iterator();
+          it.hasNext();) {
+        FileSummary.Section s = it.next();
+        SectionName n = SectionName.fromString(s.getName());
+        SectionName parent = n == null ? null : n.getParent();
+        if (parent != null) {
+          it.remove();
+          List<FileSummary.Section> subs = subSections.get(parent);
+          if (subs == null) {
+            subs = Lists.newArrayList();
+            subSections.put(parent, subs);
+          }
+          subs.add(s);
+        }
+      }
+      return subSections;
+    }
+
+    /**
+     * Open a sub-section of the image on a stream of its own, so that it can
+     * be read concurrently with the other sub-sections. Every sub-section is
+     * compressed on its own.
+     */
+    InputStream openSubSection(FileSummary.Section s) throws IOException {
+      FileInputStream in = new FileInputStream(file);
+      try {
+        in.getChannel().position(s.getOffset());
+        return FSImageUtil.wrapInputStreamForCompression(conf, codec,
+            new BufferedInputStream(new LimitInputStream(in, s.getLength())));
+      } catch (IOException e) {
+        in.close();
+        throw e;
+      }
+    }
+
     private void loadNameSystemSection(InputStream in) throws IOException {
       NameSystemSection s = NameSystemSection.parseDelimitedFrom(in);
       fsn.setGenerationStampV1(s.getGenstampV1());
@@ -334,9 +443,23 @@ private void loadCacheManagerSection(InputStream in) throws IOException {
   public static final class Saver {
     public static final int CHECK_CANCEL_INTERVAL = 4096;
 
+    /**
+     * Serializes the entries of a section which may be split into
+     * sub-sections. It may be called by several threads at once.
+     */
+    interface EntrySerializer<T> {
+      void save(OutputStream out, T entry) throws IOException;
+    }
+
     private final SaveNamespaceContext context;
     private final SaverContext saverContext;
+    private final Configuration conf;
     private long currentOffset = FSImageUtil.MAGIC_HEADER.length;
+    /** The number of entries per sub-section, or 0 to not write any */
+    private int subSectionEntries = 0;
+    /** Serializes sub-sections concurrently, if not null */
+    private ExecutorService saveExecutor;
+    private int saveThreads;
     private MD5Hash savedDigest;
 
     private FileChannel fileChannel;
@@ -346,8 +469,13 @@ public static final class Saver {
     private OutputStream underlyingOutputStream;
 
     Saver(SaveNamespaceContext context) {
+      this(context, null);
+    }
+
+    Saver(SaveNamespaceContext context, Configuration conf) {
       this.context = context;
       this.saverContext = new SaverContext();
+      this.conf = conf;
     }
 
     public MD5Hash getSavedDigest() {
@@ -365,19 +493,132 @@ public SaverContext getSaverContext() {
     public void commitSection(FileSummary.Builder summary, SectionName name)
         throws IOException {
       long oldOffset = currentOffset;
-      flushSectionOutputStream();
-
-      if (codec != null) {
-        sectionOutputStream = codec.createOutputStream(underlyingOutputStream);
-      } else {
-        sectionOutputStream = underlyingOutputStream;
-      }
-      long length = fileChannel.position() - oldOffset;
+      long length = endSectionOutputStream() - oldOffset;
+      startSectionOutputStream();
       summary.addSections(FileSummary.Section.newBuilder().setName(name.name)
           .setLength(length).setOffset(currentOffset));
       currentOffset += length;
     }
 
+    /**
+     * Write entries of the current section. If sections are split, the
+     * entries are written in sub-sections, each compressed on its own. With
+     * more than one save thread, the sub-sections are serialized and
+     * compressed concurrently, and written in order.
+     * <p>
+     * Sub-sections are only indexed in the file summary, and their section
+     * still covers all of its entries, so that the image can be loaded
+     * serially as well.
+     */
+    <T> void saveSubSections(FileSummary.Builder summary, SectionName name,
+        Iterator<T> entries, final EntrySerializer<T> serializer)
+        throws IOException {
+      if (subSectionEntries == 0) {
+        int i = 0;
+        while (entries.hasNext()) {
+          serializer.save(sectionOutputStream, entries.next());
+          if (++i % CHECK_CANCEL_INTERVAL == 0) {
+            context.checkCancelled();
+          }
+        }
+        return;
+      }
+
+      // the entries before the sub-sections are compressed on their own
+      long offset = endSectionOutputStream();
+      if (saveExecutor == null) {
+        startSectionOutputStream();
+        int i = 0;
+        while (entries.hasNext()) {
+          serializer.save(sectionOutputStream, entries.next());
+          if (++i % CHECK_CANCEL_INTERVAL == 0) {
+            context.checkCancelled();
+          }
+          if (i % subSectionEntries == 0 || !entries.hasNext()) {
+            long position = endSectionOutputStream();
+            startSectionOutputStream();
+            addSubSection(summary, name, offset, position - offset);
+            offset = position;
+          }
+        }
+        return;
+      }
+
+      // bound the sub-sections held in memory
+      ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+      while (entries.hasNext()) {
+        final List<T> batch = Lists.newArrayListWithCapacity(
+            subSectionEntries);
+        while (entries.hasNext() && batch.size() < subSectionEntries) {
+          batch.add(entries.next());
+        }
+        context.checkCancelled();
+        pending.add(saveExecutor.submit(new Callable<byte[]>() {
+          @Override
+          public byte[] call() throws IOException {
+            return serializeSubSection(batch, serializer);
+          }
+        }));
+        if (pending.size() >= 2 * saveThreads) {
+          offset = writeSubSection(summary, name, offset,
+              getResult(pending.remove()));
+        }
+      }
+      while (!pending.isEmpty()) {
+        offset = writeSubSection(summary, name, offset,
+            getResult(pending.remove()));
+      }
+      startSectionOutputStream();
+    }
+
+    private <T> byte[] serializeSubSection(List<T> batch,
+        EntrySerializer<T> serializer) throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      OutputStream out = codec != null ? codec.createOutputStream(bytes)
+          : bytes;
+      for (T entry : batch) {
+        serializer.save(out, entry);
+      }
+      if (codec != null) {
+        ((CompressorStream) out).finish();
+      }
+      out.flush();
+      return bytes.toByteArray();
+    }
+
+    private long writeSubSection(FileSummary.Builder summary,
+        SectionName name, long offset, byte[] subSection) throws IOException {
+      underlyingOutputStream.write(subSection);
+      addSubSection(summary, name, offset, subSection.length);
+      return offset + subSection.length;
+    }
+
+    private static void addSubSection(FileSummary.Builder summary,
+        SectionName name, long offset, long length) {
+      if (length > 0) {
+        summary.addSections(FileSummary.Section.newBuilder()
+            .setName(name.name).setLength(length).setOffset(offset));
+      }
+    }
+
+    private int computeSubSectionEntries() {
+      if (conf == null || !conf.getBoolean(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_DEFAULT)) {
+        return 0;
+      }
+      int numINodes = context.getSourceNamesystem().dir.getINodeMap().size();
+      if (numINodes < conf.getInt(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_INODE_THRESHOLD_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_INODE_THRESHOLD_DEFAULT)) {
+        return 0;
+      }
+      int targetSections = Math.max(1, conf.getInt(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_TARGET_SECTIONS_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_TARGET_SECTIONS_DEFAULT));
+      return Math.max(1, numINodes / targetSections);
+    }
+
     private void flushSectionOutputStream() throws IOException {
       if (codec != null) {
         ((CompressorStream) sectionOutputStream).finish();
@@ -385,12 +626,34 @@ private void flushSectionOutputStream() throws IOException {
       sectionOutputStream.flush();
     }
 
+    /**
+     * Finish the stream of the section data.
+     *
+     * @return the position in the file after the stream
+     */
+    private long endSectionOutputStream() throws IOException {
+      flushSectionOutputStream();
+      return fileChannel.position();
+    }
+
+    private void startSectionOutputStream() throws IOException {
+      if (codec != null) {
+        sectionOutputStream = codec.createOutputStream(underlyingOutputStream);
+      } else {
+        sectionOutputStream = underlyingOutputStream;
+      }
+    }
+
     void save(File file, FSImageCompression compression) throws IOException {
       FileOutputStream fout = new FileOutputStream(file);
       fileChannel = fout.getChannel();
       try {
         saveInternal(fout, compression, file.getAbsolutePath().toString());
       } finally {
+        if (saveExecutor != null) {
+          saveExecutor.shutdownNow();
+          saveExecutor = null;
+        }
         fout.close();
       }
     }
@@ -444,6 +707,16 @@ private void saveInternal(FileOutputStream fout,
       } else {
         sectionOutputStream = underlyingOutputStream;
       }
+      subSectionEntries = computeSubSectionEntries();
+      if (subSectionEntries > 0) {
+        saveThreads = conf.getInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_KEY,
+            DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_DEFAULT);
+        if (saveThreads > 1) {
+          saveExecutor = Executors.newFixedThreadPool(saveThreads,
+              new ThreadFactoryBuilder().setDaemon(true)
+                  .setNameFormat("FSImageSaver-%d").build());
+        }
+      }
 
       saveNameSystemSection(b);
       // Check for cancellation right after serializing the name system section.
@@ -565,7 +838,9 @@ public enum SectionName {
     FILES_UNDERCONSTRUCTION("FILES_UNDERCONSTRUCTION"),
     SNAPSHOT_DIFF("SNAPSHOT_DIFF"),
     SECRET_MANAGER("SECRET_MANAGER"),
-    CACHE_MANAGER("CACHE_MANAGER");
+    CACHE_MANAGER("CACHE_MANAGER"),
+    INODE_SUB("INODE_SUB", INODE),
+    INODE_DIR_SUB("INODE_DIR_SUB", INODE_DIR);
 
     private static final SectionName[] values = SectionName.values();
 
@@ -578,9 +853,44 @@ public static SectionName fromString(String name) {
     }
 
     private final String name;
+    /** The section this is a sub-section of, or null */
+    private final SectionName parent;
 
     private SectionName(String name) {
+      this(name, null);
+    }
+
+    private SectionName(String name, SectionName parent) {
       this.name = name;
+      this.parent = parent;
+    }
+
+    /**
+     * @return the section this is a sub-section of, or null if this is not a
+     *         sub-section
+     */
+    public SectionName getParent() {
+      return parent;
+    }
+  }
+
+  /**
+   * Wait for the result of a task loading or saving a part of the image.
+   */
+  static <T> T getResult(Future<T> f) throws IOException {
+    try {
+      return f.get();
+    } catch (InterruptedException e) {
+      throw (IOException) new InterruptedIOException(
+          "Interrupted while loading or saving the image").initCause(e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException("Failed to load or save the image", cause);
     }
   }
 
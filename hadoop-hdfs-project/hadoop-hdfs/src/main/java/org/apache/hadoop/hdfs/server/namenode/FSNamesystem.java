@@ -38,6 +38,10 @@
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOGGERS_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_ASYNC_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_ASYNC_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_QUEUE_BLOCKING_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_QUEUE_BLOCKING_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_QUEUE_SIZE_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_QUEUE_SIZE_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_TOKEN_TRACKING_ID_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_TOKEN_TRACKING_ID_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_CHECKPOINT_TXNS_DEFAULT;
@@ -105,6 +109,7 @@
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.PatternSyntaxException;
 
 import javax.management.NotCompliantMBeanException;
 import javax.management.ObjectName;
@@ -124,7 +129,9 @@
 import org.apache.hadoop.fs.FileAlreadyExistsException;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FsServerDefaults;
+import org.apache.hadoop.fs.GlobPattern;
 import org.apache.hadoop.fs.InvalidPathException;
+import org.apache.hadoop.fs.InvalidRequestException;
 import org.apache.hadoop.fs.Options;
 import org.apache.hadoop.fs.Options.Rename;
 import org.apache.hadoop.fs.ParentNotDirectoryException;
@@ -144,6 +151,7 @@
 import org.apache.hadoop.hdfs.HdfsConfiguration;
 import org.apache.hadoop.hdfs.StorageType;
 import org.apache.hadoop.hdfs.protocol.AlreadyBeingCreatedException;
+import org.apache.hadoop.hdfs.protocol.BatchedListingEntry;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
@@ -328,6 +336,18 @@ private void logAuditEvent(boolean succeeded, String cmd, String src,
   private void logAuditEvent(boolean succeeded,
       UserGroupInformation ugi, InetAddress addr, String cmd, String src,
       String dst, HdfsFileStatus stat) {
+    final boolean webHdfs = NamenodeWebHdfsMethods.isWebHdfsInvocation();
+    if (auditLogQueue != null) {
+      auditLogQueue.add(new AuditLogQueue.AuditEvent(succeeded, ugi, addr,
+          cmd, src, dst, stat, webHdfs));
+    } else {
+      logAuditEvent(succeeded, ugi, addr, cmd, src, dst, stat, webHdfs);
+    }
+  }
+
+  private void logAuditEvent(boolean succeeded,
+      UserGroupInformation ugi, InetAddress addr, String cmd, String src,
+      String dst, HdfsFileStatus stat, boolean webHdfs) {
     FileStatus status = null;
     if (stat != null) {
       Path symlink = stat.isSymlink() ? new Path(stat.getSymlink()) : null;
@@ -338,7 +358,10 @@ private void logAuditEvent(boolean succeeded,
           stat.getGroup(), symlink, path);
     }
     for (AuditLogger logger : auditLoggers) {
-      if (logger instanceof HdfsAuditLogger) {
+      if (logger instanceof DefaultAuditLogger) {
+        ((DefaultAuditLogger) logger).logAuditEvent(succeeded, ugi.toString(),
+            addr, cmd, src, dst, status, ugi, dtSecretManager, webHdfs);
+      } else if (logger instanceof HdfsAuditLogger) {
         HdfsAuditLogger hdfsLogger = (HdfsAuditLogger) logger;
         hdfsLogger.logAuditEvent(succeeded, ugi.toString(), addr, cmd, src, dst,
             status, ugi, dtSecretManager);
@@ -387,6 +410,8 @@ private void logAuditEvent(boolean succeeded,
   // underlying logger is disabled, and avoid some unnecessary work.
   private final boolean isDefaultAuditLogger;
   private final List<AuditLogger> auditLoggers;
+  /** Passes audit events to a background thread, or null to log them here */
+  private final AuditLogQueue auditLogQueue;
 
   /** The namespace tree. */
   FSDirectory dir;
@@ -774,6 +799,7 @@ static FSNamesystem loadFromDisk(Configuration conf) throws IOException {
       this.auditLoggers = initAuditLoggers(conf);
       this.isDefaultAuditLogger = auditLoggers.size() == 1 &&
         auditLoggers.get(0) instanceof DefaultAuditLogger;
+      this.auditLogQueue = initAuditLogQueue(conf);
       this.retryCache = ignoreRetryCache ? null : initRetryCache(conf);
       this.aclConfigFlag = new AclConfigFlag(conf);
     } catch(IOException e) {
@@ -873,6 +899,29 @@ private List<AuditLogger> initAuditLoggers(Configuration conf) {
     return Collections.unmodifiableList(auditLoggers);
   }
 
+  private AuditLogQueue initAuditLogQueue(Configuration conf) {
+    final int queueSize = conf.getInt(DFS_NAMENODE_AUDIT_LOG_QUEUE_SIZE_KEY,
+        DFS_NAMENODE_AUDIT_LOG_QUEUE_SIZE_DEFAULT);
+    if (queueSize <= 0) {
+      return null;
+    }
+    final boolean blocking = conf.getBoolean(
+        DFS_NAMENODE_AUDIT_LOG_QUEUE_BLOCKING_KEY,
+        DFS_NAMENODE_AUDIT_LOG_QUEUE_BLOCKING_DEFAULT);
+    LOG.info("Queueing up to " + queueSize + " audit events, "
+        + (blocking ? "blocking" : "dropping events") + " when full");
+    AuditLogQueue queue = new AuditLogQueue(queueSize, blocking,
+        new AuditLogQueue.Sink() {
+          @Override
+          public void log(AuditLogQueue.AuditEvent e) {
+            logAuditEvent(e.succeeded, e.ugi, e.addr, e.cmd, e.src, e.dst,
+                e.stat, e.webHdfs);
+          }
+        });
+    queue.start();
+    return queue;
+  }
+
   private void loadFSImage(StartupOption startOpt) throws IOException {
     final FSImage fsImage = getFSImage();
 
@@ -1006,6 +1055,8 @@ void startActiveServices() throws IOException {
         LOG.info("Catching up to latest edits from old active before " +
             "taking over writer role in edits logs");
         editLogTailer.catchupDuringFailover();
+        // the edits applied in standby state did not update the cache
+        dir.clearContentSummaryCache();
         
         blockManager.setPostponeBlocksFromFuture(false);
         blockManager.getDatanodeManager().markAllDatanodesStale();
@@ -1450,6 +1501,10 @@ void close() {
       } catch (IOException ie) {
         LOG.error("Error closing FSDirectory", ie);
         IOUtils.cleanup(LOG, dir);
+      } finally {
+        if (auditLogQueue != null) {
+          auditLogQueue.stop();
+        }
       }
     }
   }
@@ -3361,7 +3416,8 @@ private FSPermissionChecker getPermissionChecker()
    * <p>
    * For large directories, deletion is incremental. The blocks under
    * the directory are collected and deleted a small number at a time holding
-   * the {@link FSNamesystem} lock.
+   * the {@link FSNamesystem} lock. The inodes are then removed from the inode
+   * map a small number at a time holding the {@link FSDirectory} lock.
    * <p>
    * For small directory or file the deletion is done in one shot.
    * 
@@ -3397,15 +3453,11 @@ private boolean deleteInternal(String src, boolean recursive,
     } finally {
       writeUnlock();
     }
-    getEditLog().logSync(); 
+    // the deletion must be durable before any replica is deleted
+    getEditLog().logSyncNow();
     removeBlocks(collectedBlocks); // Incremental deletion of blocks
     collectedBlocks.clear();
-    dir.writeLock();
-    try {
-      dir.removeFromInodeMap(removedINodes);
-    } finally {
-      dir.writeUnlock();
-    }
+    removeINodes(removedINodes); // Incremental removal of inodes
     removedINodes.clear();
     if (NameNode.stateChangeLog.isDebugEnabled()) {
       NameNode.stateChangeLog.debug("DIR* Namesystem.delete: "
@@ -3438,6 +3490,32 @@ void removeBlocks(BlocksMapUpdateInfo blocks) {
     }
   }
   
+  /**
+   * From the given list, incrementally remove the inodes from the inode map.
+   * As in {@link #removeBlocks(BlocksMapUpdateInfo)}, the directory lock is
+   * dropped and reacquired every BLOCK_DELETION_INCREMENT inodes, so that
+   * removing a large subtree does not hold up the operations waiting for it.
+   *
+   * @param inodes the inodes of a subtree that was removed from the namespace
+   */
+  void removeINodes(List<INode> inodes) {
+    Iterator<INode> iter = inodes.iterator();
+    List<INode> batch = new ArrayList<INode>(
+        Math.min(inodes.size(), BLOCK_DELETION_INCREMENT));
+    while (iter.hasNext()) {
+      for (int i = 0; i < BLOCK_DELETION_INCREMENT && iter.hasNext(); i++) {
+        batch.add(iter.next());
+      }
+      dir.writeLock();
+      try {
+        dir.removeFromInodeMap(batch);
+      } finally {
+        dir.writeUnlock();
+      }
+      batch.clear();
+    }
+  }
+
   /**
    * Remove leases, inodes and blocks related to a given path
    * @param src The given path
@@ -4229,6 +4307,64 @@ private DirectoryListing getListingInt(String src, byte[] startAfter,
     return dl;
   }
 
+  /**
+   * Get a partial listing of the children of several directories, under a
+   * single acquisition of the read lock.
+   *
+   * @see ClientProtocol#getBatchedListing(String[], int, byte[], String,
+   *      boolean)
+   */
+  BatchedListEntries<BatchedListingEntry> getBatchedListing(String[] srcs,
+      int startIndex, byte[] startAfter, String pattern, boolean needLocation)
+      throws AccessControlException, UnresolvedLinkException, IOException {
+    if (startIndex < 0 || startIndex > srcs.length) {
+      throw new InvalidRequestException("Start index " + startIndex
+          + " is out of range");
+    }
+    // compiled once, and matched against the names only
+    final GlobPattern glob;
+    try {
+      glob = pattern == null ? null : new GlobPattern(pattern);
+    } catch (PatternSyntaxException e) {
+      throw new InvalidRequestException("Invalid glob pattern: "
+          + e.getMessage());
+    }
+    final List<BatchedListingEntry> listing =
+        new ArrayList<BatchedListingEntry>();
+    boolean hasMore = false;
+    FSPermissionChecker pc = getPermissionChecker();
+    checkOperation(OperationCategory.READ);
+    readLock();
+    try {
+      checkOperation(OperationCategory.READ);
+      int locationBudget = dir.getLsLimit();
+      for (int i = startIndex; i < srcs.length; i++) {
+        byte[][] pathComponents =
+            FSDirectory.getPathComponentsForReservedPath(srcs[i]);
+        String src = FSDirectory.resolvePath(srcs[i], pathComponents, dir);
+        if (isPermissionEnabled) {
+          try {
+            checkPathAccess(pc, src, FsAction.READ_EXECUTE);
+          } catch (AccessControlException e) {
+            logAuditEvent(false, "listStatus", src);
+            throw e;
+          }
+        }
+        logAuditEvent(true, "listStatus", src);
+        locationBudget = dir.getBatchedListing(src, i,
+            i == startIndex ? startAfter : HdfsFileStatus.EMPTY_NAME, glob,
+            needLocation, locationBudget, listing);
+        if (listing.size() >= dir.getLsLimit() || locationBudget <= 0) {
+          hasMore = true;
+          break;
+        }
+      }
+    } finally {
+      readUnlock();
+    }
+    return new BatchedListEntries<BatchedListingEntry>(listing, hasMore);
+  }
+
   /////////////////////////////////////////////////////////
   //
   // These methods are called by datanodes
@@ -4431,6 +4567,17 @@ public long getMissingBlocksCount() {
     return blockManager.getMissingBlocksCount();
   }
   
+  @Metric({"AuditLogQueueSize", "Number of audit events waiting to be logged"})
+  public int getAuditLogQueueSize() {
+    return auditLogQueue == null ? 0 : auditLogQueue.size();
+  }
+
+  @Metric({"AuditLogDroppedEvents",
+      "Number of audit events dropped because the audit log queue was full"})
+  public long getAuditLogDroppedEvents() {
+    return auditLogQueue == null ? 0 : auditLogQueue.getDroppedEvents();
+  }
+
   @Metric({"ExpiredHeartbeats", "Number of expired heartbeats"})
   public int getExpiredHeartbeats() {
     return datanodeStatistics.getExpiredHeartbeats();
@@ -7233,6 +7380,8 @@ void deleteSnapshot(String snapshotRoot, String snapshotName)
         snapshotManager.deleteSnapshot(snapshotRoot, snapshotName,
             collectedBlocks, removedINodes);
         dir.removeFromInodeMap(removedINodes);
+        // the snapshot data below the root is gone
+        dir.clearContentSummaryCache();
       } finally {
         dir.writeUnlock();
       }
@@ -7244,7 +7393,8 @@ void deleteSnapshot(String snapshotRoot, String snapshotName)
       writeUnlock();
       RetryCache.setState(cacheEntry, success);
     }
-    getEditLog().logSync();
+    // the deletion must be durable before any replica is deleted
+    getEditLog().logSyncNow();
 
     removeBlocks(collectedBlocks);
     collectedBlocks.clear();
@@ -7830,6 +7980,18 @@ public void logAuditEvent(boolean succeeded, String userName,
         InetAddress addr, String cmd, String src, String dst,
         FileStatus status, UserGroupInformation ugi,
         DelegationTokenSecretManager dtSecretManager) {
+      logAuditEvent(succeeded, userName, addr, cmd, src, dst, status, ugi,
+          dtSecretManager, NamenodeWebHdfsMethods.isWebHdfsInvocation());
+    }
+
+    /**
+     * @param webHdfs whether the operation came through WebHDFS, which is
+     *                looked up by the caller when logging from another thread
+     */
+    void logAuditEvent(boolean succeeded, String userName,
+        InetAddress addr, String cmd, String src, String dst,
+        FileStatus status, UserGroupInformation ugi,
+        DelegationTokenSecretManager dtSecretManager, boolean webHdfs) {
       if (auditLog.isInfoEnabled()) {
         final StringBuilder sb = auditBuffer.get();
         sb.setLength(0);
@@ -7864,7 +8026,7 @@ public void logAuditEvent(boolean succeeded, String userName,
           sb.append(trackingId);
         }
         sb.append("\t").append("proto=");
-        sb.append(NamenodeWebHdfsMethods.isWebHdfsInvocation() ? "webhdfs" : "rpc");
+        sb.append(webHdfs ? "webhdfs" : "rpc");
         logAuditMessage(sb.toString());
       }
     }
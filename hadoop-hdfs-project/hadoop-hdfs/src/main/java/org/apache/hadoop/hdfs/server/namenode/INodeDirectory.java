@@ -36,6 +36,7 @@
 import org.apache.hadoop.hdfs.server.namenode.snapshot.DirectoryWithSnapshotFeature.DirectoryDiffList;
 import org.apache.hadoop.hdfs.server.namenode.snapshot.INodeDirectorySnapshottable;
 import org.apache.hadoop.hdfs.server.namenode.snapshot.Snapshot;
+import org.apache.hadoop.hdfs.util.BTreeList;
 import org.apache.hadoop.hdfs.util.Diff.ListType;
 import org.apache.hadoop.hdfs.util.ReadOnlyList;
 
@@ -62,6 +63,13 @@ public static INodeDirectory valueOf(INode inode, Object path
   }
 
   protected static final int DEFAULT_FILES_PER_DIRECTORY = 5;
+  /**
+   * The number of children beyond which they are kept in a {@link BTreeList},
+   * so that adding or removing a child does not shift all the children after
+   * it. Below half of it, they are moved back to an ArrayList.
+   */
+  @VisibleForTesting
+  static final int CHILDREN_TREE_THRESHOLD = 8192;
   final static byte[] ROOT_NAME = DFSUtil.string2Bytes("");
 
   private List<INode> children = null;
@@ -452,6 +460,10 @@ public boolean removeChild(final INode child) {
 
     final INode removed = children.remove(i);
     Preconditions.checkState(removed == child);
+    if (children instanceof BTreeList
+        && children.size() < CHILDREN_TREE_THRESHOLD / 2) {
+      children = new ArrayList<INode>(children);
+    }
     return true;
   }
 
@@ -504,6 +516,9 @@ public boolean addChild(INode node) {
   private void addChild(final INode node, final int insertionPoint) {
     if (children == null) {
       children = new ArrayList<INode>(DEFAULT_FILES_PER_DIRECTORY);
+    } else if (children.size() >= CHILDREN_TREE_THRESHOLD
+        && !(children instanceof BTreeList)) {
+      children = new BTreeList<INode>(children);
     }
     node.setParent(this);
     children.add(-insertionPoint - 1, node);
@@ -565,9 +580,40 @@ public Quota.Counts computeQuotaUsage4CurrentDirectory(Quota.Counts counts) {
   @Override
   public ContentSummaryComputationContext computeContentSummary(
       ContentSummaryComputationContext summary) {
+    final ContentSummaryCache cache = summary.getCache();
+    if (cache == null) {
+      return computeContentSummaryUncached(summary);
+    }
+    final Content.Counts cached = cache.get(this);
+    if (cached != null) {
+      summary.getCounts().add(cached);
+      return summary;
+    }
+
+    final Content.Counts before = Content.Counts.newInstance();
+    before.add(summary.getCounts());
+    final long yieldCount = summary.getYieldCount();
+    final long invalidations = cache.getInvalidations();
+    final long uncacheableCount = summary.getUncacheableCount();
+    computeContentSummaryUncached(summary);
+    // Cache the counts only if nothing was modified while the locks were
+    // released, so that they are the counts of a single state of the subtree.
+    if (uncacheableCount == summary.getUncacheableCount()
+        && (yieldCount == summary.getYieldCount()
+            || invalidations == cache.getInvalidations())) {
+      final Content.Counts counts = Content.Counts.newInstance();
+      counts.add(summary.getCounts());
+      counts.subtract(before);
+      cache.put(this, counts);
+    }
+    return summary;
+  }
+
+  private ContentSummaryComputationContext computeContentSummaryUncached(
+      ContentSummaryComputationContext summary) {
     final DirectoryWithSnapshotFeature sf = getDirectoryWithSnapshotFeature();
     if (sf != null) {
-      sf.computeContentSummary4Snapshot(summary.getCounts());
+      sf.computeContentSummary4Snapshot(summary);
     }
     final DirectoryWithQuotaFeature q = getDirectoryWithQuotaFeature();
     if (q != null) {
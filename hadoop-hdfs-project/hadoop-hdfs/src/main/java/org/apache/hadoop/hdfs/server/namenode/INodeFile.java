@@ -512,6 +512,10 @@ public final ContentSummaryComputationContext computeContentSummary(
       final ContentSummaryComputationContext summary) {
     computeContentSummary4Snapshot(summary.getCounts());
     computeContentSummary4Current(summary.getCounts());
+    if (isUnderConstruction()) {
+      // the length changes as the file is written
+      summary.markUncacheable();
+    }
     return summary;
   }
 
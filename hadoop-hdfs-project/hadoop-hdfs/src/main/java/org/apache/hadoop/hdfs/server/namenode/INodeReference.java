@@ -480,6 +480,8 @@ public final ContentSummaryComputationContext computeContentSummary(
       final Quota.Counts q = Quota.Counts.newInstance();
       computeQuotaUsage(q, false, lastSnapshotId);
       summary.getCounts().add(Content.DISKSPACE, q.get(Quota.DISKSPACE));
+      // the referred inode is modified through its new path
+      summary.markUncacheable();
       return summary;
     }
 
@@ -146,10 +146,13 @@ void initialized() {
     transientMap = null;
   }
   
-  /** Promote a frequently used name to the cache */
+  /**
+   * Promote a frequently used name to the cache. The first value seen for
+   * the name is kept, since it is the one already shared by the earlier uses.
+   */
   private void promote(final K name) {
-    transientMap.remove(name);
-    cache.put(name, name);
+    final K value = transientMap.remove(name).value;
+    cache.put(value, value);
     lookups += useThreshold;
   }
 
@@ -65,6 +65,7 @@
 import org.apache.hadoop.hdfs.protocol.AclException;
 import org.apache.hadoop.hdfs.protocol.AlreadyBeingCreatedException;
 import org.apache.hadoop.hdfs.protocol.BlockListAsLongs;
+import org.apache.hadoop.hdfs.protocol.BatchedListingEntry;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
 import org.apache.hadoop.hdfs.protocol.CachePoolEntry;
@@ -113,6 +114,7 @@
 import org.apache.hadoop.hdfs.server.protocol.DatanodeCommand;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeProtocol;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeRegistration;
+import org.apache.hadoop.hdfs.server.protocol.DatanodeStorage;
 import org.apache.hadoop.hdfs.server.protocol.FinalizeCommand;
 import org.apache.hadoop.hdfs.server.protocol.HeartbeatResponse;
 import org.apache.hadoop.hdfs.server.protocol.NamenodeCommand;
@@ -786,6 +788,17 @@ public DirectoryListing getListing(String src, byte[] startAfter,
     return files;
   }
 
+  @Override // ClientProtocol
+  public BatchedEntries<BatchedListingEntry> getBatchedListing(String[] srcs,
+      int startIndex, byte[] startAfter, String pattern, boolean needLocation)
+      throws IOException {
+    BatchedEntries<BatchedListingEntry> entries = namesystem.getBatchedListing(
+        srcs, startIndex, startAfter, pattern, needLocation);
+    metrics.incrGetListingOps();
+    metrics.incrFilesInGetListingOps(entries.size());
+    return entries;
+  }
+
   @Override // ClientProtocol
   public HdfsFileStatus getFileInfo(String src)  throws IOException {
     metrics.incrFileInfoOps();
@@ -1027,10 +1040,15 @@ public DatanodeCommand blockReport(DatanodeRegistration nodeReg,
            + "from " + nodeReg + ", reports.length=" + reports.length);
     }
     final BlockManager bm = namesystem.getBlockManager(); 
-    boolean noStaleStorages = false;
-    for(StorageBlockReport r : reports) {
-      final BlockListAsLongs blocks = new BlockListAsLongs(r.getBlocks());
-      noStaleStorages = bm.processReport(nodeReg, r.getStorage(), poolId, blocks);
+    final DatanodeStorage[] storages = new DatanodeStorage[reports.length];
+    final BlockListAsLongs[] blocks = new BlockListAsLongs[reports.length];
+    for (int i = 0; i < reports.length; i++) {
+      storages[i] = reports[i].getStorage();
+      blocks[i] = new BlockListAsLongs(reports[i].getBlocks());
+    }
+    boolean noStaleStorages =
+        bm.processReports(nodeReg, storages, poolId, blocks);
+    for (int i = 0; i < reports.length; i++) {
       metrics.incrStorageBlockReportOps();
     }
 
@@ -694,19 +694,24 @@ public Quota.Counts computeQuotaUsage4CurrentDirectory(Quota.Counts counts) {
     return counts;
   }
   
-  public void computeContentSummary4Snapshot(final Content.Counts counts) {
+  public void computeContentSummary4Snapshot(
+      final ContentSummaryComputationContext summary) {
     // Create a new blank summary context for blocking processing of subtree.
-    ContentSummaryComputationContext summary = 
+    ContentSummaryComputationContext deletedSummary = 
         new ContentSummaryComputationContext();
     for(DirectoryDiff d : diffs) {
       for(INode deleted : d.getChildrenDiff().getList(ListType.DELETED)) {
-        deleted.computeContentSummary(summary);
+        deleted.computeContentSummary(deletedSummary);
       }
     }
+    final Content.Counts counts = summary.getCounts();
     // Add the counts from deleted trees.
-    counts.add(summary.getCounts());
+    counts.add(deletedSummary.getCounts());
     // Add the deleted directory count.
     counts.add(Content.DIRECTORY, diffs.asList().size());
+    if (deletedSummary.getUncacheableCount() > 0) {
+      summary.markUncacheable();
+    }
   }
   
   /**
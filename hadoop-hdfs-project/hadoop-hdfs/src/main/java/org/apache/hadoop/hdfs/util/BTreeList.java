@@ -0,0 +1,354 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.util;
+
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+/**
+ * A list stored as a B-tree whose nodes count the elements below them, so
+ * that an element is found, inserted or removed by its index in O(log n).
+ * Unlike an ArrayList, inserting or removing an element in the middle of a
+ * large list does not shift all the elements after it.
+ * <p>
+ * Access by index is slower than with an ArrayList, so this is only worth
+ * using for large lists which are modified in the middle. Iteration walks
+ * the leaves in order. The iterator does not support removal and is not
+ * fail-fast.
+ * <p>
+ * This class is not thread-safe.
+ */
+@InterfaceAudience.Private
+public class BTreeList<E> extends AbstractList<E> implements RandomAccess {
+  static final int DEFAULT_NODE_CAPACITY = 64;
+
+  /**
+   * A node of the tree. The slots of a leaf are elements, and the slots of an
+   * inner node are its children.
+   */
+  private static final class Node {
+    final boolean leaf;
+    final Object[] slots;
+    /** The number of slots in use */
+    int count;
+    /** The number of elements in the subtree */
+    int size;
+
+    Node(boolean leaf, int capacity) {
+      this.leaf = leaf;
+      this.slots = new Object[capacity];
+    }
+
+    Node child(int i) {
+      return (Node) slots[i];
+    }
+
+    void insert(int i, Object slot) {
+      System.arraycopy(slots, i, slots, i + 1, count - i);
+      slots[i] = slot;
+      count++;
+    }
+
+    Object remove(int i) {
+      Object slot = slots[i];
+      System.arraycopy(slots, i + 1, slots, i, count - i - 1);
+      slots[--count] = null;
+      return slot;
+    }
+
+    /** Recompute the size of the subtree from the slots. */
+    void updateSize() {
+      if (leaf) {
+        size = count;
+      } else {
+        size = 0;
+        for (int i = 0; i < count; i++) {
+          size += child(i).size;
+        }
+      }
+    }
+  }
+
+  private final int nodeCapacity;
+  private final int minCount;
+  private Node root;
+
+  public BTreeList() {
+    this(DEFAULT_NODE_CAPACITY);
+  }
+
+  @VisibleForTesting
+  BTreeList(int nodeCapacity) {
+    Preconditions.checkArgument(nodeCapacity >= 4,
+        "Node capacity %s is less than 4", nodeCapacity);
+    this.nodeCapacity = nodeCapacity;
+    this.minCount = Math.max(2, nodeCapacity / 4);
+    this.root = new Node(true, nodeCapacity);
+  }
+
+  public BTreeList(Collection<? extends E> c) {
+    this();
+    for (E e : c) {
+      add(e);
+    }
+  }
+
+  @Override
+  public int size() {
+    return root.size;
+  }
+
+  @Override
+  public void clear() {
+    root = new Node(true, nodeCapacity);
+    modCount++;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public E get(int index) {
+    checkIndex(index, size());
+    Node node = root;
+    while (!node.leaf) {
+      int i = 0;
+      for (; index >= node.child(i).size; i++) {
+        index -= node.child(i).size;
+      }
+      node = node.child(i);
+    }
+    return (E) node.slots[index];
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public E set(int index, E element) {
+    checkIndex(index, size());
+    Node node = root;
+    while (!node.leaf) {
+      int i = 0;
+      for (; index >= node.child(i).size; i++) {
+        index -= node.child(i).size;
+      }
+      node = node.child(i);
+    }
+    E old = (E) node.slots[index];
+    node.slots[index] = element;
+    return old;
+  }
+
+  @Override
+  public void add(int index, E element) {
+    checkIndex(index, size() + 1);
+    Node right = insert(root, index, element);
+    if (right != null) {
+      Node left = root;
+      root = new Node(false, nodeCapacity);
+      root.insert(0, left);
+      root.insert(1, right);
+      root.size = left.size + right.size;
+    }
+    modCount++;
+  }
+
+  /**
+   * Insert an element into a subtree.
+   *
+   * @return the new right sibling of the node if it was split, or null
+   */
+  private Node insert(Node node, int index, Object element) {
+    Node right = null;
+    if (node.count == nodeCapacity) {
+      right = split(node);
+      if (index > node.size) {
+        index -= node.size;
+        insert(right, index, element);
+        return right;
+      }
+    }
+    if (node.leaf) {
+      node.insert(index, element);
+    } else {
+      int i = 0;
+      // append to the last child rather than starting a new one
+      for (; i < node.count - 1 && index > node.child(i).size; i++) {
+        index -= node.child(i).size;
+      }
+      Node newChild = insert(node.child(i), index, element);
+      if (newChild != null) {
+        node.insert(i + 1, newChild);
+      }
+    }
+    node.size++;
+    return right;
+  }
+
+  /**
+   * Move the upper half of the slots of a full node to a new right sibling.
+   */
+  private Node split(Node node) {
+    Node right = new Node(node.leaf, nodeCapacity);
+    int half = node.count / 2;
+    right.count = node.count - half;
+    System.arraycopy(node.slots, half, right.slots, 0, right.count);
+    for (int i = half; i < node.count; i++) {
+      node.slots[i] = null;
+    }
+    node.count = half;
+    node.updateSize();
+    right.updateSize();
+    return right;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public E remove(int index) {
+    checkIndex(index, size());
+    E removed = (E) delete(root, index);
+    while (!root.leaf && root.count == 1) {
+      root = root.child(0);
+    }
+    modCount++;
+    return removed;
+  }
+
+  /**
+   * Remove an element from a subtree. Children left less than a quarter full,
+   * or with a single slot, are merged with, or refilled from, a sibling.
+   */
+  private Object delete(Node node, int index) {
+    node.size--;
+    if (node.leaf) {
+      return node.remove(index);
+    }
+    int i = 0;
+    for (; index >= node.child(i).size; i++) {
+      index -= node.child(i).size;
+    }
+    Object removed = delete(node.child(i), index);
+    if (node.child(i).count < minCount && node.count > 1) {
+      rebalance(node, i == 0 ? 0 : i - 1);
+    }
+    return removed;
+  }
+
+  /**
+   * Merge the children i and i + 1 of a node, or spread their slots evenly
+   * if they do not fit into one.
+   */
+  private void rebalance(Node node, int i) {
+    Node left = node.child(i);
+    Node right = node.child(i + 1);
+    int total = left.count + right.count;
+    if (total <= nodeCapacity * 3 / 4) {
+      System.arraycopy(right.slots, 0, left.slots, left.count, right.count);
+      left.count = total;
+      left.size += right.size;
+      node.remove(i + 1);
+      return;
+    }
+    int half = total / 2;
+    if (left.count < half) {
+      int n = half - left.count;
+      System.arraycopy(right.slots, 0, left.slots, left.count, n);
+      System.arraycopy(right.slots, n, right.slots, 0, right.count - n);
+      for (int j = right.count - n; j < right.count; j++) {
+        right.slots[j] = null;
+      }
+      left.count += n;
+      right.count -= n;
+    } else {
+      int n = left.count - half;
+      System.arraycopy(right.slots, 0, right.slots, n, right.count);
+      System.arraycopy(left.slots, half, right.slots, 0, n);
+      for (int j = half; j < left.count; j++) {
+        left.slots[j] = null;
+      }
+      left.count -= n;
+      right.count += n;
+    }
+    left.updateSize();
+    right.updateSize();
+  }
+
+  @Override
+  public Iterator<E> iterator() {
+    return new Iterator<E>() {
+      private int next = 0;
+      private Node leaf = null;
+      private int slot = 0;
+
+      @Override
+      public boolean hasNext() {
+        return next < size();
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      public E next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        if (leaf == null || slot == leaf.count) {
+          // find the leaf of the next element
+          int index = next;
+          leaf = root;
+          while (!leaf.leaf) {
+            int i = 0;
+            for (; index >= leaf.child(i).size; i++) {
+              index -= leaf.child(i).size;
+            }
+            leaf = leaf.child(i);
+          }
+          slot = index;
+        }
+        next++;
+        return (E) leaf.slots[slot++];
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException("Not supported");
+      }
+    };
+  }
+
+  private static void checkIndex(int index, int bound) {
+    if (index < 0 || index >= bound) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+          + (bound));
+    }
+  }
+
+  /** @return the height of the tree */
+  @VisibleForTesting
+  int getHeight() {
+    int height = 1;
+    for (Node node = root; !node.leaf; node = node.child(0)) {
+      height++;
+    }
+    return height;
+  }
+}
@@ -1204,4 +1204,45 @@ public void testGlobRootOnFS() throws Exception {
   public void testGlobRootOnFC() throws Exception {
     testOnFileContext(new TestGlobRoot());
   }
+
+  @Test
+  public void testParallelGlob() throws Exception {
+    Configuration conf = new Configuration(fs.getConf());
+    conf.setInt(CommonConfigurationKeys.FS_GLOB_THREADS_KEY, 4);
+    FileSystem parallelFs = FileSystem.newInstance(fs.getUri(), conf);
+    try {
+      for (int d = 0; d < 5; d++) {
+        for (int h = 0; h < 4; h++) {
+          Path hour = new Path(USER_DIR,
+              "d" + d + "/2014-0" + h + "/hour=" + h);
+          fs.mkdirs(hour);
+          fs.create(new Path(hour, "part-0")).close();
+          fs.create(new Path(hour, "_SUCCESS")).close();
+        }
+        fs.mkdirs(new Path(USER_DIR, "d" + d + "/tmp"));
+      }
+      Path pattern = new Path(USER_DIR + "/d*/2014-*/hour=*/part-*");
+      FileStatus[] expected = fs.globStatus(pattern);
+      assertEquals(20, expected.length);
+      assertArrayEquals(FileUtil.stat2Paths(expected),
+          FileUtil.stat2Paths(parallelFs.globStatus(pattern)));
+
+      RemoteIterator<FileStatus> iter =
+          parallelFs.globStatusIterator(pattern, new AcceptAllPathFilter());
+      for (FileStatus status : expected) {
+        assertTrue(iter.hasNext());
+        assertEquals(status.getPath(), iter.next().getPath());
+      }
+      assertFalse(iter.hasNext());
+
+      // a literal pattern that does not exist
+      assertNull(parallelFs.globStatus(new Path(USER_DIR, "d0/nonexistent")));
+      assertFalse(parallelFs.globStatusIterator(
+          new Path(USER_DIR, "d0/nonexistent"),
+          new AcceptAllPathFilter()).hasNext());
+    } finally {
+      parallelFs.close();
+      cleanupDFS();
+    }
+  }
 }
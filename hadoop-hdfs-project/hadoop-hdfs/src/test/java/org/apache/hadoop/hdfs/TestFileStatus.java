@@ -24,6 +24,9 @@
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.TimeoutException;
 
 import org.apache.commons.logging.LogFactory;
@@ -33,7 +36,11 @@
 import org.apache.hadoop.fs.FileContext;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.InvalidRequestException;
+import org.apache.hadoop.fs.LocatedFileStatus;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.fs.PathIsNotDirectoryException;
 import org.apache.hadoop.fs.RemoteIterator;
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
@@ -288,4 +295,91 @@ public void testGetFileStatusOnDir() throws Exception {
 
     fs.delete(dir, true);
   }
+
+  private static List<String> batchedListStatus(List<Path> dirs,
+      String pattern, PathFilter filter, boolean needLocation)
+      throws IOException {
+    List<String> names = new ArrayList<String>();
+    RemoteIterator<FileStatus> itor = ((DistributedFileSystem) fs)
+        .batchedListStatusIterator(dirs, pattern, filter, needLocation);
+    while (itor.hasNext()) {
+      FileStatus stat = itor.next();
+      assertEquals(needLocation, stat instanceof LocatedFileStatus);
+      // the path is relative to the directory listed
+      names.add(stat.getPath().getParent().getName() + "/"
+          + stat.getPath().getName());
+    }
+    return names;
+  }
+
+  /** Test listing several directories in batches */
+  @Test
+  public void testBatchedListStatus() throws Exception {
+    Path dir = new Path("/test/batched");
+    Path a = new Path(dir, "a");
+    Path b = new Path(dir, "b");
+    Path c = new Path(dir, "c");
+    for (String name : new String[] {"a/1.txt", "a/2.dat", "a/3.txt",
+        "c/4.txt", "c/5.dat"}) {
+      DFSTestUtil.createFile(fs, new Path(dir, name), blockSize/4,
+          blockSize/4, blockSize, (short) 1, seed);
+    }
+    assertTrue(fs.mkdirs(new Path(a, "sub")));
+    assertTrue(fs.mkdirs(b));
+    List<Path> dirs = Arrays.asList(a, b, c);
+
+    // the listing limit is 2, so this takes several calls
+    int readOps = DFSTestUtil.getStatistics(fs).getReadOps();
+    assertEquals(Arrays.asList("a/1.txt", "a/2.dat", "a/3.txt", "a/sub",
+        "c/4.txt", "c/5.dat"), batchedListStatus(dirs, null, null, false));
+    assertEquals(readOps + 4, DFSTestUtil.getStatistics(fs).getReadOps());
+    assertEquals(Arrays.asList("a/1.txt", "a/2.dat", "a/3.txt", "a/sub",
+        "c/4.txt", "c/5.dat"), batchedListStatus(dirs, null, null, true));
+
+    // the pattern is matched by the namenode, and the filter by the client
+    assertEquals(Arrays.asList("a/1.txt", "a/3.txt", "c/4.txt"),
+        batchedListStatus(dirs, "*.txt", null, true));
+    PathFilter notThree = new PathFilter() {
+      @Override
+      public boolean accept(Path path) {
+        return !path.getName().startsWith("3");
+      }
+    };
+    assertEquals(Arrays.asList("a/1.txt", "c/4.txt"),
+        batchedListStatus(dirs, "*.txt", notThree, false));
+    assertEquals(Arrays.asList("c/5.dat"), batchedListStatus(
+        Arrays.asList(b, c), "*.{dat,jpg}", null, false));
+
+    try {
+      batchedListStatus(Arrays.asList(a, new Path(dir, "none")), null, null,
+          false);
+      fail("Listed a directory which does not exist");
+    } catch (FileNotFoundException e) {
+      // expected
+    }
+    try {
+      batchedListStatus(Arrays.asList(new Path(a, "1.txt")), null, null,
+          false);
+      fail("Listed a file");
+    } catch (PathIsNotDirectoryException e) {
+      // expected
+    }
+    try {
+      batchedListStatus(dirs, "[a", null, false);
+      fail("Listed with an invalid pattern");
+    } catch (InvalidRequestException e) {
+      // expected
+    }
+    try {
+      ((DistributedFileSystem) fs).getClient().getNamenode()
+          .getBatchedListing(new String[] {"/"}, 2, HdfsFileStatus.EMPTY_NAME,
+              null, false);
+      fail("Listed from an index out of range");
+    } catch (RemoteException e) {
+      assertEquals(InvalidRequestException.class.getName(),
+          e.getClassName());
+    }
+
+    fs.delete(dir, true);
+  }
 }
@@ -42,6 +42,32 @@ public class TestBlockInfo {
   private static final Log LOG = LogFactory
       .getLog("org.apache.hadoop.hdfs.TestBlockInfo");
 
+  @Test
+  public void testTrimCapacity() {
+    BlockInfo blockInfo = new BlockInfo(new Block(1, 0,
+        GenerationStamp.LAST_RESERVED_STAMP), 3);
+    DatanodeStorageInfo[] storages = new DatanodeStorageInfo[5];
+    for (int i = 0; i < storages.length; i++) {
+      storages[i] = DFSTestUtil.createDatanodeStorageInfo("s" + i,
+          "1.1.1." + i);
+      storages[i].addBlock(blockInfo);
+    }
+    assertEquals(5, blockInfo.getCapacity());
+
+    // the storages the block is on are kept
+    storages[4].removeBlock(blockInfo);
+    blockInfo.trimCapacity(3);
+    assertEquals(4, blockInfo.getCapacity());
+
+    storages[3].removeBlock(blockInfo);
+    blockInfo.trimCapacity(3);
+    assertEquals(3, blockInfo.getCapacity());
+    assertEquals(3, blockInfo.numNodes());
+    for (int i = 0; i < 3; i++) {
+      assertEquals(i, blockInfo.findStorageInfo(storages[i]));
+    }
+  }
+
   @Test
   public void testBlockListMoveToHead() throws Exception {
     LOG.info("BlockInfo moveToHead tests...");
@@ -105,10 +105,17 @@ public abstract class BlockReportTestBase {
   @Before
   public void startUpCluster() throws IOException {
     REPL_FACTOR = 1; //Reset if case a test has modified the value
+    configure(conf);
     cluster = new MiniDFSCluster.Builder(conf).numDataNodes(REPL_FACTOR).build();
     fs = cluster.getFileSystem();
   }
 
+  /**
+   * Change the configuration of the cluster started for each test.
+   */
+  protected void configure(Configuration conf) {
+  }
+
   @After
   public void shutDownCluster() throws IOException {
     fs.close();
@@ -19,6 +19,7 @@
 package org.apache.hadoop.hdfs.server.namenode;
 
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOGGERS_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_QUEUE_SIZE_KEY;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -28,6 +29,8 @@
 import java.net.InetAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
@@ -85,6 +88,131 @@ public void testAuditLogger() throws IOException {
     }
   }
 
+  /**
+   * Tests that queued audit events are passed to the audit loggers.
+   */
+  @Test
+  public void testQueuedAuditLogger() throws IOException {
+    Configuration conf = new HdfsConfiguration();
+    conf.set(DFS_NAMENODE_AUDIT_LOGGERS_KEY,
+        DummyAuditLogger.class.getName());
+    conf.setInt(DFS_NAMENODE_AUDIT_LOG_QUEUE_SIZE_KEY, 16);
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).build();
+
+    try {
+      cluster.waitClusterUp();
+      DummyAuditLogger.resetLogCount();
+
+      FileSystem fs = cluster.getFileSystem();
+      long time = System.currentTimeMillis();
+      fs.setTimes(new Path("/"), time, time);
+      fs.setPermission(new Path("/"), new FsPermission(TEST_PERMISSION));
+      assertEquals(0, cluster.getNamesystem().getAuditLogDroppedEvents());
+    } finally {
+      // stopping the queue logs the events left in it
+      cluster.shutdown();
+    }
+    assertEquals(2, DummyAuditLogger.logCount);
+    assertEquals(TEST_PERMISSION, DummyAuditLogger.foundPermission);
+  }
+
+  /**
+   * Tests that events which do not fit in a full, non-blocking queue are
+   * dropped and counted.
+   */
+  @Test(timeout=60000)
+  public void testAuditLogQueueDropsWhenFull() throws Exception {
+    final CountDownLatch logging = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger logged = new AtomicInteger();
+    AuditLogQueue queue = new AuditLogQueue(2, false, new AuditLogQueue.Sink() {
+      @Override
+      public void log(AuditLogQueue.AuditEvent event) {
+        logging.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        logged.incrementAndGet();
+      }
+    });
+    queue.start();
+    // the first event holds up the thread, and the next two fill the queue
+    queue.add(newEvent());
+    logging.await();
+    queue.add(newEvent());
+    queue.add(newEvent());
+    assertEquals(2, queue.size());
+    queue.add(newEvent());
+    assertEquals(1, queue.getDroppedEvents());
+
+    release.countDown();
+    queue.stop();
+    assertEquals(0, queue.size());
+    assertEquals(3, logged.get());
+  }
+
+  /**
+   * Tests that handlers waiting for room in a full, blocking queue do not
+   * hang or lose their events when the queue stops.
+   */
+  @Test(timeout=60000)
+  public void testAuditLogQueueStopsWhenFull() throws Exception {
+    final CountDownLatch logging = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger logged = new AtomicInteger();
+    final AuditLogQueue queue = new AuditLogQueue(1, true,
+        new AuditLogQueue.Sink() {
+      @Override
+      public void log(AuditLogQueue.AuditEvent event) {
+        logging.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        logged.incrementAndGet();
+      }
+    });
+    queue.start();
+    queue.add(newEvent());
+    logging.await();
+    queue.add(newEvent());
+    Thread[] handlers = new Thread[3];
+    for (int i = 0; i < handlers.length; i++) {
+      handlers[i] = new Thread() {
+        @Override
+        public void run() {
+          queue.add(newEvent());
+        }
+      };
+      handlers[i].start();
+    }
+
+    Thread stopper = new Thread() {
+      @Override
+      public void run() {
+        queue.stop();
+      }
+    };
+    stopper.start();
+    release.countDown();
+    stopper.join();
+    for (Thread handler : handlers) {
+      handler.join();
+    }
+    queue.add(newEvent());
+    assertEquals(0, queue.size());
+    assertEquals(0, queue.getDroppedEvents());
+    assertEquals(6, logged.get());
+  }
+
+  private static AuditLogQueue.AuditEvent newEvent() {
+    return new AuditLogQueue.AuditEvent(true, null, null, "getfileinfo", "/",
+        null, null, false);
+  }
+
   @Test
   public void testWebHdfsAuditLogger() throws IOException, URISyntaxException {
     Configuration conf = new HdfsConfiguration();
@@ -0,0 +1,200 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.ContentSummary;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test that getContentSummary returns the same counts with the content
+ * summary cache as without it, as the namespace is modified.
+ */
+public class TestContentSummaryCache {
+  private static final short REPLICATION = 1;
+  private static final long FILE_LEN = 1024;
+  private static final long SEED = 0;
+
+  private final Path dir = new Path("/" + getClass().getSimpleName());
+  private final Path sub1 = new Path(dir, "sub1");
+  private final Path sub2 = new Path(dir, "sub2");
+
+  private MiniDFSCluster cluster;
+  private FSDirectory fsdir;
+  private ContentSummaryCache cache;
+  private DistributedFileSystem hdfs;
+
+  @Before
+  public void setUp() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setLong(DFSConfigKeys.DFS_CONTENT_SUMMARY_CACHE_MIN_ENTRIES_KEY, 1);
+    // relinquish the locks during the computation as well
+    conf.setInt(DFSConfigKeys.DFS_CONTENT_SUMMARY_LIMIT_KEY, 2);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(REPLICATION)
+        .build();
+    cluster.waitActive();
+    fsdir = cluster.getNamesystem().getFSDirectory();
+    cache = fsdir.getContentSummaryCache();
+    hdfs = cluster.getFileSystem();
+
+    for (Path sub : new Path[] {sub1, sub2}) {
+      for (int i = 0; i < 3; i++) {
+        DFSTestUtil.createFile(hdfs, new Path(sub, "file" + i), FILE_LEN,
+            REPLICATION, SEED);
+      }
+    }
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  /**
+   * Check the summary of a path against one computed without the cache.
+   */
+  private void checkContentSummary(Path path) throws Exception {
+    ContentSummary cached = hdfs.getContentSummary(path);
+    ContentSummary expected =
+        fsdir.getINode(path.toString()).computeContentSummary();
+    assertEquals(expected.toString(), cached.toString());
+    // the second call is served from the cache
+    assertEquals(expected.toString(),
+        hdfs.getContentSummary(path).toString());
+  }
+
+  private Content.Counts getCached(Path path) throws Exception {
+    return cache.get(fsdir.getINode(path.toString()).asDirectory());
+  }
+
+  @Test
+  public void testCacheIsInvalidated() throws Exception {
+    assertNotNull(cache);
+    checkContentSummary(dir);
+    assertNotNull(getCached(dir));
+    assertNotNull(getCached(sub1));
+    assertNotNull(getCached(sub2));
+
+    // create a file: only its ancestors are invalidated
+    DFSTestUtil.createFile(hdfs, new Path(sub1, "new"), FILE_LEN,
+        REPLICATION, SEED);
+    assertNull(getCached(dir));
+    assertNull(getCached(sub1));
+    assertNotNull(getCached(sub2));
+    checkContentSummary(dir);
+
+    // delete, rename and set replication
+    hdfs.delete(new Path(sub1, "file0"), false);
+    checkContentSummary(dir);
+    hdfs.rename(new Path(sub2, "file1"), new Path(sub1, "file1-moved"));
+    checkContentSummary(dir);
+    checkContentSummary(sub1);
+    hdfs.rename(sub2, new Path(sub1, "sub2"));
+    checkContentSummary(dir);
+    hdfs.setReplication(new Path(sub1, "file2"), (short) 2);
+    checkContentSummary(dir);
+    hdfs.setQuota(sub1, 100, 1L << 30);
+    checkContentSummary(sub1);
+    checkContentSummary(dir);
+
+    // deleted files are removed from the cache
+    hdfs.delete(sub1, true);
+    checkContentSummary(dir);
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void testFileUnderConstructionIsNotCached() throws Exception {
+    FSDataOutputStream out = hdfs.create(new Path(sub1, "open"), REPLICATION);
+    try {
+      out.write(new byte[(int) FILE_LEN]);
+      out.hflush();
+      checkContentSummary(dir);
+      assertNull(getCached(dir));
+      assertNull(getCached(sub1));
+      assertNotNull(getCached(sub2));
+    } finally {
+      out.close();
+    }
+    checkContentSummary(dir);
+    assertNotNull(getCached(dir));
+
+    // append reopens the file, which invalidates its ancestors
+    out = hdfs.append(new Path(sub1, "file0"));
+    try {
+      out.write(new byte[(int) FILE_LEN]);
+    } finally {
+      out.close();
+    }
+    checkContentSummary(dir);
+  }
+
+  @Test
+  public void testSnapshots() throws Exception {
+    hdfs.allowSnapshot(dir);
+    hdfs.createSnapshot(dir, "s0");
+    checkContentSummary(dir);
+
+    // the deleted file stays in the snapshot
+    hdfs.delete(new Path(sub1, "file0"), false);
+    checkContentSummary(dir);
+    hdfs.createSnapshot(dir, "s1");
+    checkContentSummary(dir);
+    hdfs.delete(sub2, true);
+    checkContentSummary(dir);
+    checkContentSummary(sub1);
+
+    // deleting a snapshot clears the cache
+    hdfs.deleteSnapshot(dir, "s0");
+    assertEquals(0, cache.size());
+    checkContentSummary(dir);
+    checkContentSummary(sub1);
+
+    // the root of a snapshot has the id of the directory, but other counts
+    DFSTestUtil.createFile(hdfs, new Path(sub1, "new"), FILE_LEN,
+        REPLICATION, SEED);
+    Path snapshotPath = new Path(dir, ".snapshot/s1");
+    checkContentSummary(snapshotPath);
+    assertNull(getCached(dir));
+    checkContentSummary(dir);
+    assertNotNull(getCached(dir));
+    checkContentSummary(snapshotPath);
+    assertFalse(hdfs.getContentSummary(snapshotPath).getLength()
+        == hdfs.getContentSummary(dir).getLength());
+
+    // a file renamed out of a snapshot is counted through a reference
+    hdfs.rename(new Path(sub1, "file1"), new Path("/file1"));
+    checkContentSummary(dir);
+    assertNull(getCached(dir));
+  }
+}
@@ -45,6 +45,10 @@
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -60,11 +64,15 @@
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.fs.permission.PermissionStatus;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
 import org.apache.hadoop.hdfs.HdfsConfiguration;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
 import org.apache.hadoop.hdfs.server.blockmanagement.BlockInfo;
+import org.apache.hadoop.hdfs.server.blockmanagement.BlockManager;
 import org.apache.hadoop.hdfs.server.common.Storage.StorageDirectory;
 import org.apache.hadoop.hdfs.server.namenode.NNStorage.NameNodeDirType;
 import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
@@ -72,6 +80,7 @@
 import org.apache.hadoop.hdfs.util.XMLUtils.InvalidXmlException;
 import org.apache.hadoop.hdfs.util.XMLUtils.Stanza;
 import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.ipc.Server;
 import org.apache.hadoop.test.GenericTestUtils;
 import org.apache.hadoop.test.PathUtils;
 import org.apache.hadoop.util.StringUtils;
@@ -79,6 +88,9 @@
 import org.apache.log4j.Level;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.mockito.internal.util.reflection.Whitebox;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.SAXException;
 
@@ -517,6 +529,170 @@ public void testSyncBatching() throws Exception {
     }
   }
   
+  /**
+   * Test that with asynchronous edit logging, concurrent calls through a
+   * single handler all complete, and their edits survive a restart.
+   */
+  @Test
+  public void testAsyncLogging() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING, true);
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_HANDLER_COUNT_KEY, 1);
+    MiniDFSCluster cluster = null;
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(0).build();
+      cluster.waitActive();
+      final FileSystem fs = cluster.getFileSystem();
+      List<Future<Void>> futures = new ArrayList<Future<Void>>();
+      for (int i = 0; i < 4; i++) {
+        final int thread = i;
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            for (int j = 0; j < 25; j++) {
+              assertTrue(fs.mkdirs(new Path("/async/" + thread + "/" + j)));
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+      FSEditLog editLog = cluster.getNamesystem().getEditLog();
+      assertEquals(editLog.getLastWrittenTxId(), editLog.getSyncTxId());
+
+      cluster.restartNameNode();
+      for (int i = 0; i < 4; i++) {
+        for (int j = 0; j < 25; j++) {
+          assertTrue(cluster.getFileSystem().exists(
+              new Path("/async/" + i + "/" + j)));
+        }
+      }
+    } finally {
+      executor.shutdown();
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+
+  /**
+   * With asynchronous logging, the blocks of deleted files and snapshots
+   * must only be removed once the deletion is synced.
+   */
+  @Test
+  public void testAsyncLoggingDelete() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING, true);
+    MiniDFSCluster cluster = null;
+    try {
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+      cluster.waitActive();
+      DistributedFileSystem fs = cluster.getFileSystem();
+      Path dir = new Path("/async");
+      DFSTestUtil.createFile(fs, new Path(dir, "file1"), 1024, (short) 1, 0);
+      DFSTestUtil.createFile(fs, new Path(dir, "file2"), 1024, (short) 1, 0);
+      fs.allowSnapshot(dir);
+      fs.createSnapshot(dir, "s0");
+
+      FSNamesystem fsn = cluster.getNamesystem();
+      final FSEditLog editLog = fsn.getEditLog();
+      final AtomicInteger removed = new AtomicInteger();
+      final AtomicInteger unsynced = new AtomicInteger();
+      BlockManager bm = Mockito.spy(fsn.getBlockManager());
+      Mockito.doAnswer(new Answer<Void>() {
+        @Override
+        public Void answer(InvocationOnMock invocation) throws Throwable {
+          removed.incrementAndGet();
+          if (editLog.getSyncTxId() < editLog.getLastWrittenTxId()) {
+            unsynced.incrementAndGet();
+          }
+          invocation.callRealMethod();
+          return null;
+        }
+      }).when(bm).removeBlock(Mockito.any(Block.class));
+      Whitebox.setInternalState(fsn, "blockManager", bm);
+      // hold back the syncer, so that the deletions are not synced by it
+      // before their blocks are removed
+      Object syncer = Whitebox.getInternalState(editLog, "syncer");
+      assertNotNull(syncer);
+      Whitebox.setInternalState(syncer, "pendingCalls",
+          new LinkedBlockingQueue<Server.Call>() {
+            @Override
+            public Server.Call poll(long timeout, TimeUnit unit)
+                throws InterruptedException {
+              Thread.sleep(500);
+              return super.poll(timeout, unit);
+            }
+          });
+
+      // the block of file1 is removed with the snapshot, that of file2 when
+      // the file is deleted
+      assertTrue(fs.delete(new Path(dir, "file1"), false));
+      assertEquals(0, removed.get());
+      fs.deleteSnapshot(dir, "s0");
+      assertEquals(1, removed.get());
+      assertTrue(fs.delete(new Path(dir, "file2"), false));
+      assertEquals(2, removed.get());
+      assertEquals(0, unsynced.get());
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+
+  /**
+   * With asynchronous logging, the syncer responds to its pending calls
+   * when it is interrupted.
+   */
+  @Test
+  public void testAsyncLoggingSyncerStop() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING, true);
+    MiniDFSCluster cluster = null;
+    try {
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(0).build();
+      cluster.waitActive();
+      FSEditLog editLog = cluster.getNamesystem().getEditLog();
+      Thread syncer = (Thread) Whitebox.getInternalState(editLog, "syncer");
+      assertNotNull(syncer);
+      // hold back the syncer until it is interrupted
+      final AtomicInteger polls = new AtomicInteger();
+      final LinkedBlockingQueue<Server.Call> pendingCalls =
+          new LinkedBlockingQueue<Server.Call>() {
+            @Override
+            public Server.Call poll(long timeout, TimeUnit unit)
+                throws InterruptedException {
+              if (polls.getAndIncrement() == 0) {
+                Thread.sleep(60000);
+              }
+              return super.poll(timeout, unit);
+            }
+          };
+      Whitebox.setInternalState(syncer, "pendingCalls", pendingCalls);
+      Server.Call call1 = Mockito.mock(Server.Call.class);
+      Server.Call call2 = Mockito.mock(Server.Call.class);
+      pendingCalls.add(call1);
+      pendingCalls.add(call2);
+      while (polls.get() == 0) {
+        Thread.sleep(10);
+      }
+
+      syncer.interrupt();
+      syncer.join(10000);
+      assertTrue(!syncer.isAlive());
+      Mockito.verify(call1).sendResponse();
+      Mockito.verify(call2).sendResponse();
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+
   /**
    * Test what happens with the following sequence:
    *
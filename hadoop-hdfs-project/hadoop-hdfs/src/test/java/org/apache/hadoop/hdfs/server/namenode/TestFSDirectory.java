@@ -29,6 +29,7 @@
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hdfs.protocol.NSQuotaExceededException;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.DFSTestUtil;
 import org.apache.hadoop.hdfs.DistributedFileSystem;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
@@ -94,6 +95,29 @@ public void tearDown() throws Exception {
     }
   }
 
+  /**
+   * With the compact memory layout, directory names are cached as well.
+   */
+  @Test
+  public void testCacheDirectoryNames() throws Exception {
+    cluster.shutdown();
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_COMPACT_MEMORY_LAYOUT_KEY, true);
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_NAME_CACHE_THRESHOLD_KEY, 2);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(0).build();
+    hdfs = cluster.getFileSystem();
+    for (int i = 0; i < 3; i++) {
+      hdfs.mkdirs(new Path("/dir" + i + "/sub"));
+    }
+    // the names are cached as the edits are loaded
+    cluster.restartNameNode();
+    fsdir = cluster.getNamesystem().getFSDirectory();
+    byte[] name = fsdir.getINode("/dir0/sub").getLocalNameBytes();
+    for (int i = 1; i < 3; i++) {
+      Assert.assertSame(name,
+          fsdir.getINode("/dir" + i + "/sub").getLocalNameBytes());
+    }
+  }
+
   /** Dump the tree, make some changes, and then dump the tree again. */
   @Test
   public void testDumpTree() throws Exception {
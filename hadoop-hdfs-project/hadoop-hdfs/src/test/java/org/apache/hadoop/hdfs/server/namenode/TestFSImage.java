@@ -22,6 +22,7 @@
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.EnumSet;
 
 import org.junit.Assert;
@@ -38,6 +39,8 @@
 import org.apache.hadoop.hdfs.protocol.HdfsConstants.SafeModeAction;
 import org.apache.hadoop.hdfs.server.blockmanagement.BlockInfo;
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.BlockUCState;
+import org.apache.hadoop.hdfs.server.namenode.FSImageFormatProtobuf.SectionName;
+import org.apache.hadoop.hdfs.server.namenode.FsImageProto.FileSummary;
 import org.apache.hadoop.hdfs.server.namenode.LeaseManager.Lease;
 import org.apache.hadoop.hdfs.util.MD5FileUtils;
 import org.junit.Test;
@@ -110,6 +113,100 @@ private void testPersistHelper(Configuration conf) throws IOException {
     }
   }
 
+  @Test
+  public void testParallelLoad() throws IOException {
+    Configuration conf = new Configuration();
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_KEY, 3);
+    testParallelHelper(conf);
+  }
+
+  @Test
+  public void testParallelLoadCompressed() throws IOException {
+    Configuration conf = new Configuration();
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_KEY, 3);
+    conf.setBoolean(DFSConfigKeys.DFS_IMAGE_COMPRESS_KEY, true);
+    conf.set(DFSConfigKeys.DFS_IMAGE_COMPRESSION_CODEC_KEY,
+        "org.apache.hadoop.io.compress.GzipCodec");
+    testParallelHelper(conf);
+  }
+
+  /**
+   * Sub-sections are written serially with a single thread.
+   */
+  @Test
+  public void testSubSectionsSingleThread() throws IOException {
+    Configuration conf = new Configuration();
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_KEY, 1);
+    conf.setBoolean(DFSConfigKeys.DFS_IMAGE_COMPRESS_KEY, true);
+    testParallelHelper(conf);
+  }
+
+  private void testParallelHelper(Configuration conf) throws IOException {
+    conf.setBoolean(DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY, true);
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_INODE_THRESHOLD_KEY, 1);
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_TARGET_SECTIONS_KEY, 4);
+    testPersistHelper(conf);
+
+    MiniDFSCluster cluster = null;
+    try {
+      cluster = new MiniDFSCluster.Builder(conf).build();
+      DistributedFileSystem fs = cluster.getFileSystem();
+      for (int i = 0; i < 20; i++) {
+        for (int j = 0; j < 5; j++) {
+          fs.create(new Path("/dir" + i + "/file" + j)).close();
+        }
+      }
+      fs.setSafeMode(SafeModeAction.SAFEMODE_ENTER);
+      fs.saveNamespace();
+      fs.setSafeMode(SafeModeAction.SAFEMODE_LEAVE);
+
+      File currentDir = FSImageTestUtil.getNameNodeCurrentDirs(cluster, 0).get(
+          0);
+      File fsimage = FSImageTestUtil.findNewestImageFile(currentDir
+          .getAbsolutePath());
+      RandomAccessFile raFile = new RandomAccessFile(fsimage, "r");
+      int inodeSubSections = 0, dirSubSections = 0;
+      try {
+        FileSummary summary = FSImageUtil.loadSummary(raFile);
+        for (FileSummary.Section s : summary.getSectionsList()) {
+          SectionName n = SectionName.fromString(s.getName());
+          if (n == SectionName.INODE_SUB) {
+            inodeSubSections++;
+          } else if (n == SectionName.INODE_DIR_SUB) {
+            dirSubSections++;
+          }
+        }
+      } finally {
+        raFile.close();
+      }
+      // 121 inodes, in sub-sections of 30
+      assertEquals(5, inodeSubSections);
+      assertTrue(dirSubSections > 0);
+
+      cluster.restartNameNode();
+      cluster.waitActive();
+      fs = cluster.getFileSystem();
+      assertEquals(20, fs.listStatus(new Path("/")).length);
+      for (int i = 0; i < 20; i++) {
+        assertEquals(5, fs.listStatus(new Path("/dir" + i)).length);
+      }
+      assertEquals(121, cluster.getNamesystem().dir.getINodeMap().size());
+
+      // the image loads serially as well
+      conf.setBoolean(DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY, false);
+      cluster.shutdown();
+      cluster = new MiniDFSCluster.Builder(conf).format(false).build();
+      fs = cluster.getFileSystem();
+      for (int i = 0; i < 20; i++) {
+        assertEquals(5, fs.listStatus(new Path("/dir" + i)).length);
+      }
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+
   /**
    * Ensure that the digest written by the saver equals to the digest of the
    * file.
@@ -62,6 +62,7 @@
 import org.apache.hadoop.hdfs.server.blockmanagement.BlockInfo;
 import org.apache.hadoop.hdfs.server.namenode.snapshot.Snapshot;
 import org.apache.hadoop.hdfs.server.protocol.NamenodeProtocols;
+import org.apache.hadoop.hdfs.util.ReadOnlyList;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.util.Time;
 import org.junit.Test;
@@ -179,7 +180,46 @@ public void testGetFullPathName() {
 
     assertEquals(Path.SEPARATOR, root.getFullPathName());
   }
-  
+
+  /**
+   * Children of a large directory are moved to a tree, and back to an array
+   * when it shrinks, staying in order.
+   */
+  @Test
+  public void testLargeDirectoryChildren() {
+    replication = 3;
+    preferredBlockSize = 128*1024*1024;
+    final int n = INodeDirectory.CHILDREN_TREE_THRESHOLD + 100;
+    INodeDirectory dir = new INodeDirectory(INodeId.GRANDFATHER_INODE_ID,
+        DFSUtil.string2Bytes("d"), perm, 0L);
+    List<INodeFile> files = new ArrayList<INodeFile>();
+    // add the children in reverse order, so that each goes to the front
+    for (int i = n - 1; i >= 0; i--) {
+      INodeFile f = createINodeFile(replication, preferredBlockSize);
+      f.setLocalName(DFSUtil.string2Bytes(String.format("f%06d", i)));
+      assertTrue(dir.addChild(f));
+      files.add(0, f);
+    }
+    ReadOnlyList<INode> children =
+        dir.getChildrenList(Snapshot.CURRENT_STATE_ID);
+    assertEquals(n, children.size());
+    int i = 0;
+    for (INode child : children) {
+      assertSame(files.get(i++), child);
+    }
+    assertSame(files.get(n / 2), dir.getChild(
+        files.get(n / 2).getLocalNameBytes(), Snapshot.CURRENT_STATE_ID));
+
+    for (i = 0; i < n; i += 2) {
+      assertTrue(dir.removeChild(files.get(i)));
+    }
+    children = dir.getChildrenList(Snapshot.CURRENT_STATE_ID);
+    assertEquals(n / 2, children.size());
+    for (i = 0; i < children.size(); i++) {
+      assertSame(files.get(2 * i + 1), children.get(i));
+    }
+  }
+
   /**
    * FSDirectory#unprotectedSetQuota creates a new INodeDirectoryWithQuota to
    * replace the original INodeDirectory. Before HDFS-4243, the parent field of
@@ -218,6 +218,9 @@ public void largeDelete() throws Throwable {
       createFiles();
       Assert.assertEquals(TOTAL_BLOCKS, getBlockCount());
       runThreads();
+      // only the root is left in the inode map
+      Assert.assertEquals(1,
+          mc.getNamesystem().getFSDirectory().getInodeMapSize());
     } finally {
       mc.shutdown();
     }
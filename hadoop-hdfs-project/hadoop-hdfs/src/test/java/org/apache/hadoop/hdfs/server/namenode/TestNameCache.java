@@ -20,6 +20,7 @@
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
@@ -71,6 +72,15 @@ public void testDictionary() throws Exception {
     }
   }
 
+  @Test
+  public void testPromoteKeepsFirstValue() throws Exception {
+    NameCache<String> cache = new NameCache<String>(2);
+    String first = new String("name");
+    assertNull(cache.put(first));
+    assertSame(first, cache.put(new String("name")));
+    assertSame(first, cache.put(new String("name")));
+  }
+
   private void verifyNameReuse(NameCache<String> cache, String s, boolean reused) {
     cache.put(s);
     int lookupCount = cache.getLookupCount();
@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.util;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestBTreeList {
+
+  @Test
+  public void testAppendAndGet() {
+    final int N_ELEMS = 100000;
+    BTreeList<Integer> l = new BTreeList<Integer>();
+    assertTrue(l.isEmpty());
+    for (int i = 0; i < N_ELEMS; i++) {
+      l.add(i);
+    }
+    assertEquals(N_ELEMS, l.size());
+    assertTrue(l.getHeight() > 1);
+    for (int i = 0; i < N_ELEMS; i++) {
+      assertEquals(i, (int) l.get(i));
+    }
+    int i = 0;
+    for (int fromList : l) {
+      assertEquals(i++, fromList);
+    }
+    assertEquals(N_ELEMS, i);
+    assertEquals(N_ELEMS / 2, Collections.binarySearch(l, N_ELEMS / 2));
+
+    l.clear();
+    assertTrue(l.isEmpty());
+    assertFalse(l.iterator().hasNext());
+  }
+
+  /**
+   * Apply the same random operations to a BTreeList and an ArrayList, and
+   * check that they stay equal.
+   */
+  @Test
+  public void testRandomOperations() {
+    Random random = new Random();
+    long seed = random.nextLong();
+    random.setSeed(seed);
+    for (int capacity : new int[] {4, 5, 8, BTreeList.DEFAULT_NODE_CAPACITY}) {
+      BTreeList<Integer> l = new BTreeList<Integer>(capacity);
+      List<Integer> expected = new ArrayList<Integer>();
+      for (int n = 0; n < 20000; n++) {
+        // grow the list for the first half, and shrink it for the second
+        int op = random.nextInt(10);
+        boolean growing = n < 10000;
+        if (expected.isEmpty() || (growing ? op < 6 : op < 3)) {
+          int i = random.nextInt(expected.size() + 1);
+          l.add(i, n);
+          expected.add(i, n);
+        } else if (op < 9) {
+          int i = random.nextInt(expected.size());
+          assertEquals("seed " + seed, expected.remove(i), l.remove(i));
+        } else {
+          int i = random.nextInt(expected.size());
+          assertEquals("seed " + seed, expected.set(i, n), l.set(i, n));
+        }
+        assertEquals("seed " + seed, expected.size(), l.size());
+        if (n % 1000 == 0) {
+          assertEquals("seed " + seed, expected, l);
+        }
+      }
+      assertEquals("seed " + seed, expected, l);
+      while (!l.isEmpty()) {
+        int i = random.nextInt(l.size());
+        assertEquals("seed " + seed, expected.remove(i), l.remove(i));
+      }
+      assertEquals(1, l.getHeight());
+    }
+  }
+
+  @Test
+  public void testIndexOutOfBounds() {
+    BTreeList<Integer> l = new BTreeList<Integer>();
+    l.add(0);
+    for (int i : new int[] {-1, 1}) {
+      try {
+        l.get(i);
+        fail("Got element " + i);
+      } catch (IndexOutOfBoundsException e) {
+        // expected
+      }
+    }
+    try {
+      l.add(2, 2);
+      fail("Added element 2");
+    } catch (IndexOutOfBoundsException e) {
+      // expected
+    }
+    Iterator<Integer> it = l.iterator();
+    it.next();
+    assertFalse(it.hasNext());
+  }
+}
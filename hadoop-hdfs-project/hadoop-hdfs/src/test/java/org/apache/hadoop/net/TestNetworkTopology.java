@@ -23,8 +23,14 @@
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -39,6 +45,7 @@
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.internal.util.reflection.Whitebox;
 
 public class TestNetworkTopology {
   private static final Log LOG = LogFactory.getLog(TestNetworkTopology.class);
@@ -159,6 +166,73 @@ public void testPseudoSortByDistance() throws Exception {
     assertTrue(testNodes[2] == dataNodes[3]);
   }
   
+  @Test
+  public void testTopologySnapshot() throws Exception {
+    NetworkTopology.TopologySnapshot snapshot = cluster.getSnapshot();
+    assertTrue(snapshot == cluster.getSnapshot());
+    assertEquals(dataNodes.length, snapshot.getNumOfLeaves());
+    for (int i = 0; i < dataNodes.length; i++) {
+      assertTrue(snapshot.getLeafId(dataNodes[i]) >= 0);
+    }
+    // a node outside of the cluster is resolved by walking the tree
+    DatanodeDescriptor nodeNotInMap =
+        DFSTestUtil.getDatanodeDescriptor("8.8.8.8", "/d2/r4");
+    assertEquals(-1, snapshot.getLeafId(nodeNotInMap));
+    assertFalse(cluster.isOnSameRack(dataNodes[5], nodeNotInMap));
+
+    // a topology change discards the snapshot, and the readers that find it
+    // discarded all get the same new one
+    cluster.add(nodeNotInMap);
+    try {
+      ExecutorService executor = Executors.newFixedThreadPool(4);
+      List<Future<NetworkTopology.TopologySnapshot>> futures =
+          new ArrayList<Future<NetworkTopology.TopologySnapshot>>();
+      try {
+        for (int i = 0; i < 4; i++) {
+          futures.add(executor.submit(
+              new Callable<NetworkTopology.TopologySnapshot>() {
+                @Override
+                public NetworkTopology.TopologySnapshot call() {
+                  return cluster.getSnapshot();
+                }
+              }));
+        }
+      } finally {
+        executor.shutdown();
+      }
+      NetworkTopology.TopologySnapshot newSnapshot = cluster.getSnapshot();
+      for (Future<NetworkTopology.TopologySnapshot> future : futures) {
+        assertTrue(newSnapshot == future.get());
+      }
+      assertTrue(newSnapshot.version > snapshot.version);
+      assertEquals(dataNodes.length + 1, newSnapshot.getNumOfLeaves());
+      assertEquals(4, cluster.getDistance(dataNodes[5], nodeNotInMap));
+      assertEquals(6, cluster.getDistance(dataNodes[0], nodeNotInMap));
+      assertFalse(cluster.isOnSameRack(dataNodes[5], nodeNotInMap));
+      assertEquals(nodeNotInMap,
+          cluster.chooseRandom(NodeBase.getPath(nodeNotInMap)));
+      assertEquals(nodeNotInMap, cluster.chooseRandom("/d2/r4"));
+    } finally {
+      cluster.remove(nodeNotInMap);
+    }
+    assertEquals(-1, cluster.getSnapshot().getLeafId(nodeNotInMap));
+  }
+
+  @Test
+  public void testTopologySnapshotWithStaleLeafCount() throws Exception {
+    NetworkTopology topology = new NetworkTopology();
+    for (DatanodeDescriptor node : dataNodes) {
+      topology.add(node);
+    }
+    // the leaf count of the root does not size the snapshot
+    Whitebox.setInternalState(topology.clusterMap, "numOfLeaves", 1);
+    NetworkTopology.TopologySnapshot snapshot = topology.getSnapshot();
+    assertEquals(dataNodes.length, snapshot.getNumOfLeaves());
+    for (DatanodeDescriptor node : dataNodes) {
+      assertTrue(snapshot.getLeafId(node) >= 0);
+    }
+  }
+
   @Test
   public void testRemove() throws Exception {
     for(int i=0; i<dataNodes.length; i++) {
@@ -41,6 +41,7 @@
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.HarFileSystem;
+import org.apache.hadoop.fs.HarIndex;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.io.IntWritable;
@@ -345,15 +346,11 @@ else if (fullPath.depth() > root.depth()) {
    */
   private void writeTopLevelDirs(SequenceFile.Writer srcWriter, 
       List<Path> paths, Path parentPath) throws IOException {
-    //add all the directories 
+    //add all the paths, so that files are listed as children
+    //of their parent directories too
     List<Path> justDirs = new ArrayList<Path>();
     for (Path p: paths) {
-      if (!p.getFileSystem(getConf()).isFile(p)) {
-        justDirs.add(new Path(p.toUri().getPath()));
-      }
-      else {
-        justDirs.add(new Path(p.getParent().toUri().getPath()));
-      }
+      justDirs.add(new Path(p.toUri().getPath()));
     }
     /* find all the common parents of paths that are valid archive
      * paths. The below is done so that we do not add a common path
@@ -718,9 +715,11 @@ static class HArchivesReducer implements Reducer<IntWritable,
     private long startPos = 0;
     private Path masterIndex = null;
     private Path index = null;
+    private Path binaryIndex = null;
     private FileSystem fs = null;
     private FSDataOutputStream outStream = null;
     private FSDataOutputStream indexStream = null;
+    private HarIndex.Writer binaryIndexWriter = null;
     private int numIndexes = 1000;
     private Path tmpOutputDir = null;
     private int written = 0;
@@ -732,6 +731,7 @@ public void configure(JobConf conf) {
       tmpOutputDir = FileOutputFormat.getWorkOutputPath(this.conf);
       masterIndex = new Path(tmpOutputDir, "_masterindex");
       index = new Path(tmpOutputDir, "_index");
+      binaryIndex = new Path(tmpOutputDir, HarIndex.NAME);
       try {
         fs = masterIndex.getFileSystem(conf);
         if (fs.exists(masterIndex)) {
@@ -741,6 +741,7 @@ public void configure(JobConf conf) {
           fs.delete(index, false);
         }
         indexStream = fs.create(index);
+        binaryIndexWriter = new HarIndex.Writer(fs, binaryIndex);
         outStream = fs.create(masterIndex);
         String version = VERSION + " \n";
         outStream.write(version.getBytes());
@@ -754,7 +755,8 @@ public void configure(JobConf conf) {
     // the reduce is already sorted by the hash of the 
     // files. SO we just need to write it to the index. 
     // We update the masterindex as soon as we update 
-    // numIndex entries.
+    // numIndex entries. The binary index is written in
+    // the same order, from the parsed text index lines.
     public void reduce(IntWritable key, Iterator<Text> values,
         OutputCollector<Text, Text> out,
         Reporter reporter) throws IOException {
@@ -763,6 +765,8 @@ public void reduce(IntWritable key, Iterator<Text> values,
         Text value = values.next();
         String towrite = value.toString() + "\n";
         indexStream.write(towrite.getBytes());
+        binaryIndexWriter.append(keyVal,
+            HarIndex.Entry.parse(value.toString(), VERSION));
         written++;
         if (written > numIndexes -1) {
           // every 1000 indexes we report status
@@ -789,8 +793,10 @@ public void close() throws IOException {
       // close the streams
       outStream.close();
       indexStream.close();
+      binaryIndexWriter.close();
       // try increasing the replication 
       fs.setReplication(index, (short) 5);
+      fs.setReplication(binaryIndex, (short) 5);
       fs.setReplication(masterIndex, (short) 5);
     }
     
@@ -339,8 +339,8 @@ public LogReader(Configuration conf, Path remoteAppLogFile)
       FileContext fileContext = FileContext.getFileContext(conf);
       this.fsDataIStream = fileContext.open(remoteAppLogFile);
       reader =
-          new TFile.Reader(this.fsDataIStream, fileContext.getFileStatus(
-              remoteAppLogFile).getLen(), conf);
+          new TFile.Reader(this.fsDataIStream,
+              fileContext.getFileStatus(remoteAppLogFile), conf);
       this.scanner = reader.createScanner();
     }
 